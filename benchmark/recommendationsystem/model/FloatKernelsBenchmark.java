@@ -0,0 +1,175 @@
+package recommendationsystem.model;
+
+import java.util.Random;
+
+/**
+ * FloatKernelsBenchmark times the kernels in {@link FloatKernels} against the
+ * plain loops they replaced, outside of Eclipse. Each kernel and loop runs over
+ * arrays as long as a row of the similarity matrix for a project of the given
+ * size.
+ * <p>
+ * Every loop is run a number of times to warm up the JIT before the measured
+ * runs. A checksum of every result is printed so the loops cannot be optimized
+ * away.
+ * <p>
+ * Usage: FloatKernelsBenchmark [length [repetitions]]
+ */
+public class FloatKernelsBenchmark
+{
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    private static float[] x;
+    private static float[] y;
+    private static int repetitions;
+    private static double checksum;
+
+    /**
+     * A loop to time.
+     */
+    private static abstract class Loop
+    {
+        /**
+         * Runs the loop once over the arrays.
+         */
+        abstract void run();
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The length of the arrays and the number of times each loop
+     *            runs per measurement. Each is optional.
+     */
+    public static void main(String[] args)
+    {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Random random = new Random(0L);
+        x = new float[length];
+        y = new float[length];
+        for (int i = 0; i < length; i++)
+        {
+            x[i] = random.nextFloat() * 2 - 1;
+            y[i] = random.nextFloat() * 2 - 1;
+        }
+        System.out.println(length + " floats, " + repetitions
+                + " repetitions");
+
+        run("axpy", new Loop()
+        {
+            @Override
+            void run()
+            {
+                for (int i = 0; i < x.length; i++)
+                {
+                    y[i] = x[i] * 1e-9F + y[i];
+                }
+            }
+        }, new Loop()
+        {
+            @Override
+            void run()
+            {
+                FloatKernels.axpy(1e-9F, x, 0, y, 0, x.length);
+            }
+        });
+
+        run("dot", new Loop()
+        {
+            @Override
+            void run()
+            {
+                float sum = 0;
+                for (int i = 0; i < x.length; i++)
+                {
+                    sum += x[i] * y[i];
+                }
+                checksum += sum;
+            }
+        }, new Loop()
+        {
+            @Override
+            void run()
+            {
+                checksum += FloatKernels.dot(x, y, x.length);
+            }
+        });
+
+        run("maxAbs", new Loop()
+        {
+            @Override
+            void run()
+            {
+                float max = 0;
+                for (int i = 0; i < x.length; i++)
+                {
+                    max = Math.max(max, Math.abs(x[i]));
+                }
+                checksum += max;
+            }
+        }, new Loop()
+        {
+            @Override
+            void run()
+            {
+                checksum += FloatKernels.maxAbs(x, 0, x.length);
+            }
+        });
+    }
+
+    /**
+     * Times a plain loop and the kernel that replaces it and prints both
+     * times.
+     * 
+     * @param name
+     *            The name printed for the kernel
+     * @param plain
+     *            The plain loop
+     * @param kernel
+     *            The kernel
+     */
+    private static void run(String name, Loop plain, Loop kernel)
+    {
+        double plainTime = time(plain);
+        double kernelTime = time(kernel);
+        System.out.println(String.format(
+                "%-8s plain %8.1f ms  kernel %8.1f ms  speedup %5.2fx"
+                        + "  checksum %.3f", name, plainTime, kernelTime,
+                plainTime / kernelTime, checksum));
+    }
+
+    /**
+     * Returns the best time of the measured runs of a loop, in milliseconds.
+     */
+    private static double time(Loop loop)
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+        {
+            repeat(loop);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++)
+        {
+            long start = System.nanoTime();
+            repeat(loop);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Runs a loop the given number of repetitions.
+     */
+    private static void repeat(Loop loop)
+    {
+        for (int i = 0; i < repetitions; i++)
+        {
+            loop.run();
+        }
+        checksum += y[0];
+    }
+}
@@ -0,0 +1,186 @@
+package recommendationsystem.model.pfis;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * PFISSpreadingBenchmark times spreading activation on a synthetic
+ * {@link PFISTopology}, outside of Eclipse. Word frequencies follow Zipf's law,
+ * as they do in source code, so a few words link to most methods and most
+ * words to only a few. Each query spreads from the words of a number of
+ * random methods.
+ * <p>
+ * The weights of the methods are computed by following the links of the words
+ * that were spread from on a single thread, then by summing the links of every
+ * method split over an increasing number of threads. Each way runs a number of
+ * times to warm up the JIT before the measured runs. The results are checked
+ * against each other and a checksum is printed so the runs cannot be
+ * optimized away.
+ * <p>
+ * The number of links of the words that were spread from is printed, since it
+ * is what following their links costs, while summing the links of every
+ * method always reads them all.
+ * <p>
+ * Usage: PFISSpreadingBenchmark [methods [words [wordsPerMethod [steps
+ * [threads]]]]]
+ */
+public class PFISSpreadingBenchmark
+{
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 20;
+
+    private static PFISTopology topology;
+    private static PFISActivation activation;
+    private static int[][] steps;
+    private static double checksum;
+
+    /**
+     * A way of computing the weights of the methods.
+     */
+    private static abstract class Spreading
+    {
+        /**
+         * Spreads activation once from the steps.
+         */
+        abstract void run();
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The number of methods, distinct words, words per method,
+     *            history steps and the largest number of threads. Each is
+     *            optional.
+     */
+    public static void main(String[] args)
+    {
+        int numMethods = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numWords = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int wordsPerMethod = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int numSteps = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime
+                .getRuntime().availableProcessors();
+
+        Random random = new Random(0L);
+        topology = createTopology(numMethods, numWords, wordsPerMethod, random);
+        activation = new PFISActivation(topology);
+        steps = new int[numSteps][];
+        for (int i = 0; i < numSteps; i++)
+        {
+            steps[i] = topology.getWordsOfMethod(random.nextInt(numMethods));
+        }
+        long activeLinks = topology.spreadWords(steps, steps.length,
+                activation);
+        System.out.println(numMethods + " methods, " + numWords + " words, "
+                + topology.getNumLinks() + " links, " + numSteps + " steps, "
+                + activeLinks + " links spread from");
+
+        run("push, 1 thread", new Spreading()
+        {
+            @Override
+            void run()
+            {
+                topology.spreadActivation(steps, steps.length, activation);
+            }
+        });
+        float[] expected = activation.getMethodWeights().clone();
+
+        // The number of threads doubles up to the largest number
+        for (int threads = 1; threads <= maxThreads; threads = threads
+                * 2 > maxThreads && threads < maxThreads ? maxThreads
+                : threads * 2)
+        {
+            final int numTasks = threads;
+            final ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try
+            {
+                run("pull, " + threads + " threads", new Spreading()
+                {
+                    @Override
+                    void run()
+                    {
+                        topology.spreadWords(steps, steps.length, activation);
+                        topology.pullToMethods(activation, pool, numTasks);
+                    }
+                });
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+            if (!Arrays.equals(expected, activation.getMethodWeights()))
+                System.out.println("The weights differ from a single push.");
+        }
+    }
+
+    /**
+     * Creates a topology where each method links to words drawn from a Zipf
+     * distribution.
+     */
+    private static PFISTopology createTopology(int numMethods, int numWords,
+            int wordsPerMethod, Random random)
+    {
+        String[] methodKeys = new String[numMethods];
+        for (int i = 0; i < numMethods; i++)
+        {
+            methodKeys[i] = "method" + i;
+        }
+        PFISTopology.Builder builder = new PFISTopology.Builder(methodKeys);
+        for (int i = 0; i < numWords; i++)
+        {
+            builder.addWord("word" + i);
+        }
+
+        // The cumulative probability of each word being drawn
+        double[] cumulative = new double[numWords];
+        double total = 0;
+        for (int i = 0; i < numWords; i++)
+        {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        for (int method = 0; method < numMethods; method++)
+        {
+            for (int i = 0; i < wordsPerMethod; i++)
+            {
+                int word = Arrays.binarySearch(cumulative, random.nextDouble()
+                        * total);
+                builder.addLink(word < 0 ? -word - 1 : word, method);
+            }
+        }
+        return builder.build(0);
+    }
+
+    /**
+     * Prints the best time of the measured runs of a way of spreading.
+     * 
+     * @param name
+     *            The name printed for the way of spreading
+     * @param spreading
+     *            The way of spreading
+     */
+    private static void run(String name, Spreading spreading)
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+        {
+            spreading.run();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++)
+        {
+            long start = System.nanoTime();
+            spreading.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        for (float weight : activation.getMethodWeights())
+        {
+            checksum += weight;
+        }
+        System.out.println(String.format("%-20s %8.3f ms  checksum %.1f",
+                name, best / 1e6, checksum));
+    }
+}
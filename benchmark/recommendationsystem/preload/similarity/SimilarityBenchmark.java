@@ -0,0 +1,189 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+
+/**
+ * SimilarityBenchmark times the similarity engines against each other on a
+ * synthetic corpus, outside of Eclipse. Word frequencies in the corpus follow
+ * Zipf's law, as they do in source code, so a few words are shared by most
+ * methods and most words by only a few.
+ * <p>
+ * Each engine builds the same matrix a number of times to warm up the JIT
+ * before the measured builds. A checksum of every matrix is printed so the
+ * builds cannot be optimized away, along with the largest difference from the
+ * pairwise matrix on a sample of rows.
+ * <p>
+ * Usage: SimilarityBenchmark [methods [words [wordsPerMethod [threads]]]]
+ */
+public class SimilarityBenchmark
+{
+    private static final int WARMUP_BUILDS = 2;
+    private static final int MEASURED_BUILDS = 5;
+    private static final int CHECKED_ROWS = 50;
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The number of methods, distinct words, words per method and
+     *            threads. Each is optional.
+     */
+    public static void main(String[] args)
+    {
+        int numMethods = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int numWords = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int wordsPerMethod = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+                .getRuntime().availableProcessors();
+
+        TFIDFVector[] vectors = createCorpus(numMethods, numWords,
+                wordsPerMethod, 0L);
+        System.out.println(numMethods + " methods, " + numWords + " words, "
+                + wordsPerMethod + " words per method, " + numThreads
+                + " threads");
+
+        SimilarityMatrix exact = run("Pairwise", new PairwiseSimilarityEngine(
+                numThreads), vectors, null);
+        run("Inverted index", new InvertedIndexSimilarityEngine(1F,
+                numThreads), vectors, exact);
+        run("Sparse product", new SparseProductSimilarityEngine(0F,
+                numThreads), vectors, exact);
+    }
+
+    /**
+     * Builds the matrix with an engine and prints the time taken.
+     * 
+     * @param name
+     *            The name printed for the engine
+     * @param engine
+     *            The engine to time
+     * @param vectors
+     *            The corpus
+     * @param exact
+     *            The matrix to compare the result to, or null
+     * @return The matrix of the last build
+     */
+    private static SimilarityMatrix run(String name, SimilarityEngine engine,
+            TFIDFVector[] vectors, SimilarityMatrix exact)
+    {
+        SimilarityMatrix matrix = null;
+        double checksum = 0;
+        for (int i = 0; i < WARMUP_BUILDS; i++)
+        {
+            matrix = engine.build(vectors, new NullProgressMonitor());
+            checksum += checksum(matrix);
+        }
+
+        long best = Long.MAX_VALUE, total = 0;
+        for (int i = 0; i < MEASURED_BUILDS; i++)
+        {
+            long start = System.nanoTime();
+            matrix = engine.build(vectors, new NullProgressMonitor());
+            long time = System.nanoTime() - start;
+            checksum += checksum(matrix);
+            best = Math.min(best, time);
+            total += time;
+        }
+
+        System.out.println(String.format(
+                "%-16s mean %8.1f ms  best %8.1f ms  checksum %.3f", name,
+                total / 1e6 / MEASURED_BUILDS, best / 1e6, checksum));
+        if (exact != null)
+            System.out.println(String.format("%-16s max difference %.2e", "",
+                    maxDifference(exact, matrix)));
+        return matrix;
+    }
+
+    /**
+     * Creates a random corpus whose word ids are drawn from a Zipf
+     * distribution, so word 0 is the most common.
+     * 
+     * @param numMethods
+     *            The number of vectors
+     * @param numWords
+     *            The number of distinct words
+     * @param wordsPerMethod
+     *            The number of words drawn for each method
+     * @param seed
+     *            The random seed
+     * @return The vectors
+     */
+    private static TFIDFVector[] createCorpus(int numMethods, int numWords,
+            int wordsPerMethod, long seed)
+    {
+        Random random = new Random(seed);
+        double[] cumulative = new double[numWords];
+        double sum = 0;
+        for (int word = 0; word < numWords; word++)
+        {
+            sum += 1.0 / (word + 1);
+            cumulative[word] = sum;
+        }
+
+        // The weights are word counts scaled by how rare the word is, the
+        // same way TF-IDF weights are
+        TFIDFVector[] vectors = new TFIDFVector[numMethods];
+        int[] termIds = new int[wordsPerMethod];
+        float[] weights = new float[wordsPerMethod];
+        for (int m = 0; m < numMethods; m++)
+        {
+            for (int i = 0; i < wordsPerMethod; i++)
+            {
+                int word = Arrays.binarySearch(cumulative,
+                        random.nextDouble() * sum);
+                termIds[i] = word >= 0 ? word : -word - 1;
+                weights[i] = (float) Math.log(1 + termIds[i]) + 1;
+            }
+            vectors[m] = new TFIDFVector(termIds, weights, wordsPerMethod);
+        }
+        return vectors;
+    }
+
+    /**
+     * Sums every score of the matrix.
+     */
+    private static double checksum(SimilarityMatrix matrix)
+    {
+        int size = matrix.getSize();
+        float[] row = new float[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++)
+        {
+            matrix.getRow(i, row);
+            for (int j = 0; j < size; j++)
+            {
+                sum += row[j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the largest difference between the two matrices on the first
+     * rows.
+     */
+    private static double maxDifference(SimilarityMatrix expected,
+            SimilarityMatrix actual)
+    {
+        int size = expected.getSize();
+        float[] expectedRow = new float[size];
+        float[] actualRow = new float[size];
+        double max = 0;
+        for (int i = 0; i < Math.min(CHECKED_ROWS, size); i++)
+        {
+            expected.getRow(i, expectedRow);
+            actual.getRow(i, actualRow);
+            for (int j = 0; j < size; j++)
+            {
+                max = Math.max(max, Math.abs(expectedRow[j] - actualRow[j]));
+            }
+        }
+        return max;
+    }
+}
@@ -1,6 +1,7 @@
 package recommendationsystem;
 
 import recommendationsystem.controllers.ModelManager;
+import recommendationsystem.listeners.JavaFileChangeListener;
 import recommendationsystem.listeners.SelectionListener;
 
 public class RecommendationSystem
@@ -26,6 +27,7 @@ public class RecommendationSystem
     {
         System.out.println("Initializing plug-in...");
         SelectionListener.getInstance().register();
+        JavaFileChangeListener.getInstance().register();
         ModelManager.getInstance().reset();
     }
 }
@@ -1,5 +1,6 @@
 package recommendationsystem.controllers;
 
+import java.io.File;
 import java.sql.SQLException;
 
 import org.eclipse.core.resources.IFile;
@@ -18,9 +19,13 @@ import recommendationsystem.logging.ErrorLogger;
 import recommendationsystem.logging.MyLogger;
 import recommendationsystem.model.CurrentMethodList;
 import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.ModelBundle;
+import recommendationsystem.model.RecommendationCache;
+import recommendationsystem.model.ScopeFilter;
 import recommendationsystem.model.pfis.PFISMatrix;
 import recommendationsystem.model.tfidf.TFIDFMatrix;
 import recommendationsystem.preferences.MyPreferences;
+import recommendationsystem.preload.jobs.BundleLoadJob;
 import recommendationsystem.preload.jobs.PFISLoadJob;
 import recommendationsystem.preload.jobs.TFIDFLoadJob;
 import recommendationsystem.views.RecommendationSystemView;
@@ -64,6 +69,7 @@ public class ModelManager
     private boolean historyEnabled;
     private boolean wordsEnabled;
     private int numRecommendations;
+    private ScopeFilter scopeFilter;
 
     /**
      * The singleton constructor.
@@ -109,6 +115,7 @@ public class ModelManager
         eLog = ErrorLogger.getInstance();
         this.type = ModelType.TFIDF;
         numRecommendations = 10;
+        scopeFilter = ScopeFilter.NONE;
     }
 
     /**
@@ -119,6 +126,9 @@ public class ModelManager
      * Note that this is a reset of the ModelManager, not of the models
      * themselves. We want to preserve history since this can be potentially
      * called mid-experiment.
+     * <p>
+     * If the file to load the model from is a {@link ModelBundle}, only the
+     * selected model is loaded from it.
      */
     public void reset()
     {
@@ -135,6 +145,8 @@ public class ModelManager
         {
             eLog.logException(e);
         }
+        // The cues of cached recommendations came from the old connection
+        RecommendationCache.getInstance().clear();
 
         // If the PFIS model is selected
         if (prefs.PFISSelected())
@@ -147,8 +159,12 @@ public class ModelManager
             if (prefs.loadModelFromSpecifiedPath())
             {
                 System.out.println("Loading PFIS Matrix from file...");
-                new PFISLoadJob("PFIS Load", prefs.getPathToLoadModelFrom()
-                        .toOSString()).schedule();
+                String path = prefs.getPathToLoadModelFrom().toOSString();
+                if (ModelBundle.isBundle(new File(path)))
+                    new BundleLoadJob("PFIS Load", path, ModelType.PFIS)
+                            .schedule();
+                else
+                    new PFISLoadJob("PFIS Load", path).schedule();
             }
         }
         // If the TF-IDF model is selected
@@ -162,13 +178,18 @@ public class ModelManager
             if (prefs.loadModelFromSpecifiedPath())
             {
                 System.out.println("Loading TF-IDF Matrix from file...");
-                new TFIDFLoadJob("TF-IDF Load", prefs.getPathToLoadModelFrom()
-                        .toOSString()).schedule();
+                String path = prefs.getPathToLoadModelFrom().toOSString();
+                if (ModelBundle.isBundle(new File(path)))
+                    new BundleLoadJob("TF-IDF Load", path, ModelType.TFIDF)
+                            .schedule();
+                else
+                    new TFIDFLoadJob("TF-IDF Load", path).schedule();
             }
         }
         historyEnabled = prefs.historyEnabled();
         wordsEnabled = prefs.wordsEnabled();
         numRecommendations = prefs.getNumberOfRecommendationsToDisplay();
+        scopeFilter = prefs.getScopeFilter();
     }
 
     /**
@@ -217,6 +238,16 @@ public class ModelManager
         return numRecommendations;
     }
 
+    /**
+     * Returns the scope the models restrict their recommendations to.
+     * 
+     * @return The scope filter
+     */
+    public ScopeFilter getScopeFilter()
+    {
+        return scopeFilter;
+    }
+
     /**
      * Sets whether history should be used in recommendations.
      * 
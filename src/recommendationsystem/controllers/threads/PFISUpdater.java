@@ -4,9 +4,14 @@ import org.eclipse.swt.widgets.Display;
 
 import recommendationsystem.controllers.DbManager;
 import recommendationsystem.controllers.ModelManager;
+import recommendationsystem.controllers.ModelManager.ModelType;
 import recommendationsystem.logging.MyLogger;
 import recommendationsystem.model.CurrentRecommendations;
+import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.RecommendationCache;
+import recommendationsystem.model.ScopeFilter;
 import recommendationsystem.model.pfis.PFISMatrix;
+import recommendationsystem.model.pfis.PFISTopology;
 import recommendationsystem.views.RecommendationSystemView;
 
 /**
@@ -15,6 +20,10 @@ import recommendationsystem.views.RecommendationSystemView;
  * {@link CurrentRecommendations}. At the end of execution, the list of
  * recommendations has been refreshed including the GUI.
  * <p>
+ * Recommendations and their cues are looked up in the
+ * {@link RecommendationCache} first, and only calculated if they are not
+ * there.
+ * <p>
  * PFISUpdater is meant to be called using {@link PFISThreadDispatcher}.
  * <p>
  * PFISUpdater is a singleton class. Call <code>getInstance()</code> to use it.
@@ -30,6 +39,7 @@ public class PFISUpdater
     private PFISMatrix pfisMatrix;
     private CurrentRecommendations currentRecs;
     private ModelManager modelManager;
+    private RecommendationCache cache;
 
     /**
      * The singleton constructor.
@@ -73,6 +83,7 @@ public class PFISUpdater
         pfisMatrix = PFISMatrix.getInstance();
         currentRecs = CurrentRecommendations.getInstance();
         modelManager = ModelManager.getInstance();
+        cache = RecommendationCache.getInstance();
     }
 
     /**
@@ -104,25 +115,46 @@ public class PFISUpdater
         // Run PFIS model with new history
         pfisMatrix.addToHistory(methodKey);
 
+        boolean historyEnabled = modelManager.getHistoryEnabled();
+        boolean wordsEnabled = modelManager.getWordsEnabled();
+        int numRecommendations = modelManager.getNumberOfRecommendations();
+        int numToSpreadFrom = historyEnabled ? 10 : 1;
+        ScopeFilter scope = modelManager.getScopeFilter();
+
+        // Look for the recommendations in the cache, keyed by the topology and
+        // the history steps activation spreads from
+        PFISTopology topology = pfisMatrix.getTopology();
+        RecommendationCache.Key cacheKey = new RecommendationCache.Key(
+                ModelType.PFIS, topology.getTopologyVersion(), MethodHistory
+                        .getInstance().getUniqueVisitedMethods().size(),
+                methodKey, topology.getHistoryWindow(numToSpreadFrom),
+                historyEnabled, numRecommendations, wordsEnabled, scope);
+        RecommendationCache.Entry cached = cache.get(cacheKey);
+
         String[] newRecs = null;
-        if (modelManager.getHistoryEnabled())
+        if (cached != null)
+        {
+            newRecs = cached.getRecommendations();
+        }
+        else if (historyEnabled)
         {
             System.out.println("PFIS with history called");
             newRecs = pfisMatrix.getTopNRecommendations(methodKey,
-                    modelManager.getNumberOfRecommendations(), 10);
+                    numRecommendations, numToSpreadFrom, scope);
         }
         else
         {
             System.out.println("PFIS without history called");
             newRecs = pfisMatrix.getTopNRecommendations(methodKey,
-                    modelManager.getNumberOfRecommendations(), 1);
+                    numRecommendations, numToSpreadFrom, scope);
         }
-        String[][] cues = new String[newRecs.length][];
+        String[][] cues = cached != null && cached.getCues() != null ? cached
+                .getCues() : new String[newRecs.length][];
 
         int methodId = 0, i = 0;
 
         // Iterate over method keys and get cues for that key
-        if (modelManager.getWordsEnabled())
+        if (wordsEnabled)
         {
             for (String key : newRecs)
             {
@@ -130,10 +162,13 @@ public class PFISUpdater
                     break;
 
                 log.logRecommendation(key, i);
-                methodId = dbManager.getMethodIdFromMethodKey(key);
-                // TODO: This is not the correct list of words
-                // cues[i] = dbManager.getMostCommonWordsPFIS(methodId);
-                cues[i] = dbManager.getMostCommonWordsPFIS2(methodId);
+                if (cached == null)
+                {
+                    methodId = dbManager.getMethodIdFromMethodKey(key);
+                    // TODO: This is not the correct list of words
+                    // cues[i] = dbManager.getMostCommonWordsPFIS(methodId);
+                    cues[i] = dbManager.getMostCommonWordsPFIS2(methodId);
+                }
 
                 log.logWords(cues[i]);
                 i++;
@@ -155,6 +190,11 @@ public class PFISUpdater
         }
         currentRecs.setRecommendations(newRecs);
 
+        // Only cache the recommendations if the topology did not change while
+        // they were calculated
+        if (cached == null && pfisMatrix.getTopology() == topology)
+            cache.put(cacheKey, newRecs, wordsEnabled ? cues : null);
+
         // We can't update the view from this thread, so we have to tap into
         // the GUI thread and update from there.
         Display.getDefault().asyncExec(new Runnable()
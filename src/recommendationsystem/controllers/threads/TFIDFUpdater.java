@@ -4,9 +4,14 @@ import org.eclipse.swt.widgets.Display;
 
 import recommendationsystem.controllers.DbManager;
 import recommendationsystem.controllers.ModelManager;
+import recommendationsystem.controllers.ModelManager.ModelType;
 import recommendationsystem.logging.MyLogger;
 import recommendationsystem.model.CurrentRecommendations;
+import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.RecommendationCache;
+import recommendationsystem.model.ScopeFilter;
 import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModel;
 import recommendationsystem.views.RecommendationSystemView;
 
 /**
@@ -15,6 +20,10 @@ import recommendationsystem.views.RecommendationSystemView;
  * {@link CurrentRecommendations}. At the end of execution, the list of
  * recommendations has been refreshed including the GUI.
  * <p>
+ * Recommendations and their cues are looked up in the
+ * {@link RecommendationCache} first, and only calculated if they are not
+ * there.
+ * <p>
  * TFIDFUpdater is meant to be called using {@link TFIDFThreadDispatcher}.
  * <p>
  * TFIDFUpdater is a singleton class. Call <code>getInstance()</code> to use it.
@@ -30,6 +39,7 @@ public class TFIDFUpdater
     private TFIDFMatrix tfidfMatrix;
     private CurrentRecommendations currentRecs;
     private ModelManager modelManager;
+    private RecommendationCache cache;
 
     /**
      * The singleton constructor.
@@ -73,6 +83,7 @@ public class TFIDFUpdater
         tfidfMatrix = TFIDFMatrix.getInstance();
         currentRecs = CurrentRecommendations.getInstance();
         modelManager = ModelManager.getInstance();
+        cache = RecommendationCache.getInstance();
     }
 
     /**
@@ -101,42 +112,75 @@ public class TFIDFUpdater
 
         log.logCurrentLocation(methodKey);
 
+        boolean historyEnabled = modelManager.getHistoryEnabled();
+        boolean wordsEnabled = modelManager.getWordsEnabled();
+        int numRecommendations = modelManager.getNumberOfRecommendations();
+        int numHistorySteps = historyEnabled ? 10 : 1;
+        ScopeFilter scope = modelManager.getScopeFilter();
+
+        // Look for the recommendations in the cache, keyed by the snapshot of
+        // the model and the history steps it combines
+        TFIDFModel model = tfidfMatrix.getModel();
+        RecommendationCache.Key cacheKey = null;
+        RecommendationCache.Entry cached = null;
+        if (model != null)
+        {
+            cacheKey = new RecommendationCache.Key(ModelType.TFIDF,
+                    model.getVersion(), MethodHistory.getInstance()
+                            .getUniqueVisitedMethods().size(), methodKey,
+                    tfidfMatrix.getHistoryWindow(model, numHistorySteps),
+                    historyEnabled, numRecommendations, wordsEnabled, scope);
+            cached = cache.get(cacheKey);
+        }
+
         // Run TFIDF model with new history
         String[] newRecs = null;
-        if (modelManager.getHistoryEnabled())
+        if (cached != null)
+        {
+            newRecs = cached.getRecommendations();
+        }
+        else if (historyEnabled)
         {
             System.out.println("TFIDF with history called");
             newRecs = tfidfMatrix.getTopNRecommendations2HalfAndHalf(methodKey,
-                    modelManager.getNumberOfRecommendations(), 10);
+                    numRecommendations, numHistorySteps, scope);
             // newRecs = tfidfMatrix.getTopNRecommendations2(methodKey,
-            // modelManager.getNumberOfRecommendations(), 10);
+            // numRecommendations, numHistorySteps);
         }
         else
         {
             System.out.println("TFIDF without history called");
             newRecs = tfidfMatrix.getTopNRecommendations2HalfAndHalf(methodKey,
-                    modelManager.getNumberOfRecommendations(), 1);
+                    numRecommendations, numHistorySteps, scope);
             // newRecs = tfidfMatrix.getTopNRecommendations(methodKey,
-            // modelManager.getNumberOfRecommendations());
+            // numRecommendations);
         }
-        String[][] cues = new String[newRecs.length][];
+        String[][] cues = cached != null && cached.getCues() != null ? cached
+                .getCues() : new String[newRecs.length][];
 
-        int currentMethodId = dbManager.getMethodIdFromMethodKey(methodKey);
-        int methodId = 0, i = 0;
+        int currentMethodId = 0, methodId = 0, i = 0;
+
+        // Only the cues of recommendations that were not cached are looked up
+        if (wordsEnabled && cached == null)
+            currentMethodId = dbManager.getMethodIdFromMethodKey(methodKey);
 
         // Iterate over method keys and get cues for that key
-        if (modelManager.getWordsEnabled())
+        if (wordsEnabled)
         {
             for (String key : newRecs)
             {
                 if (key == null)
                     break;
                 log.logRecommendation(key, i);
-                methodId = dbManager.getMethodIdFromMethodKey(key);
-                // cues[i] = dbManager.getMostCommonWordsTFIDF(currentMethodId,
-                // methodId);
-                cues[i] = dbManager.getMostCommonWordsTFIDF2(currentMethodId,
-                        methodId);
+                if (cached == null)
+                {
+                    methodId = dbManager.getMethodIdFromMethodKey(key);
+                    // cues[i] =
+                    // dbManager.getMostCommonWordsTFIDF(currentMethodId,
+                    // methodId);
+                    cues[i] = dbManager.getMostCommonWordsTFIDF2(
+                            currentMethodId, methodId);
+                }
                 log.logWords(cues[i]);
                 i++;
             }
@@ -157,6 +201,12 @@ public class TFIDFUpdater
         }
         currentRecs.setRecommendations(newRecs);
 
+        // Only cache the recommendations if the model did not change while
+        // they were calculated
+        if (cached == null && cacheKey != null
+                && tfidfMatrix.getModel() == model)
+            cache.put(cacheKey, newRecs, wordsEnabled ? cues : null);
+
         // We can't update the view from this thread, so we have to tap into the
         // GUI thread and update from there.
         Display.getDefault().asyncExec(new Runnable()
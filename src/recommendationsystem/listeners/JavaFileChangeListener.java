@@ -0,0 +1,133 @@
+package recommendationsystem.listeners;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.JavaCore;
+
+import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.preferences.MyPreferences;
+import recommendationsystem.preload.jobs.TFIDFUpdateJob;
+
+/**
+ * JavaFileChangeListener reacts to source files being saved, added or removed
+ * in the workspace. Each changed file is queued on a {@link TFIDFUpdateJob},
+ * which updates the methods of the file in {@link TFIDFMatrix}. The job waits
+ * a short moment before it runs so that files saved together are updated
+ * together.
+ * <p>
+ * JavaFileChangeListener is a singleton class. Call <code>getInstance()</code>
+ * to use it.
+ */
+public class JavaFileChangeListener implements IResourceChangeListener
+{
+    private static final long UPDATE_DELAY = 500;
+
+    private static JavaFileChangeListener instance;
+    private TFIDFUpdateJob updateJob;
+
+    /**
+     * The singleton constructor.
+     */
+    private JavaFileChangeListener()
+    {
+        // JavaFileChangeListener is a singleton class. Do not put anything
+        // here.
+    }
+
+    /**
+     * Get the instance of JavaFileChangeListener.
+     * 
+     * @return A singleton instance of JavaFileChangeListener
+     */
+    public static synchronized JavaFileChangeListener getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new JavaFileChangeListener();
+            instance.init();
+        }
+        return instance;
+    }
+
+    /**
+     * JavaFileChangeListener is singleton. Don't allow clones.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Initializes the private class variables used.
+     */
+    private void init()
+    {
+        updateJob = new TFIDFUpdateJob("TF-IDF Update");
+    }
+
+    /**
+     * Fires after resources in the workspace have changed. Java files whose
+     * content changed, or that were added or removed, are queued on the
+     * update job. Nothing is queued if no TF-IDF model is in memory or
+     * updating is turned off in the preferences.
+     */
+    @Override
+    public void resourceChanged(IResourceChangeEvent event)
+    {
+        if (event.getDelta() == null
+                || !MyPreferences.getInstance().updateModelOnEdit()
+                || TFIDFMatrix.getInstance().getCosineSimilarityMatrix() == null)
+            return;
+
+        final boolean[] queued = new boolean[1];
+        try
+        {
+            event.getDelta().accept(new IResourceDeltaVisitor()
+            {
+                @Override
+                public boolean visit(IResourceDelta delta)
+                {
+                    IResource resource = delta.getResource();
+                    if (resource.getType() != IResource.FILE
+                            || !JavaCore.isJavaLikeFileName(resource.getName()))
+                        return true;
+
+                    if (delta.getKind() == IResourceDelta.ADDED
+                            || delta.getKind() == IResourceDelta.REMOVED
+                            || (delta.getKind() == IResourceDelta.CHANGED && (delta
+                                    .getFlags() & IResourceDelta.CONTENT) != 0))
+                    {
+                        updateJob.addFile((IFile) resource);
+                        queued[0] = true;
+                    }
+                    return true;
+                }
+            });
+        }
+        catch (CoreException e)
+        {
+            ErrorLogger.getInstance().logException(e);
+        }
+
+        if (queued[0])
+            updateJob.schedule(UPDATE_DELAY);
+    }
+
+    /**
+     * Registers this listener with the workspace. This should be called only
+     * once.
+     */
+    public void register()
+    {
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(this,
+                IResourceChangeEvent.POST_CHANGE);
+    }
+}
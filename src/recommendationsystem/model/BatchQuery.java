@@ -0,0 +1,124 @@
+package recommendationsystem.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * BatchQuery is a single query of a batch of recommendations: a current method
+ * together with the history that led to it. Unlike the queries the plug-in
+ * makes while the user navigates, a batch query does not read
+ * {@link MethodHistory}, so any number of them can be scored at once, for
+ * example to replay the navigations of a study log.
+ * <p>
+ * Two queries are equal if every part of them is equal, and a batch only
+ * scores equal queries once.
+ */
+public class BatchQuery
+{
+    private String methodKey;
+    private List<String> history;
+    private int numRecommendations;
+    private int numHistorySteps;
+    private Set<String> uniqueVisited;
+
+    /**
+     * The constructor.
+     * 
+     * @param methodKey
+     *            The current method's key
+     * @param history
+     *            The keys of the visited methods, oldest first, ending with
+     *            the current method. Like in MethodHistory, visiting the same
+     *            method twice in a row is a single step. The list must not be
+     *            changed afterwards.
+     * @param numRecommendations
+     *            The number of recommendations
+     * @param numHistorySteps
+     *            The number of steps in the history to consider
+     */
+    public BatchQuery(String methodKey, List<String> history,
+            int numRecommendations, int numHistorySteps)
+    {
+        this.methodKey = methodKey;
+        this.history = Collections.unmodifiableList(history);
+        this.numRecommendations = numRecommendations;
+        this.numHistorySteps = numHistorySteps;
+    }
+
+    /**
+     * Returns the current method's key.
+     * 
+     * @return The method key
+     */
+    public String getMethodKey()
+    {
+        return methodKey;
+    }
+
+    /**
+     * Returns the keys of the visited methods.
+     * 
+     * @return The method keys, oldest first
+     */
+    public List<String> getHistory()
+    {
+        return history;
+    }
+
+    /**
+     * Returns the methods that appear anywhere in the history.
+     * 
+     * @return The set of unique method keys
+     */
+    public synchronized Set<String> getUniqueVisitedMethods()
+    {
+        if (uniqueVisited == null)
+            uniqueVisited = Collections.unmodifiableSet(new HashSet<String>(
+                    history));
+        return uniqueVisited;
+    }
+
+    /**
+     * Returns the number of recommendations to return.
+     * 
+     * @return The number of recommendations
+     */
+    public int getNumRecommendations()
+    {
+        return numRecommendations;
+    }
+
+    /**
+     * Returns the number of steps in the history to consider.
+     * 
+     * @return The number of history steps
+     */
+    public int getNumHistorySteps()
+    {
+        return numHistorySteps;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof BatchQuery))
+            return false;
+        BatchQuery other = (BatchQuery) o;
+        return methodKey.equals(other.methodKey)
+                && history.equals(other.history)
+                && numRecommendations == other.numRecommendations
+                && numHistorySteps == other.numHistorySteps;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = methodKey.hashCode();
+        hash = 31 * hash + history.hashCode();
+        hash = 31 * hash + numRecommendations;
+        hash = 31 * hash + numHistorySteps;
+        return hash;
+    }
+}
@@ -0,0 +1,148 @@
+package recommendationsystem.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+/**
+ * BatchScorer scores a batch of {@link BatchQuery} objects on a
+ * {@link WorkerPool}. It is extended by the models, which decide how a block
+ * of queries is scored.
+ * <p>
+ * Equal queries are only scored once. The remaining queries are split into
+ * blocks of consecutive queries, which the workers take one at a time. Each
+ * worker keeps its own scratch buffers from one block to the next, and can
+ * share work between the queries of a block. Consecutive queries of a replayed
+ * log share most of their history, so keeping them together in a block lets a
+ * worker read each history method's scores only once.
+ */
+public abstract class BatchScorer
+{
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Worker scores blocks of queries. A worker is only used by one thread.
+     */
+    public interface Worker
+    {
+        /**
+         * Returns the recommendations of each query of the block.
+         * 
+         * @param block
+         *            The queries to score
+         * @return The method keys recommended for each query, best first, in
+         *         the order of the block
+         */
+        String[][] recommend(List<BatchQuery> block);
+    }
+
+    /**
+     * Creates a worker with its own scratch buffers.
+     * 
+     * @return A new worker
+     */
+    protected abstract Worker createWorker();
+
+    /**
+     * Scores the given queries.
+     * 
+     * @param queries
+     *            The queries to score
+     * @param numThreads
+     *            The number of threads to score on
+     * @return <ul>
+     *         <li>The method keys recommended for each query, best first, in
+     *         the order of the queries
+     *         <li>null if the thread was interrupted
+     *         </ul>
+     */
+    public String[][] score(List<BatchQuery> queries, int numThreads)
+    {
+        // Equal queries are only scored once
+        List<BatchQuery> distinct = new ArrayList<BatchQuery>();
+        Map<BatchQuery, Integer> positions = new HashMap<BatchQuery, Integer>(
+                2 * queries.size());
+        int[] slots = new int[queries.size()];
+        for (int i = 0; i < slots.length; i++)
+        {
+            Integer position = positions.get(queries.get(i));
+            if (position == null)
+            {
+                position = distinct.size();
+                positions.put(queries.get(i), position);
+                distinct.add(queries.get(i));
+            }
+            slots[i] = position;
+        }
+
+        String[][] results = new String[distinct.size()][];
+        int numBlocks = (distinct.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        BlockTask task = new BlockTask(distinct, results);
+        int numWorkers = Math.min(Math.max(1, numThreads), numBlocks);
+        if (numWorkers <= 1)
+        {
+            task.call();
+        }
+        else if (!WorkerPool.runTasks("Batch scoring worker", numWorkers,
+                Collections.nCopies(numWorkers, task), distinct.size(), 0,
+                new NullProgressMonitor()))
+        {
+            return null;
+        }
+
+        String[][] rv = new String[slots.length][];
+        for (int i = 0; i < slots.length; i++)
+        {
+            rv[i] = results[slots[i]];
+        }
+        return rv;
+    }
+
+    /**
+     * BlockTask takes blocks of queries until every block is scored. The
+     * same task is run on every thread, each with its own worker.
+     */
+    private class BlockTask implements Callable<Long>
+    {
+        private List<BatchQuery> queries;
+        private String[][] results;
+        private int numBlocks;
+        private AtomicInteger nextBlock;
+
+        private BlockTask(List<BatchQuery> queries, String[][] results)
+        {
+            this.queries = queries;
+            this.results = results;
+            numBlocks = (queries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            nextBlock = new AtomicInteger();
+        }
+
+        /**
+         * Scores blocks until none is left, and returns the number of
+         * queries scored.
+         */
+        @Override
+        public Long call()
+        {
+            Worker worker = createWorker();
+            int block;
+            long scored = 0;
+            while ((block = nextBlock.getAndIncrement()) < numBlocks)
+            {
+                int from = block * BLOCK_SIZE;
+                int to = Math.min(queries.size(), from + BLOCK_SIZE);
+                String[][] recommended = worker.recommend(queries.subList(
+                        from, to));
+                System.arraycopy(recommended, 0, results, from, to - from);
+                scored += to - from;
+            }
+            return scored;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package recommendationsystem.model;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CandidateScopes keeps the methods of a model snapshot that belong to each
+ * scope a {@link ScopeFilter} can restrict the recommendations to. A filter is
+ * turned into a BitSet over the method ids of the snapshot's
+ * {@link MethodKeyIndex} by and-ing a few sets, so the top N selection only
+ * has to test one bit per method.
+ * <p>
+ * A snapshot can have thousands of packages, so the methods of each package
+ * are kept as a sorted array of ids, which only takes as much memory as the
+ * package has methods. The other sets are BitSets that only grow as far as the
+ * highest id they hold.
+ * <p>
+ * The sets are built once, when the snapshot is published, from the scope
+ * attributes {@link MethodScopes} recorded while the methods were indexed:
+ * <ul>
+ * <li>The methods of each project.
+ * <li>The methods of each package. A package prefix is the union of the
+ * packages that start with it, which is remembered the first time it is used.
+ * <li>The methods that are not private.
+ * <li>The methods that are not test code.
+ * </ul>
+ * Methods whose project is not known belong to every project.
+ * <p>
+ * CandidateScopes is immutable apart from the remembered prefixes, and may be
+ * used by any number of threads.
+ */
+public class CandidateScopes
+{
+    private MethodKeyIndex methodKeys;
+    private String[] projects;
+    private String[] packages;
+    private BitSet nonPrivate;
+    private BitSet nonTest;
+    private BitSet unknownProject;
+    private Map<String, BitSet> projectMethods;
+    private Map<String, int[]> packageMethods;
+    private Map<String, BitSet> prefixMethods;
+
+    /**
+     * The constructor.
+     * 
+     * @param methodKeys
+     *            The method key index of the snapshot
+     * @param projects
+     *            The project of each method, or null where it is not known
+     * @param packages
+     *            The package of each method, or null for removed methods
+     * @param nonPrivate
+     *            The methods that are not private
+     * @param nonTest
+     *            The methods that are not test code
+     */
+    public CandidateScopes(MethodKeyIndex methodKeys, String[] projects,
+            String[] packages, BitSet nonPrivate, BitSet nonTest)
+    {
+        this.methodKeys = methodKeys;
+        this.projects = projects;
+        this.packages = packages;
+        this.nonPrivate = nonPrivate;
+        this.nonTest = nonTest;
+
+        unknownProject = new BitSet();
+        projectMethods = new HashMap<String, BitSet>();
+        packageMethods = new HashMap<String, int[]>();
+        prefixMethods = new HashMap<String, BitSet>();
+
+        // Count the methods of each package, so each array of ids is
+        // allocated once. The count is then reused as the fill position.
+        Map<String, int[]> fill = new HashMap<String, int[]>();
+        for (String name : packages)
+        {
+            if (name == null)
+                continue;
+            int[] count = fill.get(name);
+            if (count == null)
+            {
+                count = new int[1];
+                fill.put(name, count);
+            }
+            count[0]++;
+        }
+
+        for (int i = 0; i < packages.length; i++)
+        {
+            if (packages[i] == null)
+                continue;
+            if (projects[i] == null)
+                unknownProject.set(i);
+            else
+                getProjectSet(projects[i]).set(i);
+
+            int[] position = fill.get(packages[i]);
+            int[] ids = packageMethods.get(packages[i]);
+            if (ids == null)
+            {
+                ids = new int[position[0]];
+                packageMethods.put(packages[i], ids);
+                position[0] = 0;
+            }
+            ids[position[0]++] = i;
+        }
+    }
+
+    /**
+     * Returns the methods of the given project, adding an empty set if there
+     * is none.
+     */
+    private BitSet getProjectSet(String project)
+    {
+        BitSet set = projectMethods.get(project);
+        if (set == null)
+        {
+            set = new BitSet();
+            projectMethods.put(project, set);
+        }
+        return set;
+    }
+
+    /**
+     * Sets the bits of the given ids.
+     */
+    private static void setAll(BitSet set, int[] ids)
+    {
+        for (int id : ids)
+        {
+            set.set(id);
+        }
+    }
+
+    /**
+     * Returns the methods that may be recommended from the given method.
+     * 
+     * @param filter
+     *            The scope to restrict the recommendations to
+     * @param methodKey
+     *            The current method's key, which decides the project and
+     *            package of the filter
+     * @return <ul>
+     *         <li>The ids of the methods that may be recommended. The set
+     *         must not be modified.
+     *         <li>null if every method may be recommended
+     *         </ul>
+     */
+    public BitSet getCandidates(ScopeFilter filter, String methodKey)
+    {
+        if (filter.isEmpty())
+            return null;
+
+        BitSet candidates = new BitSet(packages.length);
+        candidates.set(0, packages.length);
+        int current = methodKeys.getId(methodKey);
+
+        // The project of a method that is not in the model is not known
+        if (filter.sameProject() && current > -1 && projects[current] != null)
+        {
+            BitSet project = (BitSet) unknownProject.clone();
+            BitSet known = projectMethods.get(projects[current]);
+            if (known != null)
+                project.or(known);
+            candidates.and(project);
+        }
+        if (filter.samePackage())
+        {
+            String currentPackage = current > -1 && packages[current] != null
+                    ? packages[current] : MethodScopes.getPackage(methodKey);
+            int[] samePackage = packageMethods.get(currentPackage);
+            BitSet inPackage = new BitSet();
+            if (samePackage != null)
+                setAll(inPackage, samePackage);
+            candidates.and(inPackage);
+        }
+        if (filter.getPackagePrefix().length() > 0)
+            candidates.and(getPrefixSet(filter.getPackagePrefix()));
+        if (filter.excludePrivate())
+            candidates.and(nonPrivate);
+        if (filter.excludeTests())
+            candidates.and(nonTest);
+        return candidates;
+    }
+
+    /**
+     * Returns the methods of every package that is the given package or one
+     * of its subpackages.
+     */
+    private synchronized BitSet getPrefixSet(String prefix)
+    {
+        BitSet set = prefixMethods.get(prefix);
+        if (set == null)
+        {
+            set = new BitSet();
+            for (Map.Entry<String, int[]> entry : packageMethods.entrySet())
+            {
+                String name = entry.getKey();
+                if (name.equals(prefix) || name.startsWith(prefix + "."))
+                    setAll(set, entry.getValue());
+            }
+            prefixMethods.put(prefix, set);
+        }
+        return set;
+    }
+
+    /**
+     * Returns the number of methods the sets are built over.
+     * 
+     * @return The number of method ids
+     */
+    public int size()
+    {
+        return packages.length;
+    }
+}
@@ -0,0 +1,138 @@
+package recommendationsystem.model;
+
+/**
+ * FloatKernels holds the inner loops the models spend most of their time in:
+ * adding a scaled array to another, scaling an array, the dot product and the
+ * largest absolute value of an array. Keeping them in one place means each is
+ * written once, in the form the JIT compiles best.
+ * <p>
+ * The element-wise kernels and the largest value are plain counted loops over
+ * arrays. HotSpot's server compiler turns loops of this shape into SIMD
+ * instructions on its own, and the results are the same as those of any other
+ * scalar loop.
+ * <p>
+ * The JIT does not do the same for float sums, because changing the order of
+ * the additions changes the rounding. The dot product therefore keeps four
+ * partial sums that are added together at the end, which lets the processor
+ * work on four independent additions at once. Its result can differ from a
+ * sum taken in order in the last bits.
+ */
+public class FloatKernels
+{
+    /**
+     * FloatKernels only has static methods, don't allow instances.
+     */
+    private FloatKernels()
+    {
+        // Do not put anything here
+    }
+
+    /**
+     * Adds a scaled array to another. Specifically,
+     * <p>
+     * y[yOffset + i] = x[xOffset + i] * a + y[yOffset + i]
+     * <p>
+     * for every i from 0 to length - 1.
+     * 
+     * @param a
+     *            The factor to multiply x by
+     * @param x
+     *            The array to add
+     * @param xOffset
+     *            The first index of x to read
+     * @param y
+     *            The array to add to
+     * @param yOffset
+     *            The first index of y to change
+     * @param length
+     *            The number of elements to add
+     */
+    public static void axpy(float a, float[] x, int xOffset, float[] y,
+            int yOffset, int length)
+    {
+        if (xOffset == yOffset)
+        {
+            // Equal offsets let the JIT use the same index for both arrays
+            for (int i = xOffset; i < xOffset + length; i++)
+            {
+                y[i] = x[i] * a + y[i];
+            }
+            return;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            y[yOffset + i] = x[xOffset + i] * a + y[yOffset + i];
+        }
+    }
+
+    /**
+     * Multiplies part of an array by a factor.
+     * 
+     * @param a
+     *            The factor
+     * @param y
+     *            The array to scale
+     * @param offset
+     *            The first index to scale
+     * @param length
+     *            The number of elements to scale
+     */
+    public static void scale(float a, float[] y, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            y[i] = y[i] * a;
+        }
+    }
+
+    /**
+     * Returns the dot product of the first elements of two arrays.
+     * 
+     * @param x
+     *            The first array
+     * @param y
+     *            The second array
+     * @param length
+     *            The number of elements to multiply
+     * @return The sum of x[i] * y[i] for every i from 0 to length - 1
+     */
+    public static float dot(float[] x, float[] y, int length)
+    {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4)
+        {
+            sum0 += x[i] * y[i];
+            sum1 += x[i + 1] * y[i + 1];
+            sum2 += x[i + 2] * y[i + 2];
+            sum3 += x[i + 3] * y[i + 3];
+        }
+        for (; i < length; i++)
+        {
+            sum0 += x[i] * y[i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Returns the largest absolute value in part of an array.
+     * 
+     * @param x
+     *            The array to scan
+     * @param from
+     *            The first index to scan
+     * @param to
+     *            The index after the last one to scan
+     * @return The largest absolute value, or 0 if the range is empty
+     */
+    public static float maxAbs(float[] x, int from, int to)
+    {
+        float max = 0;
+        for (int i = from; i < to; i++)
+        {
+            max = Math.max(max, Math.abs(x[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,142 @@
+package recommendationsystem.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MethodKeyIndex numbers methods so that the models can refer to them by int
+ * ids instead of by their keys. A method's id is its position in the array of
+ * keys it was created from, which is also its index in a model's matrix. Both
+ * directions of the mapping take constant time: ids are looked up in a hash
+ * map built once from the keys, and keys are read from the array.
+ * <p>
+ * A removed method keeps its id, but its key is set to null and no longer maps
+ * to it. If a key appears more than once, it maps to its first id.
+ * <p>
+ * Models publish their index as part of an immutable snapshot, so a changed
+ * index is made by copying the current one. The hash map built from the
+ * original keys is shared by every copy and never changed. Keys that were set
+ * later are kept in a small map of their own, which is the only map copied.
+ * A key found in either map only maps to its id while the id still holds it.
+ * <p>
+ * MethodKeyIndex is not thread safe. It must not be changed once it has been
+ * published.
+ */
+public class MethodKeyIndex
+{
+    private String[] keys;
+    private Map<String, Integer> ids;
+    private Map<String, Integer> changedIds;
+
+    /**
+     * The constructor. The array is kept, not copied.
+     * 
+     * @param methodKeys
+     *            The method keys in the order of their ids. Keys may be null.
+     */
+    public MethodKeyIndex(String[] methodKeys)
+    {
+        keys = methodKeys;
+        ids = new HashMap<String, Integer>(2 * keys.length);
+        for (int id = keys.length - 1; id > -1; id--)
+        {
+            if (keys[id] != null)
+                ids.put(keys[id], id);
+        }
+        changedIds = new HashMap<String, Integer>();
+    }
+
+    /**
+     * The copy constructor. The copy can be changed without changing the
+     * original.
+     * 
+     * @param other
+     *            The index to copy
+     */
+    public MethodKeyIndex(MethodKeyIndex other)
+    {
+        keys = other.keys.clone();
+        ids = other.ids;
+        changedIds = new HashMap<String, Integer>(other.changedIds);
+    }
+
+    /**
+     * Returns the id of the given method.
+     * 
+     * @param methodKey
+     *            The method's key
+     * @return <ul>
+     *         <li>The id if the method's key exists
+     *         <li>-1 if the key is not found
+     *         </ul>
+     */
+    public int getId(String methodKey)
+    {
+        Integer id = changedIds.get(methodKey);
+        if (id == null)
+            id = ids.get(methodKey);
+        if (id == null || !methodKey.equals(keys[id]))
+            return -1;
+        return id;
+    }
+
+    /**
+     * Returns the key of the given method.
+     * 
+     * @param id
+     *            The method's id
+     * @return The method's key, or null if the method was removed
+     */
+    public String getKey(int id)
+    {
+        return keys[id];
+    }
+
+    /**
+     * Sets the key of a method, replacing its previous key.
+     * 
+     * @param id
+     *            The method's id, or the size of the index to add a method
+     * @param methodKey
+     *            The method's key
+     */
+    public void setKey(int id, String methodKey)
+    {
+        if (id == keys.length)
+            keys = Arrays.copyOf(keys, id + 1);
+        keys[id] = methodKey;
+        changedIds.put(methodKey, id);
+    }
+
+    /**
+     * Removes the key of a method. The id stays in use.
+     * 
+     * @param id
+     *            The method's id
+     */
+    public void removeKey(int id)
+    {
+        keys[id] = null;
+    }
+
+    /**
+     * Returns the number of ids in use, including those of removed methods.
+     * 
+     * @return The number of ids
+     */
+    public int size()
+    {
+        return keys.length;
+    }
+
+    /**
+     * Returns the keys in the order of their ids.
+     * 
+     * @return The array of keys, not a copy
+     */
+    public String[] getKeys()
+    {
+        return keys;
+    }
+}
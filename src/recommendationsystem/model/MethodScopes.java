@@ -0,0 +1,267 @@
+package recommendationsystem.model;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Modifier;
+
+import recommendationsystem.preload.DatabaseLoader;
+import recommendationsystem.visitors.MethodWordsVisitor;
+
+/**
+ * MethodScopes records the scope attributes of every method as it is indexed:
+ * its project, whether it is private and whether it is test code. The models
+ * turn them into a {@link CandidateScopes} whenever they publish a snapshot,
+ * so recommendations can be restricted with a {@link ScopeFilter} without
+ * resolving any method.
+ * <p>
+ * Methods are recorded by {@link DatabaseLoader} and by
+ * {@link MethodWordsVisitor} when a file is indexed again. A method that was
+ * never recorded, for instance because the model was loaded from a file, gets
+ * the attributes that can be read from its key: its package, and whether its
+ * type is named like a test. Its project is not known and it is not treated as
+ * private.
+ * <p>
+ * Test code is any method in a folder named test or tests, or of a type whose
+ * name starts or ends with Test.
+ * <p>
+ * MethodScopes is a singleton class. Call <code>getInstance()</code> to use it.
+ * Its methods are synchronized.
+ */
+public class MethodScopes
+{
+    private static MethodScopes instance;
+    private Map<String, Attributes> attributes;
+
+    /**
+     * The singleton constructor.
+     */
+    private MethodScopes()
+    {
+        // MethodScopes is singleton, do not put anything here
+    }
+
+    /**
+     * Gets the instance of MethodScopes.
+     * 
+     * @return The singleton instance of MethodScopes
+     */
+    public static synchronized MethodScopes getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new MethodScopes();
+            instance.init();
+        }
+        return instance;
+    }
+
+    /**
+     * MethodScopes is singleton. Don't allow clones.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Initializes the private class variables used.
+     */
+    private void init()
+    {
+        attributes = new HashMap<String, Attributes>();
+    }
+
+    /**
+     * Records the scope attributes of a method declaration. Declarations
+     * whose binding cannot be resolved are ignored.
+     * 
+     * @param method
+     *            The method to record
+     */
+    public void addMethod(MethodDeclaration method)
+    {
+        IMethodBinding binding = method.resolveBinding();
+        if (binding == null)
+            return;
+
+        String methodKey = binding.getKey();
+        String project = null;
+        boolean isTest = isTestType(methodKey);
+        ASTNode root = method.getRoot();
+        if (root instanceof CompilationUnit)
+        {
+            IJavaElement element = ((CompilationUnit) root).getJavaElement();
+            if (element != null)
+            {
+                project = element.getJavaProject().getElementName();
+                IResource resource = element.getResource();
+                if (resource != null)
+                    isTest |= isTestPath(resource.getProjectRelativePath());
+            }
+        }
+        addMethod(methodKey, project, Modifier.isPrivate(method
+                .getModifiers()), isTest);
+    }
+
+    /**
+     * Records the scope attributes of a method.
+     * 
+     * @param methodKey
+     *            The method's key
+     * @param project
+     *            The name of the method's project, or null if it is not known
+     * @param isPrivate
+     *            Whether the method is private
+     * @param isTest
+     *            Whether the method is test code
+     */
+    public synchronized void addMethod(String methodKey, String project,
+            boolean isPrivate, boolean isTest)
+    {
+        attributes.put(methodKey, new Attributes(project, isPrivate, isTest));
+    }
+
+    /**
+     * Forgets every recorded method. This is done before a project is indexed
+     * from scratch.
+     */
+    public synchronized void clear()
+    {
+        attributes.clear();
+    }
+
+    /**
+     * Builds the candidate sets of the methods in the given index.
+     * 
+     * @param methodKeys
+     *            The method key index of a model snapshot
+     * @return The candidate sets of the snapshot
+     */
+    public synchronized CandidateScopes getCandidateScopes(
+            MethodKeyIndex methodKeys)
+    {
+        int size = methodKeys.size();
+        String[] projects = new String[size];
+        String[] packages = new String[size];
+        BitSet nonPrivate = new BitSet(size);
+        BitSet nonTest = new BitSet(size);
+        for (int i = 0; i < size; i++)
+        {
+            String methodKey = methodKeys.getKey(i);
+            if (methodKey == null)
+                continue;
+
+            packages[i] = getPackage(methodKey);
+            Attributes recorded = attributes.get(methodKey);
+            if (recorded == null)
+            {
+                nonPrivate.set(i);
+                if (!isTestType(methodKey))
+                    nonTest.set(i);
+            }
+            else
+            {
+                projects[i] = recorded.project;
+                if (!recorded.isPrivate)
+                    nonPrivate.set(i);
+                if (!recorded.isTest)
+                    nonTest.set(i);
+            }
+        }
+        return new CandidateScopes(methodKeys, projects, packages, nonPrivate,
+                nonTest);
+    }
+
+    /**
+     * Returns the package of the type that declares a method, from the
+     * method's key. For example, the package of
+     * <code>Lorg/example/Foo;.bar()V</code> is <code>org.example</code>.
+     * 
+     * @param methodKey
+     *            The method's key
+     * @return The package name, or an empty string for the default package
+     */
+    public static String getPackage(String methodKey)
+    {
+        String typeName = getTypeName(methodKey);
+        int slash = typeName.lastIndexOf('/');
+        return slash < 0 ? "" : typeName.substring(0, slash).replace('/', '.');
+    }
+
+    /**
+     * Returns True if the top level type that declares a method is named like
+     * a test.
+     */
+    private static boolean isTestType(String methodKey)
+    {
+        String typeName = getTypeName(methodKey);
+        String name = typeName.substring(typeName.lastIndexOf('/') + 1);
+        int nested = name.indexOf('$');
+        if (nested > -1)
+            name = name.substring(0, nested);
+        return name.startsWith("Test") || name.endsWith("Test")
+                || name.endsWith("Tests") || name.endsWith("TestCase");
+    }
+
+    /**
+     * Returns True if a file is in a folder named test or tests.
+     */
+    private static boolean isTestPath(IPath path)
+    {
+        for (int i = 0; i < path.segmentCount() - 1; i++)
+        {
+            if (path.segment(i).equalsIgnoreCase("test")
+                    || path.segment(i).equalsIgnoreCase("tests"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the binary name of the type that declares a method, such as
+     * <code>org/example/Foo$Inner</code>, from the method's key.
+     */
+    private static String getTypeName(String methodKey)
+    {
+        if (!methodKey.startsWith("L"))
+            return "";
+        int end = methodKey.length();
+        for (int i = 1; i < methodKey.length(); i++)
+        {
+            char c = methodKey.charAt(i);
+            if (c == ';' || c == '<' || c == '~')
+            {
+                end = i;
+                break;
+            }
+        }
+        return methodKey.substring(1, end);
+    }
+
+    /**
+     * Attributes holds the recorded scope attributes of a method.
+     */
+    private static class Attributes
+    {
+        private String project;
+        private boolean isPrivate;
+        private boolean isTest;
+
+        private Attributes(String project, boolean isPrivate, boolean isTest)
+        {
+            this.project = project;
+            this.isPrivate = isPrivate;
+            this.isTest = isTest;
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package recommendationsystem.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import recommendationsystem.model.tfidf.BinaryFile;
+import recommendationsystem.model.tfidf.TFIDFModelFile;
+
+/**
+ * ModelBundle reads and writes a single file that holds everything the
+ * plug-in needs to start recommending: the TF-IDF method keys and rows, the
+ * PFIS words, methods and links, and the navigation history. Each of them is
+ * stored in its own {@link Section}, which can be read on its own, so only
+ * the sections of the selected model have to be read, and they can be read on
+ * several threads at once.
+ * <p>
+ * The file starts with a header of little-endian values:
+ * <ul>
+ * <li>The magic number and the format version, as ints.
+ * <li>The number of sections, as an int, followed by an unused int.
+ * <li>The position of the table of contents, as a long.
+ * <li>The CRC-32 of the table of contents, as a long.
+ * </ul>
+ * The sections follow the header, and the table of contents follows the last
+ * section. For every section it holds the section's id, an unused int, and
+ * the position, length and CRC-32 of the section, as longs.
+ * <p>
+ * Sections are made of little-endian values and written and read with
+ * {@link BinaryFile}. A string section is the number of strings followed by
+ * their string table. A list table is the number of lists, the offset of every
+ * list and of the end of the last list, and then every list's ints. A row
+ * section is the number of rows, an unused int, and every full row as floats.
+ * <p>
+ * The header is written last, so a file that was not saved completely is never
+ * mistaken for a bundle.
+ */
+public class ModelBundle
+{
+    public static final int MAGIC = 0x424D5352;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int TOC_ENTRY_SIZE = 32;
+
+    /**
+     * Specifies the sections a bundle can hold.
+     */
+    public enum Section
+    {
+        /**
+         * The TF-IDF method keys in the order of the rows, as a string table.
+         */
+        TFIDF_METHODS(1),
+        /**
+         * The rows of the TF-IDF cosine similarity matrix, as a row section.
+         */
+        TFIDF_ROWS(2),
+        /**
+         * The PFIS words in the order of their ids, as a string table.
+         */
+        PFIS_WORDS(3),
+        /**
+         * The PFIS method keys in the order of their ids, as a string table.
+         */
+        PFIS_METHODS(4),
+        /**
+         * The ids of the methods each PFIS word links to, as a list table.
+         */
+        PFIS_LINKS(5),
+        /**
+         * The method keys of the navigation history, oldest first, as a
+         * string table.
+         */
+        HISTORY(6),
+        /**
+         * The ids of the PFIS words each step of the navigation history links
+         * to, as a list table. It is only saved if the PFIS history is the
+         * navigation history.
+         */
+        PFIS_HISTORY(7);
+
+        private int id;
+
+        private Section(int id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * Returns the id the section is stored under.
+         * 
+         * @return The section's id
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        /**
+         * Returns the section stored under the given id.
+         * 
+         * @param id
+         *            The section's id
+         * @return <ul>
+         *         <li>The section
+         *         <li>null if the id belongs to a section this version does
+         *         not know
+         *         </ul>
+         */
+        public static Section fromId(int id)
+        {
+            for (Section section : values())
+            {
+                if (section.id == id)
+                    return section;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The constructor. ModelBundle only has static members.
+     */
+    private ModelBundle()
+    {
+    }
+
+    /**
+     * Returns True if the given file starts with the magic number of a
+     * bundle.
+     * 
+     * @param file
+     *            The file to check
+     * @return <ul>
+     *         <li>True if the file is a bundle
+     *         <li>False if it is too short or starts with anything else, such
+     *         as a save file of a single model
+     *         </ul>
+     */
+    public static boolean isBundle(File file)
+    {
+        try
+        {
+            return BinaryFile.hasMagic(file, MAGIC);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Writer writes a bundle one section at a time. Each section can only be
+     * written once. The table of contents and the header are written by
+     * <code>finish()</code>.
+     */
+    public static class Writer
+    {
+        private FileChannel channel;
+        private long position;
+        private Map<Section, long[]> toc;
+        private Section current;
+        private long start;
+        private BinaryFile.RowWriter rows;
+        private CRC32 checksum;
+
+        /**
+         * The constructor. Opens the file.
+         * 
+         * @param file
+         *            The file to write, which is overwritten
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public Writer(File file) throws IOException
+        {
+            channel = new FileOutputStream(file).getChannel();
+            position = HEADER_SIZE;
+            toc = new EnumMap<Section, long[]>(Section.class);
+        }
+
+        /**
+         * Writes a section of strings.
+         * 
+         * @param section
+         *            The section to write
+         * @param strings
+         *            The strings, any of which may be null
+         * @throws IOException
+         *             If the section cannot be written
+         */
+        public void writeStrings(Section section, String[] strings)
+                throws IOException
+        {
+            byte[][] encoded = BinaryFile.encodeStrings(strings);
+            ByteBuffer buffer = BinaryFile.allocate(4 + BinaryFile
+                    .getStringTableBytes(encoded));
+            buffer.putInt(strings.length);
+            BinaryFile.putStrings(buffer, encoded);
+            buffer.flip();
+            startSection(section);
+            write(buffer);
+            endSection();
+        }
+
+        /**
+         * Writes a section of int lists.
+         * 
+         * @param section
+         *            The section to write
+         * @param lists
+         *            The lists
+         * @throws IOException
+         *             If the section cannot be written
+         */
+        public void writeLists(Section section, int[][] lists)
+                throws IOException
+        {
+            long size = 4L * (lists.length + 2);
+            for (int[] list : lists)
+            {
+                size += 4L * list.length;
+            }
+            ByteBuffer buffer = BinaryFile.allocate(size);
+            buffer.putInt(lists.length);
+            int offset = 0;
+            for (int[] list : lists)
+            {
+                buffer.putInt(offset);
+                offset += list.length;
+            }
+            buffer.putInt(offset);
+            for (int[] list : lists)
+            {
+                buffer.asIntBuffer().put(list);
+                buffer.position(buffer.position() + 4 * list.length);
+            }
+            buffer.flip();
+            startSection(section);
+            write(buffer);
+            endSection();
+        }
+
+        /**
+         * Starts a section of rows. The rows have to be written in order with
+         * <code>writeRow(float[])</code>, then the section has to be ended
+         * with <code>endRows()</code>.
+         * 
+         * @param section
+         *            The section to write
+         * @param size
+         *            The number of rows, which is also the length of each row
+         * @throws IOException
+         *             If the section cannot be written
+         */
+        public void startRows(Section section, int size) throws IOException
+        {
+            startSection(section);
+            ByteBuffer buffer = BinaryFile.allocate(8);
+            buffer.putInt(size).putInt(0);
+            buffer.flip();
+            write(buffer);
+            rows = new BinaryFile.RowWriter(channel, position, size, checksum);
+        }
+
+        /**
+         * Writes the next row of the current row section.
+         * 
+         * @param row
+         *            The row, at least as long as the number of rows
+         * @throws IOException
+         *             If the row cannot be written
+         */
+        public void writeRow(float[] row) throws IOException
+        {
+            rows.writeRow(row);
+        }
+
+        /**
+         * Ends the current row section.
+         * 
+         * @throws IOException
+         *             If the section cannot be written
+         */
+        public void endRows() throws IOException
+        {
+            position = rows.flush();
+            rows = null;
+            endSection();
+        }
+
+        /**
+         * Writes the table of contents and the header. The bundle is only
+         * complete once this method has returned.
+         * 
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public void finish() throws IOException
+        {
+            if (current != null)
+                throw new IOException("The " + current
+                        + " section was not ended.");
+            ByteBuffer entries = BinaryFile.allocate(TOC_ENTRY_SIZE
+                    * toc.size());
+            for (Map.Entry<Section, long[]> entry : toc.entrySet())
+            {
+                long[] location = entry.getValue();
+                entries.putInt(entry.getKey().getId()).putInt(0).putLong(
+                        location[0]).putLong(location[1]).putLong(location[2]);
+            }
+            CRC32 tocChecksum = new CRC32();
+            tocChecksum.update(entries.array(), 0, entries.capacity());
+            long tocPosition = position;
+            entries.flip();
+            write(entries);
+
+            ByteBuffer header = BinaryFile.createHeader(HEADER_SIZE, MAGIC,
+                    VERSION);
+            header.putInt(toc.size()).putInt(0).putLong(tocPosition).putLong(
+                    tocChecksum.getValue());
+            header.flip();
+            BinaryFile.writeFully(channel, header, 0);
+        }
+
+        /**
+         * Closes the file. If <code>finish()</code> was not called, the file
+         * is left without a header.
+         * 
+         * @throws IOException
+         *             If the file cannot be closed
+         */
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+
+        /**
+         * Starts a section at the current position.
+         */
+        private void startSection(Section section) throws IOException
+        {
+            if (toc.containsKey(section) || current != null)
+                throw new IOException("The " + section
+                        + " section cannot be written now.");
+            current = section;
+            start = position;
+            checksum = new CRC32();
+        }
+
+        /**
+         * Ends the current section and adds it to the table of contents.
+         */
+        private void endSection()
+        {
+            toc.put(current, new long[] { start, position - start,
+                    checksum.getValue() });
+            current = null;
+            checksum = null;
+        }
+
+        /**
+         * Writes the remaining bytes of a heap buffer at the current position,
+         * adding them to the checksum of the current section.
+         */
+        private void write(ByteBuffer buffer) throws IOException
+        {
+            if (checksum != null)
+                checksum.update(buffer.array(), buffer.position(), buffer
+                        .remaining());
+            position = BinaryFile.writeFully(channel, buffer, position);
+        }
+    }
+
+    /**
+     * Reader reads the sections of a bundle. The header and the table of
+     * contents are read when it is opened. Sections are read with positional
+     * reads, so any number of threads can read different sections at once.
+     */
+    public static class Reader
+    {
+        private File file;
+        private FileChannel channel;
+        private Map<Section, long[]> toc;
+
+        /**
+         * The constructor. Opens the file and reads the table of contents.
+         * Sections this version does not know are ignored.
+         * 
+         * @param file
+         *            The bundle
+         * @throws IOException
+         *             If the file cannot be read or is not a bundle of a known
+         *             version
+         */
+        public Reader(File file) throws IOException
+        {
+            this.file = file;
+            channel = new FileInputStream(file).getChannel();
+            try
+            {
+                ByteBuffer header = BinaryFile.readHeader(channel, file,
+                        HEADER_SIZE, MAGIC, VERSION, "a model bundle");
+                int numSections = header.getInt(8);
+                long tocPosition = header.getLong(16);
+                long fileSize = channel.size();
+                if (numSections < 0 || tocPosition < HEADER_SIZE
+                        || tocPosition + (long) TOC_ENTRY_SIZE * numSections
+                                != fileSize)
+                    throw new IOException(file
+                            + " does not match its header.");
+
+                ByteBuffer entries = BinaryFile.allocate(TOC_ENTRY_SIZE
+                        * numSections);
+                BinaryFile.readFully(channel, entries, tocPosition);
+                CRC32 checksum = new CRC32();
+                checksum.update(entries.array(), 0, entries.capacity());
+                if (checksum.getValue() != header.getLong(24))
+                    throw new IOException("The table of contents of " + file
+                            + " is corrupt.");
+
+                entries.flip();
+                toc = new EnumMap<Section, long[]>(Section.class);
+                for (int i = 0; i < numSections; i++)
+                {
+                    Section section = Section.fromId(entries.getInt());
+                    entries.getInt();
+                    long[] location = new long[] { entries.getLong(),
+                            entries.getLong(), entries.getLong() };
+                    if (location[0] < HEADER_SIZE || location[1] < 0
+                            || location[0] + location[1] > tocPosition)
+                        throw new IOException("The table of contents of "
+                                + file + " is corrupt.");
+                    if (section != null)
+                        toc.put(section, location);
+                }
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns True if the bundle holds the given section.
+         * 
+         * @param section
+         *            The section to look for
+         * @return <ul>
+         *         <li>True if the section can be read
+         *         <li>False if it was not saved
+         *         </ul>
+         */
+        public boolean hasSection(Section section)
+        {
+            return toc.containsKey(section);
+        }
+
+        /**
+         * Reads a section of strings.
+         * 
+         * @param section
+         *            The section to read
+         * @return The strings
+         * @throws IOException
+         *             If the section is missing, cannot be read or is corrupt
+         */
+        public String[] readStrings(Section section) throws IOException
+        {
+            ByteBuffer buffer = readSection(section);
+            try
+            {
+                return BinaryFile.getStrings(buffer, checkCount(section,
+                        buffer.getInt(), 4));
+            }
+            catch (IOException e)
+            {
+                throw corrupt(section);
+            }
+            catch (RuntimeException e)
+            {
+                throw corrupt(section);
+            }
+        }
+
+        /**
+         * Reads a section of int lists.
+         * 
+         * @param section
+         *            The section to read
+         * @return The lists
+         * @throws IOException
+         *             If the section is missing, cannot be read or is corrupt
+         */
+        public int[][] readLists(Section section) throws IOException
+        {
+            ByteBuffer buffer = readSection(section);
+            try
+            {
+                int[][] lists = new int[checkCount(section,
+                        buffer.getInt(), 4)][];
+                int[] offsets = new int[lists.length + 1];
+                buffer.asIntBuffer().get(offsets);
+                buffer.position(buffer.position() + 4 * offsets.length);
+                if (offsets[lists.length] != buffer.remaining() / 4)
+                    throw corrupt(section);
+                int[] values = new int[offsets[lists.length]];
+                buffer.asIntBuffer().get(values);
+                for (int i = 0; i < lists.length; i++)
+                {
+                    if (offsets[i] < 0 || offsets[i] > offsets[i + 1])
+                        throw corrupt(section);
+                    lists[i] = new int[offsets[i + 1] - offsets[i]];
+                    System.arraycopy(values, offsets[i], lists[i], 0,
+                            lists[i].length);
+                }
+                return lists;
+            }
+            catch (RuntimeException e)
+            {
+                throw corrupt(section);
+            }
+        }
+
+        /**
+         * Opens a section of rows. The rows are read in blocks, and the
+         * checksum of the section is checked once the last row has been read.
+         * 
+         * @param section
+         *            The section to read
+         * @return A reader of the rows. The method keys of the rows are saved
+         *         in a section of their own, so its
+         *         <code>getMethodKeys()</code> returns null.
+         * @throws IOException
+         *             If the section is missing or cannot be read
+         */
+        public TFIDFModelFile.RowReader openRows(Section section)
+                throws IOException
+        {
+            return new RowSectionReader(section, getLocation(section));
+        }
+
+        /**
+         * Closes the file.
+         * 
+         * @throws IOException
+         *             If the file cannot be closed
+         */
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+
+        /**
+         * Returns the position, length and checksum of a section.
+         */
+        private long[] getLocation(Section section) throws IOException
+        {
+            long[] location = toc.get(section);
+            if (location == null)
+                throw new IOException(file + " has no " + section
+                        + " section.");
+            return location;
+        }
+
+        /**
+         * Reads a whole section and checks it against its checksum.
+         */
+        private ByteBuffer readSection(Section section) throws IOException
+        {
+            long[] location = getLocation(section);
+            ByteBuffer buffer = BinaryFile.allocate(location[1]);
+            BinaryFile.readFully(channel, buffer, location[0]);
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.array(), 0, buffer.capacity());
+            if (checksum.getValue() != location[2])
+                throw corrupt(section);
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Returns the number of entries of a section, checking that each of
+         * them can take at least the given number of bytes.
+         */
+        private int checkCount(Section section, int count, int entryBytes)
+                throws IOException
+        {
+            long[] location = getLocation(section);
+            if (count < 0 || (long) count * entryBytes > location[1])
+                throw corrupt(section);
+            return count;
+        }
+
+        /**
+         * Returns the exception thrown for a corrupt section.
+         */
+        private IOException corrupt(Section section)
+        {
+            return new IOException("The " + section + " section of " + file
+                    + " is corrupt.");
+        }
+
+        /**
+         * RowSectionReader reads the rows of a row section.
+         */
+        private class RowSectionReader implements TFIDFModelFile.RowReader
+        {
+            private int size;
+            private BinaryFile.RowReader rows;
+
+            private RowSectionReader(Section section, long[] location)
+                    throws IOException
+            {
+                ByteBuffer header = BinaryFile.allocate(8);
+                BinaryFile.readFully(channel, header, location[0]);
+                size = header.getInt(0);
+                if (size < 0 || location[1] != 8 + 4L * size * size)
+                    throw corrupt(section);
+                CRC32 checksum = new CRC32();
+                checksum.update(header.array(), 0, 8);
+                rows = new BinaryFile.RowReader(channel, "the " + section
+                        + " section of " + file, location[0] + 8, size,
+                        checksum, location[2]);
+            }
+
+            @Override
+            public int getSize()
+            {
+                return size;
+            }
+
+            @Override
+            public String[] getMethodKeys()
+            {
+                return null;
+            }
+
+            @Override
+            public void readRow(float[] row) throws IOException
+            {
+                rows.readRow(row);
+            }
+
+            @Override
+            public void close()
+            {
+                // The channel belongs to the bundle
+            }
+        }
+    }
+}
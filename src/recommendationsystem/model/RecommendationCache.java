@@ -0,0 +1,358 @@
+package recommendationsystem.model;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import recommendationsystem.controllers.ModelManager.ModelType;
+import recommendationsystem.controllers.threads.PFISUpdater;
+import recommendationsystem.controllers.threads.TFIDFUpdater;
+
+/**
+ * RecommendationCache remembers the most recent recommendations and their cues
+ * so {@link TFIDFUpdater} and {@link PFISUpdater} do not have to calculate them
+ * again when the user returns to a method with the same history. This happens
+ * often while debugging, when the user moves back and forth between a handful
+ * of methods.
+ * <p>
+ * Recommendations are looked up by a {@link Key}, which holds everything they
+ * depend on: the model, the version of its snapshot, the current method, the
+ * history steps the model combines and the settings, including the scope the
+ * recommendations are restricted to. The recommendations are
+ * also split into visited and unvisited methods, so the number of unique
+ * visited methods is part of the key as well. Whenever a key arrives with a
+ * different model version or number of visited methods than the last key of
+ * its model, every entry of that model is dropped, because none of them can be
+ * looked up again.
+ * <p>
+ * The cache holds a bounded number of entries. When it is full, the entry that
+ * was used least recently is evicted. The number of hits, misses, evictions
+ * and invalidations is counted for tuning.
+ * <p>
+ * RecommendationCache is a singleton class. Call <code>getInstance()</code> to
+ * use it. Its methods are synchronized.
+ */
+public class RecommendationCache
+{
+    /**
+     * The number of entries the cache holds.
+     */
+    public static final int CAPACITY = 64;
+
+    private static RecommendationCache instance;
+    private LinkedHashMap<Key, Entry> entries;
+    private Map<ModelType, Key> lastKeys;
+    private long hits, misses, evictions, invalidations;
+
+    /**
+     * The singleton constructor.
+     */
+    private RecommendationCache()
+    {
+        // RecommendationCache is singleton, do not put anything here
+    }
+
+    /**
+     * Gets the instance of RecommendationCache.
+     * 
+     * @return The singleton instance of RecommendationCache
+     */
+    public static synchronized RecommendationCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new RecommendationCache();
+            instance.init();
+        }
+        return instance;
+    }
+
+    /**
+     * RecommendationCache is singleton. Don't allow clones.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Initializes the private class variables used.
+     */
+    private void init()
+    {
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75F, true);
+        lastKeys = new EnumMap<ModelType, Key>(ModelType.class);
+    }
+
+    /**
+     * Returns the recommendations stored for the given key.
+     * 
+     * @param key
+     *            The key of the recommendations
+     * @return <ul>
+     *         <li>The recommendations and their cues
+     *         <li>null if they are not in the cache
+     *         </ul>
+     */
+    public synchronized Entry get(Key key)
+    {
+        invalidateOtherGenerations(key);
+        Entry entry = entries.get(key);
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    /**
+     * Stores the recommendations for the given key, evicting the least
+     * recently used entry if the cache is full.
+     * 
+     * @param key
+     *            The key of the recommendations
+     * @param recommendations
+     *            The method keys of the recommendations, best first
+     * @param cues
+     *            The cues of each recommendation, or null if words are
+     *            disabled
+     */
+    public synchronized void put(Key key, String[] recommendations,
+            String[][] cues)
+    {
+        invalidateOtherGenerations(key);
+        entries.put(key, new Entry(recommendations, cues));
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > CAPACITY && it.hasNext())
+        {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops every entry. This is done when the database changes, because the
+     * cues are read from it.
+     */
+    public synchronized void clear()
+    {
+        invalidations += entries.size();
+        entries.clear();
+        lastKeys.clear();
+    }
+
+    /**
+     * Drops the entries of the key's model that were stored for a different
+     * model version or number of visited methods.
+     */
+    private void invalidateOtherGenerations(Key key)
+    {
+        Key last = lastKeys.get(key.modelType);
+        if (last != null && last.modelVersion == key.modelVersion
+                && last.numVisited == key.numVisited)
+            return;
+
+        lastKeys.put(key.modelType, key);
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().modelType == key.modelType)
+            {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their recommendations.
+     * 
+     * @return The number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their recommendations.
+     * 
+     * @return The number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     * 
+     * @return The number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of entries dropped because the model, the history or
+     * the database changed.
+     * 
+     * @return The number of invalidations
+     */
+    public synchronized long getInvalidations()
+    {
+        return invalidations;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     * 
+     * @return The number of entries
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the metrics of the cache in a single line.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        long lookups = hits + misses;
+        return "RecommendationCache: " + entries.size() + "/" + CAPACITY
+                + " entries, " + hits + " hits, " + misses + " misses ("
+                + (lookups == 0 ? 0 : 100 * hits / lookups) + "% hit rate), "
+                + evictions + " evictions, " + invalidations
+                + " invalidations";
+    }
+
+    /**
+     * Key identifies a set of recommendations by everything they depend on.
+     */
+    public static class Key
+    {
+        private ModelType modelType;
+        private long modelVersion;
+        private int numVisited;
+        private String methodKey;
+        private List<String> historyWindow;
+        private boolean historyEnabled;
+        private int numRecommendations;
+        private boolean wordsEnabled;
+        private ScopeFilter scope;
+
+        /**
+         * The constructor.
+         * 
+         * @param modelType
+         *            The model that makes the recommendations
+         * @param modelVersion
+         *            The version of the model's snapshot
+         * @param numVisited
+         *            The number of unique methods in the history
+         * @param methodKey
+         *            The current method's key
+         * @param historyWindow
+         *            The keys of the history steps the model combines, oldest
+         *            first. The list must not be changed afterwards.
+         * @param historyEnabled
+         *            Whether history is enabled
+         * @param numRecommendations
+         *            The number of recommendations
+         * @param wordsEnabled
+         *            Whether cues are shown
+         * @param scope
+         *            The scope the recommendations are restricted to
+         */
+        public Key(ModelType modelType, long modelVersion, int numVisited,
+                String methodKey, List<String> historyWindow,
+                boolean historyEnabled, int numRecommendations,
+                boolean wordsEnabled, ScopeFilter scope)
+        {
+            this.modelType = modelType;
+            this.modelVersion = modelVersion;
+            this.numVisited = numVisited;
+            this.methodKey = methodKey;
+            this.historyWindow = historyWindow;
+            this.historyEnabled = historyEnabled;
+            this.numRecommendations = numRecommendations;
+            this.wordsEnabled = wordsEnabled;
+            this.scope = scope;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return modelType == other.modelType
+                    && modelVersion == other.modelVersion
+                    && numVisited == other.numVisited
+                    && methodKey.equals(other.methodKey)
+                    && historyWindow.equals(other.historyWindow)
+                    && historyEnabled == other.historyEnabled
+                    && numRecommendations == other.numRecommendations
+                    && wordsEnabled == other.wordsEnabled
+                    && scope.equals(other.scope);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = modelType.hashCode();
+            hash = 31 * hash + (int) (modelVersion ^ (modelVersion >>> 32));
+            hash = 31 * hash + numVisited;
+            hash = 31 * hash + methodKey.hashCode();
+            hash = 31 * hash + historyWindow.hashCode();
+            hash = 31 * hash + (historyEnabled ? 1 : 0);
+            hash = 31 * hash + numRecommendations;
+            hash = 31 * hash + (wordsEnabled ? 1 : 0);
+            hash = 31 * hash + scope.hashCode();
+            return hash;
+        }
+    }
+
+    /**
+     * Entry holds a set of recommendations and their cues. Neither array may
+     * be changed.
+     */
+    public static class Entry
+    {
+        private String[] recommendations;
+        private String[][] cues;
+
+        private Entry(String[] recommendations, String[][] cues)
+        {
+            this.recommendations = recommendations;
+            this.cues = cues;
+        }
+
+        /**
+         * Returns the method keys of the recommendations.
+         * 
+         * @return The method keys, best first
+         */
+        public String[] getRecommendations()
+        {
+            return recommendations;
+        }
+
+        /**
+         * Returns the cues of each recommendation.
+         * 
+         * @return The cues, or null if words were disabled
+         */
+        public String[][] getCues()
+        {
+            return cues;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package recommendationsystem.model;
+
+/**
+ * ScopeFilter describes which methods may be recommended. Recommendations can
+ * be restricted to the current method's project or package, to the packages
+ * that start with a prefix, to methods that are not private and to methods
+ * that are not test code. The filter is applied with the candidate sets a
+ * {@link CandidateScopes} keeps for every model snapshot.
+ * <p>
+ * A ScopeFilter is immutable. Two filters are equal if they restrict the
+ * recommendations the same way.
+ */
+public class ScopeFilter
+{
+    /**
+     * The filter that does not restrict the recommendations.
+     */
+    public static final ScopeFilter NONE = new ScopeFilter(false, false, "",
+            false, false);
+
+    private boolean sameProject;
+    private boolean samePackage;
+    private String packagePrefix;
+    private boolean excludePrivate;
+    private boolean excludeTests;
+
+    /**
+     * The constructor.
+     * 
+     * @param sameProject
+     *            Whether only methods of the current method's project are
+     *            recommended
+     * @param samePackage
+     *            Whether only methods of the current method's package are
+     *            recommended
+     * @param packagePrefix
+     *            The prefix the package of every recommended method starts
+     *            with, such as <code>org.example</code>, or an empty string
+     * @param excludePrivate
+     *            Whether private methods are left out
+     * @param excludeTests
+     *            Whether methods of test code are left out
+     */
+    public ScopeFilter(boolean sameProject, boolean samePackage,
+            String packagePrefix, boolean excludePrivate, boolean excludeTests)
+    {
+        this.sameProject = sameProject;
+        this.samePackage = samePackage;
+        this.packagePrefix = packagePrefix == null ? "" : packagePrefix.trim();
+        this.excludePrivate = excludePrivate;
+        this.excludeTests = excludeTests;
+    }
+
+    /**
+     * Returns True if only methods of the current method's project are
+     * recommended.
+     * 
+     * @return <ul>
+     *         <li>True if the recommendations are restricted to the project
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean sameProject()
+    {
+        return sameProject;
+    }
+
+    /**
+     * Returns True if only methods of the current method's package are
+     * recommended.
+     * 
+     * @return <ul>
+     *         <li>True if the recommendations are restricted to the package
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean samePackage()
+    {
+        return samePackage;
+    }
+
+    /**
+     * Returns the prefix the package of every recommended method starts with.
+     * 
+     * @return The package prefix, or an empty string if any package is
+     *         recommended
+     */
+    public String getPackagePrefix()
+    {
+        return packagePrefix;
+    }
+
+    /**
+     * Returns True if private methods are left out of the recommendations.
+     * 
+     * @return <ul>
+     *         <li>True if private methods are left out
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean excludePrivate()
+    {
+        return excludePrivate;
+    }
+
+    /**
+     * Returns True if methods of test code are left out of the
+     * recommendations.
+     * 
+     * @return <ul>
+     *         <li>True if test methods are left out
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean excludeTests()
+    {
+        return excludeTests;
+    }
+
+    /**
+     * Returns True if the filter does not restrict the recommendations.
+     * 
+     * @return <ul>
+     *         <li>True if every method may be recommended
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean isEmpty()
+    {
+        return !sameProject && !samePackage && packagePrefix.length() == 0
+                && !excludePrivate && !excludeTests;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof ScopeFilter))
+            return false;
+        ScopeFilter other = (ScopeFilter) o;
+        return sameProject == other.sameProject
+                && samePackage == other.samePackage
+                && packagePrefix.equals(other.packagePrefix)
+                && excludePrivate == other.excludePrivate
+                && excludeTests == other.excludeTests;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = packagePrefix.hashCode();
+        hash = 31 * hash + (sameProject ? 1 : 0);
+        hash = 31 * hash + (samePackage ? 1 : 0);
+        hash = 31 * hash + (excludePrivate ? 1 : 0);
+        hash = 31 * hash + (excludeTests ? 1 : 0);
+        return hash;
+    }
+}
@@ -0,0 +1,194 @@
+package recommendationsystem.model;
+
+/**
+ * TopNSelector selects the N highest scoring methods in a single pass over the
+ * candidates, without modifying the scores it is given. It keeps the best
+ * candidates seen so far in a bounded min-heap whose root is the weakest of
+ * them, so each candidate costs at most O(log N) and most are rejected by a
+ * single comparison with the root.
+ * <p>
+ * Only scores strictly greater than a minimum are selected. When two
+ * candidates have the same score, the one with the lower id ranks higher,
+ * which is the order a linear scan for the maximum would find them in.
+ * <p>
+ * Recommendations that are half visited and half unvisited methods are
+ * selected with two selectors, one for each kind of method, whose results are
+ * merged with <code>merge(TopNSelector, TopNSelector, int)</code>.
+ */
+public class TopNSelector
+{
+    private int capacity;
+    private float minScore;
+    private int size;
+    private int[] ids;
+    private float[] scores;
+
+    /**
+     * The constructor.
+     * 
+     * @param n
+     *            The number of candidates to select. Nothing is selected if
+     *            this is less than 1.
+     * @param minScore
+     *            Only candidates with a score greater than this are selected
+     */
+    public TopNSelector(int n, float minScore)
+    {
+        capacity = Math.max(0, n);
+        this.minScore = minScore;
+        ids = new int[capacity];
+        scores = new float[capacity];
+    }
+
+    /**
+     * Offers a candidate. It is kept if it is among the N best offered so far.
+     * 
+     * @param id
+     *            The id of the candidate
+     * @param score
+     *            The candidate's score
+     * @return <ul>
+     *         <li>True if the candidate is kept for now
+     *         <li>False if it was rejected
+     *         </ul>
+     */
+    public boolean offer(int id, float score)
+    {
+        if (!(score > minScore))
+            return false;
+
+        if (size < capacity)
+        {
+            // Sift the new candidate up from the bottom of the heap
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) / 2;
+                if (!isWeaker(score, id, scores[parent], ids[parent]))
+                    break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+
+        if (capacity == 0 || !isWeaker(scores[0], ids[0], score, id))
+            return false;
+        siftDown(ids, scores, size, id, score);
+        return true;
+    }
+
+    /**
+     * Returns the number of candidates currently selected.
+     * 
+     * @return The number of selected candidates, at most N
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the ids of the selected candidates, best first.
+     * 
+     * @return A new array of ids
+     */
+    public int[] getIds()
+    {
+        int[] sortedIds = new int[size];
+        sort(sortedIds, new float[size]);
+        return sortedIds;
+    }
+
+    /**
+     * Merges the candidates selected by two selectors into a single list, best
+     * first. Candidates offered to both are listed twice.
+     * 
+     * @param first
+     *            A selector
+     * @param second
+     *            Another selector
+     * @param n
+     *            The largest number of ids to return
+     * @return A new array of ids
+     */
+    public static int[] merge(TopNSelector first, TopNSelector second, int n)
+    {
+        int[] firstIds = new int[first.size];
+        float[] firstScores = new float[first.size];
+        int[] secondIds = new int[second.size];
+        float[] secondScores = new float[second.size];
+        first.sort(firstIds, firstScores);
+        second.sort(secondIds, secondScores);
+
+        int[] merged = new int[Math.max(0,
+                Math.min(n, firstIds.length + secondIds.length))];
+        int i = 0, j = 0;
+        for (int k = 0; k < merged.length; k++)
+        {
+            if (j == secondIds.length
+                    || (i < firstIds.length && !isWeaker(firstScores[i],
+                            firstIds[i], secondScores[j], secondIds[j])))
+                merged[k] = firstIds[i++];
+            else
+                merged[k] = secondIds[j++];
+        }
+        return merged;
+    }
+
+    /**
+     * Fills the arrays with the selected candidates, best first, by emptying a
+     * copy of the heap from its weakest candidate.
+     */
+    private void sort(int[] sortedIds, float[] sortedScores)
+    {
+        int[] heapIds = ids.clone();
+        float[] heapScores = scores.clone();
+        for (int last = size - 1; last > -1; last--)
+        {
+            sortedIds[last] = heapIds[0];
+            sortedScores[last] = heapScores[0];
+            siftDown(heapIds, heapScores, last, heapIds[last],
+                    heapScores[last]);
+        }
+    }
+
+    /**
+     * Replaces the root of a heap and sifts the new root down to its place.
+     */
+    private static void siftDown(int[] heapIds, float[] heapScores,
+            int heapSize, int id, float score)
+    {
+        int i = 0;
+        while (2 * i + 1 < heapSize)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize
+                    && isWeaker(heapScores[child + 1], heapIds[child + 1],
+                            heapScores[child], heapIds[child]))
+                child++;
+            if (!isWeaker(heapScores[child], heapIds[child], score, id))
+                break;
+            heapIds[i] = heapIds[child];
+            heapScores[i] = heapScores[child];
+            i = child;
+        }
+        if (heapSize > 0)
+        {
+            heapIds[i] = id;
+            heapScores[i] = score;
+        }
+    }
+
+    /**
+     * Returns true if the first candidate ranks below the second.
+     */
+    private static boolean isWeaker(float score, int id, float otherScore,
+            int otherId)
+    {
+        return score < otherScore || (score == otherScore && id > otherId);
+    }
+}
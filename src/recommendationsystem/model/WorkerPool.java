@@ -0,0 +1,142 @@
+package recommendationsystem.model;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * WorkerPool creates the thread pools the plug-in runs its parallel work on,
+ * and runs batches of tasks on them. Every pool is made of named daemon
+ * threads, so a pool that is abandoned or left idle never keeps Eclipse from
+ * shutting down.
+ */
+public class WorkerPool
+{
+    /**
+     * The constructor. WorkerPool only has static members.
+     */
+    private WorkerPool()
+    {
+    }
+
+    /**
+     * Creates a pool with a fixed number of daemon threads.
+     * 
+     * @param name
+     *            The name of the threads, which are numbered from 1
+     * @param numThreads
+     *            The number of threads
+     * @return The pool
+     */
+    public static ExecutorService create(String name, int numThreads)
+    {
+        return Executors.newFixedThreadPool(Math.max(1, numThreads),
+                new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Runs the given tasks on a new pool and waits for all of them to finish.
+     * Each task returns the amount of work it did. As tasks complete, the
+     * finished fraction of totalWork is reported to the monitor as a fraction
+     * of units. All tasks are abandoned as soon as the monitor is cancelled.
+     * 
+     * @param name
+     *            The name of the threads
+     * @param numThreads
+     *            The number of threads to run the tasks on
+     * @param tasks
+     *            The tasks to run
+     * @param totalWork
+     *            The sum of the values returned by all tasks
+     * @param units
+     *            The number of units of work to report to the monitor
+     * @param monitor
+     *            The monitor to report progress to and check for cancellation
+     * @return <ul>
+     *         <li>True if all the tasks completed
+     *         <li>False if the monitor was cancelled or the thread interrupted
+     *         </ul>
+     */
+    public static boolean runTasks(String name, int numThreads,
+            List<? extends Callable<Long>> tasks, double totalWork,
+            int units, IProgressMonitor monitor)
+    {
+        ExecutorService pool = create(name, numThreads);
+        CompletionService<Long> completed = new ExecutorCompletionService<Long>(
+                pool);
+        int remaining = tasks.size();
+        long doneWork = 0;
+        int reported = 0, done;
+        Future<Long> task;
+
+        try
+        {
+            for (Callable<Long> t : tasks)
+            {
+                completed.submit(t);
+            }
+
+            while (remaining > 0)
+            {
+                task = completed.poll(100, TimeUnit.MILLISECONDS);
+                if (monitor.isCanceled())
+                    return false;
+                if (task == null)
+                    continue;
+
+                doneWork += task.get();
+                remaining--;
+                done = totalWork > 0 ? (int) (doneWork / totalWork * units)
+                        : units;
+                monitor.worked(done - reported);
+                reported = done;
+            }
+            monitor.worked(units - reported);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates numbered daemon threads.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+        private String name;
+        private int count = 0;
+
+        private DaemonThreadFactory(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, name + " " + (++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
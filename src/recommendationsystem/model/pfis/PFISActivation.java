@@ -0,0 +1,129 @@
+package recommendationsystem.model.pfis;
+
+import java.util.Arrays;
+
+/**
+ * PFISActivation holds the weights of one spreading activation query on a
+ * {@link PFISTopology}. It is sized for the words and methods of a topology
+ * and can be reused for any number of queries on topologies of the same size,
+ * so a caller that runs many queries does not allocate arrays for each of
+ * them.
+ * <p>
+ * Besides the weights of the words and methods, it keeps the total weight each
+ * word spreads into its methods, the ids of the words that were spread from
+ * and the ids of the methods they link to. Every other word and method keeps
+ * its initial weight of 1, so only the touched ones are reset before the next
+ * query and looked at for recommendations, and the cost of a query follows
+ * the part of the topology it activates rather than the whole topology.
+ * <p>
+ * An activation must only be used by one thread at a time.
+ */
+public class PFISActivation
+{
+    float[] wordWeights;
+    float[] wordSpread;
+    float[] methodWeights;
+    int[] activeWords;
+    int numActiveWords;
+    int[] touchedMethods;
+    int numTouchedMethods;
+    boolean allMethodsTouched;
+
+    /**
+     * The constructor.
+     * 
+     * @param topology
+     *            The topology the activation is sized for
+     */
+    public PFISActivation(PFISTopology topology)
+    {
+        int numWords = topology.getNumWords();
+        wordWeights = new float[numWords];
+        Arrays.fill(wordWeights, 1F);
+        wordSpread = new float[numWords];
+        methodWeights = new float[topology.getMethodKeyIndex().size()];
+        Arrays.fill(methodWeights, 1F);
+        activeWords = new int[numWords];
+        touchedMethods = new int[methodWeights.length];
+    }
+
+    /**
+     * Returns True if the activation can be used for queries on the given
+     * topology.
+     * 
+     * @param topology
+     *            The topology
+     * @return <ul>
+     *         <li>True if the topology has as many words and methods as the
+     *         activation was sized for
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean fits(PFISTopology topology)
+    {
+        return topology.getNumWords() == wordWeights.length
+                && topology.getMethodKeyIndex().size() == methodWeights.length;
+    }
+
+    /**
+     * Returns the weight of every method after the last query.
+     * 
+     * @return The weights indexed by method id, which must not be modified
+     */
+    public float[] getMethodWeights()
+    {
+        return methodWeights;
+    }
+
+    /**
+     * Returns the number of methods whose weight the last query may have
+     * changed. Every other method has a weight of 1.
+     * 
+     * @return The number of methods
+     */
+    public int getNumTouchedMethods()
+    {
+        return allMethodsTouched ? methodWeights.length : numTouchedMethods;
+    }
+
+    /**
+     * Returns the id of a method whose weight the last query may have changed.
+     * 
+     * @param i
+     *            The index of the method, below
+     *            <code>getNumTouchedMethods()</code>
+     * @return The method's id
+     */
+    public int getTouchedMethod(int i)
+    {
+        return allMethodsTouched ? i : touchedMethods[i];
+    }
+
+    /**
+     * Resets the words and methods the last query touched to their initial
+     * weight.
+     */
+    void reset()
+    {
+        for (int i = 0; i < numActiveWords; i++)
+        {
+            wordWeights[activeWords[i]] = 1F;
+            wordSpread[activeWords[i]] = 0F;
+        }
+        numActiveWords = 0;
+
+        if (allMethodsTouched)
+        {
+            Arrays.fill(methodWeights, 1F);
+        }
+        else
+        {
+            for (int i = 0; i < numTouchedMethods; i++)
+            {
+                methodWeights[touchedMethods[i]] = 1F;
+            }
+        }
+        numTouchedMethods = 0;
+        allMethodsTouched = false;
+    }
+}
@@ -2,18 +2,29 @@ package recommendationsystem.model.pfis;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
 import recommendationsystem.controllers.DbManager;
+import recommendationsystem.model.BatchQuery;
+import recommendationsystem.model.BatchScorer;
 import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.MethodKeyIndex;
+import recommendationsystem.model.ScopeFilter;
+import recommendationsystem.model.WorkerPool;
 
 /**
  * PFISMatrix is the data representation of the PFIS topology. It is one of the
  * models driving recommendations available in this plug-in. It consists of
- * three {@link PFISNodeList} types: {@link PFISHistoryList},
- * {@link PFISWordList} and {@link PFISMethodList}. Each of the nodes is linked
- * in the sequentially as follows:
+ * a history and two {@link PFISNodeList} types: {@link PFISWordList} and
+ * {@link PFISMethodList}. Each of the nodes is linked in the sequentially as
+ * follows:
  * <ul>
  * <li>History nodes link to word nodes.
- * <li>A method in the PFISHistoryList has a link for every instance of a word
+ * <li>A method in the history has a link for every instance of a word
  * to the corresponding node in the PFISWordList.
  * <li>Word nodes link to method nodes.
  * <li>A word node has only one link to any method in PFISMethodList.
@@ -23,9 +34,19 @@ import recommendationsystem.model.MethodHistory;
  * activation only occurs starting at the current location.
  * <p>
  * PFISMatrix makes its recommendations by spreading activation from the
- * PFISHistoryList to the PFISWordList and then to the PFISMethodList. Of all
- * the methods that were activated in the PFISMethodList, the top N are returned
- * as recommendations.
+ * history to the words and then to the methods. Of all the methods that were
+ * activated, the top N are returned as recommendations.
+ * <p>
+ * The word and method lists are only used to build a topology. Once it is
+ * built, it is published as an immutable {@link PFISTopology} snapshot through
+ * an atomic reference, along with the history. Queries read the current
+ * snapshot once and keep their weights to themselves, so they are not
+ * synchronized and any number of them can run at once, including while a new
+ * topology is built. Only the methods that publish a snapshot are synchronized.
+ * On a large topology, the weights of a single query are summed on a pool of
+ * daemon threads, one per processor. The activation of the last query is kept
+ * for the next one, so a query only resets and ranks the words and methods it
+ * touches.
  * <p>
  * PFISMatrix is a singleton class. Call <code>getInstance()</code> to use it.
  * 
@@ -36,12 +57,17 @@ public class PFISMatrix
 {
     private static PFISMatrix instance;
 
-    private PFISHistoryList historyList;
     private PFISWordList wordList;
     private PFISMethodList methodList;
     private DbManager dbManager;
     private ResultSet rs;
 
+    private AtomicReference<PFISTopology> topology;
+    private long version;
+    private ExecutorService spreadingPool;
+    private int numSpreadingThreads;
+    private AtomicReference<PFISActivation> spareActivation;
+
     /**
      * The singleton constructor.
      */
@@ -79,70 +105,141 @@ public class PFISMatrix
      */
     private void init()
     {
-        historyList = PFISHistoryList.getInstance();
         wordList = PFISWordList.getInstance();
         methodList = PFISMethodList.getInstance();
         dbManager = DbManager.getInstance();
+        topology = new AtomicReference<PFISTopology>(new PFISTopology(
+                wordList.getList(), methodList.getList(), 0));
+        numSpreadingThreads = Runtime.getRuntime().availableProcessors();
+        spreadingPool = WorkerPool.create("PFIS spreading worker",
+                numSpreadingThreads);
+        spareActivation = new AtomicReference<PFISActivation>();
+    }
+
+    /**
+     * Resets the word and method lists a new topology is built in. The
+     * published topology keeps serving recommendations until
+     * <code>publish()</code> is called. This method is synchronized.
+     */
+    public synchronized void reset()
+    {
+        wordList.clear();
+        methodList.clear();
     }
 
     /**
-     * Resets all the data structures. This clears all the nodes in the
-     * topology.
+     * Publishes the topology built in the word and method lists, with the
+     * current MethodHistory copied into its history, then empties the lists.
+     * This method is synchronized.
      */
-    public void reset()
+    public synchronized void publish()
     {
-        historyList.clear();
+        PFISTopology built = new PFISTopology(wordList.getList(),
+                methodList.getList(), ++version);
         wordList.clear();
         methodList.clear();
+        setHistory(built);
     }
 
     /**
-     * Clears the current PFISHistoryList and copies the current MethodHistory
-     * into the PFISHistoryList, adding all the necessary word links along the
-     * way.
+     * Publishes a topology of words and methods that were saved before. If
+     * the saved history is the current MethodHistory, the saved word ids of its
+     * steps are used. Otherwise the history is copied from MethodHistory as
+     * in <code>publish()</code>. The lists a new topology is built in are not
+     * used. This method is synchronized.
+     * 
+     * @param words
+     *            The words in the order of their ids
+     * @param methodKeys
+     *            The method keys in the order of their ids
+     * @param wordMethods
+     *            The ids of the methods each word links to
+     * @param historyKeys
+     *            The method keys of the saved history, oldest first, or null
+     * @param history
+     *            The word ids of each step of the saved history, or null
      */
-    public void setHistory()
+    public synchronized void publish(String[] words, String[] methodKeys,
+            int[][] wordMethods, String[] historyKeys, int[][] history)
+    {
+        PFISTopology built = new PFISTopology(words, methodKeys, wordMethods,
+                ++version);
+        if (historyKeys != null && history != null
+                && history.length == historyKeys.length
+                && Arrays.equals(historyKeys, MethodHistory.getInstance()
+                        .getMethodHistory()))
+            topology.set(built.withHistory(Arrays.asList(historyKeys), Arrays
+                    .asList(history), ++version));
+        else
+            setHistory(built);
+    }
+
+    /**
+     * Copies the current MethodHistory into the history of the published
+     * topology, adding all the necessary word links along the way. This method
+     * is synchronized.
+     */
+    public synchronized void setHistory()
+    {
+        setHistory(topology.get());
+    }
+
+    /**
+     * Publishes the given topology with every step of the current
+     * MethodHistory as its history.
+     */
+    private void setHistory(PFISTopology target)
     {
         MethodHistory hist = MethodHistory.getInstance();
-        historyList.clear();
+        List<String> stepKeys = new ArrayList<String>();
+        List<int[]> steps = new ArrayList<int[]>();
         for (String methodKey : hist.getMethodHistory())
         {
-            addToHistory(methodKey);
+            stepKeys.add(methodKey);
+            steps.add(target.getWordIds(getWords(methodKey)));
         }
+        topology.set(target.withHistory(stepKeys, steps, ++version));
     }
 
     /**
-     * Returns the PFISWordList from the current topology.
+     * Returns the current snapshot of the topology.
      * 
-     * @return A pointer to the PFISWordList
+     * @return The published topology
      */
-    public PFISNodeList getWordList()
+    public PFISTopology getTopology()
     {
-        return wordList;
+        return topology.get();
     }
 
     /**
-     * Adds the given methodKey to the history in PFISHistoryList. Each method
-     * added is given a starting weight of 1 and has the current word nodes from
-     * PFISWordList properly connected.
+     * Adds the given methodKey to the history of the published topology. The
+     * new step is connected to the method's words in the topology. This method
+     * is synchronized.
      * 
      * @param methodKey
      *            The current method's key
      */
-    public void addToHistory(String methodKey)
+    public synchronized void addToHistory(String methodKey)
     {
-        PFISNode node = historyList.addNode(methodKey);
-        node.setWeight(1);
+        PFISTopology current = topology.get();
+        int[] step = current.getWordIds(getWords(methodKey));
+        topology.set(current.withHistoryStep(methodKey, step, ++version));
+    }
+
+    /**
+     * Returns the words of a method from the database.
+     */
+    private List<String> getWords(String methodKey)
+    {
+        List<String> words = new ArrayList<String>();
         int methodId = dbManager.getMethodIdFromMethodKey(methodKey);
-        String word = null;
 
         try
         {
             rs = dbManager.getWordsFromMethodId(methodId);
             while (rs.next())
             {
-                word = rs.getString(2);
-                node.addChild(wordList.getNode(word));
+                words.add(rs.getString(2));
             }
             rs.close();
         }
@@ -151,37 +248,35 @@ public class PFISMatrix
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
+        return words;
     }
 
     /**
-     * Resets all the weights in the topology to 1.
-     */
-    private void resetWeights()
-    {
-        historyList.resetWeights();
-        wordList.resetWeights();
-        methodList.resetWeights();
-    }
-
-    /**
-     * Runs the spreading activation algorithm, starting in the PFISHistory
-     * list. Spreading will continue through the PFISWordList and then the
-     * PFISMethodList. Activation will only spread for the given number of nodes
-     * from the current method up to the number of nodes most recently in the
-     * past.
+     * Returns up to the top N recommendations by running the PFIS algorithm
+     * over the topology. This method reads a single snapshot of the topology
+     * and is not synchronized.
      * 
-     * @param numSpreadingNodes
-     *            The number of nodes to spread from
+     * @param methodKey
+     *            The current method's key
+     * @param numToRecommend
+     *            The maximum number of recommendations to return
+     * @param numToSpreadFrom
+     *            The number of history nodes to start spreading from
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than numToRecommend.
      */
-    private void spreadActivation(int numSpreadingNodes)
+    public String[] getTopNRecommendations(String methodKey,
+            int numToRecommend, int numToSpreadFrom)
     {
-        historyList.decayList(0.9F, numSpreadingNodes);
-        historyList.spreadActivation(0.85F, numSpreadingNodes);
+        return getTopNRecommendations(methodKey, numToRecommend,
+                numToSpreadFrom, ScopeFilter.NONE);
     }
 
     /**
-     * Returns up to the top N recommendations by running the PFIS algorithm
-     * over the topology. This method is synchronized.
+     * Returns up to the top N recommendations like
+     * <code>getTopNRecommendations(String, int, int)</code>, only choosing
+     * from the methods in the given scope.
      * 
      * @param methodKey
      *            The current method's key
@@ -189,23 +284,116 @@ public class PFISMatrix
      *            The maximum number of recommendations to return
      * @param numToSpreadFrom
      *            The number of history nodes to start spreading from
+     * @param scope
+     *            The scope to restrict the recommendations to
      * @return A string array of method keys which represents an ordered list or
      *         recommendations. The zero index is the highest recommendation.
      *         Note that this array may be smaller than numToRecommend.
      */
-    public synchronized String[] getTopNRecommendations(String methodKey,
-            int numToRecommend, int numToSpreadFrom)
+    public String[] getTopNRecommendations(String methodKey,
+            int numToRecommend, int numToSpreadFrom, ScopeFilter scope)
+    {
+        PFISTopology current = topology.get();
+        // Queries running at the same time each need an activation of their
+        // own, so only one of them reuses the spare one
+        PFISActivation activation = spareActivation.getAndSet(null);
+        if (activation == null || !activation.fits(current))
+            activation = new PFISActivation(current);
+        current.spreadActivation(numToSpreadFrom, activation, spreadingPool,
+                numSpreadingThreads);
+
+        String[] rv = current.getTopNMethodsHalfAndHalf(activation, methodKey,
+                numToRecommend, MethodHistory.getInstance()
+                        .getUniqueVisitedMethods(), scope);
+        spareActivation.set(activation);
+        return rv;
+    }
+
+    /**
+     * Returns up to the top N recommendations for each of the given queries by
+     * running the PFIS algorithm over a single snapshot of the topology. Each
+     * query spreads from its own history rather than the one in the topology.
+     * The words of each history step are the words that link to its method in
+     * the topology, so the database is not read. The queries are scored on the
+     * given number of threads, and each thread reuses its weight arrays from
+     * one query to the next. This method is not synchronized.
+     * 
+     * @param queries
+     *            The queries to score. The number of history steps of a query
+     *            is the number of history nodes to start spreading from.
+     * @param numThreads
+     *            The number of threads to score on
+     * @return <ul>
+     *         <li>The method keys recommended for each query, best first, in
+     *         the order of the queries
+     *         <li>null if the thread was interrupted
+     *         </ul>
+     */
+    public String[][] getTopNRecommendationsBatch(List<BatchQuery> queries,
+            int numThreads)
+    {
+        final PFISTopology current = topology.get();
+        return new BatchScorer()
+        {
+            @Override
+            protected Worker createWorker()
+            {
+                return new BatchWorker(current);
+            }
+        }.score(queries, numThreads);
+    }
+
+    /**
+     * BatchWorker scores blocks of batch queries against a single snapshot of
+     * the topology, keeping its weight arrays from one query to the next.
+     */
+    private static class BatchWorker implements BatchScorer.Worker
     {
-        resetWeights();
-        spreadActivation(numToSpreadFrom);
+        private static final int[] NO_WORDS = new int[0];
 
-        //return methodList.getTopNMethods(methodKey, numToRecommend);
-        return methodList.getTopNMethodsHalfAndHalf(methodKey, numToRecommend);
+        private PFISTopology current;
+        private PFISActivation activation;
+
+        private BatchWorker(PFISTopology current)
+        {
+            this.current = current;
+            activation = new PFISActivation(current);
+        }
+
+        @Override
+        public String[][] recommend(List<BatchQuery> block)
+        {
+            MethodKeyIndex methodKeys = current.getMethodKeyIndex();
+            String[][] rv = new String[block.size()][];
+            for (int q = 0; q < rv.length; q++)
+            {
+                BatchQuery query = block.get(q);
+                List<String> history = query.getHistory();
+                int numSteps = Math.min(history.size(), Math.max(0, query
+                        .getNumHistorySteps()));
+
+                // Only the steps that are spread from are looked up
+                int[][] steps = new int[numSteps][];
+                for (int i = 0; i < numSteps; i++)
+                {
+                    int methodId = methodKeys.getId(history.get(history
+                            .size() - numSteps + i));
+                    steps[i] = methodId > -1 ? current
+                            .getWordsOfMethod(methodId) : NO_WORDS;
+                }
+
+                current.spreadActivation(steps, numSteps, activation);
+                rv[q] = current.getTopNMethodsHalfAndHalf(activation, query
+                        .getMethodKey(), query.getNumRecommendations(), query
+                        .getUniqueVisitedMethods(), ScopeFilter.NONE);
+            }
+            return rv;
+        }
     }
 
     /**
-     * Adds a word to the PFISWordList in the current topology. If the word does
-     * not exist in the list, the pointer to the PFISNode points to the new
+     * Adds a word to the PFISWordList a new topology is built in. If the word
+     * does not exist in the list, the pointer to the PFISNode points to the new
      * node. If the word exists, then a pointer points to the existing node.
      * 
      * @param word
@@ -218,7 +406,7 @@ public class PFISMatrix
     }
 
     /**
-     * Adds a method to the PFISMethodList in the current topology. If the
+     * Adds a method to the PFISMethodList a new topology is built in. If the
      * method does not exist in the list, the pointer to the PFISNode points to
      * the new node. If the method exists, then a pointer points to the existing
      * node.
@@ -1,6 +1,6 @@
 package recommendationsystem.model.pfis;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -44,32 +44,22 @@ public class PFISNode implements Comparable<PFISNode>
     {
         this.name = name;
         this.type = type;
-        children = new LinkedList<PFISNode>();
+        children = new ArrayList<PFISNode>();
         nodeWeight = 0;
     }
 
     /**
-     * Adds a child to the list of children in this node. This will check if the
-     * passed in node already exists among the children and replace the passed
-     * in node with an existing one among children if the node already exists.
+     * Adds a child to the list of children in this node. The children are not
+     * searched for the node first, so a node that is added twice is listed
+     * twice. The duplicate link is dropped when a {@link PFISTopology} is
+     * built from this node.
      * 
      * @param node
      *            The node to add to the list of children
      */
     public void addChild(PFISNode node)
     {
-        // TODO: Check if this can be removed
-        if (children.contains(node))
-        {
-            // if (node.isWord())
-            // {
-            node = children.get(children.indexOf(node));
-            // }
-        }
-        else
-        {
-            children.add(node);
-        }
+        children.add(node);
     }
 
     /**
@@ -1,17 +1,22 @@
 package recommendationsystem.model.pfis;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * PFISNodeList is a collection of {@link PFISNode} types that is extended by
- * {@link PFISHistoryList}, {@link PFISWordList} and {@link PFISMethodList}. It
+ * {@link PFISWordList} and {@link PFISMethodList}. It
  * is a collection of PFISNodes. This class is not intended to be used directly,
  * it is meant to be extended by other classes. Extending classes are meant to
  * implement the singleton paradigm.
  * <p>
  * This class provides general methods for adding and manipulating nodes to the
- * collection.
+ * collection. The nodes are also hashed by name, so a node is found in
+ * constant time rather than by scanning the list. The list keeps the order the
+ * nodes were added in, and should only be changed through this class so the
+ * two stay in step.
  * 
  * @author David Piorkowski
  * 
@@ -19,6 +24,7 @@ import java.util.List;
 public class PFISNodeList
 {
     protected List<PFISNode> list;
+    private Map<String, PFISNode> nodesByName;
 
     /**
      * Initializes the private class variables used.
@@ -26,6 +32,7 @@ public class PFISNodeList
     protected void init()
     {
         list = new ArrayList<PFISNode>();
+        nodesByName = new HashMap<String, PFISNode>();
     }
 
     /**
@@ -43,6 +50,7 @@ public class PFISNodeList
     protected void clear()
     {
         list.clear();
+        nodesByName.clear();
     }
 
     /**
@@ -56,6 +64,9 @@ public class PFISNodeList
     protected PFISNode addNode(PFISNode node)
     {
         list.add(node);
+        // The first node with a name is the one that is found by name
+        if (!nodesByName.containsKey(node.getName()))
+            nodesByName.put(node.getName(), node);
         return node;
     }
 
@@ -75,12 +86,12 @@ public class PFISNodeList
      */
     protected PFISNode addNodeNoDuplicate(PFISNode node)
     {
-        if (list.contains(node))
-        {
-            return list.get(list.indexOf(node));
-        }
+        PFISNode existing = nodesByName.get(node.getName());
+        if (existing != null)
+            return existing;
 
         list.add(node);
+        nodesByName.put(node.getName(), node);
         return node;
     }
 
@@ -97,12 +108,7 @@ public class PFISNodeList
      */
     protected PFISNode getNode(String name)
     {
-        for (PFISNode node : list)
-        {
-            if (node.getName().equals(name))
-                return node;
-        }
-        return null;
+        return nodesByName.get(name);
     }
 
     /**
@@ -126,33 +132,4 @@ public class PFISNodeList
         return list.size();
     }
 
-    /**
-     * Sets the weight of all the nodes in this list to weight 1.
-     */
-    public void resetWeights()
-    {
-        for (PFISNode node : list)
-        {
-            node.setWeight(1F);
-        }
-    }
-
-    /**
-     * Spread activation from all nodes in this list to its children with the
-     * given decay factor.
-     * 
-     * @param decay
-     *            The decay factor
-     */
-    public void spreadActivation(float decay)
-    {
-        for (PFISNode node : list)
-        {
-            for (PFISNode child : node.getChildren())
-            {
-                child.spreadActivation(node.getWeight(), decay);
-            }
-        }
-    }
-
 }
@@ -0,0 +1,1009 @@
+package recommendationsystem.model.pfis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.CandidateScopes;
+import recommendationsystem.model.MethodKeyIndex;
+import recommendationsystem.model.MethodScopes;
+import recommendationsystem.model.ScopeFilter;
+import recommendationsystem.model.TopNSelector;
+
+/**
+ * PFISTopology is an immutable snapshot of the PFIS topology that
+ * {@link PFISMatrix} recommends from. Words and methods are numbered in the
+ * order of {@link PFISWordList} and {@link PFISMethodList} when the snapshot
+ * was taken, and each step of the history keeps its method's key and the ids
+ * of the words it links to. The candidate sets of the methods are built with
+ * the snapshot.
+ * <p>
+ * The links are kept in compressed sparse row form, once from the words to
+ * the methods and once from the methods to the words. The ids a word links to
+ * are stored one after the other in a single array, from the word's start
+ * offset up to the next word's, so spreading activation walks flat int arrays
+ * instead of node objects. A {@link Builder} collects the links and drops the
+ * duplicates when the arrays are built.
+ * <p>
+ * Spreading activation never changes the snapshot. The weights of the words
+ * and methods are kept in a {@link PFISActivation} that belongs to a single
+ * query, so any number of queries can run on the same snapshot at once without
+ * locks. On a large topology, the weights of the methods of a single query can
+ * also be summed in parallel, split by method. Adding a step to the history
+ * creates a new snapshot that shares everything else with this one.
+ */
+public class PFISTopology
+{
+    private static final float HISTORY_DECAY = 0.9F;
+    private static final float SPREADING_DECAY = 0.85F;
+    private static final int MIN_LINKS_PER_TASK = 1 << 16;
+
+    private String[] words;
+    private Map<String, Integer> wordIds;
+    private MethodKeyIndex methodKeys;
+    private CandidateScopes scopes;
+    private int[] wordStarts;
+    private int[] wordLinks;
+    private int[] methodStarts;
+    private int[] methodLinks;
+    private String[] historyKeys;
+    private int[][] history;
+    private long topologyVersion;
+    private long version;
+
+    /**
+     * The constructor. Takes a snapshot of the given node lists with an empty
+     * history.
+     * 
+     * @param wordNodes
+     *            The word nodes, each linked to its method nodes
+     * @param methodNodes
+     *            The method nodes
+     * @param version
+     *            The version of the snapshot
+     */
+    public PFISTopology(List<PFISNode> wordNodes, List<PFISNode> methodNodes,
+            long version)
+    {
+        this(link(wordNodes, methodNodes), version);
+    }
+
+    /**
+     * The constructor. Takes a snapshot of words and methods that were saved
+     * before, with an empty history.
+     * 
+     * @param words
+     *            The words in the order of their ids
+     * @param methodKeys
+     *            The method keys in the order of their ids
+     * @param wordMethods
+     *            The ids of the methods each word links to
+     * @param version
+     *            The version of the snapshot
+     */
+    public PFISTopology(String[] words, String[] methodKeys,
+            int[][] wordMethods, long version)
+    {
+        this(link(words, methodKeys, wordMethods), version);
+    }
+
+    /**
+     * Takes the words, methods and links collected by a builder, then builds
+     * the candidate sets and finds the words of every method.
+     */
+    private PFISTopology(Builder builder, long version)
+    {
+        words = builder.words.toArray(new String[builder.words.size()]);
+        wordIds = builder.wordIds;
+        methodKeys = builder.methodKeys;
+        builder.compress();
+        wordStarts = builder.starts;
+        wordLinks = builder.links;
+        scopes = MethodScopes.getInstance().getCandidateScopes(methodKeys);
+
+        // Invert the links so the words of a method can be found without the
+        // database. The words of each method stay in the order of their ids.
+        methodStarts = new int[methodKeys.size() + 1];
+        for (int method : wordLinks)
+        {
+            methodStarts[method + 1]++;
+        }
+        for (int i = 0; i < methodKeys.size(); i++)
+        {
+            methodStarts[i + 1] += methodStarts[i];
+        }
+        methodLinks = new int[wordLinks.length];
+        int[] next = Arrays.copyOf(methodStarts, methodKeys.size());
+        for (int word = 0; word < words.length; word++)
+        {
+            for (int i = wordStarts[word]; i < wordStarts[word + 1]; i++)
+            {
+                methodLinks[next[wordLinks[i]]++] = word;
+            }
+        }
+        historyKeys = new String[0];
+        history = new int[0][];
+        topologyVersion = version;
+        this.version = version;
+    }
+
+    /**
+     * Creates a snapshot that shares the words and methods of another one but
+     * has a different history.
+     */
+    private PFISTopology(PFISTopology other, String[] historyKeys,
+            int[][] history, long version)
+    {
+        words = other.words;
+        wordIds = other.wordIds;
+        methodKeys = other.methodKeys;
+        scopes = other.scopes;
+        wordStarts = other.wordStarts;
+        wordLinks = other.wordLinks;
+        methodStarts = other.methodStarts;
+        methodLinks = other.methodLinks;
+        topologyVersion = other.topologyVersion;
+        this.historyKeys = historyKeys;
+        this.history = history;
+        this.version = version;
+    }
+
+    /**
+     * Collects the words of the given nodes and their links to the methods.
+     */
+    private static Builder link(List<PFISNode> wordNodes,
+            List<PFISNode> methodNodes)
+    {
+        String[] keys = new String[methodNodes.size()];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = methodNodes.get(i).getName();
+        }
+        Builder builder = new Builder(keys);
+        for (PFISNode wordNode : wordNodes)
+        {
+            int word = builder.addWord(wordNode.getName());
+            for (PFISNode child : wordNode.getChildren())
+            {
+                int methodId = builder.methodKeys.getId(child.getName());
+                if (methodId > -1)
+                    builder.addLink(word, methodId);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Collects saved words and their links to the methods.
+     */
+    private static Builder link(String[] words, String[] methodKeys,
+            int[][] wordMethods)
+    {
+        Builder builder = new Builder(methodKeys);
+        for (int i = 0; i < words.length; i++)
+        {
+            int word = builder.addWord(words[i]);
+            for (int method : wordMethods[i])
+            {
+                builder.addLink(word, method);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Returns a snapshot with the same words and methods and the given history.
+     * 
+     * @param stepKeys
+     *            The method key of each step of the history, oldest first
+     * @param steps
+     *            The word ids of each step of the history, oldest first, as
+     *            returned by <code>getWordIds(List)</code>
+     * @param newVersion
+     *            The version of the new snapshot
+     * @return The new snapshot
+     */
+    public PFISTopology withHistory(List<String> stepKeys, List<int[]> steps,
+            long newVersion)
+    {
+        return new PFISTopology(this, stepKeys.toArray(new String[stepKeys
+                .size()]), steps.toArray(new int[steps.size()][]), newVersion);
+    }
+
+    /**
+     * Returns a snapshot with the same words, methods and history, and one
+     * more step at the end of the history.
+     * 
+     * @param stepKey
+     *            The method key of the new step
+     * @param step
+     *            The word ids of the new step, as returned by
+     *            <code>getWordIds(List)</code>
+     * @param newVersion
+     *            The version of the new snapshot
+     * @return The new snapshot
+     */
+    public PFISTopology withHistoryStep(String stepKey, int[] step,
+            long newVersion)
+    {
+        String[] keys = Arrays.copyOf(historyKeys, historyKeys.length + 1);
+        keys[historyKeys.length] = stepKey;
+        int[][] steps = Arrays.copyOf(history, history.length + 1);
+        steps[history.length] = step;
+        return new PFISTopology(this, keys, steps, newVersion);
+    }
+
+    /**
+     * Returns the ids of the given words. Each word is listed once, in the
+     * order it first appears, and words that are not in the topology are left
+     * out.
+     * 
+     * @param methodWords
+     *            The words of a method
+     * @return The ids of the words
+     */
+    public int[] getWordIds(List<String> methodWords)
+    {
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (String word : methodWords)
+        {
+            Integer id = wordIds.get(word);
+            if (id != null)
+                ids.add(id);
+        }
+
+        int[] rv = new int[ids.size()];
+        int i = 0;
+        for (int id : ids)
+        {
+            rv[i++] = id;
+        }
+        return rv;
+    }
+
+    /**
+     * Runs the spreading activation algorithm from the most recent steps of
+     * the history. Every word and method starts with a weight of 1. The most
+     * recent step has a weight of 1 and each older step is decayed by a factor
+     * that is squared from one step to the next. Each step spreads its decayed
+     * weight into its words, and each word then spreads its current weight
+     * into its methods.
+     * 
+     * @param numSpreadingNodes
+     *            The number of history steps to spread from
+     * @return The weight of every method, indexed by method id
+     */
+    public float[] spreadActivation(int numSpreadingNodes)
+    {
+        PFISActivation activation = new PFISActivation(this);
+        spreadActivation(history, numSpreadingNodes, activation);
+        return activation.getMethodWeights();
+    }
+
+    /**
+     * Runs the spreading activation algorithm from the most recent steps of
+     * the history, like <code>spreadActivation(int)</code>, on up to the
+     * given number of tasks of the pool.
+     * 
+     * @param numSpreadingNodes
+     *            The number of history steps to spread from
+     * @param activation
+     *            The activation the weights are written into
+     * @param pool
+     *            The pool to run the tasks on
+     * @param numTasks
+     *            The largest number of tasks to split the methods into
+     */
+    public void spreadActivation(int numSpreadingNodes,
+            PFISActivation activation, ExecutorService pool, int numTasks)
+    {
+        spreadActivation(history, numSpreadingNodes, activation, pool,
+                numTasks);
+    }
+
+    /**
+     * Runs the spreading activation algorithm from the most recent of the
+     * given steps, like <code>spreadActivation(int)</code> does from the
+     * history. The weights are written into the given activation, so a caller
+     * that runs many queries can reuse it.
+     * 
+     * @param steps
+     *            The word ids of each step, oldest first
+     * @param numSpreadingNodes
+     *            The number of steps to spread from
+     * @param activation
+     *            The activation the weights are written into
+     */
+    public void spreadActivation(int[][] steps, int numSpreadingNodes,
+            PFISActivation activation)
+    {
+        spreadWords(steps, numSpreadingNodes, activation);
+        pushToMethods(activation);
+    }
+
+    /**
+     * Runs the spreading activation algorithm from the most recent of the
+     * given steps like <code>spreadActivation(int[][], int,
+     * PFISActivation)</code>, on up to the given number of tasks of the pool.
+     * <p>
+     * The weights of the methods are the product of the transposed word to
+     * method links and the weights spread by the words. The product is split
+     * into ranges of methods with about as many links each, and every task
+     * sums the links into its own methods, so the tasks never write to the
+     * same weight. The product reads every link, so it is only split if the
+     * words that were spread from link to more methods than a task would read.
+     * Otherwise the links of those words are followed on the calling thread.
+     * The weights are the same either way.
+     * 
+     * @param steps
+     *            The word ids of each step, oldest first
+     * @param numSpreadingNodes
+     *            The number of steps to spread from
+     * @param activation
+     *            The activation the weights are written into
+     * @param pool
+     *            The pool to run the tasks on
+     * @param numTasks
+     *            The largest number of tasks to split the methods into
+     */
+    public void spreadActivation(int[][] steps, int numSpreadingNodes,
+            final PFISActivation activation, ExecutorService pool,
+            int numTasks)
+    {
+        long activeLinks = spreadWords(steps, numSpreadingNodes, activation);
+        // On one thread, following a link costs 2.5 to 4 times as much as
+        // summing one, so splitting only pays once the active links exceed a
+        // third of the links per task. Waiting for a full task's share leaves
+        // that much room for the pool and for memory bandwidth, and a task
+        // sums at least MIN_LINKS_PER_TASK links, about 0.1 ms of work.
+        numTasks = Math.min(numTasks, wordLinks.length / MIN_LINKS_PER_TASK);
+        if (numTasks <= 1 || activeLinks * numTasks <= wordLinks.length)
+        {
+            pushToMethods(activation);
+            return;
+        }
+        pullToMethods(activation, pool, numTasks);
+    }
+
+    /**
+     * Sets the weight of every method on the given number of tasks of the
+     * pool, each summing the links into a range of methods. The tasks write
+     * into the activation, so every one of them is waited for, even if the
+     * calling thread is interrupted or a task fails. An interrupt is passed on
+     * once they have all finished.
+     */
+    void pullToMethods(final PFISActivation activation, ExecutorService pool,
+            int numTasks)
+    {
+        activation.allMethodsTouched = true;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        int from = 0;
+        for (int task = 1; task <= numTasks; task++)
+        {
+            final int start = from;
+            final int end = task == numTasks ? methodKeys.size()
+                    : findMethod((long) wordLinks.length * task / numTasks);
+            futures.add(pool.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    pullToMethods(activation, start, end);
+                }
+            }));
+            from = end;
+        }
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (Future<?> future : futures)
+        {
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    if (failure == null)
+                        failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw new RuntimeException(failure);
+    }
+
+    /**
+     * Spreads the decayed weight of each step into its words, and sums the
+     * weight each word spreads into its methods. The ids of the words are
+     * sorted, so the weights of the methods are summed in the same order
+     * however they are computed.
+     * 
+     * @return The number of links of the words that were spread from
+     */
+    long spreadWords(int[][] steps, int numSpreadingNodes,
+            PFISActivation activation)
+    {
+        activation.reset();
+        float[] wordWeights = activation.wordWeights;
+        float[] wordSpread = activation.wordSpread;
+        int[] activeWords = activation.activeWords;
+        long activeLinks = 0;
+
+        float decay = HISTORY_DECAY;
+        for (int i = steps.length - 1, step = 0; step < numSpreadingNodes
+                && i > -1; i--, step++)
+        {
+            float historyWeight = 1F;
+            if (step > 0)
+            {
+                historyWeight = decay;
+                decay *= decay;
+            }
+
+            for (int word : steps[i])
+            {
+                if (wordSpread[word] == 0F)
+                {
+                    activeWords[activation.numActiveWords++] = word;
+                    activeLinks += wordStarts[word + 1] - wordStarts[word];
+                }
+                wordWeights[word] = wordWeights[word] + historyWeight
+                        * SPREADING_DECAY;
+                wordSpread[word] += wordWeights[word];
+            }
+        }
+        Arrays.sort(activeWords, 0, activation.numActiveWords);
+        return activeLinks;
+    }
+
+    /**
+     * Sets the weight of the methods the words that were spread from link to,
+     * by following their links. Only those methods are touched.
+     */
+    void pushToMethods(PFISActivation activation)
+    {
+        float[] wordSpread = activation.wordSpread;
+        float[] methodWeights = activation.methodWeights;
+        int[] touched = activation.touchedMethods;
+        for (int i = 0; i < activation.numActiveWords; i++)
+        {
+            int word = activation.activeWords[i];
+            for (int j = wordStarts[word]; j < wordStarts[word + 1]; j++)
+            {
+                // The sums are kept negative until they are complete, so an
+                // untouched method is the only one with a weight of 1
+                int method = wordLinks[j];
+                if (methodWeights[method] == 1F)
+                {
+                    touched[activation.numTouchedMethods++] = method;
+                    methodWeights[method] = -wordSpread[word];
+                }
+                else
+                {
+                    methodWeights[method] -= wordSpread[word];
+                }
+            }
+        }
+        for (int i = 0; i < activation.numTouchedMethods; i++)
+        {
+            methodWeights[touched[i]] = 1F - methodWeights[touched[i]]
+                    * SPREADING_DECAY;
+        }
+    }
+
+    /**
+     * Sets the weight of each method in the range by summing the weight
+     * spread by every word that links to it.
+     */
+    void pullToMethods(PFISActivation activation, int from, int to)
+    {
+        float[] wordSpread = activation.wordSpread;
+        float[] methodWeights = activation.methodWeights;
+        for (int method = from; method < to; method++)
+        {
+            float sum = 0F;
+            int end = methodStarts[method + 1];
+            for (int j = methodStarts[method]; j < end; j++)
+            {
+                sum += wordSpread[methodLinks[j]];
+            }
+            methodWeights[method] = 1F + sum * SPREADING_DECAY;
+        }
+    }
+
+    /**
+     * Returns the first method whose links start at or after the given link.
+     */
+    private int findMethod(long link)
+    {
+        int index = Arrays.binarySearch(methodStarts, (int) link);
+        if (index < 0)
+            return -index - 1;
+        // Several empty methods can start at the same link
+        while (index > 0 && methodStarts[index - 1] == link)
+        {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of links from words to methods.
+     * 
+     * @return The number of links
+     */
+    public int getNumLinks()
+    {
+        return wordLinks.length;
+    }
+
+    /**
+     * Returns an ordered list of up to the top N methods with the highest
+     * weights. Only methods with a weight greater than one are returned. The
+     * top recommendation is in the zero index.
+     * 
+     * @param methodWeights
+     *            The weights returned by <code>spreadActivation(int)</code>
+     * @param methodKey
+     *            The current location's method key
+     * @param n
+     *            The number of recommendations to return
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than n.
+     */
+    public String[] getTopNMethods(float[] methodWeights, String methodKey,
+            int n)
+    {
+        int current = methodKeys.getId(methodKey);
+        TopNSelector selector = new TopNSelector(n, 1);
+        for (int i = 0; i < methodWeights.length; i++)
+        {
+            if (i != current)
+                selector.offer(i, methodWeights[i]);
+        }
+
+        return getMethodKeys(selector.getIds());
+    }
+
+    /**
+     * Returns an ordered list of up to the top N methods with the highest
+     * weights. This method will try to return results such that half are from
+     * visited methods and half are from unvisited methods. Only methods with a
+     * weight greater than one are returned. The top recommendation is in the
+     * zero index.
+     * 
+     * @param methodWeights
+     *            The weights returned by <code>spreadActivation(int)</code>
+     * @param methodKey
+     *            The current location's method key
+     * @param n
+     *            The number of recommendations to return
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than n.
+     */
+    public String[] getTopNMethodsHalfAndHalf(float[] methodWeights,
+            String methodKey, int n)
+    {
+        return getTopNMethodsHalfAndHalf(methodWeights, methodKey, n,
+                MethodHistory.getInstance().getUniqueVisitedMethods(),
+                ScopeFilter.NONE);
+    }
+
+    /**
+     * Returns an ordered list of up to the top N methods with the highest
+     * weights, half from the given visited methods and half from the others,
+     * like <code>getTopNMethodsHalfAndHalf(float[], String, int)</code> does
+     * for the methods in MethodHistory. Only methods in the given scope are
+     * returned.
+     * 
+     * @param methodWeights
+     *            The weights returned by <code>spreadActivation(int)</code>
+     * @param methodKey
+     *            The current location's method key
+     * @param n
+     *            The number of recommendations to return
+     * @param uniqueVisited
+     *            The methods that count as visited
+     * @param scope
+     *            The scope to restrict the recommendations to
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than n.
+     */
+    public String[] getTopNMethodsHalfAndHalf(float[] methodWeights,
+            String methodKey, int n, Set<String> uniqueVisited,
+            ScopeFilter scope)
+    {
+        return getTopNMethodsHalfAndHalf(methodWeights, null,
+                methodWeights.length, methodKey, n, uniqueVisited, scope);
+    }
+
+    /**
+     * Returns an ordered list of up to the top N methods with the highest
+     * weights, half from the given visited methods and half from the others,
+     * like the method that takes the weights as an array. Only the methods the
+     * last query of the activation touched are looked at, since every other
+     * method has a weight of 1 and is never recommended.
+     * 
+     * @param activation
+     *            The activation of the last query
+     * @param methodKey
+     *            The current location's method key
+     * @param n
+     *            The number of recommendations to return
+     * @param uniqueVisited
+     *            The methods that count as visited
+     * @param scope
+     *            The scope to restrict the recommendations to
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than n.
+     */
+    public String[] getTopNMethodsHalfAndHalf(PFISActivation activation,
+            String methodKey, int n, Set<String> uniqueVisited,
+            ScopeFilter scope)
+    {
+        return getTopNMethodsHalfAndHalf(activation.methodWeights,
+                activation.allMethodsTouched ? null
+                        : activation.touchedMethods, activation
+                        .getNumTouchedMethods(), methodKey, n, uniqueVisited,
+                scope);
+    }
+
+    /**
+     * Returns the top N methods among the given ones, or among the first
+     * methods if no ids are given.
+     */
+    private String[] getTopNMethodsHalfAndHalf(float[] methodWeights,
+            int[] ids, int numIds, String methodKey, int n,
+            Set<String> uniqueVisited, ScopeFilter scope)
+    {
+        BitSet candidates = scopes.getCandidates(scope, methodKey);
+
+        // Determine how many visited and unvisited methods to recommend
+        // Don't include the current method, subtract 1
+        int numVisited = uniqueVisited.size() - 1;
+        int numUnvisited = n / 2 + n % 2;
+
+        if (numVisited <= n / 2)
+            numUnvisited = n - numVisited;
+        else
+            numVisited = n / 2;
+
+        BitSet visited = new BitSet();
+        for (String visitedKey : uniqueVisited)
+        {
+            int id = methodKeys.getId(visitedKey);
+            if (id > -1)
+                visited.set(id);
+        }
+
+        // Find the best visited and unvisited methods separately
+        int current = methodKeys.getId(methodKey);
+        TopNSelector visitedSelector = new TopNSelector(numVisited, 1);
+        TopNSelector unvisitedSelector = new TopNSelector(numUnvisited, 1);
+        for (int k = 0; k < numIds; k++)
+        {
+            int i = ids == null ? k : ids[k];
+            if (i == current || candidates != null && !candidates.get(i))
+                continue;
+            if (visited.get(i))
+                visitedSelector.offer(i, methodWeights[i]);
+            else
+                unvisitedSelector.offer(i, methodWeights[i]);
+        }
+
+        return getMethodKeys(TopNSelector.merge(visitedSelector,
+                unvisitedSelector, n));
+    }
+
+    /**
+     * Returns the keys of the methods with the given ids.
+     */
+    private String[] getMethodKeys(int[] ids)
+    {
+        String[] rv = new String[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            rv[i] = methodKeys.getKey(ids[i]);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the number of words in the topology.
+     * 
+     * @return The number of words
+     */
+    public int getNumWords()
+    {
+        return words.length;
+    }
+
+    /**
+     * Returns the word with the given id.
+     * 
+     * @param wordId
+     *            The word's id
+     * @return The word
+     */
+    public String getWord(int wordId)
+    {
+        return words[wordId];
+    }
+
+    /**
+     * Returns the ids of the methods a word links to.
+     * 
+     * @param wordId
+     *            The word's id
+     * @return A new array of the method ids
+     */
+    public int[] getMethodsOfWord(int wordId)
+    {
+        return Arrays.copyOfRange(wordLinks, wordStarts[wordId],
+                wordStarts[wordId + 1]);
+    }
+
+    /**
+     * Returns the ids of the words that link to a method, in the order of
+     * their ids.
+     * 
+     * @param methodId
+     *            The method's id
+     * @return A new array of the word ids
+     */
+    public int[] getWordsOfMethod(int methodId)
+    {
+        return Arrays.copyOfRange(methodLinks, methodStarts[methodId],
+                methodStarts[methodId + 1]);
+    }
+
+    /**
+     * Returns the sets of methods each scope of recommendations is restricted
+     * to.
+     * 
+     * @return The candidate sets of the methods in the method key index
+     */
+    public CandidateScopes getCandidateScopes()
+    {
+        return scopes;
+    }
+
+    /**
+     * Returns the mapping between method keys and method ids.
+     * 
+     * @return The method key index, which must not be modified
+     */
+    public MethodKeyIndex getMethodKeyIndex()
+    {
+        return methodKeys;
+    }
+
+    /**
+     * Returns the number of steps in the history.
+     * 
+     * @return The length of the history
+     */
+    public int getHistoryLength()
+    {
+        return history.length;
+    }
+
+    /**
+     * Returns the method key of a step of the history.
+     * 
+     * @param step
+     *            The step, where 0 is the oldest step
+     * @return The method's key
+     */
+    public String getHistoryKey(int step)
+    {
+        return historyKeys[step];
+    }
+
+    /**
+     * Returns the ids of the words a step of the history links to.
+     * 
+     * @param step
+     *            The step, where 0 is the oldest step
+     * @return The word ids, which must not be modified
+     */
+    public int[] getHistoryStep(int step)
+    {
+        return history[step];
+    }
+
+    /**
+     * Returns the method keys of the most recent steps of the history, which
+     * are the steps <code>spreadActivation(int)</code> spreads from.
+     * 
+     * @param numSpreadingNodes
+     *            The number of history steps to return
+     * @return The method keys, oldest first
+     */
+    public List<String> getHistoryWindow(int numSpreadingNodes)
+    {
+        int start = Math.max(0, historyKeys.length
+                - Math.max(0, numSpreadingNodes));
+        return new ArrayList<String>(Arrays.asList(historyKeys).subList(
+                start, historyKeys.length));
+    }
+
+    /**
+     * Returns the version of the snapshot the words and methods of this one
+     * were taken in. Adding steps to the history does not change it.
+     * 
+     * @return The version of the words and methods
+     */
+    public long getTopologyVersion()
+    {
+        return topologyVersion;
+    }
+
+    /**
+     * Returns the version of this snapshot, which is larger for every snapshot
+     * published after this one.
+     * 
+     * @return The version
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Builder collects the words of a topology and their links to a fixed set
+     * of methods. Words are numbered in the order they are first added, and a
+     * word that is added again keeps its id. Links are appended as they come
+     * and a link that was already added is dropped when the topology is built,
+     * so adding a link takes constant time whatever the degree of the word.
+     * The links of each word keep the order they were first added in.
+     */
+    public static class Builder
+    {
+        private MethodKeyIndex methodKeys;
+        private List<String> words;
+        private Map<String, Integer> wordIds;
+        private int[] linkWords;
+        private int[] linkMethods;
+        private int numLinks;
+        private int[] starts;
+        private int[] links;
+
+        /**
+         * The constructor.
+         * 
+         * @param methodKeys
+         *            The method keys in the order of their ids
+         */
+        public Builder(String[] methodKeys)
+        {
+            this.methodKeys = new MethodKeyIndex(methodKeys);
+            words = new ArrayList<String>();
+            wordIds = new HashMap<String, Integer>();
+            linkWords = new int[16];
+            linkMethods = new int[16];
+        }
+
+        /**
+         * Adds a word, unless it was already added.
+         * 
+         * @param word
+         *            The word
+         * @return The id of the word
+         */
+        public int addWord(String word)
+        {
+            Integer id = wordIds.get(word);
+            if (id != null)
+                return id;
+            wordIds.put(word, words.size());
+            words.add(word);
+            return words.size() - 1;
+        }
+
+        /**
+         * Adds a link from a word to a method.
+         * 
+         * @param wordId
+         *            The id returned by <code>addWord(String)</code>
+         * @param methodId
+         *            The id of the method
+         */
+        public void addLink(int wordId, int methodId)
+        {
+            if (wordId < 0 || wordId >= words.size() || methodId < 0
+                    || methodId >= methodKeys.size())
+                throw new IllegalArgumentException("No such word or method.");
+            if (numLinks == linkWords.length)
+            {
+                linkWords = Arrays.copyOf(linkWords, 2 * numLinks);
+                linkMethods = Arrays.copyOf(linkMethods, 2 * numLinks);
+            }
+            linkWords[numLinks] = wordId;
+            linkMethods[numLinks++] = methodId;
+        }
+
+        /**
+         * Builds a topology of the words and links added so far, with an
+         * empty history. The builder must not be used afterwards.
+         * 
+         * @param version
+         *            The version of the snapshot
+         * @return The topology
+         */
+        public PFISTopology build(long version)
+        {
+            return new PFISTopology(this, version);
+        }
+
+        /**
+         * Sorts the links by word into compressed sparse row arrays and drops
+         * the duplicates.
+         */
+        private void compress()
+        {
+            int numWords = words.size();
+            starts = new int[numWords + 1];
+            for (int i = 0; i < numLinks; i++)
+            {
+                starts[linkWords[i] + 1]++;
+            }
+            for (int word = 0; word < numWords; word++)
+            {
+                starts[word + 1] += starts[word];
+            }
+            links = new int[numLinks];
+            int[] next = Arrays.copyOf(starts, numWords);
+            for (int i = 0; i < numLinks; i++)
+            {
+                links[next[linkWords[i]]++] = linkMethods[i];
+            }
+
+            // A method is marked with the word it was last linked from, so a
+            // duplicate is found without searching the word's links
+            int[] linkedFrom = new int[methodKeys.size()];
+            int numKept = 0;
+            for (int word = 0; word < numWords; word++)
+            {
+                int start = starts[word];
+                int end = starts[word + 1];
+                starts[word] = numKept;
+                for (int i = start; i < end; i++)
+                {
+                    if (linkedFrom[links[i]] != word + 1)
+                    {
+                        linkedFrom[links[i]] = word + 1;
+                        links[numKept++] = links[i];
+                    }
+                }
+            }
+            starts[numWords] = numKept;
+            links = Arrays.copyOf(links, numKept);
+            linkWords = null;
+            linkMethods = null;
+        }
+    }
+}
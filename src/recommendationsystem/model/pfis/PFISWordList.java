@@ -3,14 +3,15 @@ package recommendationsystem.model.pfis;
 import recommendationsystem.model.pfis.PFISNode.NodeType;
 
 /**
- * PFISWordList is one of the three node lists used in the PFIS topology. It
- * contains a list of all the words excluding stop words that exist in the
+ * PFISWordList is one of the two node lists used to build the PFIS topology.
+ * It contains a list of all the words excluding stop words that exist in the
  * source code project. Each word should only exist once in this list.
  * <p>
  * Each child of PFISWordList's nodes should be a method node in
  * {@link PFISMethodList}. During calls that request a new set of
- * recommendations, the spread of activation starts links PFISHistoryList,
- * through this and onto PFISMethodList.
+ * recommendations, the spread of activation starts at the history, goes
+ * through these words and onto the methods of the published
+ * {@link PFISTopology}.
  * <p>
  * This object should not be called directly. {@link PFISMatrix} uses it
  * exclusively.
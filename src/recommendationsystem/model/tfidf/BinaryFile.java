@@ -0,0 +1,485 @@
+package recommendationsystem.model.tfidf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * BinaryFile holds the code shared by the binary files of the plug-in: the
+ * TF-IDF save file, its delta log and the model bundle. They are all made of
+ * little-endian values read and written through file channels with positional
+ * reads and writes, and start with a header that begins with a magic number
+ * and a format version, as ints.
+ * <p>
+ * A string table holds every string as an int length and its UTF-8 bytes,
+ * where a length of -1 stands for null. Rows are full rows of floats, which
+ * are written and read in blocks of whole rows, so nothing is parsed, and are
+ * checked against a CRC-32 once the last row has been read.
+ * <p>
+ * The bundle lives in another package, which is why BinaryFile is public. It
+ * is not meant to be used by anything but these files.
+ */
+public final class BinaryFile
+{
+    private static final String UTF_8 = "UTF-8";
+    private static final int BLOCK_BYTES = 1 << 20;
+
+    /**
+     * The constructor. BinaryFile only has static members.
+     */
+    private BinaryFile()
+    {
+    }
+
+    /**
+     * Returns a little-endian heap buffer of the given size.
+     * 
+     * @param size
+     *            The size in bytes
+     * @return The buffer
+     * @throws IOException
+     *             If the size does not fit in a buffer
+     */
+    public static ByteBuffer allocate(long size) throws IOException
+    {
+        if (size < 0 || size > Integer.MAX_VALUE)
+            throw new IOException("A block of " + size
+                    + " bytes cannot be read or written at once.");
+        return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads bytes from the channel at the given position until the buffer is
+     * full.
+     * 
+     * @param channel
+     *            The channel to read
+     * @param buffer
+     *            The buffer to fill
+     * @param position
+     *            The position to start reading at
+     * @throws IOException
+     *             If the channel cannot be read or ends before the buffer is
+     *             full
+     */
+    public static void readFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("The file is truncated at byte "
+                        + position + ".");
+            position += read;
+        }
+    }
+
+    /**
+     * Writes all the remaining bytes of the buffer to the channel at the given
+     * position.
+     * 
+     * @param channel
+     *            The channel to write
+     * @param buffer
+     *            The buffer to write
+     * @param position
+     *            The position to start writing at
+     * @return The position after the last byte written
+     * @throws IOException
+     *             If the channel cannot be written
+     */
+    public static long writeFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Returns True if the given file starts with the given magic number.
+     * 
+     * @param file
+     *            The file to check
+     * @param magic
+     *            The magic number of the format
+     * @return <ul>
+     *         <li>True if the file starts with the magic number
+     *         <li>False if it is too short or starts with anything else
+     *         </ul>
+     * @throws IOException
+     *             If the file cannot be opened
+     */
+    public static boolean hasMagic(File file, int magic) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            ByteBuffer buffer = allocate(4);
+            readFully(in.getChannel(), buffer, 0);
+            return buffer.getInt(0) == magic;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a header that starts with the magic number and the version. The
+     * rest of the header is put after them.
+     * 
+     * @param size
+     *            The size of the header in bytes
+     * @param magic
+     *            The magic number of the format
+     * @param version
+     *            The version of the format
+     * @return The header, positioned after the version
+     * @throws IOException
+     *             Never, as long as the size is valid
+     */
+    public static ByteBuffer createHeader(int size, int magic, int version)
+            throws IOException
+    {
+        return allocate(size).putInt(magic).putInt(version);
+    }
+
+    /**
+     * Reads the header at the start of a file and checks its magic number and
+     * version.
+     * 
+     * @param channel
+     *            The channel of the file
+     * @param file
+     *            The file, for the messages of exceptions
+     * @param size
+     *            The size of the header in bytes
+     * @param magic
+     *            The magic number of the format
+     * @param version
+     *            The version of the format
+     * @param format
+     *            The name of the format with its article, such as "a model
+     *            bundle"
+     * @return The header
+     * @throws IOException
+     *             If the header cannot be read, or the file is not of the
+     *             format or is of another version
+     */
+    public static ByteBuffer readHeader(FileChannel channel, File file,
+            int size, int magic, int version, String format)
+            throws IOException
+    {
+        ByteBuffer header = allocate(size);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != magic)
+            throw new IOException(file + " is not " + format + ".");
+        if (header.getInt(4) != version)
+            throw new IOException(file + " was saved in version "
+                    + header.getInt(4) + " of the format.");
+        return header;
+    }
+
+    /**
+     * Encodes strings into UTF-8 for a string table.
+     * 
+     * @param strings
+     *            The strings, any of which may be null
+     * @return The encoded strings, null where the string is null
+     * @throws IOException
+     *             Never, UTF-8 is always supported
+     */
+    public static byte[][] encodeStrings(String[] strings) throws IOException
+    {
+        byte[][] encoded = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++)
+        {
+            if (strings[i] != null)
+                encoded[i] = strings[i].getBytes(UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the number of bytes a string table takes.
+     * 
+     * @param encoded
+     *            The strings as returned by
+     *            <code>encodeStrings(String[])</code>
+     * @return The length of the table in bytes
+     */
+    public static long getStringTableBytes(byte[][] encoded)
+    {
+        long bytes = 0;
+        for (byte[] string : encoded)
+        {
+            bytes += 4 + (string == null ? 0 : string.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Puts a string table into a buffer.
+     * 
+     * @param buffer
+     *            The buffer, with at least
+     *            <code>getStringTableBytes(encoded)</code> bytes remaining
+     * @param encoded
+     *            The strings as returned by
+     *            <code>encodeStrings(String[])</code>
+     */
+    public static void putStrings(ByteBuffer buffer, byte[][] encoded)
+    {
+        for (byte[] string : encoded)
+        {
+            if (string == null)
+            {
+                buffer.putInt(-1);
+            }
+            else
+            {
+                buffer.putInt(string.length);
+                buffer.put(string);
+            }
+        }
+    }
+
+    /**
+     * Gets a string table from a heap buffer.
+     * 
+     * @param buffer
+     *            The buffer, positioned at the start of the table
+     * @param count
+     *            The number of strings in the table
+     * @return The strings, any of which may be null
+     * @throws IOException
+     *             If the table does not fit in the buffer
+     */
+    public static String[] getStrings(ByteBuffer buffer, int count)
+            throws IOException
+    {
+        if (count < 0 || 4L * count > buffer.remaining())
+            throw new IOException("The string table is corrupt.");
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            if (buffer.remaining() < 4)
+                throw new IOException("The string table is corrupt.");
+            int length = buffer.getInt();
+            if (length < 0)
+                continue;
+            if (length > buffer.remaining())
+                throw new IOException("The string table is corrupt.");
+            strings[i] = new String(buffer.array(), buffer.arrayOffset()
+                    + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        return strings;
+    }
+
+    /**
+     * Replaces a file with another one by renaming it. The file that is
+     * replaced may still be mapped on platforms that allow it, and the
+     * mappings keep the old contents.
+     * 
+     * @param from
+     *            The new file
+     * @param to
+     *            The file to replace
+     * @throws IOException
+     *             If the file cannot be replaced
+     */
+    public static void replace(File from, File to) throws IOException
+    {
+        // Renaming onto an existing file fails on some platforms
+        if (!from.renameTo(to) && !(to.delete() && from.renameTo(to)))
+            throw new IOException("Could not replace " + to + ".");
+    }
+
+    /**
+     * Returns a buffer for a block of as many whole rows as fit.
+     */
+    private static ByteBuffer allocateBlock(int size) throws IOException
+    {
+        return allocate(Math.max(1, BLOCK_BYTES / Math.max(1, 4 * size)) * 4L
+                * size);
+    }
+
+    /**
+     * RowWriter writes full rows of floats in blocks, starting at a given
+     * position of a channel, and adds them to a checksum.
+     */
+    public static class RowWriter
+    {
+        private FileChannel channel;
+        private long position;
+        private int size;
+        private int rowsWritten;
+        private ByteBuffer block;
+        private CRC32 checksum;
+
+        /**
+         * The constructor.
+         * 
+         * @param channel
+         *            The channel to write
+         * @param position
+         *            The position of the first row
+         * @param size
+         *            The number of floats in a row
+         * @param checksum
+         *            The checksum to add the rows to
+         * @throws IOException
+         *             If a block of rows cannot be allocated
+         */
+        public RowWriter(FileChannel channel, long position, int size,
+                CRC32 checksum) throws IOException
+        {
+            this.channel = channel;
+            this.position = position;
+            this.size = size;
+            this.checksum = checksum;
+            block = allocateBlock(size);
+        }
+
+        /**
+         * Writes the next full row.
+         * 
+         * @param row
+         *            The row, at least as long as a row
+         * @throws IOException
+         *             If a block of rows cannot be written
+         */
+        public void writeRow(float[] row) throws IOException
+        {
+            if (block.remaining() < 4 * size)
+                flush();
+            block.asFloatBuffer().put(row, 0, size);
+            block.position(block.position() + 4 * size);
+            rowsWritten++;
+        }
+
+        /**
+         * Writes the rows that are still buffered.
+         * 
+         * @return The position after the last row
+         * @throws IOException
+         *             If the rows cannot be written
+         */
+        public long flush() throws IOException
+        {
+            block.flip();
+            checksum.update(block.array(), 0, block.limit());
+            position = writeFully(channel, block, position);
+            block.clear();
+            return position;
+        }
+
+        /**
+         * Returns the number of rows written so far.
+         * 
+         * @return The number of rows
+         */
+        public int getRowsWritten()
+        {
+            return rowsWritten;
+        }
+    }
+
+    /**
+     * RowReader reads the full rows of floats written by {@link RowWriter}
+     * in blocks, and checks them against a checksum once the last row has
+     * been read.
+     */
+    public static class RowReader
+    {
+        private FileChannel channel;
+        private String name;
+        private long position;
+        private int size;
+        private int rowsRead;
+        private ByteBuffer block;
+        private CRC32 checksum;
+        private long expectedChecksum;
+
+        /**
+         * The constructor.
+         * 
+         * @param channel
+         *            The channel to read
+         * @param name
+         *            The name of what holds the rows, for the messages of
+         *            exceptions
+         * @param position
+         *            The position of the first row
+         * @param size
+         *            The number of rows, which is also the length of each row
+         * @param checksum
+         *            The checksum of everything before the rows it covers
+         * @param expectedChecksum
+         *            The checksum to check against after the last row
+         * @throws IOException
+         *             If a block of rows cannot be allocated
+         */
+        public RowReader(FileChannel channel, String name, long position,
+                int size, CRC32 checksum, long expectedChecksum)
+                throws IOException
+        {
+            this.channel = channel;
+            this.name = name;
+            this.position = position;
+            this.size = size;
+            this.checksum = checksum;
+            this.expectedChecksum = expectedChecksum;
+            block = allocateBlock(size);
+            block.flip();
+        }
+
+        /**
+         * Reads the next full row.
+         * 
+         * @param row
+         *            The array to read the row into, at least as long as a
+         *            row
+         * @throws IOException
+         *             If the row cannot be read, every row has been read, or
+         *             the checksum does not match after the last row
+         */
+        public void readRow(float[] row) throws IOException
+        {
+            if (rowsRead == size)
+                throw new IOException("Every row of " + name
+                        + " has been read.");
+
+            if (!block.hasRemaining())
+            {
+                // Read as many whole rows as fit in the block
+                block.clear();
+                block.limit((int) Math.min(block.capacity(), 4L * size
+                        * (size - rowsRead)));
+                readFully(channel, block, position);
+                position += block.limit();
+                checksum.update(block.array(), 0, block.limit());
+                block.flip();
+            }
+            block.asFloatBuffer().get(row, 0, size);
+            block.position(block.position() + 4 * size);
+
+            if (++rowsRead == size && checksum.getValue() != expectedChecksum)
+                throw new IOException("The checksum of " + name
+                        + " does not match, it is corrupt.");
+        }
+    }
+}
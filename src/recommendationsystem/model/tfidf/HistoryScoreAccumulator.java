@@ -0,0 +1,185 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+import recommendationsystem.model.FloatKernels;
+import recommendationsystem.model.MethodHistory;
+
+/**
+ * HistoryScoreAccumulator keeps the history weighted scores that
+ * {@link TFIDFMatrix} recommends from when history is enabled. The scores of a
+ * method are the sum of the rows of the most recent steps of the history, where
+ * the most recent step has a weight of 1 and each older step is decayed once
+ * more than the step after it. Steps whose method is not in the model are
+ * skipped and do not count towards the window.
+ * <p>
+ * Rather than adding up the whole window on every navigation, the scores are
+ * kept from one call to the next. A new step decays the scores once and adds
+ * its row. Once the window is full, the row of the step that falls out of it is
+ * subtracted again. To keep the rounding errors of these subtractions from
+ * building up, the scores are added up from scratch after every window's worth
+ * of steps that fell out, which costs one row per step on average. The scores
+ * are also added up from scratch whenever the model or the window changes, or
+ * the history is cleared.
+ * <p>
+ * When the window holds the whole history, nothing is ever subtracted and the
+ * scores are the same as adding up every step of the history, up to the
+ * rounding of the decays.
+ * <p>
+ * The methods of this class are synchronized, so queries from different
+ * threads share the same scores.
+ */
+public class HistoryScoreAccumulator
+{
+    private float decay;
+
+    private long modelVersion;
+    private int window;
+    private float evictedDecay;
+    private int consumedSteps;
+    private int numEvicted;
+    private Deque<Integer> windowSteps;
+    private float[] scores;
+
+    /**
+     * The constructor.
+     * 
+     * @param decay
+     *            The factor each older step is decayed by, between 0 and 1
+     */
+    public HistoryScoreAccumulator(float decay)
+    {
+        this.decay = decay;
+        windowSteps = new ArrayDeque<Integer>();
+        clear();
+    }
+
+    /**
+     * Forgets the scores. They are added up from scratch on the next call to
+     * <code>getScores(TFIDFModel, MethodHistory, int)</code>.
+     */
+    public synchronized void clear()
+    {
+        modelVersion = -1;
+        window = 0;
+        consumedSteps = 0;
+        numEvicted = 0;
+        windowSteps.clear();
+        scores = null;
+    }
+
+    /**
+     * Returns the history weighted scores of every method. Only the steps
+     * added to the history since the last call are read, unless the scores
+     * have to be added up from scratch.
+     * 
+     * @param model
+     *            The snapshot of the model to use
+     * @param history
+     *            The method history
+     * @param numSteps
+     *            The number of steps in the history to combine. Anything less
+     *            than 1 is treated as 1.
+     * @return A new array of scores indexed by the method index of the model
+     */
+    public synchronized float[] getScores(TFIDFModel model,
+            MethodHistory history, int numSteps)
+    {
+        int length = history.length();
+        if (model.getVersion() != modelVersion
+                || Math.max(1, numSteps) != window || length < consumedSteps)
+        {
+            rebuild(model, history, Math.max(1, numSteps));
+        }
+        else
+        {
+            for (; consumedSteps < length; consumedSteps++)
+            {
+                int index = getIndex(model, history, consumedSteps);
+                if (index > -1)
+                    addStep(model.getCosineSimilarityMatrix(), index);
+            }
+        }
+        return scores.clone();
+    }
+
+    /**
+     * Finds the steps of the window in the history and adds up their scores.
+     */
+    private void rebuild(TFIDFModel model, MethodHistory history,
+            int numSteps)
+    {
+        modelVersion = model.getVersion();
+        window = numSteps;
+        evictedDecay = 1;
+        for (int i = 0; i < window && evictedDecay > Float.MIN_NORMAL; i++)
+        {
+            evictedDecay = evictedDecay * decay;
+        }
+        consumedSteps = history.length();
+        windowSteps.clear();
+        for (int i = consumedSteps - 1; i > -1
+                && windowSteps.size() < window; i--)
+        {
+            int index = getIndex(model, history, i);
+            if (index > -1)
+                windowSteps.addFirst(index);
+        }
+        scores = new float[model.getCosineSimilarityMatrix().getSize()];
+        sumWindow(model.getCosineSimilarityMatrix());
+    }
+
+    /**
+     * Adds up the scores of the steps in the window, starting at the most
+     * recent one.
+     */
+    private void sumWindow(SimilarityMatrix cosineMatrix)
+    {
+        Arrays.fill(scores, 0);
+        float totalDecay = 1;
+        Iterator<Integer> it = windowSteps.descendingIterator();
+        while (it.hasNext())
+        {
+            cosineMatrix.addRow(it.next(), totalDecay, scores);
+            totalDecay = totalDecay * decay;
+        }
+        numEvicted = 0;
+    }
+
+    /**
+     * Adds a new step to the scores, removing the oldest step of the window if
+     * the window is full.
+     */
+    private void addStep(SimilarityMatrix cosineMatrix, int index)
+    {
+        FloatKernels.scale(decay, scores, 0, scores.length);
+
+        if (windowSteps.size() == window)
+        {
+            cosineMatrix.addRow(windowSteps.removeFirst(), -evictedDecay,
+                    scores);
+            numEvicted++;
+        }
+
+        windowSteps.addLast(index);
+        if (numEvicted >= window)
+            sumWindow(cosineMatrix);
+        else
+            cosineMatrix.addRow(index, 1, scores);
+    }
+
+    /**
+     * Returns the index in the model of the method at a step of the history,
+     * or -1 if the method is not in the model.
+     */
+    private int getIndex(TFIDFModel model, MethodHistory history, int step)
+    {
+        String methodKey = history.getMethodKeyAtStep(step);
+        if (methodKey == null)
+            return -1;
+        return model.getMethodKeyIndex().getId(methodKey);
+    }
+}
@@ -0,0 +1,465 @@
+package recommendationsystem.model.tfidf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedSimilarityMatrix reads its rows straight from a file mapped into
+ * memory. Nothing is parsed or copied when the matrix is opened, the scores
+ * stay outside of the Java heap, and the operating system pages rows in as
+ * they are read. Several Eclipse instances that map the same file share its
+ * pages through the operating system's file cache.
+ * <p>
+ * A row file starts with a header of little-endian values: the magic number,
+ * the format version, the number of methods and the number of bits each score
+ * is stored in, where 0 also means floats, as ints, followed by the checksum
+ * of the save file the rows belong to, as a long. The checksum tells whether
+ * the row file still matches the save file, however the files' modification
+ * times were changed. Every full row follows in order. Float rows are stored
+ * as little-endian floats. Fixed point rows start with the row's step and its
+ * diagonal as floats, followed by every score as a signed integer of the row's
+ * precision, see {@link SimilarityMatrix.Precision}.
+ * <p>
+ * Row files are written with {@link Writer}. They are only needed for scores
+ * in fixed point. Float rows are stored the same way in a TF-IDF save file,
+ * so they are mapped from the save file itself, see
+ * {@link TFIDFModelFile.Reader#mapRows()}.
+ * <p>
+ * A single mapping cannot be larger than 2 GB, so the file is mapped in
+ * segments that each hold as many whole rows as fit. The mappings stay valid
+ * until the matrix is garbage collected, even though the file itself is
+ * closed as soon as it is mapped.
+ */
+public class MappedSimilarityMatrix extends SimilarityMatrix
+{
+    /**
+     * The extension added to a TF-IDF save file to name its row file.
+     */
+    public static final String FILE_EXTENSION = ".rows";
+    public static final int MAGIC = 0x52534D31;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 24;
+
+    /**
+     * The position of the save file's checksum in the header.
+     */
+    public static final int CHECKSUM_OFFSET = 16;
+
+    private File file;
+    private int size;
+    private Precision precision;
+    private long saveChecksum;
+    private long position;
+    private int rowBytes;
+    private int rowsPerSegment;
+    private ByteBuffer[] segments;
+    private FloatBuffer[] floatSegments;
+
+    /**
+     * The constructor. Maps the given row file.
+     * 
+     * @param file
+     *            The row file to map
+     * @throws IOException
+     *             If the file cannot be read or is not a valid row file
+     */
+    public MappedSimilarityMatrix(File file) throws IOException
+    {
+        this.file = file;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = BinaryFile.readHeader(channel, file,
+                    HEADER_SIZE, MAGIC, VERSION, "a TF-IDF row file");
+            size = header.getInt(8);
+            saveChecksum = header.getLong(CHECKSUM_OFFSET);
+            precision = null;
+            for (Precision p : Precision.values())
+            {
+                if (p.getBits() == header.getInt(12)
+                        || (p == Precision.FLOAT_32 && header.getInt(12) == 0))
+                    precision = p;
+            }
+            if (size < 0 || precision == null
+                    || getRowBytes(size, precision) > Integer.MAX_VALUE
+                    || channel.size() != HEADER_SIZE
+                            + getRowBytes(size, precision) * size)
+                throw new IOException("The row file " + file
+                        + " does not match its header.");
+
+            position = HEADER_SIZE;
+            map(channel);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * The constructor. Maps full rows of floats stored one after the other in
+     * a file, such as the rows of a TF-IDF save file.
+     * 
+     * @param file
+     *            The file to map
+     * @param position
+     *            The position of the first row in the file
+     * @param size
+     *            The number of methods in the matrix
+     * @param saveChecksum
+     *            The checksum of the save file the rows belong to
+     * @throws IOException
+     *             If the file cannot be read or is too short for the rows
+     */
+    public MappedSimilarityMatrix(File file, long position, int size,
+            long saveChecksum) throws IOException
+    {
+        this.file = file;
+        this.position = position;
+        this.size = size;
+        this.saveChecksum = saveChecksum;
+        precision = Precision.FLOAT_32;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = in.getChannel();
+            if (size < 0 || position < 0
+                    || channel.size() < position + 4L * size * size)
+                throw new IOException(file + " is too short for its rows.");
+            map(channel);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Maps the rows, starting at the position, in segments of whole rows.
+     */
+    private void map(FileChannel channel) throws IOException
+    {
+        rowBytes = (int) getRowBytes(size, precision);
+        rowsPerSegment = Math.max(1, Integer.MAX_VALUE / Math.max(1, rowBytes));
+        int numSegments = (size + rowsPerSegment - 1) / rowsPerSegment;
+        segments = new ByteBuffer[numSegments];
+        floatSegments = new FloatBuffer[numSegments];
+        for (int s = 0; s < numSegments; s++)
+        {
+            int rows = Math.min(rowsPerSegment, size - s * rowsPerSegment);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position
+                    + (long) s * rowsPerSegment * rowBytes,
+                    (long) rows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (precision == Precision.FLOAT_32)
+                floatSegments[s] = segments[s].asFloatBuffer();
+        }
+    }
+
+    /**
+     * Creates the header of a row file for a matrix of the given size. The
+     * returned buffer is ready to be written.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     * @param precision
+     *            The precision the rows are stored in
+     * @param saveChecksum
+     *            The checksum of the save file the rows belong to, or 0 if it
+     *            is not known yet
+     * @return The header
+     * @throws IOException
+     *             Never, the header always fits in a buffer
+     */
+    public static ByteBuffer createHeader(int size, Precision precision,
+            long saveChecksum) throws IOException
+    {
+        ByteBuffer header = BinaryFile.createHeader(HEADER_SIZE, MAGIC,
+                VERSION);
+        header.putInt(size).putInt(precision.getBits()).putLong(saveChecksum);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes the checksum of the save file the rows belong to into the header
+     * of a row file. Only the header is written, so this is safe while the
+     * rows are mapped.
+     * 
+     * @param channel
+     *            The channel of the row file, open for writing
+     * @param saveChecksum
+     *            The checksum of the save file
+     * @throws IOException
+     *             If the header cannot be written
+     */
+    public static void writeSaveChecksum(FileChannel channel,
+            long saveChecksum) throws IOException
+    {
+        ByteBuffer checksum = BinaryFile.allocate(8).putLong(saveChecksum);
+        checksum.flip();
+        BinaryFile.writeFully(channel, checksum, CHECKSUM_OFFSET);
+    }
+
+    /**
+     * Returns the number of bytes a row takes in a row file.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     * @param precision
+     *            The precision the rows are stored in
+     * @return The number of bytes in a row
+     */
+    public static long getRowBytes(int size, Precision precision)
+    {
+        if (precision == Precision.FLOAT_32)
+            return 4L * size;
+        return 8 + (long) size * precision.getBits() / 8;
+    }
+
+    /**
+     * Encodes a full row the way it is stored in a row file. The buffer is
+     * cleared first and is ready to be written afterwards.
+     * 
+     * @param row
+     *            The index of the method
+     * @param values
+     *            The full row
+     * @param size
+     *            The number of methods in the matrix
+     * @param precision
+     *            The precision to store the row in
+     * @param dest
+     *            A little-endian buffer of at least
+     *            <code>getRowBytes(size, precision)</code> bytes
+     */
+    public static void encodeRow(int row, float[] values, int size,
+            Precision precision, ByteBuffer dest)
+    {
+        dest.clear();
+        if (precision == Precision.FLOAT_32)
+        {
+            dest.asFloatBuffer().put(values, 0, size);
+            dest.position(4 * size);
+        }
+        else
+        {
+            float step = precision.getStep(values, size, row);
+            dest.putFloat(step).putFloat(values[row]);
+            for (int col = 0; col < size; col++)
+            {
+                int level = col == row ? 0 : precision.quantize(values[col],
+                        step);
+                if (precision == Precision.FIXED_8)
+                    dest.put((byte) level);
+                else
+                    dest.putShort((short) level);
+            }
+        }
+        dest.flip();
+    }
+
+    /**
+     * Returns the file this matrix is mapped from.
+     * 
+     * @return The row file, or the save file if the rows are mapped from it
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Returns the checksum of the save file the rows belong to.
+     * 
+     * @return The checksum stored in the header of the row file, or of the
+     *         save file
+     */
+    public long getSaveChecksum()
+    {
+        return saveChecksum;
+    }
+
+    /**
+     * Returns the precision the rows of the file are stored in.
+     * 
+     * @return The precision
+     */
+    public Precision getPrecision()
+    {
+        return precision;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        ByteBuffer rows = segments[row / rowsPerSegment];
+        int offset = (row % rowsPerSegment) * rowBytes;
+        if (precision == Precision.FLOAT_32)
+            return rows.getFloat(offset + 4 * col);
+        if (row == col)
+            return rows.getFloat(offset + 4);
+        return level(rows, offset, col) * rows.getFloat(offset);
+    }
+
+    /**
+     * Returns the stored integer of the given score of a fixed point row.
+     */
+    private int level(ByteBuffer rows, int offset, int col)
+    {
+        if (precision == Precision.FIXED_8)
+            return rows.get(offset + 8 + col);
+        return rows.getShort(offset + 8 + 2 * col);
+    }
+
+    /**
+     * Copies the row out of the mapping. Float rows are copied in bulk. This
+     * is safe to call from several threads at once.
+     */
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        int offset = (row % rowsPerSegment) * rowBytes;
+        if (precision == Precision.FLOAT_32)
+        {
+            FloatBuffer rows = floatSegments[row / rowsPerSegment]
+                    .duplicate();
+            rows.position(offset / 4);
+            rows.get(dest, 0, size);
+            return;
+        }
+
+        ByteBuffer rows = segments[row / rowsPerSegment];
+        float step = rows.getFloat(offset);
+        for (int col = 0; col < size; col++)
+        {
+            dest[col] = level(rows, offset, col) * step;
+        }
+        dest[row] = rows.getFloat(offset + 4);
+    }
+
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        int offset = (row % rowsPerSegment) * rowBytes;
+        if (precision == Precision.FLOAT_32)
+        {
+            FloatBuffer rows = floatSegments[row / rowsPerSegment];
+            for (int col = 0; col < size; col++)
+            {
+                dest[col] = rows.get(offset / 4 + col) * scale + dest[col];
+            }
+            return;
+        }
+
+        ByteBuffer rows = segments[row / rowsPerSegment];
+        float step = rows.getFloat(offset) * scale;
+        for (int col = 0; col < size; col++)
+        {
+            if (col != row)
+                dest[col] = level(rows, offset, col) * step + dest[col];
+        }
+        dest[row] = rows.getFloat(offset + 4) * scale + dest[row];
+    }
+
+    /**
+     * Writer writes a row file. Every row has to be written in order, then
+     * the checksum of the save file the rows belong to is written into the
+     * header. Until it is, the row file does not belong to any save file.
+     */
+    public static class Writer
+    {
+        private FileChannel channel;
+        private int size;
+        private Precision precision;
+        private long position;
+        private int rowsWritten;
+        private ByteBuffer rowBytes;
+
+        /**
+         * The constructor. Opens the file and writes the header.
+         * 
+         * @param file
+         *            The file to write, which is overwritten
+         * @param size
+         *            The number of methods in the matrix
+         * @param precision
+         *            The precision to store the rows in
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public Writer(File file, int size, Precision precision)
+                throws IOException
+        {
+            this.size = size;
+            this.precision = precision;
+            rowBytes = ByteBuffer.allocateDirect(
+                    (int) getRowBytes(size, precision)).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            channel = new FileOutputStream(file).getChannel();
+            try
+            {
+                position = BinaryFile.writeFully(channel, createHeader(size,
+                        precision, 0), 0);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Writes the next full row.
+         * 
+         * @param row
+         *            The row, at least as long as the number of methods
+         * @throws IOException
+         *             If the row cannot be written
+         */
+        public void writeRow(float[] row) throws IOException
+        {
+            encodeRow(rowsWritten, row, size, precision, rowBytes);
+            position = BinaryFile.writeFully(channel, rowBytes, position);
+            rowsWritten++;
+        }
+
+        /**
+         * Writes the checksum of the save file the rows belong to. Nothing is
+         * written if fewer rows than methods were written.
+         * 
+         * @param saveChecksum
+         *            The checksum of the save file
+         * @throws IOException
+         *             If the header cannot be written
+         */
+        public void finish(long saveChecksum) throws IOException
+        {
+            if (rowsWritten == size)
+                writeSaveChecksum(channel, saveChecksum);
+        }
+
+        /**
+         * Closes the file.
+         * 
+         * @throws IOException
+         *             If the file cannot be closed
+         */
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package recommendationsystem.model.tfidf;
+
+import recommendationsystem.model.FloatKernels;
+
+/**
+ * PackedSimilarityMatrix stores a symmetric similarity matrix using only its
+ * upper triangle. The triangle is packed column by column: column j holds the
+ * scores of methods 0 through j - 1 against method j, so the column arrays
+ * grow by one element each. The diagonal is kept in its own array. Together
+ * this needs half the memory of a full <code>float[n][n]</code>, and a
+ * builder only has to calculate half of the scores.
+ * <p>
+ * Keeping one array per column instead of a single packed array means a
+ * matrix is not limited to 2^31 scores, and a new method can be added by
+ * appending one column without touching the existing ones.
+ */
+public class PackedSimilarityMatrix extends SimilarityMatrix
+{
+    private float[][] columns;
+    private float[] diagonal;
+
+    /**
+     * The constructor. Creates a matrix for the given number of methods with
+     * every score set to zero.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     */
+    public PackedSimilarityMatrix(int size)
+    {
+        columns = new float[size][];
+        diagonal = new float[size];
+        for (int col = 0; col < size; col++)
+        {
+            columns[col] = new float[col];
+        }
+    }
+
+    @Override
+    public int getSize()
+    {
+        return diagonal.length;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        if (row < col)
+            return columns[col][row];
+        if (row > col)
+            return columns[row][col];
+        return diagonal[row];
+    }
+
+    /**
+     * Sets the similarity score between two methods. Because the matrix is
+     * symmetric, this sets both [row][col] and [col][row].
+     * 
+     * @param row
+     *            The index of the first method
+     * @param col
+     *            The index of the second method
+     * @param value
+     *            The similarity between the two methods
+     */
+    public void set(int row, int col, float value)
+    {
+        if (row < col)
+            columns[col][row] = value;
+        else if (row > col)
+            columns[row][col] = value;
+        else
+            diagonal[row] = value;
+    }
+
+    /**
+     * Returns the packed column for the given method. The returned array holds
+     * the scores of every method with a smaller index against this method. It
+     * is not a copy, so builders may fill it in directly.
+     * 
+     * @param col
+     *            The index of the method
+     * @return A pointer to the packed column
+     */
+    public float[] getPackedColumn(int col)
+    {
+        return columns[col];
+    }
+
+    /**
+     * Copies a row of the matrix into the given array. Scores before the
+     * diagonal are read straight from the row's packed column, the rest are
+     * read from the columns of the methods with larger indices.
+     */
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        float[] packed = columns[row];
+        System.arraycopy(packed, 0, dest, 0, row);
+        dest[row] = diagonal[row];
+        for (int col = row + 1; col < columns.length; col++)
+        {
+            dest[col] = columns[col][row];
+        }
+    }
+
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        FloatKernels.axpy(scale, columns[row], 0, dest, 0, row);
+        dest[row] = diagonal[row] * scale + dest[row];
+        for (int col = row + 1; col < columns.length; col++)
+        {
+            dest[col] = columns[col][row] * scale + dest[col];
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package recommendationsystem.model.tfidf;
+
+/**
+ * QuantizedSimilarityMatrix stores a symmetric similarity matrix as 8 or 16
+ * bit fixed point scores. Scores only decide the ranking of recommendations,
+ * which survives the lost precision, while the matrix takes a quarter or half
+ * of the memory of a {@link PackedSimilarityMatrix}.
+ * <p>
+ * The matrix uses the same packed layout as PackedSimilarityMatrix: column j
+ * holds the scores of methods 0 through j - 1 against method j. Each row has
+ * its own step, the value of one integer step, chosen so the largest score of
+ * the whole row, apart from the diagonal, uses the full range. A score belongs
+ * to two rows, so it is stored in the smaller of their two steps. It cannot
+ * exceed either row's largest score, so it is never clipped, and every score
+ * of a row is stored at least as finely as the row's own step. The diagonal
+ * is kept as floats.
+ * <p>
+ * Rows are quantized one at a time, so a matrix loaded from a save file never
+ * holds the float scores. A matrix quantized from another one with
+ * <code>quantize(SimilarityMatrix, Precision)</code> needs both at once, so
+ * building it does not lower the peak memory use.
+ */
+public class QuantizedSimilarityMatrix extends SimilarityMatrix
+{
+    private Precision precision;
+    private byte[][] byteColumns;
+    private short[][] shortColumns;
+    private float[] steps;
+    private float[] diagonal;
+
+    /**
+     * The constructor. Creates a matrix for the given number of methods with
+     * every score set to zero.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     * @param precision
+     *            Precision.FIXED_8 or Precision.FIXED_16
+     */
+    public QuantizedSimilarityMatrix(int size, Precision precision)
+    {
+        this.precision = precision;
+        steps = new float[size];
+        diagonal = new float[size];
+        if (precision == Precision.FIXED_8)
+        {
+            byteColumns = new byte[size][];
+            for (int col = 0; col < size; col++)
+            {
+                byteColumns[col] = new byte[col];
+            }
+        }
+        else if (precision == Precision.FIXED_16)
+        {
+            shortColumns = new short[size][];
+            for (int col = 0; col < size; col++)
+            {
+                shortColumns[col] = new short[col];
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException(precision
+                    + " is not a fixed point precision.");
+        }
+    }
+
+    /**
+     * Creates a quantized copy of the given matrix.
+     * 
+     * @param source
+     *            The matrix to copy
+     * @param precision
+     *            Precision.FIXED_8 or Precision.FIXED_16
+     * @return The quantized matrix
+     */
+    public static QuantizedSimilarityMatrix quantize(SimilarityMatrix source,
+            Precision precision)
+    {
+        int size = source.getSize();
+        QuantizedSimilarityMatrix matrix = new QuantizedSimilarityMatrix(size,
+                precision);
+        float[] row = new float[size];
+        for (int i = 0; i < size; i++)
+        {
+            source.getRow(i, row);
+            matrix.setPackedColumn(i, row);
+        }
+        return matrix;
+    }
+
+    /**
+     * Sets the packed column of a method from its full row. The whole row
+     * sets the method's step, then the scores against methods with a smaller
+     * index and the diagonal are stored. The rest of the row belongs to the
+     * columns of the methods with larger indices. The rows have to be set in
+     * order, since each score is stored in the step of both of its rows.
+     * 
+     * @param col
+     *            The index of the method
+     * @param row
+     *            The method's full row
+     */
+    public void setPackedColumn(int col, float[] row)
+    {
+        float step = precision.getStep(row, getSize(), col);
+        steps[col] = step;
+        diagonal[col] = row[col];
+        if (byteColumns != null)
+        {
+            byte[] column = byteColumns[col];
+            for (int i = 0; i < col; i++)
+            {
+                column[i] = (byte) precision.quantize(row[i], Math.min(step,
+                        steps[i]));
+            }
+        }
+        else
+        {
+            short[] column = shortColumns[col];
+            for (int i = 0; i < col; i++)
+            {
+                column[i] = (short) precision.quantize(row[i], Math.min(step,
+                        steps[i]));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bits each score is stored in.
+     * 
+     * @return The precision
+     */
+    public Precision getPrecision()
+    {
+        return precision;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return diagonal.length;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        if (row == col)
+            return diagonal[row];
+        float step = Math.min(steps[row], steps[col]);
+        if (row > col)
+            return level(row, col) * step;
+        return level(col, row) * step;
+    }
+
+    /**
+     * Returns the stored integer at the given position of a packed column.
+     */
+    private int level(int col, int position)
+    {
+        if (byteColumns != null)
+            return byteColumns[col][position];
+        return shortColumns[col][position];
+    }
+
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        int size = getSize();
+        float step = steps[row];
+        if (byteColumns != null)
+        {
+            byte[] packed = byteColumns[row];
+            for (int col = 0; col < row; col++)
+            {
+                dest[col] = packed[col] * Math.min(step, steps[col]);
+            }
+            for (int col = row + 1; col < size; col++)
+            {
+                dest[col] = byteColumns[col][row] * Math.min(step, steps[col]);
+            }
+        }
+        else
+        {
+            short[] packed = shortColumns[row];
+            for (int col = 0; col < row; col++)
+            {
+                dest[col] = packed[col] * Math.min(step, steps[col]);
+            }
+            for (int col = row + 1; col < size; col++)
+            {
+                dest[col] = shortColumns[col][row]
+                        * Math.min(step, steps[col]);
+            }
+        }
+        dest[row] = diagonal[row];
+    }
+
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        int size = getSize();
+        float step = steps[row];
+        if (byteColumns != null)
+        {
+            byte[] packed = byteColumns[row];
+            for (int col = 0; col < row; col++)
+            {
+                dest[col] = packed[col] * (Math.min(step, steps[col]) * scale)
+                        + dest[col];
+            }
+            for (int col = row + 1; col < size; col++)
+            {
+                dest[col] = byteColumns[col][row]
+                        * (Math.min(step, steps[col]) * scale) + dest[col];
+            }
+        }
+        else
+        {
+            short[] packed = shortColumns[row];
+            for (int col = 0; col < row; col++)
+            {
+                dest[col] = packed[col] * (Math.min(step, steps[col]) * scale)
+                        + dest[col];
+            }
+            for (int col = row + 1; col < size; col++)
+            {
+                dest[col] = shortColumns[col][row]
+                        * (Math.min(step, steps[col]) * scale) + dest[col];
+            }
+        }
+        dest[row] = diagonal[row] * scale + dest[row];
+    }
+}
@@ -0,0 +1,157 @@
+package recommendationsystem.model.tfidf;
+
+import recommendationsystem.model.FloatKernels;
+
+/**
+ * SimilarityMatrix is the storage behind {@link TFIDFMatrix}. It holds a
+ * square matrix of similarity scores between methods, where both rows and
+ * columns are indexed by the method index kept in TFIDFMatrix. This class is
+ * not intended to be used directly, it is meant to be extended by classes that
+ * decide how the scores are laid out in memory.
+ * <p>
+ * Cosine similarity is symmetric, so a row of the matrix is also its column.
+ * The recommendation and history code only ever read whole rows, which is why
+ * this class provides row-view accessors. Extending classes only have to
+ * implement <code>get(int, int)</code>, but should override the row accessors
+ * when they can walk a row faster than one score at a time.
+ */
+public abstract class SimilarityMatrix
+{
+    /**
+     * Specifies how many bits each stored score takes. Fixed point scores are
+     * stored as signed integers that are scaled by a factor kept per row, so
+     * each row uses its full range no matter how large its scores are.
+     */
+    public enum Precision
+    {
+        FLOAT_32(32), FIXED_16(16), FIXED_8(8);
+
+        private int bits;
+
+        private Precision(int bits)
+        {
+            this.bits = bits;
+        }
+
+        /**
+         * Returns the number of bits each score is stored in.
+         * 
+         * @return The number of bits
+         */
+        public int getBits()
+        {
+            return bits;
+        }
+
+        /**
+         * Returns the largest integer a fixed point score is stored as. The
+         * smallest is its negative.
+         * 
+         * @return The largest stored integer
+         */
+        public int getMaxLevel()
+        {
+            return (1 << (bits - 1)) - 1;
+        }
+
+        /**
+         * Returns the value of one integer step for the given scores, so that
+         * the largest score is stored as <code>getMaxLevel()</code>.
+         * 
+         * @param values
+         *            The scores that share the step
+         * @param length
+         *            The number of scores to consider
+         * @param skip
+         *            The index of a score to leave out, or -1
+         * @return The step, or 0 if every score is 0
+         */
+        public float getStep(float[] values, int length, int skip)
+        {
+            float max;
+            if (skip < 0 || skip >= length)
+                max = FloatKernels.maxAbs(values, 0, length);
+            else
+                max = Math.max(FloatKernels.maxAbs(values, 0, skip),
+                        FloatKernels.maxAbs(values, skip + 1, length));
+            return max / getMaxLevel();
+        }
+
+        /**
+         * Returns the integer the given score is stored as.
+         * 
+         * @param value
+         *            The score
+         * @param step
+         *            The value of one integer step
+         * @return The nearest integer within the stored range
+         */
+        public int quantize(float value, float step)
+        {
+            if (step == 0)
+                return 0;
+            int level = Math.round(value / step);
+            return Math.max(-getMaxLevel(), Math.min(getMaxLevel(), level));
+        }
+    }
+
+    /**
+     * Returns the number of methods in the matrix. The matrix has this many
+     * rows and this many columns.
+     * 
+     * @return The number of methods
+     */
+    public abstract int getSize();
+
+    /**
+     * Returns the similarity score between two methods.
+     * 
+     * @param row
+     *            The index of the first method
+     * @param col
+     *            The index of the second method
+     * @return The similarity between the two methods
+     */
+    public abstract float get(int row, int col);
+
+    /**
+     * Copies a row of the matrix into the given array. The array must be at
+     * least <code>getSize()</code> long.
+     * 
+     * @param row
+     *            The index of the method whose row is copied
+     * @param dest
+     *            The array to copy the row into
+     */
+    public void getRow(int row, float[] dest)
+    {
+        int size = getSize();
+        for (int col = 0; col < size; col++)
+        {
+            dest[col] = get(row, col);
+        }
+    }
+
+    /**
+     * Scales a row of the matrix and adds it to the given array. Specifically,
+     * <p>
+     * dest[col] = dest[col] + (scale * matrix[row][col])
+     * <p>
+     * The array must be at least <code>getSize()</code> long.
+     * 
+     * @param row
+     *            The index of the method whose row is added
+     * @param scale
+     *            The factor to multiply the row by
+     * @param dest
+     *            The array to add the row to
+     */
+    public void addRow(int row, float scale, float[] dest)
+    {
+        int size = getSize();
+        for (int col = 0; col < size; col++)
+        {
+            dest[col] = get(row, col) * scale + dest[col];
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.Arrays;
+
+/**
+ * SparseSimilarityMatrix stores only the non-zero scores of a similarity
+ * matrix. Each row keeps the indices of the methods it has a score with,
+ * sorted, in a primitive array and the scores at the same positions in a
+ * parallel array. Any score that is not stored is zero.
+ * <p>
+ * Most pairs of methods share no words and so have a cosine similarity of
+ * zero, which makes this much smaller than a dense matrix. Rows are stored in
+ * full, so a symmetric score is kept in both rows it belongs to. That way a
+ * row can be added to a history column by touching only its stored scores.
+ */
+public class SparseSimilarityMatrix extends SimilarityMatrix
+{
+    private int[][] rowIndices;
+    private float[][] rowScores;
+
+    /**
+     * The constructor. Every row starts out empty and has to be set with
+     * <code>setRow(int, int[], float[])</code>.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     */
+    public SparseSimilarityMatrix(int size)
+    {
+        rowIndices = new int[size][];
+        rowScores = new float[size][];
+        int[] noIndices = new int[0];
+        float[] noScores = new float[0];
+        Arrays.fill(rowIndices, noIndices);
+        Arrays.fill(rowScores, noScores);
+    }
+
+    /**
+     * Sets the stored scores of a row. The arrays are kept, not copied.
+     * 
+     * @param row
+     *            The index of the method whose row is set
+     * @param indices
+     *            The indices of the methods with a score, in increasing order
+     * @param scores
+     *            The scores, parallel to indices
+     */
+    public void setRow(int row, int[] indices, float[] scores)
+    {
+        rowIndices[row] = indices;
+        rowScores[row] = scores;
+    }
+
+    /**
+     * Returns the indices of the methods that have a stored score in the given
+     * row. The returned array is not a copy and must not be modified.
+     * 
+     * @param row
+     *            The index of the method
+     * @return The sorted indices of the row's stored scores
+     */
+    public int[] getRowIndices(int row)
+    {
+        return rowIndices[row];
+    }
+
+    /**
+     * Returns the stored scores of the given row, parallel to
+     * <code>getRowIndices(int)</code>. The returned array is not a copy and
+     * must not be modified.
+     * 
+     * @param row
+     *            The index of the method
+     * @return The row's stored scores
+     */
+    public float[] getRowScores(int row)
+    {
+        return rowScores[row];
+    }
+
+    /**
+     * Returns the number of scores stored in the whole matrix.
+     * 
+     * @return The number of stored scores
+     */
+    public long getNumStoredScores()
+    {
+        long count = 0;
+        for (int[] indices : rowIndices)
+        {
+            count += indices.length;
+        }
+        return count;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return rowIndices.length;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        int position = Arrays.binarySearch(rowIndices[row], col);
+        return position < 0 ? 0 : rowScores[row][position];
+    }
+
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        int[] indices = rowIndices[row];
+        float[] scores = rowScores[row];
+        Arrays.fill(dest, 0, getSize(), 0);
+        for (int i = 0; i < indices.length; i++)
+        {
+            dest[indices[i]] = scores[i];
+        }
+    }
+
+    /**
+     * Adds the row to the given array. Only the stored scores are touched.
+     */
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        int[] indices = rowIndices[row];
+        float[] scores = rowScores[row];
+        for (int i = 0; i < indices.length; i++)
+        {
+            dest[indices[i]] = scores[i] * scale + dest[indices[i]];
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TFIDFCorpus holds the word counts that the TF-IDF vectors are calculated
+ * from, so single methods can be changed without reading the IFT database
+ * again. For every method it keeps the method's key, the path of its source
+ * file, the count of each of its words and its current {@link TFIDFVector}.
+ * For every word it keeps the number of methods the word appears in.
+ * <p>
+ * Methods are indexed in the same order as the methodIndex of
+ * {@link TFIDFMatrix}. New methods are added to the end and removed methods
+ * keep their index, with no words, until the corpus is compacted.
+ * <p>
+ * The TF-IDF weight of a word is calculated the same way as the database
+ * queries used by the create job: the word's count over the total number of
+ * words in the method, times the number of methods over the number of methods
+ * the word appears in.
+ * <p>
+ * TFIDFCorpus is not thread safe.
+ */
+public class TFIDFCorpus
+{
+    private static final int[] NO_WORDS = new int[0];
+
+    private int size;
+    private int numMethods;
+    private String[] keys;
+    private String[] paths;
+    private int[][] wordIds;
+    private int[][] wordCounts;
+    private int[] totalWords;
+    private TFIDFVector[] vectors;
+    private boolean[] removed;
+
+    private int[] documentFrequencies;
+    private Map<String, Integer> methodIds;
+    private Map<String, Integer> words;
+    private int nextWordId;
+
+    /**
+     * The constructor. Creates an empty corpus.
+     */
+    public TFIDFCorpus()
+    {
+        keys = new String[16];
+        paths = new String[16];
+        wordIds = new int[16][];
+        wordCounts = new int[16][];
+        totalWords = new int[16];
+        vectors = new TFIDFVector[16];
+        removed = new boolean[16];
+        documentFrequencies = new int[16];
+        methodIds = new HashMap<String, Integer>();
+        words = new HashMap<String, Integer>();
+        nextWordId = 1;
+    }
+
+    /**
+     * Adds a word to the dictionary under the id it has in the IFT database.
+     * 
+     * @param word
+     *            The word
+     * @param wordId
+     *            The word's database id
+     */
+    public void addWord(String word, int wordId)
+    {
+        words.put(word, wordId);
+        nextWordId = Math.max(nextWordId, wordId + 1);
+    }
+
+    /**
+     * Returns the id of the given word. Words that are not in the dictionary
+     * are given an id that is not used by the database.
+     * 
+     * @param word
+     *            The word
+     * @return The word's id
+     */
+    public int getWordId(String word)
+    {
+        Integer id = words.get(word);
+        if (id == null)
+        {
+            id = nextWordId++;
+            words.put(word, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a method to the end of the corpus.
+     * 
+     * @param methodKey
+     *            The method's key
+     * @param path
+     *            The path of the method's source file
+     * @param ids
+     *            The ids of the method's words in any order, each listed
+     *            once
+     * @param counts
+     *            The number of times each word occurs, parallel to ids
+     * @param length
+     *            The number of valid entries in ids and counts
+     * @return The index of the method
+     */
+    public int addMethod(String methodKey, String path, int[] ids,
+            int[] counts, int length)
+    {
+        if (size == keys.length)
+        {
+            int capacity = 2 * size;
+            keys = Arrays.copyOf(keys, capacity);
+            paths = Arrays.copyOf(paths, capacity);
+            wordIds = Arrays.copyOf(wordIds, capacity);
+            wordCounts = Arrays.copyOf(wordCounts, capacity);
+            totalWords = Arrays.copyOf(totalWords, capacity);
+            vectors = Arrays.copyOf(vectors, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+        }
+        int index = size++;
+        keys[index] = methodKey;
+        wordIds[index] = NO_WORDS;
+        wordCounts[index] = NO_WORDS;
+        methodIds.put(methodKey, index);
+        numMethods++;
+        setWords(index, path, ids, counts, length);
+        return index;
+    }
+
+    /**
+     * Replaces the words of a method and updates the document frequencies of
+     * the words it gained and lost. The method's vector is not recalculated.
+     * 
+     * @param index
+     *            The index of the method
+     * @param path
+     *            The path of the method's source file
+     * @param ids
+     *            The ids of the method's words in any order, each listed
+     *            once
+     * @param counts
+     *            The number of times each word occurs, parallel to ids
+     * @param length
+     *            The number of valid entries in ids and counts
+     */
+    public void setWords(int index, String path, int[] ids, int[] counts,
+            int length)
+    {
+        if (removed[index])
+        {
+            removed[index] = false;
+            methodIds.put(keys[index], index);
+            numMethods++;
+        }
+        for (int id : wordIds[index])
+        {
+            documentFrequencies[id]--;
+        }
+
+        int[][] sorted = sortByWordId(ids, counts, length);
+        int total = 0;
+        for (int i = 0; i < length; i++)
+        {
+            int id = sorted[0][i];
+            if (id >= documentFrequencies.length)
+                documentFrequencies = Arrays.copyOf(documentFrequencies,
+                        Math.max(id + 1, 2 * documentFrequencies.length));
+            documentFrequencies[id]++;
+            total += sorted[1][i];
+        }
+        paths[index] = path;
+        wordIds[index] = sorted[0];
+        wordCounts[index] = sorted[1];
+        totalWords[index] = total;
+    }
+
+    /**
+     * Returns true if a method already has exactly the given words, so
+     * updating it would change nothing.
+     * 
+     * @param index
+     *            The index of the method
+     * @param ids
+     *            The ids of the words, each listed once
+     * @param counts
+     *            The number of times each word occurs, parallel to ids
+     * @param length
+     *            The number of valid entries in ids and counts
+     * @return <ul>
+     *         <li>True if the method has the same words and counts
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean hasWords(int index, int[] ids, int[] counts, int length)
+    {
+        if (removed[index] || wordIds[index].length != length)
+            return false;
+        int[][] sorted = sortByWordId(ids, counts, length);
+        return Arrays.equals(wordIds[index], sorted[0])
+                && Arrays.equals(wordCounts[index], sorted[1]);
+    }
+
+    /**
+     * Returns copies of the word ids and counts sorted by word id.
+     */
+    private static int[][] sortByWordId(int[] ids, int[] counts, int length)
+    {
+        long[] order = new long[length];
+        for (int i = 0; i < length; i++)
+        {
+            order[i] = ((long) ids[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[][] sorted = new int[2][length];
+        for (int i = 0; i < length; i++)
+        {
+            sorted[0][i] = (int) (order[i] >> 32);
+            sorted[1][i] = counts[(int) order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Removes a method. Its words no longer count towards the document
+     * frequencies and its vector is emptied, but its index stays in use until
+     * the corpus is compacted.
+     * 
+     * @param index
+     *            The index of the method
+     */
+    public void removeMethod(int index)
+    {
+        if (removed[index])
+            return;
+        setWords(index, null, NO_WORDS, NO_WORDS, 0);
+        vectors[index] = new TFIDFVector(NO_WORDS, new float[0], 0);
+        removed[index] = true;
+        methodIds.remove(keys[index]);
+        numMethods--;
+    }
+
+    /**
+     * Calculates the TF-IDF vector of a method from its word counts and the
+     * current document frequencies.
+     * 
+     * @param index
+     *            The index of the method
+     * @return The method's vector
+     */
+    public TFIDFVector createVector(int index)
+    {
+        int[] ids = wordIds[index];
+        int[] counts = wordCounts[index];
+        float[] weights = new float[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            weights[i] = (float) counts[i] / totalWords[index] * numMethods
+                    / documentFrequencies[ids[i]];
+        }
+        return new TFIDFVector(ids, weights, ids.length);
+    }
+
+    /**
+     * Recalculates the vector of every method from the current document
+     * frequencies.
+     */
+    public void updateVectors()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            vectors[i] = createVector(i);
+        }
+    }
+
+    /**
+     * Returns a copy of this corpus without the removed methods. Indices in
+     * the copy follow the same order but skip the removed methods. The vectors
+     * are copied as they are.
+     * 
+     * @return The compacted corpus
+     */
+    public TFIDFCorpus compact()
+    {
+        TFIDFCorpus copy = new TFIDFCorpus();
+        copy.words.putAll(words);
+        copy.nextWordId = nextWordId;
+        for (int i = 0; i < size; i++)
+        {
+            if (!removed[i])
+            {
+                int index = copy.addMethod(keys[i], paths[i], wordIds[i],
+                        wordCounts[i], wordIds[i].length);
+                copy.vectors[index] = vectors[i];
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the index of the given method.
+     * 
+     * @param methodKey
+     *            The method's key
+     * @return <ul>
+     *         <li>The index of the method
+     *         <li>-1 if the method is not in the corpus or was removed
+     *         </ul>
+     */
+    public int getIndex(String methodKey)
+    {
+        Integer index = methodIds.get(methodKey);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the indices of the methods declared in the given source file.
+     * 
+     * @param path
+     *            The path of the source file
+     * @return The indices of the file's methods that have not been removed
+     */
+    public List<Integer> getMethodsInFile(String path)
+    {
+        List<Integer> rv = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++)
+        {
+            if (!removed[i] && path.equals(paths[i]))
+                rv.add(i);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the number of indices in use, including removed methods.
+     * 
+     * @return The size of the corpus
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of methods that have not been removed. This is the
+     * numerator of the IDF.
+     * 
+     * @return The number of methods
+     */
+    public int getNumMethods()
+    {
+        return numMethods;
+    }
+
+    /**
+     * Returns the number of methods the given word appears in.
+     * 
+     * @param wordId
+     *            The word's id
+     * @return The word's document frequency
+     */
+    public int getDocumentFrequency(int wordId)
+    {
+        return wordId < documentFrequencies.length ? documentFrequencies[wordId]
+                : 0;
+    }
+
+    /**
+     * Returns the key of a method.
+     * 
+     * @param index
+     *            The index of the method
+     * @return The method's key
+     */
+    public String getKey(int index)
+    {
+        return keys[index];
+    }
+
+    /**
+     * Returns the keys of every method, in index order.
+     * 
+     * @return A new array of method keys
+     */
+    public String[] getKeys()
+    {
+        return Arrays.copyOf(keys, size);
+    }
+
+    /**
+     * Returns true if the method was removed.
+     * 
+     * @param index
+     *            The index of the method
+     * @return <ul>
+     *         <li>True if the method was removed
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public boolean isRemoved(int index)
+    {
+        return removed[index];
+    }
+
+    /**
+     * Returns the current vector of a method.
+     * 
+     * @param index
+     *            The index of the method
+     * @return The method's vector
+     */
+    public TFIDFVector getVector(int index)
+    {
+        return vectors[index];
+    }
+
+    /**
+     * Sets the current vector of a method.
+     * 
+     * @param index
+     *            The index of the method
+     * @param vector
+     *            The method's vector
+     */
+    public void setVector(int index, TFIDFVector vector)
+    {
+        vectors[index] = vector;
+    }
+
+    /**
+     * Returns the current vector of every method, in index order.
+     * 
+     * @return A new array of vectors
+     */
+    public TFIDFVector[] getVectors()
+    {
+        return Arrays.copyOf(vectors, size);
+    }
+}
@@ -0,0 +1,734 @@
+package recommendationsystem.model.tfidf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * TFIDFDeltaLog records the methods that were updated, added or removed since
+ * a TF-IDF model was saved, in a log file next to the save file, named with
+ * {@link #FILE_EXTENSION} added. Each change is appended as soon as it is made,
+ * which only takes a few small writes, instead of saving the whole matrix
+ * again. When the save file is loaded, the changes are replayed on top of it.
+ * <p>
+ * The log starts with a header of little-endian values: the magic number and
+ * the format version, as ints, and the checksum of the save file it belongs
+ * to, as a long. A log whose checksum does not match the save file is
+ * discarded. Every change follows as a record:
+ * <ul>
+ * <li>The type of the record and the length of its payload, as ints.
+ * <li>The payload. An update holds the method's index, its key as an int
+ * length and UTF-8 bytes, its similarity to itself, the number of its non-zero
+ * scores, their indices and the scores. A removal holds the method's index.
+ * <li>The CRC-32 of the payload, as an int.
+ * </ul>
+ * A record that was not written completely, because Eclipse stopped while it
+ * was appended, is dropped along with everything after it.
+ * <p>
+ * Compaction folds the log into a new save file. The new save file, and its
+ * row file for scores in fixed point, are written from a snapshot of the model
+ * without blocking appends, then replace the old ones, and the records
+ * appended after the snapshot are kept in a new log. The generation of the log
+ * changes whenever it is rebased, so a compaction that was overtaken by
+ * another one is abandoned. The save file is checked against the checksum of
+ * the log before it is replaced, so a compaction never overwrites a file that
+ * something else was saved to in the meantime. The log is detached instead.
+ * <p>
+ * A detached log no longer takes any change, and is never compacted or
+ * rebased. The log is detached before anything but a TF-IDF model is saved
+ * over its save file.
+ * <p>
+ * The new log is written next to the log, named with {@link #NEXT_EXTENSION}
+ * added, before the save file is replaced, and only replaces the log
+ * afterwards. If Eclipse stops in between, the new log is picked up when the
+ * log is replayed, so no change is lost.
+ * <p>
+ * TFIDFDeltaLog is thread safe.
+ */
+public class TFIDFDeltaLog
+{
+    /**
+     * The extension added to the name of the save file to name its log.
+     */
+    public static final String FILE_EXTENSION = ".delta";
+
+    /**
+     * The extension added to the name of the log to name a rebased log that
+     * has not replaced it yet.
+     */
+    public static final String NEXT_EXTENSION = ".next";
+    public static final int MAGIC = 0x4C445352;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * The length of the log after which it is worth compacting.
+     */
+    public static final long COMPACT_AFTER_BYTES = 8L << 20;
+
+    private static final int UPDATE = 1;
+    private static final int REMOVE = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File base;
+    private File file;
+    private File next;
+    private long baseChecksum;
+    private long length;
+    private int generation;
+    private boolean detached;
+
+    /**
+     * The constructor. The log file is not read until the log is replayed,
+     * and not created until the first change is appended.
+     * 
+     * @param base
+     *            The save file the log belongs to
+     * @param baseChecksum
+     *            The checksum of the save file
+     */
+    public TFIDFDeltaLog(File base, long baseChecksum)
+    {
+        this.base = base;
+        this.file = new File(base.getPath() + FILE_EXTENSION);
+        this.next = new File(file.getPath() + NEXT_EXTENSION);
+        this.baseChecksum = baseChecksum;
+    }
+
+    /**
+     * Returns the save file the log belongs to.
+     * 
+     * @return The save file
+     */
+    public File getBase()
+    {
+        return base;
+    }
+
+    /**
+     * Returns the length of the log file, which is where the next change is
+     * appended.
+     * 
+     * @return The length in bytes, or 0 if the log is empty
+     */
+    public synchronized long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns the generation of the log, which changes whenever the log is
+     * rebased.
+     * 
+     * @return The generation
+     */
+    public synchronized int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Detaches the log, so that no change is appended to it and it is never
+     * compacted or rebased. A compaction that is replacing the save file
+     * finishes first.
+     */
+    public synchronized void detach()
+    {
+        detached = true;
+    }
+
+    /**
+     * Returns True if the log was detached, either by
+     * <code>detach()</code> or because a compaction found that its save file
+     * was overwritten.
+     * 
+     * @return <ul>
+     *         <li>True if the log is detached
+     *         <li>False if it still takes changes
+     *         </ul>
+     */
+    public synchronized boolean isDetached()
+    {
+        return detached;
+    }
+
+    /**
+     * Replays the log on top of the saved matrix. A rebased log left behind
+     * by a compaction that was interrupted after the save file was replaced
+     * takes the place of the log first. A log that belongs to a different
+     * save file is deleted, and an incomplete record at its end is cut off,
+     * so that changes can be appended afterwards.
+     * 
+     * @param matrix
+     *            The matrix read from the save file
+     * @param methodKeys
+     *            The method keys read from the save file
+     * @return The matrix and method keys with every change of the log
+     * @throws IOException
+     *             If the log cannot be read
+     */
+    public synchronized Replayed replay(SimilarityMatrix matrix,
+            String[] methodKeys) throws IOException
+    {
+        Replayed replayed = new Replayed(matrix, methodKeys);
+        length = 0;
+        if (next.isFile())
+        {
+            if (belongsToBase(next))
+            {
+                System.out.println("Picking up " + next
+                        + ", the log was not replaced when " + base
+                        + " was.");
+                BinaryFile.replace(next, file);
+            }
+            else
+            {
+                next.delete();
+            }
+        }
+        if (!file.isFile())
+            return replayed;
+
+        RandomAccessFile in = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileChannel channel = in.getChannel();
+            if (!belongsToBase(channel))
+            {
+                System.out.println("Discarding " + file
+                        + ", it does not belong to " + base + ".");
+                channel.truncate(0);
+                return replayed;
+            }
+
+            long position = HEADER_SIZE;
+            long size = channel.size();
+            ByteBuffer recordHeader = BinaryFile.allocate(8);
+            while (position + 8 <= size)
+            {
+                recordHeader.clear();
+                BinaryFile.readFully(channel, recordHeader, position);
+                int type = recordHeader.getInt(0);
+                int payloadLength = recordHeader.getInt(4);
+                if (payloadLength < 0
+                        || position + 12 + payloadLength > size)
+                    break;
+                ByteBuffer payload = BinaryFile.allocate(payloadLength + 4L);
+                BinaryFile.readFully(channel, payload, position + 8);
+                CRC32 checksum = new CRC32();
+                checksum.update(payload.array(), 0, payloadLength);
+                if ((int) checksum.getValue() != payload.getInt(payloadLength))
+                    break;
+
+                payload.limit(payloadLength).position(0);
+                if (!replayed.apply(type, payload))
+                    break;
+                position += 12 + payloadLength;
+            }
+            if (position < size)
+            {
+                System.out.println("Dropping the incomplete end of " + file
+                        + ".");
+                channel.truncate(position);
+            }
+            length = position;
+            return replayed;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Appends the update or addition of a method.
+     * 
+     * @param index
+     *            The index of the method
+     * @param methodKey
+     *            The method's key
+     * @param diagonal
+     *            The method's similarity to itself
+     * @param cols
+     *            The indices of the method's non-zero scores in ascending
+     *            order, not including the method itself
+     * @param scores
+     *            The scores, parallel to cols
+     * @param numScores
+     *            The number of valid entries in cols and scores
+     * @throws IOException
+     *             If the change cannot be written
+     */
+    public synchronized void appendUpdate(int index, String methodKey,
+            float diagonal, int[] cols, float[] scores, int numScores)
+            throws IOException
+    {
+        byte[] key = methodKey.getBytes(UTF_8.name());
+        ByteBuffer payload = BinaryFile.allocate(16 + key.length + 8L
+                * numScores);
+        payload.putInt(index).putInt(key.length).put(key).putFloat(diagonal)
+                .putInt(numScores);
+        payload.asIntBuffer().put(cols, 0, numScores);
+        payload.position(payload.position() + 4 * numScores);
+        payload.asFloatBuffer().put(scores, 0, numScores);
+        append(UPDATE, payload.array());
+    }
+
+    /**
+     * Appends the removal of a method.
+     * 
+     * @param index
+     *            The index of the method
+     * @throws IOException
+     *             If the change cannot be written
+     */
+    public synchronized void appendRemove(int index) throws IOException
+    {
+        append(REMOVE, BinaryFile.allocate(4).putInt(index).array());
+    }
+
+    /**
+     * Folds the log into a new save file written from a snapshot of the model.
+     * The snapshot, the length of the log and its generation must have been
+     * read together, while no change could be made. The save file is written
+     * without holding the log's lock, so changes can still be appended. For
+     * scores in fixed point, a row file for {@link MappedSimilarityMatrix} is
+     * written along with the save file, so the compacted model can still be
+     * mapped. Float rows are mapped from the save file itself, so the old row
+     * file is deleted instead.
+     * 
+     * @param snapshot
+     *            The model that holds every change up to the mark
+     * @param mark
+     *            The length of the log when the snapshot was taken
+     * @param expectedGeneration
+     *            The generation of the log when the snapshot was taken
+     * @param rowPrecision
+     *            The precision to write the row file in, or null to leave the
+     *            row file alone, in which case it no longer belongs to the save
+     *            file
+     * @return <ul>
+     *         <li>True if the save file was replaced
+     *         <li>False if the log was rebased or detached in the meantime,
+     *         or if the save file no longer has the checksum of the log, in
+     *         which case the log is detached
+     *         </ul>
+     * @throws IOException
+     *             If either file cannot be written
+     */
+    public boolean compact(TFIDFModel snapshot, long mark,
+            int expectedGeneration, SimilarityMatrix.Precision rowPrecision)
+            throws IOException
+    {
+        if (getGeneration() != expectedGeneration || isDetached())
+            return false;
+
+        String[] methodKeys = snapshot.getMethodKeyIndex().getKeys();
+        SimilarityMatrix matrix = snapshot.getCosineSimilarityMatrix();
+        // Float rows are mapped from the save file itself
+        boolean writeRows = rowPrecision != null
+                && rowPrecision != SimilarityMatrix.Precision.FLOAT_32;
+        File parent = base.getAbsoluteFile().getParentFile();
+        File compacted = File.createTempFile(base.getName(), ".tmp", parent);
+        File rows = null;
+        try
+        {
+            TFIDFModelFile.Writer out = new TFIDFModelFile.Writer(compacted,
+                    methodKeys);
+            MappedSimilarityMatrix.Writer rowOut = null;
+            try
+            {
+                try
+                {
+                    if (writeRows)
+                    {
+                        rows = File.createTempFile(base.getName()
+                                + MappedSimilarityMatrix.FILE_EXTENSION,
+                                ".tmp", parent);
+                        rowOut = new MappedSimilarityMatrix.Writer(rows,
+                                methodKeys.length, rowPrecision);
+                    }
+                    float[] row = new float[methodKeys.length];
+                    for (int i = 0; i < methodKeys.length; i++)
+                    {
+                        matrix.getRow(i, row);
+                        out.writeRow(row);
+                        if (rowOut != null)
+                            rowOut.writeRow(row);
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+                if (rowOut != null)
+                    rowOut.finish(out.getChecksum());
+            }
+            finally
+            {
+                if (rowOut != null)
+                    rowOut.close();
+            }
+
+            synchronized (this)
+            {
+                if (generation != expectedGeneration || detached)
+                    return false;
+                if (!isBaseUnchanged())
+                {
+                    System.out.println("Not compacting the log into " + base
+                            + ", something else was saved to it.");
+                    detached = true;
+                    return false;
+                }
+                // The rebased log is ready before the save file changes, so
+                // a crash in between never leaves a log that fits neither
+                long nextLength = writeRebased(out.getChecksum(), mark);
+                BinaryFile.replace(compacted, base);
+                commitRebased(out.getChecksum(), nextLength);
+            }
+            if (rows != null)
+                replaceRowFile(rows);
+            else if (rowPrecision != null)
+                new File(base.getPath() + MappedSimilarityMatrix.FILE_EXTENSION)
+                        .delete();
+            return true;
+        }
+        finally
+        {
+            compacted.delete();
+            if (rows != null)
+                rows.delete();
+        }
+    }
+
+    /**
+     * Makes the log belong to a new save file that holds every change up to
+     * the mark. The changes appended after the mark are kept. Nothing is done
+     * if the log was rebased since the snapshot saved in the new file was
+     * taken.
+     * 
+     * @param checksum
+     *            The checksum of the new save file
+     * @param mark
+     *            The length of the log when the snapshot saved in the new
+     *            file was taken
+     * @param expectedGeneration
+     *            The generation of the log when the snapshot was taken
+     * @return <ul>
+     *         <li>True if the log now belongs to the new save file
+     *         <li>False if the log was rebased or detached in the meantime
+     *         </ul>
+     * @throws IOException
+     *             If the log cannot be written
+     */
+    public synchronized boolean rebase(long checksum, long mark,
+            int expectedGeneration) throws IOException
+    {
+        if (generation != expectedGeneration || detached)
+            return false;
+        commitRebased(checksum, writeRebased(checksum, mark));
+        return true;
+    }
+
+    /**
+     * Writes the rebased log, which belongs to the new save file and holds
+     * the records appended after the mark, and returns its length.
+     */
+    private long writeRebased(long checksum, long mark) throws IOException
+    {
+        ByteBuffer tail = BinaryFile.allocate(Math.max(0, length
+                - Math.max(mark, HEADER_SIZE)));
+        if (tail.capacity() > 0)
+        {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try
+            {
+                BinaryFile.readFully(in.getChannel(), tail, length
+                        - tail.capacity());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        FileOutputStream out = new FileOutputStream(next);
+        try
+        {
+            out.write(createHeader(checksum).array());
+            out.write(tail.array());
+            out.getChannel().force(false);
+        }
+        finally
+        {
+            out.close();
+        }
+        return HEADER_SIZE + tail.capacity();
+    }
+
+    /**
+     * Replaces the log with the rebased log, once the new save file is in
+     * place.
+     */
+    private void commitRebased(long checksum, long nextLength)
+            throws IOException
+    {
+        generation++;
+        baseChecksum = checksum;
+        if (nextLength > HEADER_SIZE)
+        {
+            BinaryFile.replace(next, file);
+            length = nextLength;
+        }
+        else
+        {
+            file.delete();
+            next.delete();
+            length = 0;
+        }
+    }
+
+    /**
+     * Replaces the row file of the save file with a new one. If the old row
+     * file cannot be replaced, for instance because it is still mapped on a
+     * platform that does not allow it, it no longer belongs to the save file
+     * and is not mapped the next time the model is loaded.
+     */
+    private void replaceRowFile(File rows)
+    {
+        File rowFile = new File(base.getPath()
+                + MappedSimilarityMatrix.FILE_EXTENSION);
+        try
+        {
+            BinaryFile.replace(rows, rowFile);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not replace " + rowFile
+                    + ", the compacted model will not be mapped.");
+        }
+    }
+
+    /**
+     * Appends a record, starting the log if it is empty. The record is forced
+     * to the disk before this method returns.
+     */
+    private void append(int type, byte[] payload) throws IOException
+    {
+        if (detached)
+            throw new IOException("The log of " + base + " is detached.");
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        ByteBuffer record = BinaryFile.allocate((length == 0 ? HEADER_SIZE
+                : 0) + 12L + payload.length);
+        if (length == 0)
+            record.put(createHeader(baseChecksum).array());
+        record.putInt(type).putInt(payload.length).put(payload).putInt(
+                (int) checksum.getValue());
+        record.flip();
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileChannel channel = out.getChannel();
+            long position = BinaryFile.writeFully(channel, record, length);
+            channel.force(false);
+            length = position;
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the header of a log that belongs to the save file with the
+     * given checksum.
+     */
+    private ByteBuffer createHeader(long checksum) throws IOException
+    {
+        return BinaryFile.createHeader(HEADER_SIZE, MAGIC, VERSION).putLong(
+                checksum);
+    }
+
+    /**
+     * Returns True if the log file starts with the header of a log that
+     * belongs to the current save file.
+     */
+    private boolean belongsToBase(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = BinaryFile.allocate(HEADER_SIZE);
+        return channel.read(header, 0) == HEADER_SIZE
+                && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getLong(8) == baseChecksum;
+    }
+
+    /**
+     * Returns True if the save file still has the checksum the log belongs
+     * to. A file that is not a binary save file, or is missing, does not.
+     */
+    private boolean isBaseUnchanged()
+    {
+        try
+        {
+            return TFIDFModelFile.readChecksum(base) == baseChecksum;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns True if the given log file belongs to the current save file.
+     */
+    private boolean belongsToBase(File log) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(log, "r");
+        try
+        {
+            return belongsToBase(in.getChannel());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Replayed holds a matrix and its method keys with the changes of a log
+     * applied.
+     */
+    public static class Replayed
+    {
+        private SimilarityMatrix matrix;
+        private UpdatableSimilarityMatrix updated;
+        private String[] methodKeys;
+        private int numChanges;
+
+        private Replayed(SimilarityMatrix matrix, String[] methodKeys)
+        {
+            this.matrix = matrix;
+            this.methodKeys = methodKeys;
+        }
+
+        /**
+         * Applies a record. Returns False if the record does not fit the
+         * matrix, in which case it and the rest of the log are dropped. The
+         * whole record is read and checked before anything is changed, so a
+         * record that is dropped leaves no trace.
+         */
+        private boolean apply(int type, ByteBuffer payload)
+        {
+            try
+            {
+                int size = methodKeys.length;
+                if (payload.remaining() < 4)
+                    return false;
+                int index = payload.getInt();
+                if (type == REMOVE)
+                {
+                    if (index < 0 || index >= size || payload.hasRemaining())
+                        return false;
+                    update().clearRow(index);
+                    methodKeys[index] = null;
+                }
+                else if (type == UPDATE)
+                {
+                    if (index < 0 || index > size || payload.remaining() < 4)
+                        return false;
+                    int keyLength = payload.getInt();
+                    if (keyLength < 0 || keyLength > payload.remaining() - 8)
+                        return false;
+                    byte[] key = new byte[keyLength];
+                    payload.get(key);
+                    String methodKey = new String(key, UTF_8.name());
+                    float diagonal = payload.getFloat();
+                    int numScores = payload.getInt();
+                    if (numScores < 0
+                            || payload.remaining() != 8L * numScores)
+                        return false;
+                    int[] cols = new int[numScores];
+                    float[] scores = new float[numScores];
+                    payload.asIntBuffer().get(cols);
+                    payload.position(payload.position() + 4 * numScores);
+                    payload.asFloatBuffer().get(scores);
+                    // The columns have to be ascending, within the matrix
+                    // once the method is added, and not the method itself
+                    int newSize = index == size ? size + 1 : size;
+                    for (int k = 0; k < numScores; k++)
+                    {
+                        if (cols[k] < 0 || cols[k] >= newSize
+                                || cols[k] == index
+                                || (k > 0 && cols[k] <= cols[k - 1]))
+                            return false;
+                    }
+
+                    update().setRow(index, diagonal, cols, scores, numScores);
+                    if (index == size)
+                        methodKeys = Arrays.copyOf(methodKeys, size + 1);
+                    methodKeys[index] = methodKey;
+                }
+                else
+                {
+                    return false;
+                }
+                numChanges++;
+                return true;
+            }
+            catch (IOException e)
+            {
+                return false;
+            }
+        }
+
+        /**
+         * Returns the matrix the changes are applied to, wrapping the saved
+         * matrix the first time.
+         */
+        private UpdatableSimilarityMatrix update()
+        {
+            if (updated == null)
+                matrix = updated = new UpdatableSimilarityMatrix(matrix);
+            return updated;
+        }
+
+        /**
+         * Returns the matrix with every change applied.
+         * 
+         * @return The saved matrix, or an {@link UpdatableSimilarityMatrix} on
+         *         top of it if there were changes
+         */
+        public SimilarityMatrix getMatrix()
+        {
+            return matrix;
+        }
+
+        /**
+         * Returns the method keys with every change applied.
+         * 
+         * @return The method keys
+         */
+        public String[] getMethodKeys()
+        {
+            return methodKeys;
+        }
+
+        /**
+         * Returns the number of changes that were replayed.
+         * 
+         * @return The number of changes
+         */
+        public int getNumChanges()
+        {
+            return numChanges;
+        }
+    }
+}
@@ -1,8 +1,25 @@
 package recommendationsystem.model.tfidf;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import recommendationsystem.model.BatchQuery;
+import recommendationsystem.model.BatchScorer;
+import recommendationsystem.model.FloatKernels;
 import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.MethodKeyIndex;
+import recommendationsystem.model.MethodScopes;
+import recommendationsystem.model.ScopeFilter;
+import recommendationsystem.model.TopNSelector;
 
 /**
  * TFIDFMatrix is the data representation of the TF-IDF cosine similarity
@@ -12,26 +29,42 @@ import recommendationsystem.model.MethodHistory;
  * <p>
  * Each column of the matrix represents a method's similarity to every other
  * method in the source code. Method's are indexed and the indices are stored in
- * the methodIndex field variable.
+ * a {@link MethodKeyIndex}, so a method's index is found from its key without
+ * searching. The scores themselves are kept in a
+ * {@link SimilarityMatrix}, which is read one row at a time. Since cosine
+ * similarity is symmetric, a method's row is also its column.
  * <p>
  * This model can be run with or without history. Without history, the result is
  * simply a lookup in the matrix. With history, the column of the each method is
  * decayed and added to a result which is then used for the lookup. See
- * getCombinedHistoryColumn(float, int) for the details. When using history,
- * TFIDFMatrix assumes that {@link MethodHistory} is accurate.
+ * getCombinedHistoryColumn(TFIDFModel, int) for the details. When using
+ * history, TFIDFMatrix assumes that {@link MethodHistory} is accurate.
  * <p>
- * PFISMatrix is a singleton class. Call <code>getInstance()</code> to use it.
+ * The matrix, method index and corpus are published together as an immutable
+ * {@link TFIDFModel} snapshot through an atomic reference. Queries read the
+ * current snapshot once and are not synchronized, so any number of them can
+ * run at once, including while a new model is loaded. Loading, creating and
+ * updating the model build a new snapshot and swap it in, and the old one keeps
+ * serving the queries that already read it. Only the methods that publish a
+ * snapshot are synchronized, so changes are never lost to each other.
+ * <p>
+ * TFIDFMatrix is a singleton class. Call <code>getInstance()</code> to use it.
  * 
  * @author David Piorkowski
  * 
  */
 public class TFIDFMatrix
 {
+    private static final float HISTORY_DECAY = 0.9F;
+    private static final int MAX_BATCH_ROWS = 64;
+
     private static TFIDFMatrix instance;
     private MethodHistory methodHistory;
+    private HistoryScoreAccumulator historyScores;
 
-    private float[][] cosineMatrix;
-    private String[] methodIndex;
+    private AtomicReference<TFIDFModel> model;
+    private long version;
+    private TFIDFDeltaLog deltaLog;
 
     /**
      * The singleton constructor
@@ -71,84 +104,81 @@ public class TFIDFMatrix
     private void init()
     {
         methodHistory = MethodHistory.getInstance();
+        historyScores = new HistoryScoreAccumulator(HISTORY_DECAY);
+        model = new AtomicReference<TFIDFModel>();
+    }
+
+    /**
+     * Resets all the data structures. No model is published afterwards until
+     * a new one is set. This method is synchronized.
+     */
+    public synchronized void reset()
+    {
+        model.set(null);
+        historyScores.clear();
     }
 
     /**
-     * Resets all the data structures. This clears sets the cosine matrix and
-     * method index to null.
+     * Publishes a new snapshot of the model.
      */
-    public void reset()
+    private void publish(SimilarityMatrix simMatrix, MethodKeyIndex methodKeys,
+            TFIDFCorpus tfidfCorpus)
     {
-        cosineMatrix = null;
-        methodIndex = null;
+        model.set(new TFIDFModel(simMatrix, methodKeys, MethodScopes
+                .getInstance().getCandidateScopes(methodKeys), tfidfCorpus,
+                ++version));
     }
 
     /**
      * Returns an array ordered by the order specified in the method index. This
      * array combines the similarity scores from the number of steps given from
-     * the current location using the decay given. This gives the final score
-     * for use in determining the top N recommendations when using TF-IDF with
-     * history.
+     * the current location, each decayed once more than the step after it.
+     * This gives the final score for use in determining the top N
+     * recommendations when using TF-IDF with history. The combined scores are
+     * kept by a {@link HistoryScoreAccumulator}, so only the steps added since
+     * the last call are read.
      * 
-     * @param decay
-     *            The factor to decay by, between 0 and 1
+     * @param current
+     *            The snapshot of the model to use
      * @param numSteps
      *            The number of steps in the history to look up
      * @return An array of similarity scores representing the combined history
      */
-    private float[] getCombinedHistoryColumn(float decay, int numSteps)
+    private float[] getCombinedHistoryColumn(TFIDFModel current, int numSteps)
     {
-        float totalDecay = 1;
-        int methodIndex;
-        float[] rv = new float[cosineMatrix.length];
-        String methodKey;
-
-        for (int i = methodHistory.length() - 1; i > -1; i--)
-        {
-            methodKey = methodHistory.getMethodKeyAtStep(i);
-            if (methodKey != null)
-            {
-                methodIndex = getMethodIndex(methodKey);
-                if (methodIndex > -1)
-                {
-                    for (int j = 0; j < cosineMatrix.length; j++)
-                    {
-                        rv[j] = cosineMatrix[methodIndex][j] * totalDecay
-                                + rv[j];
-                    }
-                    totalDecay = totalDecay * decay;
-                }
-            }
-        }
-
-        return rv;
+        return historyScores.getScores(current, methodHistory, numSteps);
     }
 
     /**
-     * Returns the index in the cosine similarity matrix for the given method's
-     * key.
+     * Returns the keys of the history steps that are combined by the
+     * recommendations with history. These are the most recent steps of the
+     * history whose methods are in the model.
      * 
-     * @param methodKey
-     *            The method's key to seek
-     * @return <ul>
-     *         <li>The index if the method's key exists
-     *         <li>-1 if the key is not found
-     *         </ul>
+     * @param current
+     *            The snapshot of the model to use
+     * @param numSteps
+     *            The number of steps in the history to look up. Anything less
+     *            than 1 is treated as 1.
+     * @return The method keys, oldest first
      */
-    private int getMethodIndex(String methodKey)
+    public List<String> getHistoryWindow(TFIDFModel current, int numSteps)
     {
-        for (int index = 0; index < methodIndex.length; index++)
+        LinkedList<String> window = new LinkedList<String>();
+        MethodKeyIndex methodKeys = current.getMethodKeyIndex();
+        for (int i = methodHistory.length() - 1; i > -1
+                && window.size() < Math.max(1, numSteps); i--)
         {
-            if (methodIndex[index].equals(methodKey))
-                return index;
+            String methodKey = methodHistory.getMethodKeyAtStep(i);
+            if (methodKey != null && methodKeys.getId(methodKey) > -1)
+                window.addFirst(methodKey);
         }
-        return -1;
+        return window;
     }
 
     /**
      * Returns the top N recommendations with history using the TF-IDF cosine
      * similarity matrix. The top recommendation is located in the zero index.
-     * This method is synchronized.
+     * This method reads a single snapshot of the model and is not synchronized.
      * 
      * @param methodKey
      *            The current method's key
@@ -158,65 +188,42 @@ public class TFIDFMatrix
      *            The number of steps in the history to consider
      * @return A string array of method keys which represents an ordered list or
      *         recommendations. The zero index is the highest recommendation.
-     *         Note that this array may be smaller than numToRecommend.
+     *         Note that this array may be smaller than numToRecommend. It is
+     *         empty if no model is loaded.
      */
-    public synchronized String[] getTopNRecommendations2(String methodKey,
+    public String[] getTopNRecommendations2(String methodKey,
             int numToRecommend, int numHistorySteps)
     {
+        TFIDFModel current = model.get();
+        if (current == null)
+            return new String[0];
+        MethodKeyIndex methodKeys = current.getMethodKeyIndex();
+
         // TODO: validate correctness
         // Find the index of the method
-        int index = getMethodIndex(methodKey);
-
-        float tMax = 0;
-        int tIndex = 0;
-        // System.out.println("len: " + methodIndex.length);
-        System.out
-                .println("methodIndex[" + index + "] = " + methodIndex[index]);
-
-        // Temporary storage for our values
-        int tempIndex[] = new int[numToRecommend];
-        float tempVal[] = new float[numToRecommend];
-        int numRecommendations = 0;
-        float[] cosineColumn = getCombinedHistoryColumn(0.9F, numHistorySteps);
-
-        // Iterate over the array and store our ten largest values
-        for (int i = 0; i < numToRecommend; i++)
-        {
-            for (int j = 0; j < cosineColumn.length; j++)
-            {
-                if (index != j && cosineColumn[j] > tMax)
-                {
-                    tMax = cosineColumn[j];
-                    tIndex = j;
-                }
-            }
+        int index = methodKeys.getId(methodKey);
 
-            if (tMax == 0)
-                break;
-            // We store and negate values so they don't get caught in the next
-            // iteration of the loop
-            cosineColumn[tIndex] = -cosineColumn[tIndex];
-            tempIndex[i] = tIndex;
-            tempVal[i] = tMax;
-            tMax = 0;
-            numRecommendations++;
-        }
+        System.out.println("methodIndex[" + index + "] = "
+                + methodKeys.getKey(index));
 
-        String[] rv = new String[numRecommendations];
-        // Restore our previously negated values and fill our return array
-        for (int i = 0; i < numRecommendations; i++)
+        float[] cosineColumn = getCombinedHistoryColumn(current,
+                numHistorySteps);
+        TopNSelector selector = new TopNSelector(numToRecommend, 0);
+        for (int j = 0; j < cosineColumn.length; j++)
         {
-            rv[i] = methodIndex[tempIndex[i]];
+            if (index != j)
+                selector.offer(j, cosineColumn[j]);
         }
 
-        return rv;
+        return getMethodKeys(methodKeys, selector.getIds());
     }
 
     /**
      * Returns the top N recommendations with history using the TF-IDF cosine
      * similarity matrix. This method tries to return results such that half are
      * unvisited methods and half are visited. The top recommendation is located
-     * in the zero index. This method is synchronized.
+     * in the zero index. This method reads a single snapshot of the model and
+     * is not synchronized.
      * 
      * @param methodKey
      *            The current method's key
@@ -226,17 +233,77 @@ public class TFIDFMatrix
      *            The number of steps in the history to consider
      * @return A string array of method keys which represents an ordered list or
      *         recommendations. The zero index is the highest recommendation.
-     *         Note that this array may be smaller than numToRecommend.
+     *         Note that this array may be smaller than numToRecommend. It is
+     *         empty if no model is loaded.
      */
-    public synchronized String[] getTopNRecommendations2HalfAndHalf(
-            String methodKey, int numToRecommend, int numHistorySteps)
+    public String[] getTopNRecommendations2HalfAndHalf(String methodKey,
+            int numToRecommend, int numHistorySteps)
     {
-        // Find the index of the method
-        int index = getMethodIndex(methodKey);
+        return getTopNRecommendations2HalfAndHalf(methodKey, numToRecommend,
+                numHistorySteps, ScopeFilter.NONE);
+    }
 
-        Set<String> uniqueVisited = MethodHistory.getInstance()
-                .getUniqueVisitedMethods();
+    /**
+     * Returns the top N recommendations with history like
+     * {@link #getTopNRecommendations2HalfAndHalf(String, int, int)}, only
+     * choosing from the methods in the given scope.
+     * 
+     * @param methodKey
+     *            The current method's key
+     * @param numToRecommend
+     *            The number of recommendations
+     * @param numHistorySteps
+     *            The number of steps in the history to consider
+     * @param scope
+     *            The scope to restrict the recommendations to
+     * @return A string array of method keys which represents an ordered list or
+     *         recommendations. The zero index is the highest recommendation.
+     *         Note that this array may be smaller than numToRecommend. It is
+     *         empty if no model is loaded.
+     */
+    public String[] getTopNRecommendations2HalfAndHalf(String methodKey,
+            int numToRecommend, int numHistorySteps, ScopeFilter scope)
+    {
+        TFIDFModel current = model.get();
+        if (current == null)
+            return new String[0];
+        MethodKeyIndex methodKeys = current.getMethodKeyIndex();
+
+        // Find the index of the method
+        int index = methodKeys.getId(methodKey);
+
+        float[] cosineColumn = getCombinedHistoryColumn(current,
+                numHistorySteps);
+        return getMethodKeys(methodKeys, selectHalfAndHalf(methodKeys,
+                cosineColumn, index, current.getCandidateScopes()
+                        .getCandidates(scope, methodKey), methodHistory
+                        .getUniqueVisitedMethods(), numToRecommend, true));
+    }
 
+    /**
+     * Selects up to the top N methods of the given scores, such that half are
+     * unvisited methods and half are visited, if there are enough of each.
+     * 
+     * @param methodKeys
+     *            The method key index of the scores
+     * @param cosineColumn
+     *            The score of every method
+     * @param index
+     *            The index of the current method, which is never selected
+     * @param candidates
+     *            The methods that may be selected, or null for every method
+     * @param uniqueVisited
+     *            The methods that count as visited
+     * @param numToRecommend
+     *            The number of methods to select
+     * @param verbose
+     *            Whether to print how many of each kind were found
+     * @return The indices of the selected methods, best first
+     */
+    private int[] selectHalfAndHalf(MethodKeyIndex methodKeys,
+            float[] cosineColumn, int index, BitSet candidates,
+            Set<String> uniqueVisited, int numToRecommend, boolean verbose)
+    {
         // Determine how many visited and unvisited methods to recommend
         // Don't include the current method, subtract 1
         int numVisited = uniqueVisited.size() - 1;
@@ -247,68 +314,190 @@ public class TFIDFMatrix
         else
             numVisited = numToRecommend / 2;
 
-        System.out.println("Unvisited = " + numUnvisited + " Visited = "
-                + numVisited);
+        if (verbose)
+            System.out.println("Unvisited = " + numUnvisited + " Visited = "
+                    + numVisited);
+
+        BitSet visited = new BitSet(methodKeys.size());
+        for (String visitedKey : uniqueVisited)
+        {
+            int visitedIndex = methodKeys.getId(visitedKey);
+            if (visitedIndex > -1)
+                visited.set(visitedIndex);
+        }
+
+        // Select the best visited and unvisited methods separately
+        TopNSelector visitedSelector = new TopNSelector(numVisited, 0);
+        TopNSelector unvisitedSelector = new TopNSelector(numUnvisited, 0);
+        for (int j = 0; j < cosineColumn.length; j++)
+        {
+            if (index == j || candidates != null && !candidates.get(j))
+                continue;
+            if (visited.get(j))
+                visitedSelector.offer(j, cosineColumn[j]);
+            else
+                unvisitedSelector.offer(j, cosineColumn[j]);
+        }
+
+        int[] recommended = TopNSelector.merge(visitedSelector,
+                unvisitedSelector, numToRecommend);
+        if (verbose)
+        {
+            System.out.println("Recommended: " + recommended.length);
+            System.out.println("Unvisited Left: "
+                    + (numUnvisited - unvisitedSelector.size())
+                    + " Visited Left: "
+                    + (Math.max(0, numVisited) - visitedSelector.size()));
+        }
 
-        float tMax = 0;
-        int tIndex = 0;
-        boolean visited = false;
+        return recommended;
+    }
 
-        // Temporary storage for our values
-        int tempIndex[] = new int[numToRecommend];
-        float tempVal[] = new float[numToRecommend];
-        int numRecommendations = 0;
-        float[] cosineColumn = getCombinedHistoryColumn(0.9F, numHistorySteps);
+    /**
+     * Returns the top N recommendations with history for each of the given
+     * queries, half of them visited and half unvisited like
+     * {@link #getTopNRecommendations2HalfAndHalf(String, int, int)}. Every
+     * query is scored against the same snapshot of the model, using its own
+     * history rather than {@link MethodHistory}. The queries are scored in
+     * blocks on the given number of threads, and the rows of the history
+     * steps of a block are read only once. This method is not synchronized.
+     * 
+     * @param queries
+     *            The queries to score
+     * @param numThreads
+     *            The number of threads to score on
+     * @return <ul>
+     *         <li>The method keys recommended for each query, best first, in
+     *         the order of the queries. Every array is empty if no model is
+     *         loaded.
+     *         <li>null if the thread was interrupted
+     *         </ul>
+     */
+    public String[][] getTopNRecommendationsBatch(List<BatchQuery> queries,
+            int numThreads)
+    {
+        final TFIDFModel current = model.get();
+        if (current == null)
+        {
+            String[][] rv = new String[queries.size()][];
+            Arrays.fill(rv, new String[0]);
+            return rv;
+        }
 
-        // Iterate over the array and store our ten largest values
-        for (int i = 0; i < numToRecommend; i++)
+        return new BatchScorer()
         {
-            for (int j = 0; j < cosineColumn.length; j++)
+            @Override
+            protected Worker createWorker()
             {
-                if (index != j && cosineColumn[j] > tMax)
-                {
-                    visited = uniqueVisited.contains(methodIndex[j]);
-                    if ((visited && numVisited > 0)
-                            || (!visited && numUnvisited > 0))
-                    {
-                        tMax = cosineColumn[j];
-                        tIndex = j;
-                    }
-                }
+                return new BatchWorker(current);
             }
+        }.score(queries, numThreads);
+    }
 
-            if (tMax == 0)
-                break;
-            // We store and negate values so they don't get caught in the next
-            // iteration of the loop
-            cosineColumn[tIndex] = -cosineColumn[tIndex];
-            tempIndex[i] = tIndex;
-            tempVal[i] = tMax;
-            tMax = 0;
-            numRecommendations++;
-            if (visited)
-                numVisited--;
-            else
-                numUnvisited--;
+    /**
+     * Returns the indices of the history steps of a query that are combined,
+     * like {@link #getHistoryWindow(TFIDFModel, int)} does for
+     * {@link MethodHistory}.
+     * 
+     * @return The method indices, oldest first
+     */
+    private static int[] getHistoryWindow(MethodKeyIndex methodKeys,
+            BatchQuery query)
+    {
+        int numSteps = Math.max(1, query.getNumHistorySteps());
+        List<String> history = query.getHistory();
+        int[] window = new int[Math.min(numSteps, history.size())];
+        int found = 0;
+        for (int i = history.size() - 1; i > -1 && found < window.length; i--)
+        {
+            int index = methodKeys.getId(history.get(i));
+            if (index > -1)
+                window[window.length - ++found] = index;
         }
-        System.out.println("Recommended: " + numRecommendations);
-        System.out.println("Unvisited Left: " + numUnvisited
-                + " Visited Left: " + numVisited);
+        return Arrays.copyOfRange(window, window.length - found,
+                window.length);
+    }
 
-        String[] rv = new String[numRecommendations];
-        // Restore our previously negated values and fill our return array
-        for (int i = 0; i < numRecommendations; i++)
+    /**
+     * BatchWorker scores blocks of batch queries against a single snapshot of
+     * the model. It keeps the combined scores and the rows it reads from one
+     * block to the next, so a batch allocates them only once per thread.
+     */
+    private class BatchWorker implements BatchScorer.Worker
+    {
+        private TFIDFModel current;
+        private float[] column;
+        private Map<Integer, float[]> rows;
+        private List<float[]> freeRows;
+
+        private BatchWorker(TFIDFModel current)
         {
-            rv[i] = methodIndex[tempIndex[i]];
+            this.current = current;
+            column = new float[current.getCosineSimilarityMatrix().getSize()];
+            rows = new HashMap<Integer, float[]>();
+            freeRows = new ArrayList<float[]>();
         }
 
-        return rv;
+        @Override
+        public String[][] recommend(List<BatchQuery> block)
+        {
+            SimilarityMatrix cosineMatrix = current
+                    .getCosineSimilarityMatrix();
+            MethodKeyIndex methodKeys = current.getMethodKeyIndex();
+            int size = cosineMatrix.getSize();
+
+            // Read the rows of the block's history steps once
+            int[][] windows = new int[block.size()][];
+            for (int q = 0; q < windows.length; q++)
+            {
+                windows[q] = getHistoryWindow(methodKeys, block.get(q));
+                for (int index : windows[q])
+                {
+                    if (rows.containsKey(index)
+                            || rows.size() >= MAX_BATCH_ROWS)
+                        continue;
+                    float[] row = freeRows.isEmpty() ? new float[size]
+                            : freeRows.remove(freeRows.size() - 1);
+                    cosineMatrix.getRow(index, row);
+                    rows.put(index, row);
+                }
+            }
+
+            String[][] rv = new String[windows.length][];
+            for (int q = 0; q < windows.length; q++)
+            {
+                BatchQuery query = block.get(q);
+
+                // The most recent step has a weight of 1
+                Arrays.fill(column, 0);
+                float totalDecay = 1;
+                for (int i = windows[q].length - 1; i > -1; i--)
+                {
+                    float[] row = rows.get(windows[q][i]);
+                    if (row != null)
+                        FloatKernels.axpy(totalDecay, row, 0, column, 0, size);
+                    else
+                        cosineMatrix.addRow(windows[q][i], totalDecay, column);
+                    totalDecay *= HISTORY_DECAY;
+                }
+
+                rv[q] = getMethodKeys(methodKeys, selectHalfAndHalf(
+                        methodKeys, column, methodKeys.getId(query
+                                .getMethodKey()), null, query
+                                .getUniqueVisitedMethods(), query
+                                .getNumRecommendations(), false));
+            }
+
+            freeRows.addAll(rows.values());
+            rows.clear();
+            return rv;
+        }
     }
 
     /**
      * Returns the top N recommendations without history using the TF-IDF cosine
      * similarity matrix. The top recommendation is located in the zero index.
-     * This method is synchronized.
+     * This method reads a single snapshot of the model and is not synchronized.
      * 
      * @param methodKey
      *            The current method's key
@@ -316,103 +505,299 @@ public class TFIDFMatrix
      *            The number of recommendations
      * @return A string array of method keys which represents an ordered list or
      *         recommendations. The zero index is the highest recommendation.
-     *         Note that this array may be smaller than numToRecommend.
+     *         Note that this array may be smaller than numToRecommend. It is
+     *         empty if no model is loaded.
      */
-    public synchronized String[] getTopNRecommendations(String methodKey, int n)
+    public String[] getTopNRecommendations(String methodKey, int n)
     {
-        // Find the index of the method
-        int index = getMethodIndex(methodKey);
+        TFIDFModel current = model.get();
+        if (current == null)
+            return new String[0];
+        SimilarityMatrix cosineMatrix = current.getCosineSimilarityMatrix();
+        MethodKeyIndex methodKeys = current.getMethodKeyIndex();
 
-        float tMax = 0;
-        int tIndex = 0;
-        // System.out.println("len: " + methodIndex.length);
-        System.out
-                .println("methodIndex[" + index + "] = " + methodIndex[index]);
+        // Find the index of the method
+        int index = methodKeys.getId(methodKey);
 
-        // Temporary storage for our values
-        int tempIndex[] = new int[n];
-        float tempVal[] = new float[n];
-        int numRecommendations = 0;
+        System.out.println("methodIndex[" + index + "] = "
+                + methodKeys.getKey(index));
 
-        // Iterate over the array and store our ten largest values
-        for (int i = 0; i < n; i++)
+        float[] cosineColumn = new float[cosineMatrix.getSize()];
+        cosineMatrix.getRow(index, cosineColumn);
+        TopNSelector selector = new TopNSelector(n, 0);
+        for (int j = 0; j < cosineColumn.length; j++)
         {
-            for (int j = 0; j < cosineMatrix.length; j++)
-            {
-                if (index != j && cosineMatrix[index][j] > tMax)
-                {
-                    tMax = cosineMatrix[index][j];
-                    tIndex = j;
-                }
-            }
-
-            if (tMax == 0)
-                break;
-            // We store and negate values so they don't get caught in the next
-            // iteration of the loop
-            cosineMatrix[index][tIndex] = -cosineMatrix[index][tIndex];
-            tempIndex[i] = tIndex;
-            tempVal[i] = tMax;
-            tMax = 0;
-            numRecommendations++;
+            if (index != j)
+                selector.offer(j, cosineColumn[j]);
         }
 
-        String[] rv = new String[numRecommendations];
-        // Restore our previously negated values and fill our return array
-        for (int i = 0; i < numRecommendations; i++)
+        return getMethodKeys(methodKeys, selector.getIds());
+    }
+
+    /**
+     * Returns the keys of the methods at the given indices.
+     */
+    private String[] getMethodKeys(MethodKeyIndex methodKeys, int[] indices)
+    {
+        String[] rv = new String[indices.length];
+        for (int i = 0; i < indices.length; i++)
         {
-            cosineMatrix[index][tempIndex[i]] = -cosineMatrix[index][tempIndex[i]];
-            rv[i] = methodIndex[tempIndex[i]];
+            rv[i] = methodKeys.getKey(indices[i]);
         }
-
         return rv;
     }
 
     /**
-     * Sets the mapping from method keys to indices in the cosine similarity
-     * matrix.
+     * Replaces the similarities of a single method after it was edited or
+     * added. The method's row and column are replaced on top of the current
+     * cosine similarity matrix, see {@link UpdatableSimilarityMatrix}, and the
+     * result is published as a new snapshot. This method is synchronized.
      * 
+     * @param index
+     *            The index of the method, or the size of the matrix to add a
+     *            method
+     * @param methodKey
+     *            The method's key
+     * @param diagonal
+     *            The method's similarity to itself
+     * @param cols
+     *            The indices of the method's non-zero scores in ascending
+     *            order, not including the method itself
+     * @param scores
+     *            The scores, parallel to cols
+     * @param length
+     *            The number of valid entries in cols and scores
+     */
+    public synchronized void updateMethod(int index, String methodKey,
+            float diagonal, int[] cols, float[] scores, int length)
+    {
+        TFIDFModel current = model.get();
+        UpdatableSimilarityMatrix matrix = copyUpdatableMatrix(current);
+        matrix.setRow(index, diagonal, cols, scores, length);
+        MethodKeyIndex methodKeys = new MethodKeyIndex(
+                current.getMethodKeyIndex());
+        methodKeys.setKey(index, methodKey);
+        publish(matrix, methodKeys, current.getCorpus());
+    }
+
+    /**
+     * Removes a single method after it was deleted. Its scores are set to zero
+     * and its key is removed from the method index, but its index stays in use
+     * until the matrix is rebuilt. The result is published as a new snapshot.
+     * This method is synchronized.
+     * 
+     * @param index
+     *            The index of the method
+     */
+    public synchronized void removeMethod(int index)
+    {
+        TFIDFModel current = model.get();
+        UpdatableSimilarityMatrix matrix = copyUpdatableMatrix(current);
+        matrix.clearRow(index);
+        MethodKeyIndex methodKeys = new MethodKeyIndex(
+                current.getMethodKeyIndex());
+        methodKeys.removeKey(index);
+        publish(matrix, methodKeys, current.getCorpus());
+    }
+
+    /**
+     * Returns a copy of the snapshot's cosine similarity matrix as an
+     * UpdatableSimilarityMatrix, wrapping it if it is not one yet.
+     */
+    private static UpdatableSimilarityMatrix copyUpdatableMatrix(
+            TFIDFModel current)
+    {
+        SimilarityMatrix cosineMatrix = current.getCosineSimilarityMatrix();
+        if (cosineMatrix instanceof UpdatableSimilarityMatrix)
+            return new UpdatableSimilarityMatrix(
+                    (UpdatableSimilarityMatrix) cosineMatrix);
+        return new UpdatableSimilarityMatrix(cosineMatrix);
+    }
+
+    /**
+     * Returns the number of methods that were updated, added or removed since
+     * the cosine similarity matrix was last built.
+     * 
+     * @return The number of updated methods
+     */
+    public int getNumUpdatedMethods()
+    {
+        SimilarityMatrix cosineMatrix = getCosineSimilarityMatrix();
+        if (cosineMatrix instanceof UpdatableSimilarityMatrix)
+            return ((UpdatableSimilarityMatrix) cosineMatrix)
+                    .getNumReplacedRows();
+        return 0;
+    }
+
+    /**
+     * Replaces the cosine similarity matrix, method index and corpus at once,
+     * so recommendations are never made from a mix of an old and a new model.
+     * The keys are hashed once here so that looking up a method's index takes
+     * constant time. The delta log is detached, since it does not describe
+     * changes to the new model. This method is synchronized.
+     * 
+     * @param simMatrix
+     *            The cosine similarity matrix
      * @param mIndex
      *            An array of methods' keys where each key's index corresponds
-     *            to its position in the cosine similarity matrix.
+     *            to its position in the cosine similarity matrix. The array
+     *            must not be modified afterwards.
+     * @param tfidfCorpus
+     *            The corpus the matrix was built from, or null
      */
-    public void setMethodIndex(String[] mIndex)
+    public synchronized void setModel(SimilarityMatrix simMatrix,
+            String[] mIndex, TFIDFCorpus tfidfCorpus)
     {
-        methodIndex = mIndex;
+        deltaLog = null;
+        publish(simMatrix, new MethodKeyIndex(mIndex), tfidfCorpus);
     }
 
     /**
-     * Sets the cosine similarity matrix.
+     * Sets the word counts the current cosine similarity matrix was built
+     * from. The corpus is needed to update single methods. This method is
+     * synchronized.
      * 
-     * @param simMatrix
-     *            A 2 dimensional array when each intersection of indices is a
-     *            similarity score between the method in the first index to the
-     *            method in the second index as specified by methodIndex.
+     * @param tfidfCorpus
+     *            The corpus in the same order as the method index, or null
      */
-    public void setCosineSimilarityMatrix(float[][] simMatrix)
+    public synchronized void setCorpus(TFIDFCorpus tfidfCorpus)
     {
-        cosineMatrix = simMatrix;
+        TFIDFModel current = model.get();
+        if (current != null)
+            publish(current.getCosineSimilarityMatrix(),
+                    current.getMethodKeyIndex(), tfidfCorpus);
+    }
+
+    /**
+     * Returns the current snapshot of the model. Code that reads more than one
+     * part of the model should read them all from the same snapshot.
+     * 
+     * @return The snapshot, or null if no model is loaded
+     */
+    public TFIDFModel getModel()
+    {
+        return model.get();
     }
 
     /**
      * Returns the mapping from method keys to indices in the cosine similarity
-     * matrix.
+     * matrix of the current snapshot.
      * 
-     * @return A pointer to the methodIndex field variable.
+     * @return A pointer to the array of keys of the method index, or null if
+     *         no model is loaded
      */
     public String[] getMethodIndex()
     {
-        return methodIndex;
+        TFIDFModel current = model.get();
+        return current == null ? null : current.getMethodKeyIndex().getKeys();
+    }
+
+    /**
+     * Returns the mapping between method keys and their int ids, which are
+     * their indices in the cosine similarity matrix of the current snapshot.
+     * 
+     * @return The method key index, or null if no model is loaded
+     */
+    public MethodKeyIndex getMethodKeyIndex()
+    {
+        TFIDFModel current = model.get();
+        return current == null ? null : current.getMethodKeyIndex();
     }
 
     /**
-     * Returns the cosine similarity matrix.
+     * Returns the cosine similarity matrix of the current snapshot.
      * 
-     * @return A pointer to the cosineMatrix field variable
+     * @return The matrix, or null if no model is loaded
      */
-    public float[][] getCosineSimilarityMatrix()
+    public SimilarityMatrix getCosineSimilarityMatrix()
     {
-        return cosineMatrix;
+        TFIDFModel current = model.get();
+        return current == null ? null : current.getCosineSimilarityMatrix();
     }
 
+    /**
+     * Returns the word counts the cosine similarity matrix of the current
+     * snapshot was built from.
+     * 
+     * @return <ul>
+     *         <li>The corpus
+     *         <li>null if no model is loaded, or if the matrix was loaded from
+     *         a file and no method has been updated yet
+     *         </ul>
+     */
+    public TFIDFCorpus getCorpus()
+    {
+        TFIDFModel current = model.get();
+        return current == null ? null : current.getCorpus();
+    }
+
+    /**
+     * Attaches the log that the changes made by <code>updateMethod</code> and
+     * <code>removeMethod</code> are appended to, so they are kept with the
+     * save file the model was loaded from. This method is synchronized.
+     * 
+     * @param log
+     *            The delta log of the current model, or null
+     */
+    public synchronized void setDeltaLog(TFIDFDeltaLog log)
+    {
+        deltaLog = log;
+    }
+
+    /**
+     * Returns the log that changes to the current model are appended to. The
+     * caller should hold the lock of this object while it changes the model
+     * and appends to the log, so the log stays in the same order as the
+     * snapshots. This method is synchronized.
+     * 
+     * @return The delta log, or null if changes are not saved
+     */
+    public synchronized TFIDFDeltaLog getDeltaLog()
+    {
+        return deltaLog;
+    }
+
+    /**
+     * Detaches the given delta log if it is still attached, so no further
+     * change is appended to it. This method is synchronized.
+     * 
+     * @param log
+     *            The log to detach
+     * @return <ul>
+     *         <li>True if the log was attached
+     *         <li>False otherwise
+     *         </ul>
+     */
+    public synchronized boolean detachDeltaLog(TFIDFDeltaLog log)
+    {
+        if (deltaLog != log)
+            return false;
+        log.detach();
+        deltaLog = null;
+        return true;
+    }
+
+    /**
+     * Detaches the delta log if it belongs to the given file. This has to be
+     * called before anything but a TF-IDF save file is written to the file,
+     * so the log does not compact the model over it afterwards. This method
+     * is synchronized.
+     * 
+     * @param file
+     *            The file about to be written
+     * @return <ul>
+     *         <li>True if a log was detached
+     *         <li>False otherwise
+     *         </ul>
+     * @throws IOException
+     *             If the paths of the files cannot be resolved
+     */
+    public synchronized boolean detachDeltaLog(File file) throws IOException
+    {
+        if (deltaLog == null
+                || !deltaLog.getBase().getCanonicalFile().equals(
+                        file.getCanonicalFile()))
+            return false;
+        return detachDeltaLog(deltaLog);
+    }
 }
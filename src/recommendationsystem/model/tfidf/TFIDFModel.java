@@ -0,0 +1,106 @@
+package recommendationsystem.model.tfidf;
+
+import recommendationsystem.model.CandidateScopes;
+import recommendationsystem.model.MethodKeyIndex;
+
+/**
+ * TFIDFModel is a snapshot of everything {@link TFIDFMatrix} recommends from:
+ * the cosine similarity matrix, the index of method keys, the candidate sets
+ * of its methods and the corpus the matrix was built from. A snapshot is never
+ * changed once it is published. Loading, creating or updating the model
+ * publishes a new snapshot instead, so a query that read a snapshot keeps a
+ * consistent model for as long as it runs, without holding a lock.
+ * <p>
+ * The corpus is the one exception. It is only read and changed by the update
+ * job, which checks that its corpus is still the published one before it
+ * publishes anything.
+ */
+public class TFIDFModel
+{
+    private SimilarityMatrix cosineMatrix;
+    private MethodKeyIndex methodKeys;
+    private CandidateScopes scopes;
+    private TFIDFCorpus corpus;
+    private long version;
+
+    /**
+     * The constructor.
+     * 
+     * @param cosineMatrix
+     *            The cosine similarity matrix
+     * @param methodKeys
+     *            The method keys in the order of the matrix
+     * @param scopes
+     *            The candidate sets of the methods in the method key index
+     * @param corpus
+     *            The corpus the matrix was built from, or null
+     * @param version
+     *            The version of the snapshot, which is larger for every
+     *            snapshot published after this one
+     */
+    public TFIDFModel(SimilarityMatrix cosineMatrix, MethodKeyIndex methodKeys,
+            CandidateScopes scopes, TFIDFCorpus corpus, long version)
+    {
+        this.cosineMatrix = cosineMatrix;
+        this.methodKeys = methodKeys;
+        this.scopes = scopes;
+        this.corpus = corpus;
+        this.version = version;
+    }
+
+    /**
+     * Returns the cosine similarity matrix.
+     * 
+     * @return The matrix, which must not be modified
+     */
+    public SimilarityMatrix getCosineSimilarityMatrix()
+    {
+        return cosineMatrix;
+    }
+
+    /**
+     * Returns the mapping between method keys and their indices in the matrix.
+     * 
+     * @return The method key index, which must not be modified
+     */
+    public MethodKeyIndex getMethodKeyIndex()
+    {
+        return methodKeys;
+    }
+
+    /**
+     * Returns the sets of methods each scope of recommendations is restricted
+     * to.
+     * 
+     * @return The candidate sets of the methods in the method key index
+     */
+    public CandidateScopes getCandidateScopes()
+    {
+        return scopes;
+    }
+
+    /**
+     * Returns the corpus the matrix was built from.
+     * 
+     * @return <ul>
+     *         <li>The corpus
+     *         <li>null if the matrix was loaded from a file and no method has
+     *         been updated yet
+     *         </ul>
+     */
+    public TFIDFCorpus getCorpus()
+    {
+        return corpus;
+    }
+
+    /**
+     * Returns the version of this snapshot. Versions start at 1 and grow by
+     * one with every snapshot published.
+     * 
+     * @return The version
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+}
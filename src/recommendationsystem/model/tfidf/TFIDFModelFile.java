@@ -0,0 +1,526 @@
+package recommendationsystem.model.tfidf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * TFIDFModelFile reads and writes the binary save file of the TF-IDF model.
+ * The file starts with a header of little-endian values:
+ * <ul>
+ * <li>The magic number and the format version, as ints.
+ * <li>The number of methods, as an int, followed by an unused int.
+ * <li>The length of the method key table in bytes, as a long.
+ * <li>The CRC-32 of everything after the header, as a long.
+ * </ul>
+ * The method key table follows, with every key in the order of the matrix as
+ * an int length and its UTF-8 bytes. A length of -1 stands for a removed
+ * method. Every full row of the matrix follows in order, as little-endian
+ * floats.
+ * <p>
+ * The key table and the rows are written and read with {@link BinaryFile}, so
+ * nothing is parsed, and the checksum is checked once the last row has been
+ * read.
+ * <p>
+ * The text files saved by earlier versions of the plug-in, with the number of
+ * methods, the tab separated method keys and one tab separated row per line,
+ * are read by {@link TextReader}. <code>convert(File, File)</code> turns them
+ * into binary files, and can also be run from the command line.
+ */
+public class TFIDFModelFile
+{
+    public static final int MAGIC = 0x464D5352;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int BLOCK_BYTES = 1 << 20;
+
+    /**
+     * The constructor. TFIDFModelFile only has static members.
+     */
+    private TFIDFModelFile()
+    {
+    }
+
+    /**
+     * Returns True if the given file starts with the magic number of a binary
+     * save file.
+     * 
+     * @param file
+     *            The file to check
+     * @return <ul>
+     *         <li>True if the file is a binary save file
+     *         <li>False if it is too short or starts with anything else, such
+     *         as a text save file
+     *         </ul>
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static boolean isModelFile(File file) throws IOException
+    {
+        return BinaryFile.hasMagic(file, MAGIC);
+    }
+
+    /**
+     * Returns the checksum stored in the header of a binary save file, without
+     * reading the rest of it.
+     * 
+     * @param file
+     *            The binary save file
+     * @return The CRC-32 of everything after the header
+     * @throws IOException
+     *             If the file cannot be read or is not a binary save file of a
+     *             known version
+     */
+    public static long readChecksum(File file) throws IOException
+    {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try
+        {
+            return BinaryFile.readHeader(channel, file, HEADER_SIZE, MAGIC,
+                    VERSION, "a TF-IDF save file").getLong(24);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Converts a text save file into a binary save file.
+     * 
+     * @param textFile
+     *            The text file to read
+     * @param modelFile
+     *            The binary file to write, which is overwritten
+     * @throws IOException
+     *             If either file cannot be accessed or the text file is not
+     *             well-formed
+     */
+    public static void convert(File textFile, File modelFile)
+            throws IOException
+    {
+        TextReader in = new TextReader(textFile);
+        try
+        {
+            Writer out = new Writer(modelFile, in.getMethodKeys());
+            try
+            {
+                float[] row = new float[in.getSize()];
+                for (int i = 0; i < in.getSize(); i++)
+                {
+                    in.readRow(row);
+                    out.writeRow(row);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Converts text save files into binary save files.
+     * 
+     * @param args
+     *            Pairs of the text file to read and the binary file to write
+     * @throws IOException
+     *             If a file cannot be converted
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0 || args.length % 2 != 0)
+        {
+            System.out.println("Usage: TFIDFModelFile text-file model-file"
+                    + " [text-file model-file]...");
+            return;
+        }
+        for (int i = 0; i < args.length; i += 2)
+        {
+            long start = System.currentTimeMillis();
+            convert(new File(args[i]), new File(args[i + 1]));
+            System.out.println("Converted " + args[i] + " to " + args[i + 1]
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * RowReader reads the method keys and then the rows of a save file, one
+     * row at a time.
+     */
+    public interface RowReader
+    {
+        /**
+         * Returns the number of methods in the file.
+         * 
+         * @return The number of methods
+         */
+        int getSize();
+
+        /**
+         * Returns the method keys in the order of the matrix.
+         * 
+         * @return The method keys
+         */
+        String[] getMethodKeys();
+
+        /**
+         * Reads the next full row.
+         * 
+         * @param row
+         *            The array to read the row into, at least
+         *            <code>getSize()</code> long
+         * @throws IOException
+         *             If the row cannot be read, or the file turns out to be
+         *             corrupt
+         */
+        void readRow(float[] row) throws IOException;
+
+        /**
+         * Closes the file.
+         * 
+         * @throws IOException
+         *             If the file cannot be closed
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Writer writes a binary save file. The method keys are written when it is
+     * opened, then every row has to be written in order. The header is
+     * written with the checksum when the writer is closed.
+     */
+    public static class Writer
+    {
+        private FileChannel channel;
+        private int size;
+        private long keyBytes;
+        private BinaryFile.RowWriter rows;
+        private CRC32 checksum;
+
+        /**
+         * The constructor. Opens the file and writes the method keys.
+         * 
+         * @param file
+         *            The file to write, which is overwritten
+         * @param methodKeys
+         *            The method keys in the order of the matrix
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public Writer(File file, String[] methodKeys) throws IOException
+        {
+            size = methodKeys.length;
+            checksum = new CRC32();
+
+            byte[][] encoded = BinaryFile.encodeStrings(methodKeys);
+            keyBytes = BinaryFile.getStringTableBytes(encoded);
+            if (keyBytes > Integer.MAX_VALUE)
+                throw new IOException("The method keys are too long to save.");
+            ByteBuffer keys = BinaryFile.allocate(keyBytes);
+            BinaryFile.putStrings(keys, encoded);
+            keys.flip();
+            checksum.update(keys.array(), 0, keys.limit());
+
+            channel = new FileOutputStream(file).getChannel();
+            try
+            {
+                long position = BinaryFile.writeFully(channel, keys,
+                        HEADER_SIZE);
+                rows = new BinaryFile.RowWriter(channel, position, size,
+                        checksum);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Writes the next full row.
+         * 
+         * @param row
+         *            The row, at least as long as the number of methods
+         * @throws IOException
+         *             If the row cannot be written
+         */
+        public void writeRow(float[] row) throws IOException
+        {
+            rows.writeRow(row);
+        }
+
+        /**
+         * Writes the rows that are still buffered and the header, and closes
+         * the file. If fewer rows than methods were written, for instance
+         * because the save was cancelled, the header is left empty so the
+         * file is never mistaken for a complete save file.
+         * 
+         * @throws IOException
+         *             If the file cannot be written
+         */
+        public void close() throws IOException
+        {
+            try
+            {
+                rows.flush();
+                if (rows.getRowsWritten() != size)
+                    return;
+
+                ByteBuffer header = BinaryFile.createHeader(HEADER_SIZE,
+                        MAGIC, VERSION);
+                header.putInt(size).putInt(0).putLong(keyBytes).putLong(
+                        checksum.getValue());
+                header.flip();
+                BinaryFile.writeFully(channel, header, 0);
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+
+        /**
+         * Returns the checksum of the file, which identifies the saved model.
+         * 
+         * @return The CRC-32 of everything after the header, once the writer
+         *         has been closed
+         */
+        public long getChecksum()
+        {
+            return checksum.getValue();
+        }
+    }
+
+    /**
+     * Reader reads a binary save file. The header and the method keys are
+     * read when it is opened.
+     */
+    public static class Reader implements RowReader
+    {
+        private File file;
+        private FileChannel channel;
+        private int size;
+        private long rowsPosition;
+        private String[] methodKeys;
+        private long expectedChecksum;
+        private BinaryFile.RowReader rows;
+
+        /**
+         * The constructor. Opens the file and reads the header and the method
+         * keys.
+         * 
+         * @param file
+         *            The binary save file
+         * @throws IOException
+         *             If the file cannot be read or is not a binary save file
+         *             of a known version
+         */
+        public Reader(File file) throws IOException
+        {
+            this.file = file;
+            channel = new FileInputStream(file).getChannel();
+            try
+            {
+                ByteBuffer header = BinaryFile.readHeader(channel, file,
+                        HEADER_SIZE, MAGIC, VERSION, "a TF-IDF save file");
+                size = header.getInt(8);
+                long keyBytes = header.getLong(16);
+                expectedChecksum = header.getLong(24);
+                if (size < 0 || keyBytes < 4L * size
+                        || keyBytes > Integer.MAX_VALUE
+                        || channel.size() != HEADER_SIZE + keyBytes + 4L
+                                * size * size)
+                    throw new IOException("The save file " + file
+                            + " does not match its header.");
+
+                CRC32 checksum = new CRC32();
+                ByteBuffer keys = BinaryFile.allocate(keyBytes);
+                BinaryFile.readFully(channel, keys, HEADER_SIZE);
+                checksum.update(keys.array(), 0, keys.capacity());
+                keys.flip();
+                try
+                {
+                    methodKeys = BinaryFile.getStrings(keys, size);
+                }
+                catch (IOException e)
+                {
+                    throw new IOException("The method keys of " + file
+                            + " are corrupt.");
+                }
+
+                rowsPosition = HEADER_SIZE + keyBytes;
+                rows = new BinaryFile.RowReader(channel, file.toString(),
+                        rowsPosition, size, checksum, expectedChecksum);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getSize()
+        {
+            return size;
+        }
+
+        @Override
+        public String[] getMethodKeys()
+        {
+            return methodKeys;
+        }
+
+        /**
+         * Returns the checksum stored in the header, which identifies the
+         * saved model.
+         * 
+         * @return The CRC-32 of everything after the header
+         */
+        public long getChecksum()
+        {
+            return expectedChecksum;
+        }
+
+        @Override
+        public void readRow(float[] row) throws IOException
+        {
+            rows.readRow(row);
+        }
+
+        /**
+         * Maps the rows of the save file instead of reading them. The rows are
+         * not checked against the checksum, since that would read them all.
+         * 
+         * @return The matrix mapped from the save file
+         * @throws IOException
+         *             If the rows cannot be mapped
+         */
+        public MappedSimilarityMatrix mapRows() throws IOException
+        {
+            return new MappedSimilarityMatrix(file, rowsPosition, size,
+                    expectedChecksum);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * TextReader reads a text save file written by earlier versions of the
+     * plug-in.
+     */
+    public static class TextReader implements RowReader
+    {
+        private BufferedReader in;
+        private int size;
+        private String[] methodKeys;
+
+        /**
+         * The constructor. Opens the file and reads the method keys.
+         * 
+         * @param file
+         *            The text save file
+         * @throws IOException
+         *             If the file cannot be read or is not well-formed
+         */
+        public TextReader(File file) throws IOException
+        {
+            // Text files were written in the platform's default encoding
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    file)), BLOCK_BYTES);
+            try
+            {
+                size = Integer.parseInt(readLine().trim());
+                methodKeys = new String[size];
+                String[] tokens = readLine().trim().split("\t");
+                if (tokens.length != size)
+                    throw new IOException(file + " has " + tokens.length
+                            + " method keys instead of " + size + ".");
+                for (int i = 0; i < size; i++)
+                {
+                    methodKeys[i] = tokens[i];
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                in.close();
+                throw new IOException(file + " is not a TF-IDF save file.");
+            }
+            catch (IOException e)
+            {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getSize()
+        {
+            return size;
+        }
+
+        @Override
+        public String[] getMethodKeys()
+        {
+            return methodKeys;
+        }
+
+        @Override
+        public void readRow(float[] row) throws IOException
+        {
+            String line = readLine();
+            int start = 0;
+            try
+            {
+                for (int j = 0; j < size; j++)
+                {
+                    if (start > line.length())
+                        throw new IOException("A row of the save file is "
+                                + "too short.");
+                    int end = line.indexOf('\t', start);
+                    if (end < 0)
+                        end = line.length();
+                    row[j] = Float.parseFloat(line.substring(start, end));
+                    start = end + 1;
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("A row of the save file is corrupt.");
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+
+        /**
+         * Reads the next line of the file.
+         */
+        private String readLine() throws IOException
+        {
+            String line = in.readLine();
+            if (line == null)
+                throw new IOException("The save file is truncated.");
+            return line;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.Arrays;
+
+import recommendationsystem.model.FloatKernels;
+
+/**
+ * TFIDFVector is the sparse representation of a single method's TF-IDF word
+ * weights. Words are identified by their integer id in the IFT database and
+ * are kept sorted by that id in a primitive array, with the TF-IDF weight of
+ * each word stored at the same position in a parallel array. Words that do not
+ * appear in the method are simply not stored.
+ * <p>
+ * The L2 norm of the vector is calculated once when the vector is created so
+ * that cosine similarity only has to compute the dot product. Because both
+ * vectors are sorted by word id, the dot product is a single merge-join over
+ * the two arrays with no boxing or hashing.
+ * <p>
+ * TFIDFVector is immutable once created.
+ */
+public class TFIDFVector
+{
+    private int[] termIds;
+    private float[] weights;
+    private double norm;
+
+    /**
+     * The constructor. The first length entries of the given arrays are copied
+     * and sorted by word id, so the caller may reuse its buffers. If a word id
+     * appears more than once, its weights are summed.
+     * 
+     * @param termIds
+     *            The word ids of the method's words in any order
+     * @param weights
+     *            The TF-IDF weight of each word, parallel to termIds
+     * @param length
+     *            The number of valid entries in termIds and weights
+     */
+    public TFIDFVector(int[] termIds, float[] weights, int length)
+    {
+        // Sort the entries by word id by packing the id and the original
+        // position into a single long
+        long[] order = new long[length];
+        for (int i = 0; i < length; i++)
+        {
+            order[i] = ((long) termIds[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[] ids = new int[length];
+        float[] vals = new float[length];
+        int size = 0;
+        for (int i = 0; i < length; i++)
+        {
+            int id = (int) (order[i] >> 32);
+            float val = weights[(int) order[i]];
+            if (size > 0 && ids[size - 1] == id)
+            {
+                vals[size - 1] += val;
+            }
+            else
+            {
+                ids[size] = id;
+                vals[size] = val;
+                size++;
+            }
+        }
+
+        if (size < length)
+        {
+            ids = Arrays.copyOf(ids, size);
+            vals = Arrays.copyOf(vals, size);
+        }
+        this.termIds = ids;
+        this.weights = vals;
+
+        norm = Math.sqrt(FloatKernels.dot(vals, vals, size));
+    }
+
+    /**
+     * Returns the dot product of this vector and the given vector.
+     * 
+     * @param other
+     *            The vector to multiply with
+     * @return The sum of the products of the weights of the shared words
+     */
+    public float dot(TFIDFVector other)
+    {
+        int[] ids1 = termIds, ids2 = other.termIds;
+        float[] vals1 = weights, vals2 = other.weights;
+        int i = 0, j = 0;
+        float sum = 0;
+
+        while (i < ids1.length && j < ids2.length)
+        {
+            if (ids1[i] < ids2[j])
+                i++;
+            else if (ids1[i] > ids2[j])
+                j++;
+            else
+                sum += vals1[i++] * vals2[j++];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the cosine similarity between this method and the given
+     * method. A method without any words has no direction, so its similarity
+     * to any method is zero.
+     * 
+     * @param other
+     *            The vector of the other method
+     * @return A cosine-similarity score for the two methods
+     */
+    public float cosine(TFIDFVector other)
+    {
+        if (norm == 0 || other.norm == 0)
+            return 0;
+
+        return (float) (dot(other) / (norm * other.norm));
+    }
+
+    /**
+     * Returns the L2 norm of this vector.
+     * 
+     * @return The square root of the sum of the squared weights
+     */
+    public double getNorm()
+    {
+        return norm;
+    }
+
+    /**
+     * Returns the number of words in this vector.
+     * 
+     * @return The number of non-zero entries
+     */
+    public int size()
+    {
+        return termIds.length;
+    }
+
+    /**
+     * Returns the word id stored at the given position. Positions are ordered
+     * by increasing word id.
+     * 
+     * @param position
+     *            A position between 0 and size() - 1
+     * @return The word id at that position
+     */
+    public int getTermId(int position)
+    {
+        return termIds[position];
+    }
+
+    /**
+     * Returns the TF-IDF weight stored at the given position.
+     * 
+     * @param position
+     *            A position between 0 and size() - 1
+     * @return The weight of the word at that position
+     */
+    public float getWeight(int position)
+    {
+        return weights[position];
+    }
+}
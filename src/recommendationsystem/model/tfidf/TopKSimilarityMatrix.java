@@ -0,0 +1,296 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.Arrays;
+
+/**
+ * TopKSimilarityMatrix keeps only the K most similar neighbours of each
+ * method. Recommendations are only ever drawn from the strongest scores, so
+ * the rest of a row can be dropped, and memory grows with the number of
+ * methods times K instead of the square of the number of methods.
+ * <p>
+ * The neighbours of every row are stored in two flat primitive arrays, the
+ * neighbour's index and its score, with K slots reserved per row. A row's
+ * neighbours are ordered from most to least similar, with ties going to the
+ * lower index. The diagonal is kept separately and is never a neighbour. Any
+ * score that is not stored reads as zero.
+ * <p>
+ * Unlike the other matrices, a TopKSimilarityMatrix is not symmetric: method
+ * A may be among B's neighbours without B being among A's. Rows are what the
+ * recommendation and history code read, so this does not affect them.
+ */
+public class TopKSimilarityMatrix extends SimilarityMatrix
+{
+    private int k;
+    private int[] counts;
+    private int[] neighbours;
+    private float[] scores;
+    private float[] diagonal;
+
+    /**
+     * The constructor. Every row starts out without neighbours.
+     * 
+     * @param size
+     *            The number of methods in the matrix
+     * @param k
+     *            The maximum number of neighbours kept per method
+     */
+    public TopKSimilarityMatrix(int size, int k)
+    {
+        this.k = k;
+        counts = new int[size];
+        neighbours = new int[size * k];
+        scores = new float[size * k];
+        diagonal = new float[size];
+    }
+
+    /**
+     * Returns the maximum number of neighbours kept per method.
+     * 
+     * @return K
+     */
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Sets a row from its full list of scores. Only the diagonal and the K
+     * largest positive scores are kept. This method is safe to call from
+     * different threads as long as they set different rows.
+     * 
+     * @param row
+     *            The index of the method whose row is set
+     * @param rowScores
+     *            The similarity of the method to every method, including
+     *            itself
+     */
+    public void setRow(int row, float[] rowScores)
+    {
+        diagonal[row] = rowScores[row];
+        select(row, null, rowScores, getSize());
+    }
+
+    /**
+     * Sets a row from a list of its non-zero scores. Only the K largest
+     * positive scores are kept. This method is safe to call from different
+     * threads as long as they set different rows.
+     * 
+     * @param row
+     *            The index of the method whose row is set
+     * @param selfScore
+     *            The similarity of the method to itself
+     * @param indices
+     *            The indices of the methods with a score, in any order. The
+     *            row's own index is ignored.
+     * @param rowScores
+     *            The scores, parallel to indices
+     * @param length
+     *            The number of valid entries in indices and rowScores
+     */
+    public void setRow(int row, float selfScore, int[] indices,
+            float[] rowScores, int length)
+    {
+        diagonal[row] = selfScore;
+        select(row, indices, rowScores, length);
+    }
+
+    /**
+     * Selects the K largest positive scores with a bounded min-heap whose root
+     * is the weakest neighbour kept so far, then stores them in order.
+     * 
+     * @param row
+     *            The row to store the neighbours in
+     * @param indices
+     *            The index of each score, or null if the scores are a full row
+     * @param rowScores
+     *            The candidate scores
+     * @param length
+     *            The number of candidates
+     */
+    private void select(int row, int[] indices, float[] rowScores, int length)
+    {
+        int[] heapIndex = new int[k];
+        float[] heapScore = new float[k];
+        int heapSize = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            int index = indices == null ? i : indices[i];
+            float score = rowScores[i];
+            if (index == row || !(score > 0))
+                continue;
+
+            if (heapSize < k)
+            {
+                heapIndex[heapSize] = index;
+                heapScore[heapSize] = score;
+                siftUp(heapIndex, heapScore, heapSize++);
+            }
+            else if (k > 0
+                    && isWeaker(heapIndex[0], heapScore[0], index, score))
+            {
+                heapIndex[0] = index;
+                heapScore[0] = score;
+                siftDown(heapIndex, heapScore, heapSize);
+            }
+        }
+
+        // Pop the weakest neighbour into the last free slot until the row is
+        // ordered from most to least similar
+        int base = row * k;
+        counts[row] = heapSize;
+        for (int last = heapSize - 1; last >= 0; last--)
+        {
+            neighbours[base + last] = heapIndex[0];
+            scores[base + last] = heapScore[0];
+            heapIndex[0] = heapIndex[last];
+            heapScore[0] = heapScore[last];
+            siftDown(heapIndex, heapScore, last);
+        }
+    }
+
+    /**
+     * Returns true if the first neighbour ranks below the second. Lower scores
+     * rank lower, and on equal scores the higher index ranks lower.
+     */
+    private static boolean isWeaker(int index1, float score1, int index2,
+            float score2)
+    {
+        return score1 < score2 || (score1 == score2 && index1 > index2);
+    }
+
+    private static void siftUp(int[] heapIndex, float[] heapScore, int pos)
+    {
+        while (pos > 0)
+        {
+            int parent = (pos - 1) / 2;
+            if (!isWeaker(heapIndex[pos], heapScore[pos], heapIndex[parent],
+                    heapScore[parent]))
+                break;
+            swap(heapIndex, heapScore, pos, parent);
+            pos = parent;
+        }
+    }
+
+    private static void siftDown(int[] heapIndex, float[] heapScore, int size)
+    {
+        int pos = 0;
+        while (true)
+        {
+            int weakest = pos;
+            int left = 2 * pos + 1, right = left + 1;
+            if (left < size
+                    && isWeaker(heapIndex[left], heapScore[left],
+                            heapIndex[weakest], heapScore[weakest]))
+                weakest = left;
+            if (right < size
+                    && isWeaker(heapIndex[right], heapScore[right],
+                            heapIndex[weakest], heapScore[weakest]))
+                weakest = right;
+            if (weakest == pos)
+                return;
+            swap(heapIndex, heapScore, pos, weakest);
+            pos = weakest;
+        }
+    }
+
+    private static void swap(int[] heapIndex, float[] heapScore, int a, int b)
+    {
+        int index = heapIndex[a];
+        heapIndex[a] = heapIndex[b];
+        heapIndex[b] = index;
+        float score = heapScore[a];
+        heapScore[a] = heapScore[b];
+        heapScore[b] = score;
+    }
+
+    /**
+     * Returns the number of neighbours stored for the given method. This is at
+     * most K.
+     * 
+     * @param row
+     *            The index of the method
+     * @return The number of neighbours
+     */
+    public int getNumNeighbours(int row)
+    {
+        return counts[row];
+    }
+
+    /**
+     * Returns the index of a method's neighbour by rank. Rank 0 is the most
+     * similar neighbour.
+     * 
+     * @param row
+     *            The index of the method
+     * @param rank
+     *            A rank between 0 and getNumNeighbours(row) - 1
+     * @return The index of the neighbour
+     */
+    public int getNeighbour(int row, int rank)
+    {
+        return neighbours[row * k + rank];
+    }
+
+    /**
+     * Returns the score of a method's neighbour by rank.
+     * 
+     * @param row
+     *            The index of the method
+     * @param rank
+     *            A rank between 0 and getNumNeighbours(row) - 1
+     * @return The similarity between the method and the neighbour
+     */
+    public float getNeighbourScore(int row, int rank)
+    {
+        return scores[row * k + rank];
+    }
+
+    @Override
+    public int getSize()
+    {
+        return diagonal.length;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        if (row == col)
+            return diagonal[row];
+
+        int base = row * k;
+        for (int i = base; i < base + counts[row]; i++)
+        {
+            if (neighbours[i] == col)
+                return scores[i];
+        }
+        return 0;
+    }
+
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        Arrays.fill(dest, 0, getSize(), 0);
+        int base = row * k;
+        for (int i = base; i < base + counts[row]; i++)
+        {
+            dest[neighbours[i]] = scores[i];
+        }
+        dest[row] = diagonal[row];
+    }
+
+    /**
+     * Adds the row to the given array. Only the diagonal and the row's
+     * neighbours are touched.
+     */
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        int base = row * k;
+        for (int i = base; i < base + counts[row]; i++)
+        {
+            dest[neighbours[i]] = scores[i] * scale + dest[neighbours[i]];
+        }
+        dest[row] = diagonal[row] * scale + dest[row];
+    }
+}
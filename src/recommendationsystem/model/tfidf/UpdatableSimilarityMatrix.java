@@ -0,0 +1,239 @@
+package recommendationsystem.model.tfidf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * UpdatableSimilarityMatrix lets the rows of single methods be replaced or
+ * added on top of any other {@link SimilarityMatrix}, which is left unchanged.
+ * This is how a method's similarities are updated after the method is edited
+ * without rebuilding the whole matrix.
+ * <p>
+ * Since similarity is symmetric, a replaced row is also the method's column.
+ * When the score of two methods is read, it comes from the row that was
+ * replaced most recently of the two, or from the underlying matrix if neither
+ * was replaced. Replaced rows are stored sparsely, so the cost of reading a
+ * row grows with the number of replaced rows. Callers are expected to rebuild
+ * the matrix once that number grows large.
+ * <p>
+ * UpdatableSimilarityMatrix is not thread safe. Since {@link TFIDFMatrix}
+ * publishes its matrix in immutable snapshots, it updates a copy of the
+ * published matrix instead. Copies share the underlying matrix and the
+ * replaced rows themselves, which are never changed.
+ */
+public class UpdatableSimilarityMatrix extends SimilarityMatrix
+{
+    private SimilarityMatrix base;
+    private int size;
+    private long sequence;
+    private Map<Integer, ReplacedRow> replaced;
+
+    /**
+     * The constructor.
+     * 
+     * @param base
+     *            The matrix to replace rows of
+     */
+    public UpdatableSimilarityMatrix(SimilarityMatrix base)
+    {
+        this.base = base;
+        size = base.getSize();
+        replaced = new HashMap<Integer, ReplacedRow>();
+    }
+
+    /**
+     * The copy constructor. Rows can be replaced in the copy without changing
+     * the original.
+     * 
+     * @param other
+     *            The matrix to copy
+     */
+    public UpdatableSimilarityMatrix(UpdatableSimilarityMatrix other)
+    {
+        base = other.base;
+        size = other.size;
+        sequence = other.sequence;
+        replaced = new HashMap<Integer, ReplacedRow>(other.replaced);
+    }
+
+    /**
+     * Adds a method to the end of the matrix. Its scores are all zero until
+     * its row is set.
+     * 
+     * @return The index of the new method
+     */
+    public int addMethod()
+    {
+        setRow(size, 0, new int[0], new float[0], 0);
+        return size - 1;
+    }
+
+    /**
+     * Replaces the row of a method. This also replaces the method's column.
+     * 
+     * @param row
+     *            The index of the method, or the size of the matrix to add a
+     *            method
+     * @param diagonal
+     *            The method's similarity to itself
+     * @param cols
+     *            The indices of the method's non-zero scores in ascending
+     *            order, not including the method itself
+     * @param scores
+     *            The scores, parallel to cols
+     * @param length
+     *            The number of valid entries in cols and scores
+     */
+    public void setRow(int row, float diagonal, int[] cols, float[] scores,
+            int length)
+    {
+        if (row > size || row < 0)
+            throw new IndexOutOfBoundsException("Row " + row
+                    + " is not in a matrix of size " + size);
+        if (row == size)
+            size++;
+        replaced.put(row, new ReplacedRow(row, ++sequence, diagonal,
+                Arrays.copyOf(cols, length), Arrays.copyOf(scores, length)));
+    }
+
+    /**
+     * Sets every score of a method to zero, as if it had no words.
+     * 
+     * @param row
+     *            The index of the method
+     */
+    public void clearRow(int row)
+    {
+        setRow(row, 0, new int[0], new float[0], 0);
+    }
+
+    /**
+     * Returns the matrix whose rows are replaced.
+     * 
+     * @return The underlying matrix
+     */
+    public SimilarityMatrix getBase()
+    {
+        return base;
+    }
+
+    /**
+     * Returns the number of methods whose rows were replaced or added.
+     * 
+     * @return The number of replaced rows
+     */
+    public int getNumReplacedRows()
+    {
+        return replaced.size();
+    }
+
+    @Override
+    public int getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col)
+    {
+        ReplacedRow r = replaced.get(row);
+        if (row == col)
+            return r != null ? r.diagonal : base.get(row, col);
+
+        ReplacedRow c = replaced.get(col);
+        if (r != null && (c == null || r.sequence > c.sequence))
+            return r.get(col);
+        if (c != null)
+            return c.get(row);
+        return base.get(row, col);
+    }
+
+    @Override
+    public void getRow(int row, float[] dest)
+    {
+        ReplacedRow r = replaced.get(row);
+        if (r != null)
+        {
+            Arrays.fill(dest, 0, size, 0);
+            for (int i = 0; i < r.cols.length; i++)
+            {
+                dest[r.cols[i]] = r.scores[i];
+            }
+            dest[row] = r.diagonal;
+        }
+        else
+        {
+            base.getRow(row, dest);
+            Arrays.fill(dest, base.getSize(), size, 0);
+        }
+
+        // The columns of rows replaced later overwrite this row's scores
+        for (ReplacedRow c : replaced.values())
+        {
+            if (c.row != row && (r == null || c.sequence > r.sequence))
+                dest[c.row] = c.get(row);
+        }
+    }
+
+    @Override
+    public void addRow(int row, float scale, float[] dest)
+    {
+        ReplacedRow r = replaced.get(row);
+        if (r != null)
+        {
+            for (int i = 0; i < r.cols.length; i++)
+            {
+                dest[r.cols[i]] = r.scores[i] * scale + dest[r.cols[i]];
+            }
+            dest[row] = r.diagonal * scale + dest[row];
+        }
+        else
+        {
+            base.addRow(row, scale, dest);
+        }
+
+        // Swap the scores already added for the columns of rows replaced later
+        for (ReplacedRow c : replaced.values())
+        {
+            if (c.row == row || (r != null && c.sequence < r.sequence))
+                continue;
+            float added;
+            if (r != null)
+                added = r.get(c.row);
+            else if (c.row < base.getSize())
+                added = base.get(row, c.row);
+            else
+                added = 0;
+            dest[c.row] = (c.get(row) - added) * scale + dest[c.row];
+        }
+    }
+
+    /**
+     * A replaced row, stored sparsely.
+     */
+    private static class ReplacedRow
+    {
+        private int row;
+        private long sequence;
+        private float diagonal;
+        private int[] cols;
+        private float[] scores;
+
+        private ReplacedRow(int row, long sequence, float diagonal,
+                int[] cols, float[] scores)
+        {
+            this.row = row;
+            this.sequence = sequence;
+            this.diagonal = diagonal;
+            this.cols = cols;
+            this.scores = scores;
+        }
+
+        private float get(int col)
+        {
+            int i = Arrays.binarySearch(cols, col);
+            return i >= 0 ? scores[i] : 0;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import org.eclipse.jface.preference.IPreferenceStore;
 
 import recommendationsystem.Activator;
 import recommendationsystem.controllers.ModelManager.ModelType;
+import recommendationsystem.model.ScopeFilter;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.preload.similarity.SimilarityEngine.EngineType;
 
 /**
  * MyPreferences is a wrapper for the preference store of this plug-in. It
@@ -159,6 +162,21 @@ public class MyPreferences
         return prefs.getBoolean(PreferenceKeys.MODEL_ENABLE_WORDS);
     }
 
+    /**
+     * Returns the scope recommendations are restricted to.
+     * 
+     * @return The scope filter, which may not restrict anything
+     */
+    public ScopeFilter getScopeFilter()
+    {
+        return new ScopeFilter(
+                prefs.getBoolean(PreferenceKeys.MODEL_SCOPE_PROJECT),
+                prefs.getBoolean(PreferenceKeys.MODEL_SCOPE_PACKAGE),
+                prefs.getString(PreferenceKeys.MODEL_SCOPE_PREFIX),
+                prefs.getBoolean(PreferenceKeys.MODEL_SCOPE_NO_PRIVATE),
+                prefs.getBoolean(PreferenceKeys.MODEL_SCOPE_NO_TESTS));
+    }
+
     /**
      * Returns True if the model is to be loaded from the model path when the
      * preference window is closed. Note, there are instances where a model may
@@ -174,6 +192,20 @@ public class MyPreferences
         return prefs.getBoolean(PreferenceKeys.MODEL_LOAD);
     }
 
+    /**
+     * Returns True if a loaded TF-IDF matrix should be mapped from its row
+     * file when one was saved with it.
+     * 
+     * @return <ul>
+     *         <li>True if the matrix should be mapped from its row file
+     *         <li>False if it should always be read into memory
+     *         </ul>
+     */
+    public boolean mapModelFromFile()
+    {
+        return prefs.getBoolean(PreferenceKeys.MODEL_MAP_FILE);
+    }
+
     /**
      * Returns the file path to load the model from. This should be a TF-IDF
      * save file if the model type is TF-IDF and a PFIS file if the model type
@@ -222,6 +254,146 @@ public class MyPreferences
         return null;
     }
 
+    /**
+     * Returns which engine is used to calculate the TF-IDF cosine similarity
+     * matrix when it is created from the database.
+     * 
+     * @return <ul>
+     *         <li>EngineType.INVERTED_INDEX if the inverted index is selected
+     *         <li>EngineType.APPROXIMATE if the approximate engine is selected
+     *         <li>EngineType.SPARSE_PRODUCT if the sparse matrix product is
+     *         selected
+     *         <li>EngineType.PAIRWISE otherwise
+     *         </ul>
+     */
+    public EngineType getSimilarityEngine()
+    {
+        if (prefs.getString(PreferenceKeys.MODEL_TFIDF_ENGINE).equals(
+                EngineType.INVERTED_INDEX.toString()))
+            return EngineType.INVERTED_INDEX;
+        if (prefs.getString(PreferenceKeys.MODEL_TFIDF_ENGINE).equals(
+                EngineType.APPROXIMATE.toString()))
+            return EngineType.APPROXIMATE;
+        if (prefs.getString(PreferenceKeys.MODEL_TFIDF_ENGINE).equals(
+                EngineType.SPARSE_PRODUCT.toString()))
+            return EngineType.SPARSE_PRODUCT;
+
+        return EngineType.PAIRWISE;
+    }
+
+    /**
+     * Returns the largest fraction of methods a word may appear in and still
+     * be used by the inverted index engine. The preference is stored as a
+     * percentage.
+     * 
+     * @return A fraction between 0 and 1
+     */
+    public float getMaxDocumentFrequency()
+    {
+        int percent = prefs.getInt(PreferenceKeys.MODEL_TFIDF_MAX_DF);
+        if (percent <= 0 || percent > 100)
+            percent = 100;
+
+        return percent / 100F;
+    }
+
+    /**
+     * Returns the smallest similarity kept by the sparse matrix product
+     * engine. The preference is stored as a percentage.
+     * 
+     * @return A fraction between 0 and 1
+     */
+    public float getMinScore()
+    {
+        int percent = prefs.getInt(PreferenceKeys.MODEL_TFIDF_MIN_SCORE);
+        if (percent < 0 || percent > 100)
+            percent = 0;
+
+        return percent / 100F;
+    }
+
+    /**
+     * Returns the number of hash bands used by the approximate engine.
+     * 
+     * @return The number of bands, at least 1
+     */
+    public int getLshBands()
+    {
+        return Math.max(1, prefs.getInt(PreferenceKeys.MODEL_TFIDF_LSH_BANDS));
+    }
+
+    /**
+     * Returns the number of signature bits in each hash band used by the
+     * approximate engine.
+     * 
+     * @return The number of bits, between 1 and 32
+     */
+    public int getLshRowsPerBand()
+    {
+        return Math.min(32,
+                Math.max(1, prefs.getInt(PreferenceKeys.MODEL_TFIDF_LSH_ROWS)));
+    }
+
+    /**
+     * Returns the precision TF-IDF similarity scores are stored in, both in
+     * memory and in the row file of a saved matrix.
+     * 
+     * @return The selected precision, Precision.FLOAT_32 by default
+     */
+    public Precision getScorePrecision()
+    {
+        String value = prefs.getString(PreferenceKeys.MODEL_TFIDF_PRECISION);
+        for (Precision precision : Precision.values())
+        {
+            if (precision.toString().equals(value))
+                return precision;
+        }
+        return Precision.FLOAT_32;
+    }
+
+    /**
+     * Returns how many of the most similar methods are kept per method in the
+     * TF-IDF similarity matrix.
+     * 
+     * @return <ul>
+     *         <li>The number of neighbours to keep per method
+     *         <li>0 if the full matrix is kept
+     *         </ul>
+     */
+    public int getMaxNeighbours()
+    {
+        return Math.max(0, prefs.getInt(PreferenceKeys.MODEL_TFIDF_NEIGHBOURS));
+    }
+
+    /**
+     * Returns True if the TF-IDF matrix should be updated as source files are
+     * saved.
+     * 
+     * @return <ul>
+     *         <li>True if edited methods are updated in the matrix
+     *         <li>False if the matrix only changes when it is created or
+     *         loaded
+     *         </ul>
+     */
+    public boolean updateModelOnEdit()
+    {
+        return prefs.getBoolean(PreferenceKeys.MODEL_TFIDF_UPDATE);
+    }
+
+    /**
+     * Returns how many methods can be updated in the TF-IDF matrix before the
+     * whole matrix is rebuilt with the current document frequencies.
+     * 
+     * @return <ul>
+     *         <li>The number of updated methods that triggers a rebuild
+     *         <li>0 if the matrix is never rebuilt
+     *         </ul>
+     */
+    public int getRefreshAfterUpdates()
+    {
+        return Math.max(0, prefs.getInt(PreferenceKeys.MODEL_TFIDF_REFRESH));
+    }
+
     /**
      * Returns the number of recommendations that are set to display.
      * 
@@ -6,6 +6,9 @@ import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
 import recommendationsystem.Activator;
 import recommendationsystem.controllers.ModelManager.ModelType;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.preload.similarity.ApproximateSimilarityEngine;
+import recommendationsystem.preload.similarity.SimilarityEngine.EngineType;
 
 /**
  * PreferenceInitializer initializes all values to a default in the plug-in's
@@ -41,8 +44,27 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer
         prefs.setDefault(PreferenceKeys.MODEL_LOAD, false);
         prefs.setDefault(PreferenceKeys.MODEL_LOAD_PATH, eclipsePath
                 + "rs_pfis.sav");
+        prefs.setDefault(PreferenceKeys.MODEL_MAP_FILE, true);
         prefs.setDefault(PreferenceKeys.MODEL_SAVE_PATH, eclipsePath
                 + "rs_pfis.sav");
+        prefs.setDefault(PreferenceKeys.MODEL_SCOPE_NO_PRIVATE, false);
+        prefs.setDefault(PreferenceKeys.MODEL_SCOPE_NO_TESTS, false);
+        prefs.setDefault(PreferenceKeys.MODEL_SCOPE_PACKAGE, false);
+        prefs.setDefault(PreferenceKeys.MODEL_SCOPE_PREFIX, "");
+        prefs.setDefault(PreferenceKeys.MODEL_SCOPE_PROJECT, false);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_ENGINE,
+                EngineType.PAIRWISE.toString());
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_LSH_BANDS,
+                ApproximateSimilarityEngine.DEFAULT_NUM_BANDS);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_LSH_ROWS,
+                ApproximateSimilarityEngine.DEFAULT_ROWS_PER_BAND);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_MAX_DF, 100);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_MIN_SCORE, 0);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_NEIGHBOURS, 0);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_PRECISION,
+                Precision.FLOAT_32.toString());
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_REFRESH, 100);
+        prefs.setDefault(PreferenceKeys.MODEL_TFIDF_UPDATE, true);
         prefs.setDefault(PreferenceKeys.MODEL_TYPE, ModelType.PFIS.toString());
         prefs.setDefault(PreferenceKeys.NUM_RECOMMENDATIONS, 10);
     }
@@ -18,7 +18,22 @@ public class PreferenceKeys
     public static final String MODEL_ENABLE_WORDS = "rs_WordsEnabled";
     public static final String MODEL_LOAD = "rs_modelLoad";
     public static final String MODEL_LOAD_PATH = "rs_modelLoadPath";
+    public static final String MODEL_MAP_FILE = "rs_modelMapFile";
     public static final String MODEL_SAVE_PATH = "rs_modelSavePath";
+    public static final String MODEL_SCOPE_NO_PRIVATE = "rs_scopeNoPrivate";
+    public static final String MODEL_SCOPE_NO_TESTS = "rs_scopeNoTests";
+    public static final String MODEL_SCOPE_PACKAGE = "rs_scopePackage";
+    public static final String MODEL_SCOPE_PREFIX = "rs_scopePrefix";
+    public static final String MODEL_SCOPE_PROJECT = "rs_scopeProject";
+    public static final String MODEL_TFIDF_ENGINE = "rs_tfidfEngine";
+    public static final String MODEL_TFIDF_LSH_BANDS = "rs_tfidfLshBands";
+    public static final String MODEL_TFIDF_LSH_ROWS = "rs_tfidfLshRows";
+    public static final String MODEL_TFIDF_MAX_DF = "rs_tfidfMaxDf";
+    public static final String MODEL_TFIDF_MIN_SCORE = "rs_tfidfMinScore";
+    public static final String MODEL_TFIDF_NEIGHBOURS = "rs_tfidfNeighbours";
+    public static final String MODEL_TFIDF_PRECISION = "rs_tfidfPrecision";
+    public static final String MODEL_TFIDF_REFRESH = "rs_tfidfRefresh";
+    public static final String MODEL_TFIDF_UPDATE = "rs_tfidfUpdate";
     public static final String MODEL_TYPE = "rs_modelType";
     public static final String NUM_RECOMMENDATIONS = "rs_numRecs";
 }
@@ -13,6 +13,8 @@ import org.eclipse.ui.IWorkbenchPreferencePage;
 import recommendationsystem.Activator;
 import recommendationsystem.controllers.ModelManager;
 import recommendationsystem.controllers.ModelManager.ModelType;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.preload.similarity.SimilarityEngine.EngineType;
 
 /**
  * PreferencePage gives the plug-in a quick and dirty way to accept preferences
@@ -102,13 +104,70 @@ public class PreferencePage extends FieldEditorPreferencePage implements
                 getFieldEditorParent()));
         addField(new BooleanFieldEditor(PreferenceKeys.MODEL_ENABLE_WORDS,
                 "Display cues in recommendations", getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_SCOPE_PROJECT,
+                "Only recommend methods of the current project",
+                getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_SCOPE_PACKAGE,
+                "Only recommend methods of the current package",
+                getFieldEditorParent()));
+        addField(new StringFieldEditor(PreferenceKeys.MODEL_SCOPE_PREFIX,
+                "Only recommend methods of packages starting with",
+                getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_SCOPE_NO_PRIVATE,
+                "Do not recommend private methods", getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_SCOPE_NO_TESTS,
+                "Do not recommend test methods", getFieldEditorParent()));
 
         addField(new BooleanFieldEditor(PreferenceKeys.MODEL_LOAD,
                 "Load Model from file", getFieldEditorParent()));
         addField(new FileFieldEditor(PreferenceKeys.MODEL_LOAD_PATH,
                 "Model file to preload", getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_MAP_FILE,
+                "Map the TF-IDF matrix from its saved row file instead of reading it",
+                getFieldEditorParent()));
         addField(new FileFieldEditor(PreferenceKeys.MODEL_SAVE_PATH,
                 "Model preload save file", getFieldEditorParent()));
+        addField(new RadioGroupFieldEditor(PreferenceKeys.MODEL_TFIDF_ENGINE,
+                "TF-IDF Matrix Creation", 1, new String[][]
+                    {
+                        { "Every pair of methods",
+                                EngineType.PAIRWISE.toString() },
+                        { "Inverted index (methods sharing words only)",
+                                EngineType.INVERTED_INDEX.toString() },
+                        { "Approximate (likely similar methods only)",
+                                EngineType.APPROXIMATE.toString() },
+                        { "Sparse matrix product (methods sharing words only)",
+                                EngineType.SPARSE_PRODUCT.toString() } },
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_MAX_DF,
+                "Inverted index: ignore words in more than this % of methods",
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_MIN_SCORE,
+                "Sparse matrix product: drop scores below this % similarity",
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_LSH_BANDS,
+                "Approximate: hash bands (more finds more similar methods)",
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_LSH_ROWS,
+                "Approximate: bits per band (more builds faster)",
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_NEIGHBOURS,
+                "Most similar methods kept per method (0 keeps all)",
+                getFieldEditorParent()));
+        addField(new RadioGroupFieldEditor(
+                PreferenceKeys.MODEL_TFIDF_PRECISION,
+                "TF-IDF Score Precision", 1, new String[][]
+                    {
+                        { "32-bit floats", Precision.FLOAT_32.toString() },
+                        { "16-bit fixed point", Precision.FIXED_16.toString() },
+                        { "8-bit fixed point", Precision.FIXED_8.toString() } },
+                getFieldEditorParent()));
+        addField(new BooleanFieldEditor(PreferenceKeys.MODEL_TFIDF_UPDATE,
+                "Update the TF-IDF matrix as methods are edited",
+                getFieldEditorParent()));
+        addField(new IntegerFieldEditor(PreferenceKeys.MODEL_TFIDF_REFRESH,
+                "Rebuild the TF-IDF matrix after this many edited methods (0 never)",
+                getFieldEditorParent()));
 
         addField(new BooleanFieldEditor(PreferenceKeys.GUI_SHOW_DB_LOADER,
                 "Enable Database Preload Controls (Eclipse restart required)",
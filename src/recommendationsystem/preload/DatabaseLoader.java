@@ -16,6 +16,7 @@ import org.eclipse.jdt.core.dom.MethodDeclaration;
 
 import recommendationsystem.controllers.DbManager;
 import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.MethodScopes;
 import recommendationsystem.preload.jobs.DatabaseLoadJob;
 import recommendationsystem.preload.jobs.PFISCreateJob;
 import recommendationsystem.preload.jobs.TFIDFCreateJob;
@@ -129,6 +130,7 @@ public class DatabaseLoader
     public void start(IProgressMonitor monitor)
     {
         this.monitor = monitor;
+        MethodScopes.getInstance().clear();
         openProjects = new ArrayList<IProject>();
         findOpenProjects();
         loadOpenProjectsIntoDb();
@@ -249,6 +251,7 @@ public class DatabaseLoader
 
         dbManager.insertMethod(new MethodData(method.resolveBinding().getKey(),
                 method.getName().toString(), path.toString()));
+        MethodScopes.getInstance().addMethod(method);
 
         // Gets camel case split words
         List<String> words = TFIDFIndex.getTokens(method.toString());
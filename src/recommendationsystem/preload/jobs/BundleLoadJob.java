@@ -0,0 +1,320 @@
+package recommendationsystem.preload.jobs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import recommendationsystem.Activator;
+import recommendationsystem.controllers.ModelManager.ModelType;
+import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.ModelBundle;
+import recommendationsystem.model.ModelBundle.Section;
+import recommendationsystem.model.WorkerPool;
+import recommendationsystem.model.pfis.PFISMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModelFile;
+
+/**
+ * BundleLoadJob loads one model from a {@link ModelBundle} written by
+ * {@link BundleSaveJob}. Only the sections of the given model are read, and
+ * each of them is read on a thread of its own, so the method keys are decoded
+ * while the rows of the matrix are read. Every section is checked against its
+ * checksum, and nothing is loaded if one of them turns out to be corrupt.
+ * <p>
+ * If the navigation history is empty, it is restored from the bundle, so a
+ * session can be continued where it was saved. The PFIS history is then
+ * rebuilt from the saved word ids of each step instead of the database.
+ * <p>
+ * Running the task in a job allows us to view progress in Eclipe's progress
+ * view and the indicator at the lower-right corner of the interface. This gives
+ * us visual feedback for when it is safe to continue using the tool.
+ * <p>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the model that was loaded before, if
+ * any.</b>
+ */
+public class BundleLoadJob extends Job
+{
+    private String fileName;
+    private ModelType type;
+    private ErrorLogger eLog;
+
+    /**
+     * The constructor.
+     * 
+     * @param name
+     *            The name of this job.
+     * @param fileName
+     *            The path of the bundle to load from
+     * @param type
+     *            The model to load
+     */
+    public BundleLoadJob(String name, String fileName, ModelType type)
+    {
+        super(name);
+        this.fileName = fileName;
+        this.type = type;
+        eLog = ErrorLogger.getInstance();
+    }
+
+    /**
+     * Loads the sections of the model from the bundle and publishes the
+     * model. After execution, the model is ready for use.
+     */
+    @Override
+    protected IStatus run(IProgressMonitor monitor)
+    {
+        ModelBundle.Reader in = null;
+        ExecutorService pool = null;
+        try
+        {
+            in = new ModelBundle.Reader(new File(fileName));
+            Section[] sections;
+            if (type == ModelType.TFIDF)
+                sections = new Section[] { Section.TFIDF_METHODS,
+                        Section.TFIDF_ROWS };
+            else
+                sections = new Section[] { Section.PFIS_WORDS,
+                        Section.PFIS_METHODS, Section.PFIS_LINKS };
+            for (Section section : sections)
+            {
+                if (!in.hasSection(section))
+                    return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                            "The bundle does not hold the " + type + " model.");
+            }
+            pool = WorkerPool.create("Bundle section reader", Math.min(
+                    sections.length + 2, Runtime.getRuntime()
+                            .availableProcessors()));
+            Future<String[]> history = in.hasSection(Section.HISTORY) ? pool
+                    .submit(new StringsTask(in, Section.HISTORY)) : null;
+
+            if (type == ModelType.TFIDF)
+                return loadTFIDF(in, pool, history, monitor);
+            else
+                return loadPFIS(in, pool, history, monitor);
+        }
+        catch (FileNotFoundException e)
+        {
+            eLog.logException(e);
+            return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                    "There was a problem opening the file.");
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                    "There was a problem reading the file.");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return Status.CANCEL_STATUS;
+        }
+        finally
+        {
+            monitor.done();
+            if (pool != null)
+                pool.shutdownNow();
+            System.out.println("Loading the model bundle complete.");
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                eLog.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the TF-IDF sections in parallel and publishes the matrix.
+     */
+    private IStatus loadTFIDF(final ModelBundle.Reader in,
+            ExecutorService pool, Future<String[]> history,
+            final IProgressMonitor monitor) throws IOException,
+            InterruptedException
+    {
+        final TFIDFModelFile.RowReader rows = in.openRows(Section.TFIDF_ROWS);
+        monitor.beginTask(
+                "Loading the TF-IDF cosine similarity matrix.   Please wait until this load completes.",
+                rows.getSize());
+        Future<String[]> methodKeys = pool.submit(new StringsTask(in,
+                Section.TFIDF_METHODS));
+        // Only this task reports progress, so the monitor is used by a single
+        // thread
+        Future<SimilarityMatrix> matrix = pool
+                .submit(new Callable<SimilarityMatrix>()
+                {
+                    @Override
+                    public SimilarityMatrix call() throws IOException
+                    {
+                        return TFIDFLoadJob.readMatrix(rows, monitor);
+                    }
+                });
+
+        String[] methodIndex = get(methodKeys);
+        SimilarityMatrix cosineMatrix = get(matrix);
+        if (cosineMatrix == null)
+        {
+            return new Status(
+                    Status.ERROR,
+                    Activator.PLUGIN_ID,
+                    "The matrix must be loaded before using the plug-in.  Please check the preferences and restart Eclipse");
+        }
+        if (methodIndex.length != rows.getSize())
+            throw new IOException("The TF-IDF sections of " + fileName
+                    + " do not match.");
+
+        restoreHistory(get(history));
+        TFIDFMatrix.getInstance().setModel(cosineMatrix, methodIndex, null);
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Reads the PFIS sections in parallel and publishes the topology.
+     */
+    private IStatus loadPFIS(ModelBundle.Reader in, ExecutorService pool,
+            Future<String[]> history, IProgressMonitor monitor)
+            throws IOException, InterruptedException
+    {
+        monitor.beginTask(
+                "Loading the PFIS topology matrix.  Please wait until this load completes.",
+                1);
+        Future<String[]> words = pool.submit(new StringsTask(in,
+                Section.PFIS_WORDS));
+        Future<String[]> methodKeys = pool.submit(new StringsTask(in,
+                Section.PFIS_METHODS));
+        Future<int[][]> links = pool.submit(new ListsTask(in,
+                Section.PFIS_LINKS));
+        Future<int[][]> steps = in.hasSection(Section.PFIS_HISTORY) ? pool
+                .submit(new ListsTask(in, Section.PFIS_HISTORY)) : null;
+
+        String[] wordIndex = get(words);
+        String[] methodIndex = get(methodKeys);
+        int[][] wordMethods = get(links);
+        int[][] historySteps = get(steps);
+        String[] historyKeys = get(history);
+        if (wordMethods.length != wordIndex.length
+                || !inRange(wordMethods, methodIndex.length)
+                || (historySteps != null && !inRange(historySteps,
+                        wordIndex.length)))
+            throw new IOException("The PFIS sections of " + fileName
+                    + " do not match.");
+        if (monitor.isCanceled())
+            return Status.CANCEL_STATUS;
+
+        restoreHistory(historyKeys);
+        PFISMatrix.getInstance().publish(wordIndex, methodIndex, wordMethods,
+                historyKeys, historySteps);
+        monitor.worked(1);
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Restores the navigation history from the bundle if there is none.
+     */
+    private void restoreHistory(String[] historyKeys)
+    {
+        MethodHistory methodHistory = MethodHistory.getInstance();
+        if (historyKeys == null || !methodHistory.isEmpty())
+            return;
+        for (String methodKey : historyKeys)
+        {
+            if (methodKey != null)
+                methodHistory.addMethodKey(methodKey);
+        }
+    }
+
+    /**
+     * Returns True if every id in the lists is below the given bound.
+     */
+    private static boolean inRange(int[][] lists, int bound)
+    {
+        for (int[] list : lists)
+        {
+            for (int id : list)
+            {
+                if (id < 0 || id >= bound)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for a section to be read.
+     * 
+     * @return The section, or null if there is no task
+     */
+    private static <T> T get(Future<T> task) throws IOException,
+            InterruptedException
+    {
+        if (task == null)
+            return null;
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * StringsTask reads a section of strings.
+     */
+    private static class StringsTask implements Callable<String[]>
+    {
+        private ModelBundle.Reader in;
+        private Section section;
+
+        private StringsTask(ModelBundle.Reader in, Section section)
+        {
+            this.in = in;
+            this.section = section;
+        }
+
+        @Override
+        public String[] call() throws IOException
+        {
+            return in.readStrings(section);
+        }
+    }
+
+    /**
+     * ListsTask reads a section of int lists.
+     */
+    private static class ListsTask implements Callable<int[][]>
+    {
+        private ModelBundle.Reader in;
+        private Section section;
+
+        private ListsTask(ModelBundle.Reader in, Section section)
+        {
+            this.in = in;
+            this.section = section;
+        }
+
+        @Override
+        public int[][] call() throws IOException
+        {
+            return in.readLists(section);
+        }
+    }
+}
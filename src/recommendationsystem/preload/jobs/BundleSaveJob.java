@@ -0,0 +1,161 @@
+package recommendationsystem.preload.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import recommendationsystem.Activator;
+import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.MethodHistory;
+import recommendationsystem.model.ModelBundle;
+import recommendationsystem.model.ModelBundle.Section;
+import recommendationsystem.model.pfis.PFISMatrix;
+import recommendationsystem.model.pfis.PFISTopology;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModel;
+
+/**
+ * BundleSaveJob saves both models and the navigation history to a single
+ * {@link ModelBundle}, so the plug-in can later load the selected model and
+ * continue the session without reading the database. A model that is not
+ * loaded is left out of the bundle.
+ * <p>
+ * Running the task in a job allows us to view progress in Eclipe's progress
+ * view and the indicator at the lower-right corner of the interface. This gives
+ * us visual feedback for when it is safe to continue using the tool.
+ * <p>
+ * <b>This job does not block the use of the plug-in. The models are saved as
+ * they were when the job started.</b>
+ */
+public class BundleSaveJob extends Job
+{
+    private String fileName;
+    private ErrorLogger eLog;
+
+    /**
+     * The constructor.
+     * 
+     * @param name
+     *            The name of this job
+     * @param fileName
+     *            The path of the file to save to.
+     */
+    public BundleSaveJob(String name, String fileName)
+    {
+        super(name);
+        this.fileName = fileName;
+        eLog = ErrorLogger.getInstance();
+    }
+
+    /**
+     * Saves the models and the history to a bundle. This will overwrite any
+     * existing file at the given location.
+     */
+    @Override
+    protected IStatus run(IProgressMonitor monitor)
+    {
+        // Save a single snapshot of each model, even if they are updated
+        // meanwhile
+        TFIDFModel tfidfModel = TFIDFMatrix.getInstance().getModel();
+        PFISTopology topology = PFISMatrix.getInstance().getTopology();
+        String[] history = MethodHistory.getInstance().getMethodHistory();
+        int size = tfidfModel == null ? 0 : tfidfModel.getMethodKeyIndex()
+                .size();
+
+        ModelBundle.Writer out = null;
+        try
+        {
+            // A TF-IDF delta log must not compact its model over the bundle
+            TFIDFMatrix.getInstance().detachDeltaLog(new File(fileName));
+            out = new ModelBundle.Writer(new File(fileName));
+            monitor.beginTask("Saving the models to a bundle.", size + 1);
+
+            out.writeStrings(Section.HISTORY, history);
+            if (topology.getMethodKeyIndex().size() > 0)
+                savePFIS(out, topology, history);
+            monitor.worked(1);
+
+            if (tfidfModel != null)
+            {
+                out.writeStrings(Section.TFIDF_METHODS, tfidfModel
+                        .getMethodKeyIndex().getKeys());
+                SimilarityMatrix cosineMatrix = tfidfModel
+                        .getCosineSimilarityMatrix();
+                float[] row = new float[size];
+                out.startRows(Section.TFIDF_ROWS, size);
+                for (int i = 0; i < size; i++)
+                {
+                    cosineMatrix.getRow(i, row);
+                    out.writeRow(row);
+                    monitor.worked(1);
+
+                    if (monitor.isCanceled())
+                    {
+                        return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                                "The bundle was not saved. User cancelled.");
+                    }
+                }
+                out.endRows();
+            }
+            out.finish();
+            return Status.OK_STATUS;
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                    "There was an IO error when saving the file.");
+        }
+        finally
+        {
+            monitor.done();
+            System.out.println("Saving the model bundle complete.");
+            try
+            {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e)
+            {
+                eLog.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the sections of the PFIS topology. The word ids of the history
+     * steps are only written if the topology's history is the given history.
+     */
+    private void savePFIS(ModelBundle.Writer out, PFISTopology topology,
+            String[] history) throws IOException
+    {
+        int numWords = topology.getNumWords();
+        String[] words = new String[numWords];
+        int[][] links = new int[numWords][];
+        for (int word = 0; word < numWords; word++)
+        {
+            words[word] = topology.getWord(word);
+            links[word] = topology.getMethodsOfWord(word);
+        }
+        out.writeStrings(Section.PFIS_WORDS, words);
+        out.writeStrings(Section.PFIS_METHODS, topology.getMethodKeyIndex()
+                .getKeys());
+        out.writeLists(Section.PFIS_LINKS, links);
+
+        String[] stepKeys = new String[topology.getHistoryLength()];
+        int[][] steps = new int[stepKeys.length][];
+        for (int step = 0; step < stepKeys.length; step++)
+        {
+            stepKeys[step] = topology.getHistoryKey(step);
+            steps[step] = topology.getHistoryStep(step);
+        }
+        if (Arrays.equals(stepKeys, history))
+            out.writeLists(Section.PFIS_HISTORY, steps);
+    }
+}
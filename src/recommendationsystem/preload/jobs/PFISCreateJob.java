@@ -19,7 +19,7 @@ import recommendationsystem.model.pfis.PFISNode;
  * of the PFIS topology in memory. This job is meant to be run after a project
  * has been loaded into the database using {@link DatabaseLoadJob}. After this
  * job is run, {@link PFISMatrix} will be formed and have the correct topology
- * with a reset history. From there, it is recommended that the topology is
+ * with the current method history. From there, it is recommended that the topology is
  * saved using {@link PFISSaveJob} so the long loading process does not need to
  * be rerun later.
  * <p>
@@ -27,8 +27,9 @@ import recommendationsystem.model.pfis.PFISNode;
  * view and the indicator at the lower-right corner of the interface. This gives
  * us visual feedback for when it is safe to continue using the tool.
  * <p>
- * <b>This job does not block the use of the plug-in. Do not use the plug-in
- * until this job is complete</b>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the topology that was loaded before, if
+ * any.</b>
  * 
  * @author David Piorkowski
  * 
@@ -93,11 +94,13 @@ public class PFISCreateJob extends Job
 
                 if (monitor.isCanceled())
                 {
+                    pfisMatrix.reset();
                     return new Status(Status.ERROR, Activator.PLUGIN_ID,
                             "The topology must be loaded before using the plug-in. User cancelled.");
                 }
             }
             rs.close();
+            pfisMatrix.publish();
             return Status.OK_STATUS;
         }
         catch (SQLException e)
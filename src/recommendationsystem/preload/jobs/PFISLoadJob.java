@@ -20,15 +20,16 @@ import recommendationsystem.model.pfis.PFISNode.NodeType;
  * PFISLoadJob reads in a PFIS save file and loads it into the
  * {@link PFISMatrix} instance. PFISLoadJob assumes that the file being passed
  * in is well-formed and does not verify its correctness. After this job is run,
- * {@link PFISMatrix} will be formed and have the correct topology with a reset
- * history.
+ * {@link PFISMatrix} will be formed and have the correct topology with the
+ * current method history.
  * <p>
  * Running the task in a job allows us to view progress in Eclipe's progress
  * view and the indicator at the lower-right corner of the interface. This gives
  * us visual feedback for when it is safe to continue using the tool.
  * <p>
- * <b>This job does not block the use of the plug-in. Do not use the plug-in
- * until this job is complete</b>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the topology that was loaded before, if
+ * any.</b>
  * 
  * @author David Piorkowski
  * 
@@ -98,13 +99,14 @@ public class PFISLoadJob extends Job
 
                 if (monitor.isCanceled())
                 {
+                    pfisMatrix.reset();
                     return new Status(
                             Status.ERROR,
                             Activator.PLUGIN_ID,
                             "The matrix must be loaded before using the plug-in.  Please check the preferences and restart Eclipse");
                 }
             }
-            pfisMatrix.setHistory();
+            pfisMatrix.publish();
             monitor.worked(histSize);
             return Status.OK_STATUS;
         }
@@ -1,5 +1,6 @@
 package recommendationsystem.preload.jobs;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -12,9 +13,11 @@ import org.eclipse.core.runtime.jobs.Job;
 
 import recommendationsystem.Activator;
 import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.MethodKeyIndex;
 import recommendationsystem.model.pfis.PFISMatrix;
-import recommendationsystem.model.pfis.PFISNode;
-import recommendationsystem.model.pfis.PFISNodeList;
+import recommendationsystem.model.pfis.PFISNode.NodeType;
+import recommendationsystem.model.pfis.PFISTopology;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
 
 /**
  * PFISSaveJob saves the in memory representation of the PFISMatrix to a text
@@ -25,8 +28,9 @@ import recommendationsystem.model.pfis.PFISNodeList;
  * view and the indicator at the lower-right corner of the interface. This gives
  * us visual feedback for when it is safe to continue using the tool.
  * <p>
- * <b>This job does not block the use of the plug-in. Do not use the plug-in
- * until this job is complete</b>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the topology that was loaded before, if
+ * any.</b>
  * 
  * @author David Piorkowski
  * 
@@ -58,24 +62,29 @@ public class PFISSaveJob extends Job
     @Override
     protected IStatus run(IProgressMonitor monitor)
     {
-        PFISNodeList wordList = PFISMatrix.getInstance().getWordList();
+        PFISTopology topology = PFISMatrix.getInstance().getTopology();
+        MethodKeyIndex methodKeys = topology.getMethodKeyIndex();
         String newLine = System.getProperty("line.separator");
         Writer out = null;
         try
         {
+            // A TF-IDF delta log must not compact its model over the topology
+            TFIDFMatrix.getInstance().detachDeltaLog(new File(fileName));
             out = new OutputStreamWriter(new FileOutputStream(fileName));
-            int len = wordList.getSize();
+            int len = topology.getNumWords();
             monitor.beginTask("Saving PFIS Topology", len);
             out.write(String.valueOf(len));
             out.write(newLine);
 
-            for (PFISNode wordNode : wordList.getList())
+            for (int word = 0; word < len; word++)
             {
-                out.write(wordNode.toString());
+                out.write(NodeType.WORD + "\t" + topology.getWord(word)
+                        + "\t" + 0F);
                 out.write(newLine);
-                for (PFISNode methodNode : wordNode.getChildren())
+                for (int method : topology.getMethodsOfWord(word))
                 {
-                    out.write(methodNode.toString());
+                    out.write(NodeType.METHOD + "\t"
+                            + methodKeys.getKey(method) + "\t" + 0F);
                     out.write(newLine);
                 }
                 monitor.worked(1);
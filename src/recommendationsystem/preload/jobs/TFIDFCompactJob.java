@@ -0,0 +1,97 @@
+package recommendationsystem.preload.jobs;
+
+import java.io.IOException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import recommendationsystem.Activator;
+import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.TFIDFDeltaLog;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModel;
+import recommendationsystem.preferences.MyPreferences;
+
+/**
+ * TFIDFCompactJob folds the {@link TFIDFDeltaLog} of the current TF-IDF model
+ * into a new save file, so the log does not grow without bound and loading
+ * does not have to replay every change since the model was first saved. It is
+ * scheduled by {@link TFIDFUpdateJob} once the log grows large.
+ * <p>
+ * The job saves a snapshot of the model, along with its row file in the score
+ * precision selected in the preferences, like {@link TFIDFSaveJob}. Changes
+ * made while it runs are still appended to the log, and are kept in it when
+ * the save file is replaced.
+ * <p>
+ * <b>This job does not block the use of the plug-in.</b>
+ */
+public class TFIDFCompactJob extends Job
+{
+    private ErrorLogger eLog;
+
+    /**
+     * The constructor.
+     * 
+     * @param name
+     *            The name of the job
+     */
+    public TFIDFCompactJob(String name)
+    {
+        super(name);
+        eLog = ErrorLogger.getInstance();
+        setPriority(Job.LONG);
+    }
+
+    /**
+     * Writes the current model to a new save file and keeps only the changes
+     * made since in the log.
+     */
+    @Override
+    protected IStatus run(IProgressMonitor monitor)
+    {
+        TFIDFMatrix tfidfMatrix = TFIDFMatrix.getInstance();
+        TFIDFModel snapshot;
+        TFIDFDeltaLog log;
+        long mark;
+        int generation;
+
+        // Nothing can be appended while the lock is held, so the snapshot
+        // holds exactly the changes up to the mark
+        synchronized (tfidfMatrix)
+        {
+            log = tfidfMatrix.getDeltaLog();
+            if (log == null)
+                return Status.OK_STATUS;
+            snapshot = tfidfMatrix.getModel();
+            mark = log.getLength();
+            generation = log.getGeneration();
+        }
+
+        monitor.beginTask("Compacting the TF-IDF delta log.", 1);
+        try
+        {
+            if (log.compact(snapshot, mark, generation, MyPreferences
+                    .getInstance().getScorePrecision()))
+                System.out.println("Compacted the TF-IDF delta log into "
+                        + log.getBase() + ".");
+            else if (log.isDetached()
+                    && tfidfMatrix.detachDeltaLog(log))
+                System.out.println("Changes to the TF-IDF model are no longer saved to "
+                        + log.getBase() + ".");
+            monitor.worked(1);
+            return Status.OK_STATUS;
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                    "There was an IO error when compacting the delta log.");
+        }
+        finally
+        {
+            monitor.done();
+        }
+    }
+}
@@ -2,8 +2,7 @@ package recommendationsystem.preload.jobs;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -13,7 +12,21 @@ import org.eclipse.core.runtime.jobs.Job;
 import recommendationsystem.Activator;
 import recommendationsystem.controllers.DbManager;
 import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.PackedSimilarityMatrix;
+import recommendationsystem.model.tfidf.QuantizedSimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.model.tfidf.TFIDFCorpus;
 import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.preferences.MyPreferences;
+import recommendationsystem.preload.similarity.ApproximateSimilarityEngine;
+import recommendationsystem.preload.similarity.InvertedIndexSimilarityEngine;
+import recommendationsystem.preload.similarity.PairwiseSimilarityEngine;
+import recommendationsystem.preload.similarity.RecallReport;
+import recommendationsystem.preload.similarity.SimilarityEngine;
+import recommendationsystem.preload.similarity.SimilarityEngine.EngineType;
+import recommendationsystem.preload.similarity.SparseProductSimilarityEngine;
 
 /**
  * TFIDFCreateJob reads the content in the IFT database and creates and instance
@@ -28,14 +41,17 @@ import recommendationsystem.model.tfidf.TFIDFMatrix;
  * view and the indicator at the lower-right corner of the interface. This gives
  * us visual feedback for when it is safe to continue using the tool.
  * <p>
- * <b>This job does not block the use of the plug-in. Do not use the plug-in
- * until this job is complete</b>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the model that was loaded before, if
+ * any.</b>
  * 
  * @author David Piorkowski
  * 
  */
 public class TFIDFCreateJob extends Job
 {
+    private static final int RECALL_SAMPLES = 100;
+
     private ErrorLogger eLog;
 
     /**
@@ -60,26 +76,22 @@ public class TFIDFCreateJob extends Job
     {
         TFIDFMatrix tfidfMatrix = TFIDFMatrix.getInstance();
         DbManager dbManager = DbManager.getInstance();
-        tfidfMatrix.reset();
 
-        Map<String, Float> wordWeightVector;
-        TreeMap<String, Map<String, Float>> matrix = new TreeMap<String, Map<String, Float>>();
+        // Scratch buffers for the current method's word ids and counts. They
+        // grow as needed and are copied into the corpus.
+        int[] wordIds = new int[64];
+        int[] wordCounts = new int[64];
+        int numWords = 0;
 
         int currentMethodId = 0;
-        int currentWordId = 0;
-        int numOccCurrentWord = 0;
         int totMethods = 0;
-        int totWordsCurrentMethod = 0;
-        int totMethodsCurrentWord = 0;
         String currentMethodKey = null;
-        String currentWord = null;
         ResultSet rs = null, rs2 = null;
-        int i = 0, j = 0;
-        float[][] cosineMatrix;
+        SimilarityMatrix cosineMatrix;
+        TFIDFCorpus corpus = new TFIDFCorpus();
 
         // Get IDF Numerator - total number of methods
         totMethods = dbManager.getIdfNumerator();
-        String[] methodIndex = new String[totMethods];
 
         monitor.beginTask("Creating the TFIDF Cosine Similarity Matrix.",
                 2 * totMethods);
@@ -95,48 +107,32 @@ public class TFIDFCreateJob extends Job
                     currentMethodKey = rs.getString(2);
                     System.out
                             .println("Processing " + currentMethodKey + "...");
-
-                    // Populate our method indices
-                    methodIndex[i++] = currentMethodKey;
-
-                    // Create the word weight vector for the current method key
-                    wordWeightVector = new TreeMap<String, Float>();
-
-                    // Create a map for each of the method keys
-                    matrix.put(currentMethodKey, wordWeightVector);
-
-                    // Get TF Denominator - total number of words for the
-                    // current method key
-                    totWordsCurrentMethod = dbManager
-                            .getTfDenominator(currentMethodId);
+                    numWords = 0;
                     rs2 = dbManager.getWordsFromMethodId(currentMethodId);
 
                     while (rs2.next())
                     {
-
-                        // The IDF Numerator is included in rs2 in the wordCount
-                        // column
                         // rs2 = [id][word][wordCount]
                         // For each of the words that we have in rs2, we push
-                        // them onto the word weight vector
-                        currentWordId = rs2.getInt(1);
-                        currentWord = rs2.getString(2);
-                        numOccCurrentWord = rs2.getInt(3);
-
-                        // For each word in the method, get IDF Denominator -
-                        // number of methods current word appears
-                        totMethodsCurrentWord = dbManager
-                                .getIdfDenominator(currentWordId);
-
-                        // We now have all the values we need
-                        // TF-IDF = tf num / tf denom * idf num / idf denom
-                        // Add them to the matrix
-                        wordWeightVector.put(currentWord,
-                                (float) numOccCurrentWord
-                                        / totWordsCurrentMethod * totMethods
-                                        / totMethodsCurrentWord);
+                        // them onto the method's word counts
+                        if (numWords == wordIds.length)
+                        {
+                            wordIds = Arrays.copyOf(wordIds, 2 * numWords);
+                            wordCounts = Arrays.copyOf(wordCounts,
+                                    2 * numWords);
+                        }
+                        wordIds[numWords] = rs2.getInt(1);
+                        wordCounts[numWords] = rs2.getInt(3);
+                        corpus.addWord(rs2.getString(2), wordIds[numWords]);
+                        numWords++;
                     }
                     rs2.close();
+
+                    // The path is kept so the method can be updated when its
+                    // file changes
+                    corpus.addMethod(currentMethodKey,
+                            dbManager.getPathFromMethodKey(currentMethodKey),
+                            wordIds, wordCounts, numWords);
                     monitor.worked(1);
 
                     if (monitor.isCanceled())
@@ -154,28 +150,19 @@ public class TFIDFCreateJob extends Job
                         "There was a database error when creating the TF-IDF cosine similarity matrix.");
             }
 
-            // Calculate cosine similarity
-            cosineMatrix = new float[methodIndex.length][methodIndex.length];
-            System.out.println("Calculating cosine similarity...");
-            for (i = 0; i < methodIndex.length; i++)
-            {
-                // for (j = i + 1; j < methodIndex.length; j++)
-                for (j = 0; j < methodIndex.length; j++)
-                {
-                    cosineMatrix[i][j] = cosine(matrix.get(methodIndex[i]),
-                            matrix.get(methodIndex[j]));
-                }
-                monitor.worked(1);
+            // The TF and IDF denominators are counted from the words read
+            // above instead of being queried for every word
+            // TF-IDF = tf num / tf denom * idf num / idf denom
+            corpus.updateVectors();
+            cosineMatrix = buildMatrix(corpus.getVectors(), monitor);
 
-                if (monitor.isCanceled())
-                {
-                    return new Status(Status.ERROR, Activator.PLUGIN_ID,
-                            "The matrix must be created before using the plug-in.  User cancelled.");
-                }
+            if (cosineMatrix == null)
+            {
+                return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                        "The matrix must be created before using the plug-in.  User cancelled.");
             }
 
-            tfidfMatrix.setCosineSimilarityMatrix(cosineMatrix);
-            tfidfMatrix.setMethodIndex(methodIndex);
+            tfidfMatrix.setModel(cosineMatrix, corpus.getKeys(), corpus);
             return Status.OK_STATUS;
         }
         finally
@@ -198,50 +185,65 @@ public class TFIDFCreateJob extends Job
     }
 
     /**
-     * Calculates the cosine similarity between two methods. Each method is
-     * represented as a map from words in that method to their TF-IDF values. If
-     * a word does not exist in the method, it is not included in the map.
+     * Calculates the cosine similarity matrix of the given vectors with the
+     * engine and precision selected in the preferences. This reports
+     * <code>vectors.length</code> units of work to the monitor.
      * 
-     * @param v1
-     *            The vector of the first method
-     * @param v2
-     *            The vector of the second method
-     * @return A cosine-similarity score for v1 and v2
+     * @param vectors
+     *            The TF-IDF vector of every method
+     * @param monitor
+     *            The monitor to report progress to and check for cancellation
+     * @return <ul>
+     *         <li>The cosine similarity matrix
+     *         <li>null if the monitor was cancelled
+     *         </ul>
      */
-    private float cosine(Map<String, Float> v1, Map<String, Float> v2)
+    static SimilarityMatrix buildMatrix(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
     {
-        if (v1.size() > v2.size())
-        {
-            Map<String, Float> tmp = v1;
-            v1 = v2;
-            v2 = tmp;
-        }
-
-        float sum = 0;
-        for (String idx : v1.keySet())
-        {
-            float val1 = v1.get(idx);
-            float val2 = v2.containsKey(idx) ? v2.get(idx) : 0F;
-            sum += val1 * val2;
-        }
-
-        float norm1sq = 0;
-        for (String idx : v1.keySet())
+        MyPreferences prefs = MyPreferences.getInstance();
+        SimilarityEngine engine;
+
+        // Calculate cosine similarity, either for every pair of methods,
+        // only for the methods that share words or only for the methods
+        // that are likely to be similar
+        if (prefs.getSimilarityEngine() == EngineType.INVERTED_INDEX)
+            engine = new InvertedIndexSimilarityEngine(
+                    prefs.getMaxDocumentFrequency());
+        else if (prefs.getSimilarityEngine() == EngineType.APPROXIMATE)
+            engine = new ApproximateSimilarityEngine(prefs.getLshBands(),
+                    prefs.getLshRowsPerBand());
+        else if (prefs.getSimilarityEngine() == EngineType.SPARSE_PRODUCT)
+            engine = new SparseProductSimilarityEngine(prefs.getMinScore());
+        else
+            engine = new PairwiseSimilarityEngine();
+        engine.setMaxNeighbours(prefs.getMaxNeighbours());
+
+        System.out.println("Calculating cosine similarity...");
+        SimilarityMatrix cosineMatrix = engine.build(vectors, monitor);
+        if (cosineMatrix == null)
+            return null;
+
+        // Report how many of the exact recommendations the approximate
+        // matrix still finds
+        if (engine instanceof ApproximateSimilarityEngine)
+            System.out.println(RecallReport.compare(vectors, cosineMatrix,
+                    prefs.getNumberOfRecommendationsToDisplay(),
+                    RECALL_SAMPLES, 0L));
+
+        // A full matrix can be stored in fewer bits per score. Report how
+        // much of the ranking survives. The float matrix is kept until the
+        // quantized one is complete, so this only saves memory afterwards.
+        if (cosineMatrix instanceof PackedSimilarityMatrix
+                && prefs.getScorePrecision() != Precision.FLOAT_32)
         {
-            float t = v1.get(idx);
-            norm1sq += t * t;
+            SimilarityMatrix quantized = QuantizedSimilarityMatrix.quantize(
+                    cosineMatrix, prefs.getScorePrecision());
+            System.out.println(RecallReport.compare(cosineMatrix, quantized,
+                    prefs.getNumberOfRecommendationsToDisplay(),
+                    RECALL_SAMPLES, 0L));
+            cosineMatrix = quantized;
         }
-
-        float norm2sq = 0;
-        for (String idx : v2.keySet())
-        {
-            float t = v2.get(idx);
-            norm2sq += t * t;
-        }
-
-        float rv = (float) (sum / (Math.sqrt(norm1sq) * Math.sqrt(norm2sq)));
-
-        return rv;
+        return cosineMatrix;
     }
-
 }
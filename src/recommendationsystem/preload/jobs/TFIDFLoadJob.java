@@ -1,8 +1,8 @@
 package recommendationsystem.preload.jobs;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -11,21 +11,47 @@ import org.eclipse.core.runtime.jobs.Job;
 
 import recommendationsystem.Activator;
 import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.MappedSimilarityMatrix;
+import recommendationsystem.model.tfidf.PackedSimilarityMatrix;
+import recommendationsystem.model.tfidf.QuantizedSimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.model.tfidf.TFIDFDeltaLog;
 import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModelFile;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+import recommendationsystem.preferences.MyPreferences;
 
 /**
  * TFIDFLoadJob reads in a TF-IDF save file and loads it into the
- * {@link TFIDFMatrix} instance. TFIDFLoadJob assumes that the file being passed
- * in is well-formed and does not verify its correctness. After this job is run,
+ * {@link TFIDFMatrix} instance. Binary save files in the format of
+ * {@link TFIDFModelFile} are read in blocks of rows and checked against their
+ * checksum. Text save files written by earlier versions are still read, but
+ * much more slowly, and can be converted with <code>TFIDFModelFile</code>.
+ * Nothing is loaded if the file turns out to be corrupt. After this job is run,
  * {@link TFIDFMatrix} will be formed and have the correct similarity matrix
- * with a reset history.
+ * with a reset history. If the preferences only keep the most similar methods
+ * of each method, only those are kept as the file is read. Otherwise, the
+ * scores are stored in the precision selected in the preferences.
+ * <p>
+ * If mapping is enabled in the preferences, only the method indices are read
+ * from a binary save file and the rows are mapped instead. Float rows are
+ * mapped from the save file itself. Rows in fixed point are mapped from the
+ * row file written by {@link TFIDFSaveJob}, if it holds the save file's
+ * checksum. Mapping takes precedence over keeping only the most similar
+ * methods.
+ * <p>
+ * The changes in the {@link TFIDFDeltaLog} of a binary save file are replayed
+ * on top of the saved matrix, and the log is attached to the model so later
+ * updates are appended to it.
  * <p>
  * Running the task in a job allows us to view progress in Eclipe's progress
  * view and the indicator at the lower-right corner of the interface. This gives
  * us visual feedback for when it is safe to continue using the tool.
  * <p>
- * <b>This job does not block the use of the plug-in. Do not use the plug-in
- * until this job is complete</b>
+ * <b>This job does not block the use of the plug-in. Until this job is
+ * complete, recommendations come from the model that was loaded before, if
+ * any.</b>
  * 
  * @author David Piorkowski
  * 
@@ -57,49 +83,58 @@ public class TFIDFLoadJob extends Job
     protected IStatus run(IProgressMonitor monitor)
     {
         TFIDFMatrix tfidfMatrix = TFIDFMatrix.getInstance();
-        tfidfMatrix.reset();
 
-        Scanner sc = null;
-        int size = 0, i = 0, j = 0;
-        String buf = null;
-        String[] tokens;
+        TFIDFModelFile.RowReader in = null;
+        TFIDFDeltaLog log = null;
+        SimilarityMatrix cosineMatrix = null;
+        int size = 0;
         try
         {
-            sc = new Scanner(new FileInputStream(fileName));
-            size = Integer.valueOf(sc.nextLine().trim());
+            File file = new File(fileName);
+            if (TFIDFModelFile.isModelFile(file))
+            {
+                TFIDFModelFile.Reader reader = new TFIDFModelFile.Reader(file);
+                in = reader;
+                log = new TFIDFDeltaLog(file, reader.getChecksum());
+                cosineMatrix = mapRows(reader);
+            }
+            else
+            {
+                in = new TFIDFModelFile.TextReader(file);
+            }
+            size = in.getSize();
             monitor.beginTask(
                     "Loading the TF-IDF cosine similarity matrix.   Please wait until this load completes.",
                     size);
-            String[] methodIndex = new String[size];
-            buf = sc.nextLine().trim();
-            tokens = buf.split("\t");
+            String[] methodIndex = in.getMethodKeys();
 
-            for (String token : tokens)
+            if (cosineMatrix != null)
+                monitor.worked(size);
+            else
+                cosineMatrix = readMatrix(in, monitor);
+            if (cosineMatrix == null)
             {
-                methodIndex[i++] = token;
+                return new Status(
+                        Status.ERROR,
+                        Activator.PLUGIN_ID,
+                        "The matrix must be loaded before using the plug-in.  Please check the preferences and restart Eclipse");
             }
 
-            float[][] cosineMatrix = new float[size][size];
-            for (i = 0; i < size; i++)
+            if (log != null)
             {
-                j = 0;
-                buf = sc.nextLine().trim();
-                tokens = buf.split("\t");
-                for (String token : tokens)
-                {
-                    cosineMatrix[i][j++] = Float.valueOf(token);
-                }
-                monitor.worked(1);
-                if (monitor.isCanceled())
-                {
-                    return new Status(
-                            Status.ERROR,
-                            Activator.PLUGIN_ID,
-                            "The matrix must be loaded before using the plug-in.  Please check the preferences and restart Eclipse");
-                }
+                TFIDFDeltaLog.Replayed replayed = log.replay(cosineMatrix,
+                        methodIndex);
+                if (replayed.getNumChanges() > 0)
+                    System.out.println("Replayed " + replayed.getNumChanges()
+                            + " changes from the TF-IDF delta log.");
+                cosineMatrix = replayed.getMatrix();
+                methodIndex = replayed.getMethodKeys();
+            }
+            synchronized (tfidfMatrix)
+            {
+                tfidfMatrix.setModel(cosineMatrix, methodIndex, null);
+                tfidfMatrix.setDeltaLog(log);
             }
-            tfidfMatrix.setMethodIndex(methodIndex);
-            tfidfMatrix.setCosineSimilarityMatrix(cosineMatrix);
             return Status.OK_STATUS;
         }
         catch (FileNotFoundException e)
@@ -108,12 +143,125 @@ public class TFIDFLoadJob extends Job
             return new Status(Status.ERROR, Activator.PLUGIN_ID,
                     "There was a problem opening the file.");
         }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                    "There was a problem reading the file.");
+        }
         finally
         {
             monitor.done();
             System.out.println("Loading TF-IDF matrix complete.");
-            if (sc != null)
-                sc.close();
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                eLog.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads every row of a save file into a cosine similarity matrix. Either
+     * each row's top neighbours are kept, or, since the matrix is symmetric,
+     * only the scores up to and including the diagonal, in the precision
+     * selected in the preferences. The monitor is advanced by one for every
+     * row.
+     * 
+     * @param in
+     *            The reader of the save file's rows
+     * @param monitor
+     *            The progress monitor of the job
+     * @return <ul>
+     *         <li>The cosine similarity matrix
+     *         <li>null if the job was cancelled
+     *         </ul>
+     * @throws IOException
+     *             If a row cannot be read
+     */
+    public static SimilarityMatrix readMatrix(TFIDFModelFile.RowReader in,
+            IProgressMonitor monitor) throws IOException
+    {
+        int size = in.getSize();
+        int maxNeighbours = MyPreferences.getInstance().getMaxNeighbours();
+        Precision precision = MyPreferences.getInstance().getScorePrecision();
+        TopKSimilarityMatrix topK = null;
+        QuantizedSimilarityMatrix quantized = null;
+        PackedSimilarityMatrix packed = null;
+        SimilarityMatrix cosineMatrix;
+        float[] row = new float[size];
+        if (maxNeighbours > 0)
+            cosineMatrix = topK = new TopKSimilarityMatrix(size, maxNeighbours);
+        else if (precision != Precision.FLOAT_32)
+            cosineMatrix = quantized = new QuantizedSimilarityMatrix(size,
+                    precision);
+        else
+            cosineMatrix = packed = new PackedSimilarityMatrix(size);
+
+        for (int i = 0; i < size; i++)
+        {
+            in.readRow(row);
+            if (topK != null)
+            {
+                topK.setRow(i, row);
+            }
+            else if (quantized != null)
+            {
+                quantized.setPackedColumn(i, row);
+            }
+            else
+            {
+                System.arraycopy(row, 0, packed.getPackedColumn(i), 0, i);
+                packed.set(i, i, row[i]);
+            }
+            monitor.worked(1);
+            if (monitor.isCanceled())
+                return null;
+        }
+        return cosineMatrix;
+    }
+
+    /**
+     * Maps the rows of a binary save file if mapping is enabled. Float rows
+     * are mapped from the save file. Rows in fixed point are mapped from its
+     * row file, if the row file belongs to the save file.
+     * 
+     * @param reader
+     *            The reader of the save file
+     * @return <ul>
+     *         <li>The mapped matrix
+     *         <li>null if the rows have to be read from the save file
+     *         </ul>
+     */
+    private MappedSimilarityMatrix mapRows(TFIDFModelFile.Reader reader)
+    {
+        File rowFile = new File(fileName
+                + MappedSimilarityMatrix.FILE_EXTENSION);
+        Precision precision = MyPreferences.getInstance().getScorePrecision();
+        if (!MyPreferences.getInstance().mapModelFromFile())
+            return null;
+
+        try
+        {
+            if (precision == Precision.FLOAT_32)
+                return reader.mapRows();
+            if (!rowFile.isFile())
+                return null;
+            MappedSimilarityMatrix mapped = new MappedSimilarityMatrix(rowFile);
+            if (mapped.getSize() == reader.getSize()
+                    && mapped.getSaveChecksum() == reader.getChecksum())
+                return mapped;
+            System.out.println("Ignoring " + rowFile
+                    + ", it does not match the save file.");
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
         }
+        return null;
     }
 }
@@ -1,9 +1,8 @@
 package recommendationsystem.preload.jobs;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.RandomAccessFile;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -12,12 +11,37 @@ import org.eclipse.core.runtime.jobs.Job;
 
 import recommendationsystem.Activator;
 import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.BinaryFile;
+import recommendationsystem.model.tfidf.MappedSimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix.Precision;
+import recommendationsystem.model.tfidf.TFIDFDeltaLog;
 import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModel;
+import recommendationsystem.model.tfidf.TFIDFModelFile;
+import recommendationsystem.model.tfidf.UpdatableSimilarityMatrix;
+import recommendationsystem.preferences.MyPreferences;
 
 /**
- * TFIDFSaveJob saves the in memory representation of the TFIDFMatrix to a text
- * file. It does not store any history, just the cosine similarity scores and
- * the method indices.
+ * TFIDFSaveJob saves the in memory representation of the TFIDFMatrix to a
+ * binary file in the format of {@link TFIDFModelFile}. It does not store any
+ * history, just the cosine similarity scores and the method indices.
+ * <p>
+ * {@link TFIDFLoadJob} can map the float rows of the save file instead of
+ * reading them. If the score precision selected in the preferences is fixed
+ * point, the rows are also written in that precision to a row file next to
+ * the save file, named with {@link MappedSimilarityMatrix#FILE_EXTENSION}
+ * added, so they can be mapped as well. Once the save file is complete, its
+ * checksum is written into the header of the row file, which is how the row
+ * file is recognized as belonging to it.
+ * <p>
+ * The model may be mapped from the file it is saved to, which must not be
+ * rewritten while it is mapped. The save file is therefore written next to
+ * it, and replaces it once it is complete.
+ * <p>
+ * If the model is saved over the file its {@link TFIDFDeltaLog} belongs to,
+ * the log is rebased on the new file, so it only keeps the changes made while
+ * the file was saved.
  * <p>
  * Running the task in a job allows us to view progress in Eclipe's progress
  * view and the indicator at the lower-right corner of the interface. This gives
@@ -56,33 +80,68 @@ public class TFIDFSaveJob extends Job
     @Override
     protected IStatus run(IProgressMonitor monitor)
     {
-        Writer out = null;
-        String newLine = System.getProperty("line.separator");
-        int i = 0, j = 0;
-        String[] methodIndex = TFIDFMatrix.getInstance().getMethodIndex();
-        float[][] cosineMatrix = TFIDFMatrix.getInstance()
-                .getCosineSimilarityMatrix();
+        TFIDFModelFile.Writer out = null;
+        MappedSimilarityMatrix.Writer rowOut = null;
+        int i = 0;
+        // Save a single snapshot, even if the model is updated meanwhile
+        TFIDFMatrix tfidfMatrix = TFIDFMatrix.getInstance();
+        TFIDFModel model;
+        TFIDFDeltaLog log;
+        long mark = 0;
+        int generation = 0;
+        synchronized (tfidfMatrix)
+        {
+            model = tfidfMatrix.getModel();
+            log = tfidfMatrix.getDeltaLog();
+            if (log != null)
+            {
+                mark = log.getLength();
+                generation = log.getGeneration();
+            }
+        }
+        String[] methodIndex = model.getMethodKeyIndex().getKeys();
+        SimilarityMatrix cosineMatrix = model.getCosineSimilarityMatrix();
+        float[] row;
+        Precision precision = MyPreferences.getInstance().getScorePrecision();
+        File file = new File(fileName);
+        File saved = null;
         try
         {
-            out = new OutputStreamWriter(new FileOutputStream(fileName));
+            saved = File.createTempFile(file.getName(), ".tmp", file
+                    .getAbsoluteFile().getParentFile());
+            out = new TFIDFModelFile.Writer(saved, methodIndex);
             int len = methodIndex.length;
             monitor.beginTask("Saving the TF-IDF cosine similarity matrix.",
                     len);
-            out.write(String.valueOf(len));
-            out.write(newLine);
-            for (i = 0; i < len - 1; i++)
-            {
-                out.write(methodIndex[i] + '\t');
-            }
-            out.write(String.valueOf(methodIndex[len - 1]) + newLine);
 
+            // A matrix mapped from the row file being saved to is already
+            // stored there, and the file cannot be rewritten while it is
+            // mapped. If rows were updated on top of it, the row file keeps
+            // the checksum of the old save file and is no longer mapped.
+            // Float rows are mapped from the save file, so no row file is
+            // written for them.
+            File rowFile = new File(fileName
+                    + MappedSimilarityMatrix.FILE_EXTENSION);
+            SimilarityMatrix stored = cosineMatrix;
+            if (stored instanceof UpdatableSimilarityMatrix)
+                stored = ((UpdatableSimilarityMatrix) stored).getBase();
+            boolean alreadySaved = stored instanceof MappedSimilarityMatrix
+                    && ((MappedSimilarityMatrix) stored).getFile()
+                            .getCanonicalFile()
+                            .equals(rowFile.getCanonicalFile());
+            if (!alreadySaved && precision != Precision.FLOAT_32)
+                rowOut = new MappedSimilarityMatrix.Writer(rowFile, len,
+                        precision);
+
+            // Rows are always written in full so the file format does not
+            // depend on how the matrix is stored in memory
+            row = new float[len];
             for (i = 0; i < len; i++)
             {
-                for (j = 0; j < len - 1; j++)
-                {
-                    out.write(String.valueOf(cosineMatrix[i][j]) + '\t');
-                }
-                out.write(String.valueOf(cosineMatrix[i][len - 1]) + newLine);
+                cosineMatrix.getRow(i, row);
+                out.writeRow(row);
+                if (rowOut != null)
+                    rowOut.writeRow(row);
                 monitor.worked(1);
 
                 if (monitor.isCanceled())
@@ -91,6 +150,21 @@ public class TFIDFSaveJob extends Job
                             "The TF-IDF cosine similarity matrix was not saved. User cancelled.");
                 }
             }
+
+            out.close();
+            long checksum = out.getChecksum();
+            out = null;
+            BinaryFile.replace(saved, file);
+            if (rowOut != null)
+                rowOut.finish(checksum);
+            else if (precision == Precision.FLOAT_32)
+                rowFile.delete();
+            else if (alreadySaved && stored == cosineMatrix)
+                updateRowFile(rowFile, checksum);
+            if (log != null
+                    && log.getBase().getCanonicalFile().equals(
+                            file.getCanonicalFile()))
+                log.rebase(checksum, mark, generation);
             return Status.OK_STATUS;
         }
         catch (IOException e)
@@ -105,12 +179,43 @@ public class TFIDFSaveJob extends Job
             System.out.println("TF-IDF save complete.");
             try
             {
-                out.close();
+                if (out != null)
+                    out.close();
+                if (rowOut != null)
+                    rowOut.close();
             }
             catch (IOException e)
             {
                 eLog.logException(e);
             }
+            if (saved != null)
+                saved.delete();
+        }
+    }
+
+    /**
+     * Makes a row file whose rows are still current belong to the new save
+     * file.
+     * 
+     * @param rowFile
+     *            The row file
+     * @param checksum
+     *            The checksum of the new save file
+     * @throws IOException
+     *             If the row file cannot be written
+     */
+    private void updateRowFile(File rowFile, long checksum)
+            throws IOException
+    {
+        RandomAccessFile rows = new RandomAccessFile(rowFile, "rw");
+        try
+        {
+            MappedSimilarityMatrix.writeSaveChecksum(rows.getChannel(),
+                    checksum);
+        }
+        finally
+        {
+            rows.close();
         }
     }
 }
@@ -0,0 +1,513 @@
+package recommendationsystem.preload.jobs;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.Comment;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.Javadoc;
+
+import recommendationsystem.Activator;
+import recommendationsystem.controllers.DbManager;
+import recommendationsystem.listeners.JavaFileChangeListener;
+import recommendationsystem.logging.ErrorLogger;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFCorpus;
+import recommendationsystem.model.tfidf.TFIDFDeltaLog;
+import recommendationsystem.model.tfidf.TFIDFMatrix;
+import recommendationsystem.model.tfidf.TFIDFModel;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.UpdatableSimilarityMatrix;
+import recommendationsystem.preferences.MyPreferences;
+import recommendationsystem.visitors.MethodWordsVisitor;
+
+/**
+ * TFIDFUpdateJob keeps the TF-IDF model up to date as source files are edited,
+ * without the full rebuild of {@link TFIDFCreateJob}. Changed files are queued
+ * by {@link JavaFileChangeListener}. Each queued file is parsed again and the
+ * words of its methods are collected the same way the database loader does.
+ * For every method whose words changed, or that was added or removed, the
+ * job:
+ * <ul>
+ * <li>updates the word counts and document frequencies in the
+ * {@link TFIDFCorpus},
+ * <li>calculates the method's TF-IDF vector with the current document
+ * frequencies,
+ * <li>calculates the method's row of similarities to every other method and
+ * replaces its row and column in the matrix, see
+ * {@link UpdatableSimilarityMatrix}.
+ * </ul>
+ * The vectors of the methods that were not edited keep the document
+ * frequencies of the last full build, so their weights drift from the exact
+ * ones as more methods change. To bound this drift, and the cost of reading
+ * rows with many replaced columns, the whole matrix is rebuilt from the corpus
+ * once the number of updated methods reaches the limit set in the preferences.
+ * <p>
+ * A matrix loaded from a file has no word counts. The first update reads them
+ * from the IFT database, which takes about as long as reading them in
+ * TFIDFCreateJob. The database is not changed. If the model was loaded from a
+ * save file, every update is also appended to the file's
+ * {@link TFIDFDeltaLog}, and {@link TFIDFCompactJob} folds the log into the
+ * save file once it grows large. After the matrix is rebuilt, the save file is
+ * replaced right away, since the log no longer matches the rebuilt matrix.
+ */
+public class TFIDFUpdateJob extends Job
+{
+    private ErrorLogger eLog;
+    private Set<IFile> changedFiles;
+
+    /**
+     * The constructor.
+     * 
+     * @param name
+     *            The name of the job
+     */
+    public TFIDFUpdateJob(String name)
+    {
+        super(name);
+        eLog = ErrorLogger.getInstance();
+        changedFiles = new LinkedHashSet<IFile>();
+        setPriority(Job.SHORT);
+    }
+
+    /**
+     * Queues a changed, added or removed source file to be updated the next
+     * time the job runs.
+     * 
+     * @param file
+     *            The source file
+     */
+    public synchronized void addFile(IFile file)
+    {
+        changedFiles.add(file);
+    }
+
+    /**
+     * Returns the queued files and empties the queue.
+     */
+    private synchronized List<IFile> takeFiles()
+    {
+        List<IFile> files = new ArrayList<IFile>(changedFiles);
+        changedFiles.clear();
+        return files;
+    }
+
+    /**
+     * Updates the methods of the queued files in TFIDFMatrix, then rebuilds the
+     * matrix if too many methods have been updated since the last build.
+     */
+    @Override
+    protected IStatus run(IProgressMonitor monitor)
+    {
+        TFIDFMatrix tfidfMatrix = TFIDFMatrix.getInstance();
+        List<IFile> files = takeFiles();
+        List<Integer> changed = new ArrayList<Integer>();
+        TFIDFModel model = tfidfMatrix.getModel();
+
+        if (model == null || files.isEmpty())
+            return Status.OK_STATUS;
+        TFIDFCorpus corpus = model.getCorpus();
+
+        SubMonitor progress = SubMonitor.convert(monitor,
+                "Updating the TF-IDF cosine similarity matrix.",
+                files.size() + 1);
+        try
+        {
+            if (corpus == null)
+            {
+                System.out.println("Reading TF-IDF word counts...");
+                corpus = readCorpus(model.getMethodKeyIndex().getKeys());
+                if (corpus == null)
+                {
+                    return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                            "There was a database error when reading the TF-IDF word counts.");
+                }
+
+                // Only attach the corpus to the model it was read for
+                synchronized (tfidfMatrix)
+                {
+                    if (tfidfMatrix.getModel() != model)
+                        return Status.OK_STATUS;
+                    tfidfMatrix.setCorpus(corpus);
+                }
+            }
+
+            for (IFile file : files)
+            {
+                updateFile(file, corpus, changed);
+                progress.worked(1);
+                if (progress.isCanceled())
+                {
+                    return new Status(Status.ERROR, Activator.PLUGIN_ID,
+                            "The TF-IDF cosine similarity matrix was not updated. User cancelled.");
+                }
+            }
+
+            // Every vector is recalculated before any row so the rows of
+            // methods changed together agree with each other
+            for (int index : changed)
+            {
+                if (!corpus.isRemoved(index))
+                    corpus.setVector(index, corpus.createVector(index));
+            }
+
+            // Only this job changes the corpus of the model, so each row is
+            // calculated without the lock and only published under it. The
+            // model may have been created or loaded again in the meantime.
+            int[] cols = new int[corpus.getSize()];
+            float[] scores = new float[corpus.getSize()];
+            TFIDFDeltaLog log = null;
+            for (int index : changed)
+            {
+                System.out.println("Updating " + corpus.getKey(index) + "...");
+                boolean removed = corpus.isRemoved(index);
+                TFIDFVector vector = removed ? null : corpus.getVector(index);
+                int length = 0;
+                for (int col = 0; !removed && col < corpus.getSize(); col++)
+                {
+                    float score = col == index ? 0 : vector.cosine(corpus
+                            .getVector(col));
+                    if (score > 0)
+                    {
+                        cols[length] = col;
+                        scores[length++] = score;
+                    }
+                }
+
+                synchronized (tfidfMatrix)
+                {
+                    if (tfidfMatrix.getCorpus() != corpus)
+                        return Status.OK_STATUS;
+
+                    log = tfidfMatrix.getDeltaLog();
+                    if (removed)
+                    {
+                        tfidfMatrix.removeMethod(index);
+                        if (log != null)
+                            log = appendRemove(tfidfMatrix, log, index);
+                        continue;
+                    }
+                    tfidfMatrix.updateMethod(index, corpus.getKey(index),
+                            vector.cosine(vector), cols, scores, length);
+                    if (log != null)
+                        log = appendUpdate(tfidfMatrix, log, index, corpus
+                                .getKey(index), vector.cosine(vector), cols,
+                                scores, length);
+                }
+            }
+
+            int refreshAfter = MyPreferences.getInstance()
+                    .getRefreshAfterUpdates();
+            if (refreshAfter > 0
+                    && tfidfMatrix.getNumUpdatedMethods() >= refreshAfter)
+                refresh(tfidfMatrix, corpus, progress.newChild(1));
+            else if (log != null
+                    && log.getLength() >= TFIDFDeltaLog.COMPACT_AFTER_BYTES)
+                new TFIDFCompactJob("Compact TF-IDF").schedule();
+            return Status.OK_STATUS;
+        }
+        finally
+        {
+            monitor.done();
+        }
+    }
+
+    /**
+     * Parses a source file again and updates the word counts of its methods.
+     * The indices of the methods that were added, removed or whose words
+     * changed are added to changed.
+     */
+    private void updateFile(IFile file, TFIDFCorpus corpus,
+            List<Integer> changed)
+    {
+        IPath location = file.getLocation();
+        if (location == null)
+            return;
+        String path = location.toString();
+        Map<String, List<String>> methodWords = file.exists() ? parse(file)
+                : new HashMap<String, List<String>>();
+        if (methodWords == null)
+            return;
+
+        for (Map.Entry<String, List<String>> method : methodWords.entrySet())
+        {
+            // Count each of the method's words
+            Map<Integer, Integer> wordCounts = new HashMap<Integer, Integer>();
+            for (String word : method.getValue())
+            {
+                int wordId = corpus.getWordId(word);
+                Integer count = wordCounts.get(wordId);
+                wordCounts.put(wordId, count == null ? 1 : count + 1);
+            }
+            int[] ids = new int[wordCounts.size()];
+            int[] counts = new int[wordCounts.size()];
+            int length = 0;
+            for (Map.Entry<Integer, Integer> word : wordCounts.entrySet())
+            {
+                ids[length] = word.getKey();
+                counts[length++] = word.getValue();
+            }
+
+            int index = corpus.getIndex(method.getKey());
+            if (index < 0)
+            {
+                changed.add(corpus.addMethod(method.getKey(), path, ids,
+                        counts, length));
+            }
+            else if (!corpus.hasWords(index, ids, counts, length))
+            {
+                corpus.setWords(index, path, ids, counts, length);
+                changed.add(index);
+            }
+        }
+
+        // Methods that are no longer in the file were deleted
+        for (int index : corpus.getMethodsInFile(path))
+        {
+            if (!methodWords.containsKey(corpus.getKey(index)))
+            {
+                corpus.removeMethod(index);
+                changed.add(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the words of every method in the source file by the method's
+     * key, or null if the file cannot be read.
+     */
+    private Map<String, List<String>> parse(IFile file)
+    {
+        ICompilationUnit icu = JavaCore.createCompilationUnitFrom(file);
+        ASTParser parser = ASTParser.newParser(AST.JLS3);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        parser.setSource(icu);
+        parser.setResolveBindings(true);
+        CompilationUnit cu = (CompilationUnit) parser.createAST(null);
+
+        MethodWordsVisitor visitor = new MethodWordsVisitor();
+        cu.accept(visitor);
+        try
+        {
+            // Javadoc is already part of each method's words
+            String source = icu.getSource();
+            for (Object o : cu.getCommentList())
+            {
+                Comment comment = (Comment) o;
+                if (!(comment instanceof Javadoc))
+                    visitor.addComment(source.substring(
+                            comment.getStartPosition(),
+                            comment.getStartPosition() + comment.getLength()),
+                            comment.getStartPosition());
+            }
+        }
+        catch (JavaModelException e)
+        {
+            eLog.logException(e);
+            return null;
+        }
+        return visitor.getMethodWords();
+    }
+
+    /**
+     * Reads the word counts of every method in the method index from the IFT
+     * database, or returns null if the database cannot be read. Keys that are
+     * not in the database are kept as removed methods so the indices of the
+     * corpus match the matrix.
+     */
+    private TFIDFCorpus readCorpus(String[] methodIndex)
+    {
+        DbManager dbManager = DbManager.getInstance();
+        TFIDFCorpus corpus = new TFIDFCorpus();
+        int[] wordIds = new int[64];
+        int[] wordCounts = new int[64];
+        int numWords;
+        ResultSet rs = null;
+
+        try
+        {
+            for (String methodKey : methodIndex)
+            {
+                int methodId = methodKey == null ? -1 : dbManager
+                        .getMethodIdFromMethodKey(methodKey);
+                if (methodId < 0)
+                {
+                    corpus.removeMethod(corpus.addMethod(methodKey, null,
+                            wordIds, wordCounts, 0));
+                    continue;
+                }
+
+                numWords = 0;
+                rs = dbManager.getWordsFromMethodId(methodId);
+                if (rs == null)
+                    return null;
+                while (rs.next())
+                {
+                    // rs = [id][word][wordCount]
+                    if (numWords == wordIds.length)
+                    {
+                        wordIds = Arrays.copyOf(wordIds,
+                                2 * numWords);
+                        wordCounts = Arrays.copyOf(wordCounts,
+                                2 * numWords);
+                    }
+                    wordIds[numWords] = rs.getInt(1);
+                    wordCounts[numWords] = rs.getInt(3);
+                    corpus.addWord(rs.getString(2), wordIds[numWords]);
+                    numWords++;
+                }
+                rs.close();
+                corpus.addMethod(methodKey,
+                        dbManager.getPathFromMethodKey(methodKey), wordIds,
+                        wordCounts, numWords);
+            }
+            corpus.updateVectors();
+            return corpus;
+        }
+        catch (SQLException e)
+        {
+            eLog.logException(e);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (rs != null && !rs.isClosed())
+                    rs.close();
+            }
+            catch (SQLException e)
+            {
+                eLog.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the whole matrix from the corpus with the current document
+     * frequencies and without the removed methods. Recommendations keep using
+     * the updated matrix until the new one is ready.
+     */
+    private void refresh(TFIDFMatrix tfidfMatrix, TFIDFCorpus corpus,
+            IProgressMonitor monitor)
+    {
+        System.out.println("Rebuilding the TF-IDF cosine similarity matrix after "
+                + tfidfMatrix.getNumUpdatedMethods() + " updated methods...");
+        TFIDFCorpus compacted = corpus.compact();
+        compacted.updateVectors();
+        monitor.beginTask("Rebuilding the TF-IDF cosine similarity matrix.",
+                compacted.getSize());
+        SimilarityMatrix cosineMatrix = TFIDFCreateJob.buildMatrix(
+                compacted.getVectors(), monitor);
+        monitor.done();
+        if (cosineMatrix == null)
+            return;
+
+        // The model may have been created or loaded again in the meantime
+        TFIDFModel rebuilt;
+        TFIDFDeltaLog log;
+        long mark;
+        int generation;
+        synchronized (tfidfMatrix)
+        {
+            if (tfidfMatrix.getCorpus() != corpus)
+                return;
+            log = tfidfMatrix.getDeltaLog();
+            tfidfMatrix.setModel(cosineMatrix, compacted.getKeys(), compacted);
+            if (log == null)
+                return;
+            tfidfMatrix.setDeltaLog(log);
+            rebuilt = tfidfMatrix.getModel();
+            mark = log.getLength();
+            generation = log.getGeneration();
+        }
+
+        // The indices of the rebuilt matrix no longer match the log, so the
+        // save file is replaced before anything else is appended
+        try
+        {
+            System.out.println("Saving the rebuilt matrix to "
+                    + log.getBase() + "...");
+            if (!log.compact(rebuilt, mark, generation, MyPreferences
+                    .getInstance().getScorePrecision()))
+                detach(tfidfMatrix, log);
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            detach(tfidfMatrix, log);
+        }
+    }
+
+    /**
+     * Appends the update of a method to the delta log. If it cannot be
+     * appended, the log is detached and null is returned, so that no later
+     * change is appended without it.
+     */
+    private TFIDFDeltaLog appendUpdate(TFIDFMatrix tfidfMatrix,
+            TFIDFDeltaLog log, int index, String methodKey, float diagonal,
+            int[] cols, float[] scores, int length)
+    {
+        try
+        {
+            log.appendUpdate(index, methodKey, diagonal, cols, scores, length);
+            return log;
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            detach(tfidfMatrix, log);
+            return null;
+        }
+    }
+
+    /**
+     * Appends the removal of a method to the delta log. If it cannot be
+     * appended, the log is detached and null is returned.
+     */
+    private TFIDFDeltaLog appendRemove(TFIDFMatrix tfidfMatrix,
+            TFIDFDeltaLog log, int index)
+    {
+        try
+        {
+            log.appendRemove(index);
+            return log;
+        }
+        catch (IOException e)
+        {
+            eLog.logException(e);
+            detach(tfidfMatrix, log);
+            return null;
+        }
+    }
+
+    /**
+     * Stops saving changes to the delta log, if it is still attached.
+     */
+    private void detach(TFIDFMatrix tfidfMatrix, TFIDFDeltaLog log)
+    {
+        tfidfMatrix.detachDeltaLog(log);
+        System.out.println("Changes to the TF-IDF model are no longer saved to "
+                + log.getBase() + ".");
+    }
+}
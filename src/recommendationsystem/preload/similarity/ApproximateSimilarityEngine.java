@@ -0,0 +1,398 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SparseSimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+
+/**
+ * ApproximateSimilarityEngine only calculates the similarity of methods that
+ * are likely to be similar, found with locality-sensitive hashing. Every
+ * method gets a SimHash signature: the signs of its TF-IDF vector projected
+ * onto random hyperplanes. Two methods agree on each bit with a probability
+ * that grows with their cosine similarity.
+ * <p>
+ * The signature is cut into bands of a few bits each. Methods whose signatures
+ * are equal on a whole band fall in the same bucket, and only methods sharing
+ * at least one bucket are compared. Their exact cosine similarity is then
+ * calculated, so every stored score is exact, but some similar methods may be
+ * missed. More bands find more of the similar methods, while more bits per
+ * band make buckets smaller and the build faster. Buckets larger than the
+ * maximum bucket size only compare each method to the methods closest to it in
+ * the bucket.
+ * <p>
+ * The hyperplanes come from a seeded hash of each word id, so the result does
+ * not depend on the number of threads and the same seed always gives the same
+ * matrix. Use {@link RecallReport} to measure how many of the exact top
+ * neighbours were found.
+ */
+public class ApproximateSimilarityEngine extends SimilarityEngine
+{
+    public static final int DEFAULT_NUM_BANDS = 16;
+    public static final int DEFAULT_ROWS_PER_BAND = 8;
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 256;
+    private static final int METHODS_PER_TASK = 1024;
+
+    private int numBands, rowsPerBand, maxBucketSize;
+    private long seed;
+
+    /**
+     * The constructor. Uses the default bands, bucket size and seed, and one
+     * thread per available processor.
+     */
+    public ApproximateSimilarityEngine()
+    {
+        this(DEFAULT_NUM_BANDS, DEFAULT_ROWS_PER_BAND);
+    }
+
+    /**
+     * The constructor. Uses the default bucket size and seed, and one thread
+     * per available processor.
+     * 
+     * @param numBands
+     *            The number of bands in each signature
+     * @param rowsPerBand
+     *            The number of bits in each band, between 1 and 32
+     */
+    public ApproximateSimilarityEngine(int numBands, int rowsPerBand)
+    {
+        this(numBands, rowsPerBand, DEFAULT_MAX_BUCKET_SIZE, 0L, Runtime
+                .getRuntime().availableProcessors());
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param numBands
+     *            The number of bands in each signature
+     * @param rowsPerBand
+     *            The number of bits in each band, between 1 and 32
+     * @param maxBucketSize
+     *            The largest number of methods a method is compared to in a
+     *            single bucket
+     * @param seed
+     *            The seed of the random hyperplanes
+     * @param numThreads
+     *            The number of threads to calculate rows on
+     */
+    public ApproximateSimilarityEngine(int numBands, int rowsPerBand,
+            int maxBucketSize, long seed, int numThreads)
+    {
+        super(numThreads);
+        this.numBands = Math.max(1, numBands);
+        this.rowsPerBand = Math.min(32, Math.max(1, rowsPerBand));
+        this.maxBucketSize = Math.max(2, maxBucketSize);
+        this.seed = seed;
+    }
+
+    /**
+     * Builds the matrix. A {@link TopKSimilarityMatrix} is returned if a
+     * number of neighbours is set, otherwise a {@link SparseSimilarityMatrix}
+     * of every pair that was compared.
+     */
+    @Override
+    public SimilarityMatrix build(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
+    {
+        int size = vectors.length;
+        int signatureUnits = size / 10;
+        int words = (numBands * rowsPerBand + 63) / 64;
+        long[] signatures = new long[size * words];
+
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (int start = 0; start < size; start += METHODS_PER_TASK)
+        {
+            tasks.add(new SignatureTask(vectors, signatures, words, start,
+                    Math.min(start + METHODS_PER_TASK, size)));
+        }
+        if (!runTasks(tasks, size, signatureUnits, monitor))
+            return null;
+
+        Bands bands = new Bands(vectors, signatures, words);
+        signatures = null;
+        if (monitor.isCanceled())
+            return null;
+
+        SimilarityMatrix matrix;
+        if (getMaxNeighbours() > 0)
+            matrix = new TopKSimilarityMatrix(size, getMaxNeighbours());
+        else
+            matrix = new SparseSimilarityMatrix(size);
+
+        // Each thread keeps its marks for the whole build
+        ThreadLocal<int[]> marks = new ThreadLocal<int[]>();
+        tasks.clear();
+        for (int start = 0; start < size; start += METHODS_PER_TASK)
+        {
+            tasks.add(new RowTask(vectors, bands, matrix, marks, start,
+                    Math.min(start + METHODS_PER_TASK, size)));
+        }
+        if (!runTasks(tasks, size, size - signatureUnits, monitor))
+            return null;
+        return matrix;
+    }
+
+    /**
+     * Returns 64 pseudo-random bits for the given value. This is the
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Calculates the signatures of a range of methods. Each word has a random
+     * +1 or -1 weight on every hyperplane, and a signature bit is set if the
+     * method's weighted sum on that hyperplane is positive.
+     */
+    private class SignatureTask implements Callable<Long>
+    {
+        private TFIDFVector[] vectors;
+        private long[] signatures;
+        private int words, start, end;
+
+        public SignatureTask(TFIDFVector[] vectors, long[] signatures,
+                int words, int start, int end)
+        {
+            this.vectors = vectors;
+            this.signatures = signatures;
+            this.words = words;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Long call()
+        {
+            int bits = numBands * rowsPerBand;
+            float[] sums = new float[bits];
+
+            for (int m = start; m < end; m++)
+            {
+                if (Thread.currentThread().isInterrupted())
+                    return 0L;
+
+                TFIDFVector v = vectors[m];
+                Arrays.fill(sums, 0);
+                for (int i = 0; i < v.size(); i++)
+                {
+                    long term = v.getTermId(i) * 0x9E3779B97F4A7C15L + seed;
+                    float weight = v.getWeight(i);
+                    for (int w = 0; w < words; w++)
+                    {
+                        long signs = mix(term + w);
+                        int last = Math.min(bits, (w + 1) * 64);
+                        for (int b = w * 64; b < last; b++, signs >>>= 1)
+                        {
+                            sums[b] += (signs & 1) == 0 ? weight : -weight;
+                        }
+                    }
+                }
+
+                for (int b = 0; b < bits; b++)
+                {
+                    if (sums[b] > 0)
+                        signatures[m * words + (b >>> 6)] |= 1L << (b & 63);
+                }
+            }
+            return (long) (end - start);
+        }
+    }
+
+    /**
+     * The buckets of every band. For each band, the methods are sorted by
+     * their key in that band, so a bucket is a run of equal keys. Methods
+     * without any words are not in any bucket.
+     */
+    private class Bands
+    {
+        private int[][] keys;
+        private int[][] order;
+        private int[][] position;
+
+        public Bands(TFIDFVector[] vectors, long[] signatures, int words)
+        {
+            int size = vectors.length;
+            int indexed = 0;
+            for (TFIDFVector v : vectors)
+            {
+                if (v.getNorm() > 0)
+                    indexed++;
+            }
+
+            keys = new int[numBands][indexed];
+            order = new int[numBands][indexed];
+            position = new int[numBands][size];
+            long[] sorted = new long[indexed];
+
+            for (int band = 0; band < numBands; band++)
+            {
+                int pos = 0;
+                for (int m = 0; m < size; m++)
+                {
+                    if (vectors[m].getNorm() > 0)
+                        sorted[pos++] = (long) key(signatures, words, m,
+                                band) << 32 | m;
+                }
+                Arrays.sort(sorted);
+
+                Arrays.fill(position[band], -1);
+                for (pos = 0; pos < indexed; pos++)
+                {
+                    keys[band][pos] = (int) (sorted[pos] >>> 32);
+                    order[band][pos] = (int) sorted[pos];
+                    position[band][order[band][pos]] = pos;
+                }
+            }
+        }
+
+        /**
+         * Returns the bits of a method's signature that make up the given
+         * band.
+         */
+        private int key(long[] signatures, int words, int method, int band)
+        {
+            int key = 0;
+            for (int r = 0; r < rowsPerBand; r++)
+            {
+                int b = band * rowsPerBand + r;
+                long bit = signatures[method * words + (b >>> 6)] >>> (b & 63);
+                key |= (int) (bit & 1) << r;
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Calculates the rows of a range of methods from the methods that share a
+     * bucket with them. Each thread keeps an array of the row that last
+     * compared each method, so a method sharing several buckets is only
+     * compared once.
+     */
+    private class RowTask implements Callable<Long>
+    {
+        private TFIDFVector[] vectors;
+        private Bands bands;
+        private SimilarityMatrix matrix;
+        private ThreadLocal<int[]> threadMarks;
+        private int start, end;
+
+        public RowTask(TFIDFVector[] vectors, Bands bands,
+                SimilarityMatrix matrix, ThreadLocal<int[]> threadMarks,
+                int start, int end)
+        {
+            this.vectors = vectors;
+            this.bands = bands;
+            this.matrix = matrix;
+            this.threadMarks = threadMarks;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Long call()
+        {
+            int[] marks = threadMarks.get();
+            int[] found = new int[64];
+            float[] scores = new float[64];
+            int half = maxBucketSize / 2;
+            if (marks == null)
+            {
+                marks = new int[vectors.length];
+                Arrays.fill(marks, -1);
+                threadMarks.set(marks);
+            }
+
+            for (int row = start; row < end; row++)
+            {
+                if (Thread.currentThread().isInterrupted())
+                    return 0L;
+
+                TFIDFVector v = vectors[row];
+                int numFound = 0;
+                marks[row] = row;
+                for (int band = 0; band < numBands && v.getNorm() > 0; band++)
+                {
+                    int[] keys = bands.keys[band];
+                    int[] order = bands.order[band];
+                    int pos = bands.position[band][row];
+
+                    // The bucket is the run of equal keys around the row,
+                    // limited to half the maximum size on each side
+                    int from = pos, to = pos;
+                    while (from > 0 && pos - from < half
+                            && keys[from - 1] == keys[pos])
+                        from--;
+                    while (to < keys.length - 1 && to - pos < half
+                            && keys[to + 1] == keys[pos])
+                        to++;
+
+                    for (int p = from; p <= to; p++)
+                    {
+                        int col = order[p];
+                        if (marks[col] == row)
+                            continue;
+                        marks[col] = row;
+
+                        float score = v.cosine(vectors[col]);
+                        if (score > 0)
+                        {
+                            if (numFound == found.length)
+                            {
+                                found = Arrays.copyOf(found, 2 * numFound);
+                                scores = Arrays.copyOf(scores, 2 * numFound);
+                            }
+                            found[numFound] = col;
+                            scores[numFound++] = score;
+                        }
+                    }
+                }
+
+                float self = v.getNorm() > 0 ? 1F : 0F;
+                if (matrix instanceof TopKSimilarityMatrix)
+                    ((TopKSimilarityMatrix) matrix).setRow(row, self, found,
+                            scores, numFound);
+                else
+                    setSparseRow(row, self, found, scores, numFound);
+            }
+            return (long) (end - start);
+        }
+
+        /**
+         * Stores the found scores and the diagonal as a row of the sparse
+         * matrix, sorted by index.
+         */
+        private void setSparseRow(int row, float self, int[] found,
+                float[] scores, int numFound)
+        {
+            long[] sorted = new long[numFound + 1];
+            for (int i = 0; i < numFound; i++)
+            {
+                sorted[i] = (long) found[i] << 32
+                        | (Float.floatToRawIntBits(scores[i]) & 0xFFFFFFFFL);
+            }
+            sorted[numFound] = (long) row << 32
+                    | (Float.floatToRawIntBits(self) & 0xFFFFFFFFL);
+            Arrays.sort(sorted);
+
+            int[] indices = new int[sorted.length];
+            float[] values = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++)
+            {
+                indices[i] = (int) (sorted[i] >>> 32);
+                values[i] = Float.intBitsToFloat((int) sorted[i]);
+            }
+            ((SparseSimilarityMatrix) matrix).setRow(row, indices, values);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SparseSimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+
+/**
+ * InvertedIndexSimilarityEngine calculates cosine similarity only for the
+ * pairs of methods that share at least one word. It first builds an inverted
+ * index, a posting list per word of the methods that contain it along with
+ * the word's normalized weight in each. The similarities of a method are then
+ * accumulated by walking the posting lists of its own words, so methods that
+ * share nothing with it are never visited. The cost of the build follows the
+ * number of word co-occurrences instead of the square of the number of
+ * methods.
+ * <p>
+ * Words that appear in a very large share of the methods contribute little to
+ * the ranking but have the longest posting lists. This engine can optionally
+ * skip words whose document frequency is above a cut-off. Skipped words are
+ * still part of each method's norm, so the remaining scores are not inflated.
+ * <p>
+ * The result is stored in a {@link SparseSimilarityMatrix}. Rows are
+ * accumulated in parallel, each task only calculating scores against methods
+ * with a larger index. The upper triangle is then mirrored into full rows.
+ * <p>
+ * When only the top neighbours of each method are kept, each task instead
+ * accumulates full rows and selects their neighbours straight into a
+ * {@link TopKSimilarityMatrix}, so no row is ever stored in full.
+ */
+public class InvertedIndexSimilarityEngine extends SimilarityEngine
+{
+    private static final int ROWS_PER_TASK = 128;
+
+    private float maxDocumentFrequency;
+
+    /**
+     * The constructor. Uses one thread per available processor and does not
+     * skip any words.
+     */
+    public InvertedIndexSimilarityEngine()
+    {
+        this(1F);
+    }
+
+    /**
+     * The constructor. Uses one thread per available processor.
+     * 
+     * @param maxDocumentFrequency
+     *            The largest fraction of methods a word may appear in and
+     *            still be used, between 0 and 1. A value of 1 uses every
+     *            word.
+     */
+    public InvertedIndexSimilarityEngine(float maxDocumentFrequency)
+    {
+        this(maxDocumentFrequency, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param maxDocumentFrequency
+     *            The largest fraction of methods a word may appear in and
+     *            still be used, between 0 and 1. A value of 1 uses every
+     *            word.
+     * @param numThreads
+     *            The number of threads to accumulate rows on
+     */
+    public InvertedIndexSimilarityEngine(float maxDocumentFrequency,
+            int numThreads)
+    {
+        super(numThreads);
+        this.maxDocumentFrequency = maxDocumentFrequency;
+    }
+
+    @Override
+    public SimilarityMatrix build(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
+    {
+        int size = vectors.length;
+        InvertedIndex index = new InvertedIndex(vectors, maxDocumentFrequency);
+        TopKSimilarityMatrix topK = null;
+        int[][] upperIndices = null;
+        float[][] upperScores = null;
+        List<RowTask> tasks = new ArrayList<RowTask>();
+
+        if (getMaxNeighbours() > 0)
+        {
+            topK = new TopKSimilarityMatrix(size, getMaxNeighbours());
+        }
+        else
+        {
+            upperIndices = new int[size][];
+            upperScores = new float[size][];
+        }
+
+        // Each thread keeps its accumulator for the whole build
+        ThreadLocal<float[]> accumulators = new ThreadLocal<float[]>();
+        ThreadLocal<int[]> lastTouched = new ThreadLocal<int[]>();
+        for (int start = 0; start < size; start += ROWS_PER_TASK)
+        {
+            tasks.add(new RowTask(index, vectors, upperIndices, upperScores,
+                    topK, accumulators, lastTouched, start, Math.min(start
+                            + ROWS_PER_TASK, size)));
+        }
+
+        if (!runTasks(tasks, size, size, monitor))
+            return null;
+
+        if (topK != null)
+            return topK;
+        return mirror(vectors, upperIndices, upperScores);
+    }
+
+    /**
+     * Turns the upper triangle of each row into full rows. Scores of row k
+     * against methods with a smaller index were calculated as part of those
+     * methods' rows, so they are appended to row k while walking the rows in
+     * increasing order, which keeps every row sorted.
+     * 
+     * @param vectors
+     *            The TF-IDF vector of every method, used for the diagonal
+     * @param upperIndices
+     *            The indices larger than the row's own, for each row
+     * @param upperScores
+     *            The scores parallel to upperIndices
+     * @return The full sparse matrix
+     */
+    private SparseSimilarityMatrix mirror(TFIDFVector[] vectors,
+            int[][] upperIndices, float[][] upperScores)
+    {
+        int size = vectors.length;
+        int[] lowerCount = new int[size];
+        int[] fill = new int[size];
+        int[][] indices = new int[size][];
+        float[][] scores = new float[size][];
+
+        for (int row = 0; row < size; row++)
+        {
+            for (int col : upperIndices[row])
+            {
+                lowerCount[col]++;
+            }
+        }
+
+        for (int row = 0; row < size; row++)
+        {
+            int[] upper = upperIndices[row];
+            float[] upperVals = upperScores[row];
+            int length = lowerCount[row] + 1 + upper.length;
+            if (indices[row] == null)
+            {
+                indices[row] = new int[length];
+                scores[row] = new float[length];
+            }
+
+            // The lower entries are already in place, add the diagonal and the
+            // row's own upper entries
+            int pos = fill[row];
+            indices[row][pos] = row;
+            scores[row][pos] = vectors[row].getNorm() > 0 ? 1F : 0F;
+            System.arraycopy(upper, 0, indices[row], pos + 1, upper.length);
+            System.arraycopy(upperVals, 0, scores[row], pos + 1, upper.length);
+
+            // Mirror the upper entries into the rows they belong to
+            for (int i = 0; i < upper.length; i++)
+            {
+                int col = upper[i];
+                if (indices[col] == null)
+                {
+                    int colLength = lowerCount[col] + 1
+                            + upperIndices[col].length;
+                    indices[col] = new int[colLength];
+                    scores[col] = new float[colLength];
+                }
+                indices[col][fill[col]] = row;
+                scores[col][fill[col]] = upperVals[i];
+                fill[col]++;
+            }
+            upperIndices[row] = null;
+            upperScores[row] = null;
+        }
+
+        SparseSimilarityMatrix matrix = new SparseSimilarityMatrix(size);
+        for (int row = 0; row < size; row++)
+        {
+            matrix.setRow(row, indices[row], scores[row]);
+        }
+        return matrix;
+    }
+
+    /**
+     * The posting lists of every word that is not skipped. Words are
+     * renumbered densely, and each posting list is sorted by method index.
+     */
+    private static class InvertedIndex
+    {
+        private int[] wordIds;
+        private int[] postingStart;
+        private int[] postingMethods;
+        private float[] postingWeights;
+
+        public InvertedIndex(TFIDFVector[] vectors, float maxDocumentFrequency)
+        {
+            // Find the distinct words
+            int total = 0;
+            for (TFIDFVector v : vectors)
+            {
+                total += v.size();
+            }
+            int[] all = new int[total];
+            int pos = 0;
+            for (TFIDFVector v : vectors)
+            {
+                for (int i = 0; i < v.size(); i++)
+                {
+                    all[pos++] = v.getTermId(i);
+                }
+            }
+            Arrays.sort(all);
+            int numWords = 0;
+            for (int i = 0; i < total; i++)
+            {
+                if (numWords == 0 || all[i] != all[numWords - 1])
+                    all[numWords++] = all[i];
+            }
+            wordIds = Arrays.copyOf(all, numWords);
+
+            // Count the document frequency of each word and drop the words
+            // above the cut-off. Methods without a norm are left out of the
+            // posting lists, so they are not counted either.
+            int[] df = new int[numWords];
+            for (TFIDFVector v : vectors)
+            {
+                if (v.getNorm() == 0)
+                    continue;
+                for (int i = 0; i < v.size(); i++)
+                {
+                    df[word(v.getTermId(i))]++;
+                }
+            }
+            int maxDf = Math.max(2,
+                    (int) Math.ceil(maxDocumentFrequency * vectors.length));
+            postingStart = new int[numWords + 1];
+            for (int w = 0; w < numWords; w++)
+            {
+                postingStart[w + 1] = postingStart[w]
+                        + (df[w] > maxDf ? 0 : df[w]);
+            }
+
+            // Fill the posting lists in method order with normalized weights
+            postingMethods = new int[postingStart[numWords]];
+            postingWeights = new float[postingStart[numWords]];
+            int[] fill = Arrays.copyOf(postingStart, numWords);
+            for (int m = 0; m < vectors.length; m++)
+            {
+                TFIDFVector v = vectors[m];
+                if (v.getNorm() == 0)
+                    continue;
+                for (int i = 0; i < v.size(); i++)
+                {
+                    int w = word(v.getTermId(i));
+                    if (fill[w] < postingStart[w + 1])
+                    {
+                        postingMethods[fill[w]] = m;
+                        postingWeights[fill[w]] = (float) (v.getWeight(i) / v
+                                .getNorm());
+                        fill[w]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the dense index of the given database word id.
+         */
+        public int word(int wordId)
+        {
+            return Arrays.binarySearch(wordIds, wordId);
+        }
+    }
+
+    /**
+     * Accumulates the upper triangle of a range of rows, or the full rows if
+     * only their top neighbours are kept. Each thread keeps one accumulator
+     * array for all the rows it processes during a build, along with the row
+     * that last touched each entry of the accumulator. The accumulators belong
+     * to a single build, so a thread that is reused never sees the marks of an
+     * earlier build.
+     */
+    private static class RowTask implements Callable<Long>
+    {
+        private InvertedIndex index;
+        private TFIDFVector[] vectors;
+        private int[][] upperIndices;
+        private float[][] upperScores;
+        private TopKSimilarityMatrix topK;
+        private ThreadLocal<float[]> accumulators;
+        private ThreadLocal<int[]> lastTouched;
+        private int start, end;
+
+        public RowTask(InvertedIndex index, TFIDFVector[] vectors,
+                int[][] upperIndices, float[][] upperScores,
+                TopKSimilarityMatrix topK, ThreadLocal<float[]> accumulators,
+                ThreadLocal<int[]> lastTouched, int start, int end)
+        {
+            this.index = index;
+            this.vectors = vectors;
+            this.upperIndices = upperIndices;
+            this.upperScores = upperScores;
+            this.topK = topK;
+            this.accumulators = accumulators;
+            this.lastTouched = lastTouched;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Accumulates the rows and returns how many rows were processed.
+         */
+        @Override
+        public Long call()
+        {
+            float[] acc = accumulators.get();
+            int[] marks = lastTouched.get();
+            if (acc == null)
+            {
+                acc = new float[vectors.length];
+                marks = new int[vectors.length];
+                Arrays.fill(marks, -1);
+                accumulators.set(acc);
+                lastTouched.set(marks);
+            }
+            int[] touched = new int[64];
+            float[] touchedScores = new float[64];
+
+            for (int row = start; row < end; row++)
+            {
+                if (Thread.currentThread().isInterrupted())
+                    return 0L;
+
+                TFIDFVector v = vectors[row];
+                int numTouched = 0;
+                if (v.getNorm() > 0)
+                {
+                    for (int i = 0; i < v.size(); i++)
+                    {
+                        int w = index.word(v.getTermId(i));
+                        float weight = (float) (v.getWeight(i) / v.getNorm());
+                        int from = index.postingStart[w];
+                        int to = index.postingStart[w + 1];
+
+                        // Skip the part of the posting list before this row,
+                        // unless the full row is needed
+                        int first = from;
+                        if (topK == null)
+                        {
+                            first = Arrays.binarySearch(index.postingMethods,
+                                    from, to, row);
+                            first = first < 0 ? -first - 1 : first + 1;
+                        }
+
+                        for (int p = first; p < to; p++)
+                        {
+                            int col = index.postingMethods[p];
+                            if (marks[col] != row)
+                            {
+                                marks[col] = row;
+                                if (numTouched == touched.length)
+                                    touched = Arrays.copyOf(touched,
+                                            2 * numTouched);
+                                touched[numTouched++] = col;
+                            }
+                            acc[col] += weight * index.postingWeights[p];
+                        }
+                    }
+                }
+
+                if (topK != null)
+                {
+                    if (touchedScores.length < numTouched)
+                        touchedScores = new float[touched.length];
+                    for (int i = 0; i < numTouched; i++)
+                    {
+                        touchedScores[i] = acc[touched[i]];
+                        acc[touched[i]] = 0;
+                    }
+                    topK.setRow(row, v.getNorm() > 0 ? 1F : 0F, touched,
+                            touchedScores, numTouched);
+                    continue;
+                }
+
+                Arrays.sort(touched, 0, numTouched);
+                int[] indices = Arrays.copyOf(touched, numTouched);
+                float[] scores = new float[numTouched];
+                for (int i = 0; i < numTouched; i++)
+                {
+                    scores[i] = acc[indices[i]];
+                    acc[indices[i]] = 0;
+                }
+                upperIndices[row] = indices;
+                upperScores[row] = scores;
+            }
+            return (long) (end - start);
+        }
+    }
+}
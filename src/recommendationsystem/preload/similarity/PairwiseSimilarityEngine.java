@@ -0,0 +1,208 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import recommendationsystem.model.tfidf.PackedSimilarityMatrix;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+
+/**
+ * PairwiseSimilarityEngine calculates the cosine similarity between every pair
+ * of methods and stores the result in a {@link PackedSimilarityMatrix}. The
+ * upper triangle of the matrix is split into square tiles of method pairs.
+ * Each tile only reads the vectors of two small blocks of methods, which keeps
+ * them in the processor's cache while the tile is calculated. Tiles are
+ * calculated in parallel on a fixed pool with one thread per processor.
+ * <p>
+ * Every score is calculated exactly once by the same code, no matter which
+ * thread calculates it, so the resulting matrix does not depend on the number
+ * of threads or the order the tiles finish in.
+ * <p>
+ * When only the top neighbours of each method are kept, the matrix is instead
+ * calculated a full row at a time, so each row's neighbours can be selected
+ * before the next row is calculated. This calculates every score twice, once
+ * for each of its rows, in exchange for never holding the full matrix.
+ */
+public class PairwiseSimilarityEngine extends SimilarityEngine
+{
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * The constructor. Uses one thread per available processor.
+     */
+    public PairwiseSimilarityEngine()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param numThreads
+     *            The number of threads to calculate tiles on
+     */
+    public PairwiseSimilarityEngine(int numThreads)
+    {
+        super(numThreads);
+    }
+
+    @Override
+    public SimilarityMatrix build(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
+    {
+        if (getMaxNeighbours() > 0)
+            return buildTopK(vectors, monitor);
+
+        int size = vectors.length;
+        int numBlocks = (size + TILE_SIZE - 1) / TILE_SIZE;
+        PackedSimilarityMatrix matrix = new PackedSimilarityMatrix(size);
+        List<Tile> tiles = new ArrayList<Tile>();
+
+        // Only tiles on or above the diagonal are needed
+        for (int colBlock = 0; colBlock < numBlocks; colBlock++)
+        {
+            for (int rowBlock = 0; rowBlock <= colBlock; rowBlock++)
+            {
+                tiles.add(new Tile(vectors, matrix, rowBlock * TILE_SIZE,
+                        colBlock * TILE_SIZE));
+            }
+        }
+
+        if (!runTasks(tiles, (double) size * (size + 1) / 2, size, monitor))
+            return null;
+        return matrix;
+    }
+
+    /**
+     * Calculates the rows of the matrix in blocks of TILE_SIZE rows and keeps
+     * only the top neighbours of each.
+     */
+    private TopKSimilarityMatrix buildTopK(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
+    {
+        int size = vectors.length;
+        TopKSimilarityMatrix matrix = new TopKSimilarityMatrix(size,
+                getMaxNeighbours());
+        List<TopKRows> tasks = new ArrayList<TopKRows>();
+
+        for (int start = 0; start < size; start += TILE_SIZE)
+        {
+            tasks.add(new TopKRows(vectors, matrix, start, Math.min(start
+                    + TILE_SIZE, size)));
+        }
+
+        if (!runTasks(tasks, (double) size * size, size, monitor))
+            return null;
+        return matrix;
+    }
+
+    /**
+     * A square block of method pairs. The tile covers the methods starting at
+     * rowStart against the methods starting at colStart and only calculates
+     * the pairs on or above the diagonal of the full matrix.
+     */
+    private static class Tile implements Callable<Long>
+    {
+        private TFIDFVector[] vectors;
+        private PackedSimilarityMatrix matrix;
+        private int rowStart, colStart;
+
+        public Tile(TFIDFVector[] vectors, PackedSimilarityMatrix matrix,
+                int rowStart, int colStart)
+        {
+            this.vectors = vectors;
+            this.matrix = matrix;
+            this.rowStart = rowStart;
+            this.colStart = colStart;
+        }
+
+        /**
+         * Calculates the tile's scores and returns how many were calculated.
+         */
+        @Override
+        public Long call()
+        {
+            int colEnd = Math.min(colStart + TILE_SIZE, vectors.length);
+            long count = 0;
+            float[] column;
+
+            if (Thread.currentThread().isInterrupted())
+                return count;
+
+            for (int col = colStart; col < colEnd; col++)
+            {
+                column = matrix.getPackedColumn(col);
+                int rowEnd = Math.min(rowStart + TILE_SIZE, col);
+                for (int row = rowStart; row < rowEnd; row++)
+                {
+                    column[row] = vectors[row].cosine(vectors[col]);
+                }
+                count += Math.max(0, rowEnd - rowStart);
+
+                // Diagonal tiles also own the diagonal of the matrix
+                if (rowStart == colStart)
+                {
+                    matrix.set(col, col, vectors[col].cosine(vectors[col]));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A block of full rows whose top neighbours are selected one row at a
+     * time. Each thread reuses one row array for all the rows it calculates.
+     */
+    private static class TopKRows implements Callable<Long>
+    {
+        private static ThreadLocal<float[]> rows = new ThreadLocal<float[]>();
+
+        private TFIDFVector[] vectors;
+        private TopKSimilarityMatrix matrix;
+        private int start, end;
+
+        public TopKRows(TFIDFVector[] vectors, TopKSimilarityMatrix matrix,
+                int start, int end)
+        {
+            this.vectors = vectors;
+            this.matrix = matrix;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Calculates the rows and returns how many scores were calculated.
+         */
+        @Override
+        public Long call()
+        {
+            float[] scores = rows.get();
+            if (scores == null || scores.length < vectors.length)
+            {
+                scores = new float[vectors.length];
+                rows.set(scores);
+            }
+
+            long count = 0;
+            for (int row = start; row < end; row++)
+            {
+                if (Thread.currentThread().isInterrupted())
+                    return count;
+
+                for (int col = 0; col < vectors.length; col++)
+                {
+                    scores[col] = vectors[row].cosine(vectors[col]);
+                }
+                matrix.setRow(row, scores);
+                count += vectors.length;
+            }
+            return count;
+        }
+    }
+}
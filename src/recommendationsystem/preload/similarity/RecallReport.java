@@ -0,0 +1,227 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+
+/**
+ * RecallReport measures how closely a similarity matrix that was not built
+ * exactly, such as an approximate or quantized one, matches the exact one. A
+ * sample of methods is drawn, and for each of them the top N neighbours of the
+ * exact row are compared to the top N neighbours of the tested row. The recall
+ * of a method is the fraction of its exact top N that the tested row also
+ * ranks in its top N.
+ * <p>
+ * The exact rows can come from an exact matrix or, when the exact matrix is
+ * too large to build, be calculated from the TF-IDF vectors of the sampled
+ * methods only. Methods with no similar methods at all are left out of the
+ * averages.
+ */
+public class RecallReport
+{
+    private int topN, numSampled, numEvaluated;
+    private double meanRecall, minRecall;
+
+    /**
+     * Compares the matrix to exact rows calculated from the TF-IDF vectors.
+     * 
+     * @param vectors
+     *            The TF-IDF vector of every method
+     * @param tested
+     *            The matrix to measure
+     * @param topN
+     *            The number of neighbours compared per method
+     * @param numSamples
+     *            The number of methods to sample
+     * @param seed
+     *            The seed used to sample the methods
+     * @return The report
+     */
+    public static RecallReport compare(final TFIDFVector[] vectors,
+            SimilarityMatrix tested, int topN, int numSamples, long seed)
+    {
+        return compare(new Rows()
+        {
+            @Override
+            public void getRow(int row, float[] dest)
+            {
+                for (int col = 0; col < vectors.length; col++)
+                {
+                    dest[col] = vectors[row].cosine(vectors[col]);
+                }
+            }
+        }, tested, topN, numSamples, seed);
+    }
+
+    /**
+     * Compares the matrix to an exact matrix of the same size.
+     * 
+     * @param exact
+     *            The exact matrix
+     * @param tested
+     *            The matrix to measure
+     * @param topN
+     *            The number of neighbours compared per method
+     * @param numSamples
+     *            The number of methods to sample
+     * @param seed
+     *            The seed used to sample the methods
+     * @return The report
+     */
+    public static RecallReport compare(final SimilarityMatrix exact,
+            SimilarityMatrix tested, int topN, int numSamples, long seed)
+    {
+        return compare(new Rows()
+        {
+            @Override
+            public void getRow(int row, float[] dest)
+            {
+                exact.getRow(row, dest);
+            }
+        }, tested, topN, numSamples, seed);
+    }
+
+    private static RecallReport compare(Rows exact, SimilarityMatrix tested,
+            int topN, int numSamples, long seed)
+    {
+        int size = tested.getSize();
+        float[] row = new float[size];
+        RecallReport report = new RecallReport();
+        report.topN = topN;
+        report.minRecall = 1;
+
+        // Draw distinct methods with a partial shuffle
+        Random random = new Random(seed);
+        int[] methods = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            methods[i] = i;
+        }
+        report.numSampled = Math.min(numSamples, size);
+
+        double total = 0;
+        for (int i = 0; i < report.numSampled; i++)
+        {
+            int pick = i + random.nextInt(size - i);
+            int method = methods[pick];
+            methods[pick] = methods[i];
+            methods[i] = method;
+
+            exact.getRow(method, row);
+            int[] expected = top(row, method, topN);
+            if (expected.length == 0)
+                continue;
+            tested.getRow(method, row);
+            int[] found = top(row, method, topN);
+
+            Arrays.sort(found);
+            int hits = 0;
+            for (int neighbour : expected)
+            {
+                if (Arrays.binarySearch(found, neighbour) >= 0)
+                    hits++;
+            }
+            double recall = (double) hits / expected.length;
+            total += recall;
+            report.minRecall = Math.min(report.minRecall, recall);
+            report.numEvaluated++;
+        }
+        report.meanRecall = report.numEvaluated > 0 ? total
+                / report.numEvaluated : 1;
+        return report;
+    }
+
+    /**
+     * Returns the indices of the N largest positive scores of a row, leaving
+     * out the row's own method. Ties go to the lower index.
+     */
+    private static int[] top(float[] row, int self, int n)
+    {
+        long[] positive = new long[row.length];
+        int count = 0;
+        for (int col = 0; col < row.length; col++)
+        {
+            // The bits of a positive float sort in the same order as the float
+            if (col != self && row[col] > 0)
+                positive[count++] = (long) Float.floatToIntBits(row[col]) << 32
+                        | (Integer.MAX_VALUE - col);
+        }
+        Arrays.sort(positive, 0, count);
+
+        int[] top = new int[Math.min(n, count)];
+        for (int i = 0; i < top.length; i++)
+        {
+            top[i] = Integer.MAX_VALUE - (int) positive[count - 1 - i];
+        }
+        return top;
+    }
+
+    /**
+     * Returns the number of neighbours compared per method.
+     * 
+     * @return N
+     */
+    public int getTopN()
+    {
+        return topN;
+    }
+
+    /**
+     * Returns the number of methods sampled.
+     * 
+     * @return The number of sampled methods
+     */
+    public int getNumSampled()
+    {
+        return numSampled;
+    }
+
+    /**
+     * Returns the number of sampled methods that had any similar method and
+     * so were part of the averages.
+     * 
+     * @return The number of evaluated methods
+     */
+    public int getNumEvaluated()
+    {
+        return numEvaluated;
+    }
+
+    /**
+     * Returns the average recall of the evaluated methods.
+     * 
+     * @return A recall between 0 and 1
+     */
+    public double getMeanRecall()
+    {
+        return meanRecall;
+    }
+
+    /**
+     * Returns the lowest recall of the evaluated methods.
+     * 
+     * @return A recall between 0 and 1
+     */
+    public double getMinRecall()
+    {
+        return minRecall;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "Recall@%d over %d of %d sampled methods: mean %.3f, min %.3f",
+                topN, numEvaluated, numSampled, meanRecall, minRecall);
+    }
+
+    /**
+     * A source of exact rows.
+     */
+    private static abstract class Rows
+    {
+        public abstract void getRow(int row, float[] dest);
+    }
+}
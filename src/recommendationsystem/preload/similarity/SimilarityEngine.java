@@ -0,0 +1,117 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import recommendationsystem.model.WorkerPool;
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+import recommendationsystem.preload.jobs.TFIDFCreateJob;
+
+/**
+ * SimilarityEngine is the base class of the different ways
+ * {@link TFIDFCreateJob} can calculate the similarity between methods from
+ * their TF-IDF vectors. This class is not intended to be used directly, it is
+ * meant to be extended by classes that implement a build strategy.
+ * <p>
+ * This class runs the work of the extending classes on a {@link WorkerPool}.
+ * Work is split into independent tasks that each return how much of the total
+ * work they did. Progress is reported to the progress monitor from the calling
+ * thread as tasks complete, and all tasks are abandoned as soon as the monitor
+ * is cancelled.
+ */
+public abstract class SimilarityEngine
+{
+    /**
+     * Specifies which engine TFIDFCreateJob builds the similarity matrix with.
+     */
+    public enum EngineType
+    {
+        PAIRWISE, INVERTED_INDEX, APPROXIMATE, SPARSE_PRODUCT
+    }
+
+    private int numThreads;
+    private int maxNeighbours = 0;
+
+    /**
+     * The constructor.
+     * 
+     * @param numThreads
+     *            The number of threads to run tasks on
+     */
+    protected SimilarityEngine(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets how many neighbours are kept per method. When this is more than 0,
+     * <code>build</code> returns a {@link TopKSimilarityMatrix} and selects
+     * each row's neighbours as the row is calculated, so the full matrix is
+     * never held in memory.
+     * 
+     * @param maxNeighbours
+     *            The number of neighbours to keep per method, or 0 to keep the
+     *            full matrix
+     */
+    public void setMaxNeighbours(int maxNeighbours)
+    {
+        this.maxNeighbours = Math.max(0, maxNeighbours);
+    }
+
+    /**
+     * Returns how many neighbours are kept per method.
+     * 
+     * @return The number of neighbours, or 0 if the full matrix is kept
+     */
+    public int getMaxNeighbours()
+    {
+        return maxNeighbours;
+    }
+
+    /**
+     * Calculates the similarity matrix for the given methods. The index of each
+     * vector is the index of its method in the resulting matrix. This reports
+     * <code>vectors.length</code> units of work to the monitor.
+     * 
+     * @param vectors
+     *            The TF-IDF vector of every method
+     * @param monitor
+     *            The monitor to report progress to and check for cancellation
+     * @return <ul>
+     *         <li>The similarity matrix
+     *         <li>null if the monitor was cancelled
+     *         </ul>
+     */
+    public abstract SimilarityMatrix build(TFIDFVector[] vectors,
+            IProgressMonitor monitor);
+
+    /**
+     * Runs the given tasks on the thread pool and waits for all of them to
+     * finish. Each task returns the amount of work it did. As tasks complete,
+     * the finished fraction of totalWork is reported to the monitor as a
+     * fraction of units.
+     * 
+     * @param tasks
+     *            The tasks to run
+     * @param totalWork
+     *            The sum of the values returned by all tasks
+     * @param units
+     *            The number of units of work to report to the monitor
+     * @param monitor
+     *            The monitor to report progress to and check for cancellation
+     * @return <ul>
+     *         <li>True if all the tasks completed
+     *         <li>False if the monitor was cancelled or the thread interrupted
+     *         </ul>
+     */
+    protected boolean runTasks(List<? extends Callable<Long>> tasks,
+            double totalWork, int units, IProgressMonitor monitor)
+    {
+        return WorkerPool.runTasks("TF-IDF similarity worker", numThreads,
+                tasks, totalWork, units, monitor);
+    }
+}
@@ -0,0 +1,319 @@
+package recommendationsystem.preload.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import recommendationsystem.model.tfidf.SimilarityMatrix;
+import recommendationsystem.model.tfidf.SparseSimilarityMatrix;
+import recommendationsystem.model.tfidf.TFIDFVector;
+import recommendationsystem.model.tfidf.TopKSimilarityMatrix;
+
+/**
+ * SparseProductSimilarityEngine calculates cosine similarity as a sparse
+ * matrix product. The TF-IDF vectors are the rows of a term-document matrix
+ * A, and once every row is scaled to unit length, the similarity matrix is
+ * A multiplied by its own transpose.
+ * <p>
+ * A is formed once in compressed sparse row (CSR) form, with words renumbered
+ * densely and every weight already divided by its method's norm. Its transpose
+ * is formed once by a counting sort. Each row of the product is then
+ * calculated independently, so rows are split between threads with no shared
+ * writes: for every word of the row's method, the row's weight times each
+ * weight in the word's row of the transpose is added to a dense accumulator.
+ * Only methods that share a word with the row are ever touched.
+ * <p>
+ * Scores below a threshold are dropped as each row is finished. The rows are
+ * stored in a {@link SparseSimilarityMatrix}, or, when only the top neighbours
+ * of each method are kept, selected straight into a
+ * {@link TopKSimilarityMatrix}.
+ */
+public class SparseProductSimilarityEngine extends SimilarityEngine
+{
+    private static final int ROWS_PER_TASK = 128;
+
+    private float minScore;
+
+    /**
+     * The constructor. Uses one thread per available processor and keeps
+     * every positive score.
+     */
+    public SparseProductSimilarityEngine()
+    {
+        this(0F);
+    }
+
+    /**
+     * The constructor. Uses one thread per available processor.
+     * 
+     * @param minScore
+     *            The smallest score that is kept, between 0 and 1. A value of 0
+     *            keeps every positive score.
+     */
+    public SparseProductSimilarityEngine(float minScore)
+    {
+        this(minScore, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param minScore
+     *            The smallest score that is kept, between 0 and 1. A value of 0
+     *            keeps every positive score.
+     * @param numThreads
+     *            The number of threads to calculate rows on
+     */
+    public SparseProductSimilarityEngine(float minScore, int numThreads)
+    {
+        super(numThreads);
+        this.minScore = minScore;
+    }
+
+    @Override
+    public SimilarityMatrix build(TFIDFVector[] vectors,
+            IProgressMonitor monitor)
+    {
+        int size = vectors.length;
+        CsrMatrix a = CsrMatrix.normalize(vectors);
+        CsrMatrix transposed = a.transpose();
+        SparseSimilarityMatrix sparse = null;
+        TopKSimilarityMatrix topK = null;
+        List<ProductTask> tasks = new ArrayList<ProductTask>();
+
+        if (getMaxNeighbours() > 0)
+            topK = new TopKSimilarityMatrix(size, getMaxNeighbours());
+        else
+            sparse = new SparseSimilarityMatrix(size);
+
+        // Each thread keeps its accumulator for the whole build
+        ThreadLocal<float[]> accumulators = new ThreadLocal<float[]>();
+        ThreadLocal<int[]> lastTouched = new ThreadLocal<int[]>();
+        for (int start = 0; start < size; start += ROWS_PER_TASK)
+        {
+            tasks.add(new ProductTask(a, transposed, minScore, sparse, topK,
+                    accumulators, lastTouched, start, Math.min(start
+                            + ROWS_PER_TASK, size)));
+        }
+
+        if (!runTasks(tasks, size, size, monitor))
+            return null;
+        return topK != null ? topK : sparse;
+    }
+
+    /**
+     * A sparse matrix in compressed sparse row form. The entries of row r are
+     * at positions rowStart[r] to rowStart[r + 1] - 1 of cols and values,
+     * sorted by column.
+     */
+    private static class CsrMatrix
+    {
+        private int numCols;
+        private int[] rowStart;
+        private int[] cols;
+        private float[] values;
+
+        /**
+         * Forms the term-document matrix of the given vectors with every row
+         * scaled to unit length. Columns are the distinct word ids in
+         * increasing order. Methods with no words have empty rows.
+         */
+        public static CsrMatrix normalize(TFIDFVector[] vectors)
+        {
+            CsrMatrix m = new CsrMatrix();
+            m.rowStart = new int[vectors.length + 1];
+            for (int row = 0; row < vectors.length; row++)
+            {
+                m.rowStart[row + 1] = m.rowStart[row]
+                        + (vectors[row].getNorm() > 0 ? vectors[row].size() : 0);
+            }
+
+            // Find the distinct words to renumber them densely
+            int[] wordIds = new int[m.rowStart[vectors.length]];
+            int pos = 0;
+            for (TFIDFVector v : vectors)
+            {
+                for (int i = 0; i < v.size() && v.getNorm() > 0; i++)
+                {
+                    wordIds[pos++] = v.getTermId(i);
+                }
+            }
+            Arrays.sort(wordIds);
+            for (int i = 0; i < wordIds.length; i++)
+            {
+                if (m.numCols == 0 || wordIds[i] != wordIds[m.numCols - 1])
+                    wordIds[m.numCols++] = wordIds[i];
+            }
+
+            // Each vector is sorted by word id, so each row is sorted by column
+            m.cols = new int[wordIds.length];
+            m.values = new float[wordIds.length];
+            pos = 0;
+            for (TFIDFVector v : vectors)
+            {
+                for (int i = 0; i < v.size() && v.getNorm() > 0; i++)
+                {
+                    m.cols[pos] = Arrays.binarySearch(wordIds, 0, m.numCols,
+                            v.getTermId(i));
+                    m.values[pos] = (float) (v.getWeight(i) / v.getNorm());
+                    pos++;
+                }
+            }
+            return m;
+        }
+
+        /**
+         * Returns the transpose of this matrix. Rows are written in increasing
+         * order, so each row of the transpose is sorted as well.
+         */
+        public CsrMatrix transpose()
+        {
+            int numRows = rowStart.length - 1;
+            CsrMatrix t = new CsrMatrix();
+            t.numCols = numRows;
+            t.rowStart = new int[numCols + 1];
+            t.cols = new int[cols.length];
+            t.values = new float[values.length];
+
+            for (int col : cols)
+            {
+                t.rowStart[col + 1]++;
+            }
+            for (int col = 0; col < numCols; col++)
+            {
+                t.rowStart[col + 1] += t.rowStart[col];
+            }
+
+            int[] fill = Arrays.copyOf(t.rowStart, numCols);
+            for (int row = 0; row < numRows; row++)
+            {
+                for (int p = rowStart[row]; p < rowStart[row + 1]; p++)
+                {
+                    int q = fill[cols[p]]++;
+                    t.cols[q] = row;
+                    t.values[q] = values[p];
+                }
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Calculates a range of rows of the product. Each thread keeps one
+     * accumulator array for all the rows it calculates during a build, along
+     * with the row that last touched each entry of the accumulator. The
+     * accumulators belong to a single build, so a thread that is reused never
+     * sees the marks of an earlier build.
+     */
+    private static class ProductTask implements Callable<Long>
+    {
+        private CsrMatrix a, transposed;
+        private float minScore;
+        private SparseSimilarityMatrix sparse;
+        private TopKSimilarityMatrix topK;
+        private ThreadLocal<float[]> accumulators;
+        private ThreadLocal<int[]> lastTouched;
+        private int start, end;
+
+        public ProductTask(CsrMatrix a, CsrMatrix transposed, float minScore,
+                SparseSimilarityMatrix sparse, TopKSimilarityMatrix topK,
+                ThreadLocal<float[]> accumulators,
+                ThreadLocal<int[]> lastTouched, int start, int end)
+        {
+            this.a = a;
+            this.transposed = transposed;
+            this.minScore = minScore;
+            this.sparse = sparse;
+            this.topK = topK;
+            this.accumulators = accumulators;
+            this.lastTouched = lastTouched;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Calculates the rows and returns how many rows were calculated.
+         */
+        @Override
+        public Long call()
+        {
+            int size = transposed.numCols;
+            float[] acc = accumulators.get();
+            int[] marks = lastTouched.get();
+            if (acc == null)
+            {
+                acc = new float[size];
+                marks = new int[size];
+                Arrays.fill(marks, -1);
+                accumulators.set(acc);
+                lastTouched.set(marks);
+            }
+            int[] touched = new int[64];
+            float[] touchedScores = new float[64];
+
+            for (int row = start; row < end; row++)
+            {
+                if (Thread.currentThread().isInterrupted())
+                    return 0L;
+
+                // The row of the product is the sum of the rows of the
+                // transpose for the row's words, scaled by the row's weights
+                int numTouched = 0;
+                for (int p = a.rowStart[row]; p < a.rowStart[row + 1]; p++)
+                {
+                    int word = a.cols[p];
+                    float weight = a.values[p];
+                    int to = transposed.rowStart[word + 1];
+                    for (int q = transposed.rowStart[word]; q < to; q++)
+                    {
+                        int col = transposed.cols[q];
+                        if (marks[col] != row)
+                        {
+                            marks[col] = row;
+                            if (numTouched == touched.length)
+                                touched = Arrays.copyOf(touched,
+                                        2 * numTouched);
+                            touched[numTouched++] = col;
+                        }
+                        acc[col] += weight * transposed.values[q];
+                    }
+                }
+                boolean hasWords = a.rowStart[row + 1] > a.rowStart[row];
+
+                // Keep the scores above the threshold. The diagonal is set
+                // exactly instead of to the rounded length of the row.
+                if (touchedScores.length < touched.length)
+                    touchedScores = new float[touched.length];
+                if (topK == null)
+                    Arrays.sort(touched, 0, numTouched);
+                int numKept = 0;
+                for (int i = 0; i < numTouched; i++)
+                {
+                    int col = touched[i];
+                    float score = col == row ? 1F : acc[col];
+                    acc[col] = 0;
+                    if (score > 0 && score >= minScore)
+                    {
+                        touched[numKept] = col;
+                        touchedScores[numKept++] = score;
+                    }
+                }
+
+                if (topK != null)
+                {
+                    topK.setRow(row, hasWords ? 1F : 0F, touched,
+                            touchedScores, numKept);
+                }
+                else
+                {
+                    sparse.setRow(row, Arrays.copyOf(touched, numKept),
+                            Arrays.copyOf(touchedScores, numKept));
+                }
+            }
+            return (long) (end - start);
+        }
+    }
+}
@@ -47,6 +47,7 @@ import recommendationsystem.views.adapters.CreatePFISSelectionAdapter;
 import recommendationsystem.views.adapters.CreateTFIDFSelectionAdapter;
 import recommendationsystem.views.adapters.DatabaseLoaderSelectionAdapter;
 import recommendationsystem.views.adapters.LogRunnerSelectionAdapter;
+import recommendationsystem.views.adapters.SaveBundleSelectionAdapter;
 import recommendationsystem.views.adapters.SavePFISSelectionAdapter;
 import recommendationsystem.views.adapters.SaveTFIDFSelectionAdapter;
 import recommendationsystem.views.listeners.RevealDoubleClickListener;
@@ -234,6 +235,13 @@ public class RecommendationSystemView extends ViewPart
             button_SaveTFIDF.setLayoutData(gd);
             button_SaveTFIDF
                     .addSelectionListener(new SaveTFIDFSelectionAdapter());
+
+            Button button_SaveBundle = new Button(parent, SWT.PUSH);
+            gd = new GridData(GridData.FILL_HORIZONTAL);
+            button_SaveBundle.setText("Save both models and history to file");
+            button_SaveBundle.setLayoutData(gd);
+            button_SaveBundle
+                    .addSelectionListener(new SaveBundleSelectionAdapter());
         }
 
         if (prefs.showLogPlaybackControls())
@@ -0,0 +1,17 @@
+package recommendationsystem.views.adapters;
+
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+
+import recommendationsystem.preferences.MyPreferences;
+import recommendationsystem.preload.jobs.BundleSaveJob;
+
+public class SaveBundleSelectionAdapter extends SelectionAdapter
+{
+    @Override
+    public void widgetSelected(SelectionEvent e)
+    {
+        new BundleSaveJob("Save Bundle", MyPreferences.getInstance()
+                .getPathToSaveModelTo().toOSString()).schedule();
+    }
+}
\ No newline at end of file
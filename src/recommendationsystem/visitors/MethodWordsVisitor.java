@@ -0,0 +1,80 @@
+package recommendationsystem.visitors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import recommendationsystem.model.MethodScopes;
+import recommendationsystem.preload.DatabaseLoader;
+import recommendationsystem.preload.StopWords;
+import recommendationsystem.preload.TFIDFIndex;
+
+/**
+ * MethodWordsVisitor collects the words of every method in a compilation unit
+ * the same way {@link DatabaseLoader} does, but keeps them in memory instead
+ * of adding them to the database. Comments are added afterwards with
+ * addComment(String, int) and belong to the innermost method they start in.
+ * The scope attributes of every method are recorded in {@link MethodScopes}.
+ */
+public class MethodWordsVisitor extends ASTVisitor
+{
+    private Map<String, List<String>> methodWords = new LinkedHashMap<String, List<String>>();
+    private List<String> keys = new ArrayList<String>();
+    private List<int[]> ranges = new ArrayList<int[]>();
+
+    public boolean visit(MethodDeclaration node)
+    {
+        IMethodBinding binding = node.resolveBinding();
+        if (binding == null)
+            return true;
+
+        String key = binding.getKey();
+        keys.add(key);
+        ranges.add(new int[]
+            { node.getStartPosition(),
+                    node.getStartPosition() + node.getLength() });
+        methodWords.put(key, new ArrayList<String>());
+        addWords(key, node.toString());
+        MethodScopes.getInstance().addMethod(node);
+        return true;
+    }
+
+    public void addComment(String comment, int startPos)
+    {
+        String key = null;
+        int innermostOffset = 0;
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            int[] range = ranges.get(i);
+            if (startPos >= range[0] && startPos < range[1]
+                    && range[0] > innermostOffset)
+            {
+                // This is so we get the innermost method
+                innermostOffset = range[0];
+                key = keys.get(i);
+            }
+        }
+        if (key != null)
+            addWords(key, comment);
+    }
+
+    private void addWords(String key, String text)
+    {
+        List<String> words = methodWords.get(key);
+        for (String word : TFIDFIndex.getTokens(text))
+        {
+            if (!StopWords.isStopWord(word))
+                words.add(word.toLowerCase());
+        }
+    }
+
+    public Map<String, List<String>> getMethodWords()
+    {
+        return methodWords;
+    }
+}